@@ -1,10 +1,8 @@
 package edu.uri.wbl.tex_tronics.smartglove.activities;
 
 import android.annotation.SuppressLint;
-import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
-import android.content.IntentFilter;
 import android.graphics.Color;
 import android.os.Bundle;
 import android.os.CountDownTimer;
@@ -20,19 +18,28 @@ import com.jjoe64.graphview.GraphView;
 import com.jjoe64.graphview.series.DataPoint;
 import com.jjoe64.graphview.series.LineGraphSeries;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Locale;
 import java.util.UUID;
 
 import edu.uri.wbl.tex_tronics.smartglove.R;
-import edu.uri.wbl.tex_tronics.smartglove.ble.BluetoothLeConnectionService;
-import edu.uri.wbl.tex_tronics.smartglove.ble.GattCharacteristics;
 import edu.uri.wbl.tex_tronics.smartglove.io.SmartGloveInterface;
+import edu.uri.wbl.tex_tronics.smartglove.mqtt.LiveStream;
 import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.TexTronicsExerciseManager;
 import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.TexTronicsManagerService;
 import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.TexTronicsUpdate;
 import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.TexTronicsUpdateReceiver;
+import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.calibration.AngleTable;
+import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.calibration.CalibrationCapture;
+import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.calibration.CalibrationProfile;
+import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.calibration.CalibrationStore;
+import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.data_types.SampleBlock;
+import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.decoders.PacketDecoder;
+import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.decoders.PacketDecoders;
+import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.decoders.SampleSink;
 import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.enums.DeviceType;
 import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.enums.ExerciseMode;
 import edu.uri.wbl.tex_tronics.smartglove.visualize.Choice;
@@ -54,6 +61,21 @@ public class GloveExerciseActivity extends AppCompatActivity implements SmartGlo
     private static final int REQUIRED_REPS = 10;
     private static final float VISIBLE_VALUES = 20f;
 
+    /**
+     * Finger Tap thresholds (degrees): the index finger has to bend past FINGER_TAP_BENT_DEGREES
+     * and the thumb straighten below FINGER_TAP_STRAIGHT_DEGREES for a repetition.
+     */
+    private static final float FINGER_TAP_BENT_DEGREES = 45f;
+    private static final float FINGER_TAP_STRAIGHT_DEGREES = 20f;
+
+    /**
+     * Time given to get into a calibration pose, then time spent capturing it.
+     */
+    private static final long CALIBRATION_SETTLE_MS = 1500;
+    private static final long CALIBRATION_CAPTURE_MS = 2500;
+    // How often the live stream's throughput and latency are shown
+    private static final long LIVE_STREAM_TEXT_MS = 1000;
+
     private GraphView graph;
     private LineGraphSeries<DataPoint> series1, series2;
     private DataPoint[] dataPoints1;
@@ -71,6 +93,16 @@ public class GloveExerciseActivity extends AppCompatActivity implements SmartGlo
     private String[] deviceAddresses;
     private String[] deviceTypes;
     private String[] exerciseModes;
+    private PacketDecoder[] graphDecoders;
+    private int graphDevice;
+
+    // The one device graphed, so the graph never mixes gloves, nor raw readings with degrees
+    private int graphedDevice;
+    private int graphX;
+
+    // Per device: the angle table of the patient's calibration, or the capture of a new one
+    private AngleTable[] angleTables;
+    private CalibrationCapture[] calibrations;
     private String[] exerciseChoices;
     private UUID routineID;
 
@@ -78,6 +110,8 @@ public class GloveExerciseActivity extends AppCompatActivity implements SmartGlo
     private TextView sideInstructionsText;
     private GifImageView sideImage;
     private TextView loadingText;
+    private TextView liveStreamText;
+    private long liveStreamTextTime;
 
     private Context mContext;
     int connectCount = 0;
@@ -195,6 +229,7 @@ public class GloveExerciseActivity extends AppCompatActivity implements SmartGlo
             }
         });
         loadingText = findViewById(R.id.loadingText);
+        liveStreamText = findViewById(R.id.live_stream_text);
     }
 
     /** setSideViews
@@ -266,15 +301,15 @@ public class GloveExerciseActivity extends AppCompatActivity implements SmartGlo
 
     /** checkRep()
      *
-     * Called by the updateGraph() method.
+     * Called by the addEntry() method, for calibrated devices only.
      * Checks to see if the user has completed a repetition based on the exercise
      * that they are currently doing.
      *
-     * Values that are received from the glove.
-     * @param indexFloat
-     * @param thumbFloat
+     * Joint angles of the glove's fingers, from the patient's AngleTable.
+     * @param indexDegrees
+     * @param thumbDegrees
      */
-    private void checkRep(float indexFloat, float thumbFloat)
+    private void checkRep(float indexDegrees, float thumbDegrees)
     {
         switch(selectedExercise)
         {
@@ -297,12 +332,12 @@ public class GloveExerciseActivity extends AppCompatActivity implements SmartGlo
                     finish();
                 }
                 // User is at the halfway point of the repetition
-                else if((halfway == false) && (indexFloat > thumbFloat) && (indexFloat > 25000))
+                else if((halfway == false) && (indexDegrees > thumbDegrees) && (indexDegrees > FINGER_TAP_BENT_DEGREES))
                 {
                     halfway = true;
                 }
                 // User has completed a repetition
-                else if ((halfway == true) && (thumbFloat < 20000) && (indexFloat < thumbFloat))
+                else if ((halfway == true) && (thumbDegrees < FINGER_TAP_STRAIGHT_DEGREES) && (indexDegrees < thumbDegrees))
                 {
                     count++;
                     halfway = false;
@@ -327,50 +362,245 @@ public class GloveExerciseActivity extends AppCompatActivity implements SmartGlo
         }
     }
 
-    private void addEntry(int thumb, int index)
+    /** startCalibration()
+     *
+     * Called once every device has connected. Loads the patient's calibration of each device, or
+     * captures one by asking the patient to hold their hand open and then closed, and then
+     * starts the countdown to logging.
+     */
+    private void startCalibration()
+    {
+        String patient = getSharedPreferences("myPref", 0).getString(Preferences.NAME, "");
+        angleTables = new AngleTable[deviceAddresses.length];
+        calibrations = new CalibrationCapture[deviceAddresses.length];
+        boolean capture = false;
+        for(int i = 0; i < deviceAddresses.length; i++)
+        {
+            DeviceType deviceType = DeviceType.getDevicetype(deviceTypes[i]);
+            if(deviceType == null)
+                continue;
+            CalibrationProfile profile = CalibrationStore.load(mContext, patient, deviceAddresses[i], deviceType);
+            if(profile != null && profile.isCalibrated())
+            {
+                angleTables[i] = new AngleTable(profile);
+            }
+            else
+            {
+                calibrations[i] = new CalibrationCapture(new CalibrationProfile(patient, deviceType));
+                capture = true;
+            }
+        }
+
+        if(!capture)
+        {
+            startCountdown();
+            return;
+        }
+        capturePose(CalibrationCapture.POSE_OPEN_DEGREES, InstructionsText.CALIBRATE_OPEN_TEXT, new Runnable() {
+            @Override
+            public void run()
+            {
+                capturePose(CalibrationCapture.POSE_FIST_DEGREES, InstructionsText.CALIBRATE_FIST_TEXT, new Runnable() {
+                    @Override
+                    public void run()
+                    {
+                        finishCalibration();
+                        startCountdown();
+                    }
+                });
+            }
+        });
+    }
+
+    /** capturePose()
+     *
+     * Shows the pose to hold, gives the patient CALIBRATION_SETTLE_MS to get into it and then
+     * captures it for CALIBRATION_CAPTURE_MS.
+     *
+     * @param degrees Joint angle of the pose
+     * @param instructions What the patient should do
+     * @param next Run once the pose has been captured
+     */
+    private void capturePose(final float degrees, String instructions, final Runnable next)
+    {
+        loadingText.setText(instructions);
+        Handler handler = new Handler();
+        handler.postDelayed(new Runnable() {
+            @Override
+            public void run()
+            {
+                for(CalibrationCapture capture : calibrations)
+                    if(capture != null)
+                        capture.begin(degrees);
+            }
+        }, CALIBRATION_SETTLE_MS);
+        handler.postDelayed(new Runnable() {
+            @Override
+            public void run()
+            {
+                for(CalibrationCapture capture : calibrations)
+                    if(capture != null && !capture.finish())
+                        Log.w(TAG, "Too few readings to calibrate " + capture.getProfile().getDeviceType() + " at " + degrees + " degrees");
+                next.run();
+            }
+        }, CALIBRATION_SETTLE_MS + CALIBRATION_CAPTURE_MS);
+    }
+
+    /** finishCalibration()
+     *
+     * Saves the calibrations that were captured and switches their devices to angles.
+     */
+    private void finishCalibration()
+    {
+        for(int i = 0; i < calibrations.length; i++)
+        {
+            CalibrationCapture capture = calibrations[i];
+            if(capture == null)
+                continue;
+            calibrations[i] = null;
+            CalibrationProfile profile = capture.getProfile();
+            if(!profile.isCalibrated())
+            {
+                Log.w(TAG, "Could not calibrate " + deviceAddresses[i]);
+                continue;
+            }
+            CalibrationStore.save(mContext, deviceAddresses[i], profile);
+            angleTables[i] = new AngleTable(profile);
+        }
+    }
+
+    /** startCountdown()
+     *
+     * Counts down from three and starts logging.
+     */
+    private void startCountdown()
+    {
+        Log.d(TAG, "Starting data logging.");
+        // Graph the first device calibrated, in degrees, or else the first device, raw
+        graphedDevice = 0;
+        for(int i = angleTables.length - 1; i >= 0; i--)
+            if(isInDegrees(angleTables[i]))
+                graphedDevice = i;
+        final CountDownTimer startTimer = new CountDownTimer(3000, 980) {
+            int countdown = 3;
+
+            @Override
+            public void onTick(long l)
+            {
+                Log.v(TAG, "Tick: " + countdown);
+                loadingText.setText("" + countdown);
+                countdown--;
+            }
+
+            @Override
+            public void onFinish()
+            {
+                startLog = true;
+                graph.setVisibility(View.VISIBLE);
+                loadingText.setVisibility(View.INVISIBLE);
+            }
+        };
+        startTimer.start();
+    }
+
+    /** addEntry()
+     *
+     * Graphs a sample of the graphed device and, once it is in degrees, checks it for a repetition.
+     *
+     * @param thumb Thumb reading, in degrees if degrees is true
+     * @param index Index finger reading, in degrees if degrees is true
+     */
+    private void addEntry(float thumb, float index, boolean degrees)
     {
         Log.e("MainActivity", "Thumb: " + thumb + " Index: " + index);
         Log.e("MainActivity", "Start Log: " + startLog);
-        series1.appendData(new DataPoint(count, thumb), true, 1000);
-        series2.appendData(new DataPoint(count, index), true, 1000);
-        count++;
+        series1.appendData(new DataPoint(graphX, thumb), true, 1000);
+        series2.appendData(new DataPoint(graphX, index), true, 1000);
+        graphX++;
+        if(degrees && !isFinishing())
+            checkRep(index, thumb);
     }
 
-    private BroadcastReceiver mBLEUpdateReceiver = new BroadcastReceiver() {
+    private static boolean isInDegrees(AngleTable angleTable)
+    {
+        return angleTable != null && angleTable.isCalibrated(SampleBlock.THUMB) && angleTable.isCalibrated(SampleBlock.INDEX);
+    }
+
+    /**
+     * Graphs the latest packet the TexTronics Manager Service drained for a device.
+     *
+     * @param deviceAddress The device the packet was received from
+     * @param data The raw packet
+     */
+    private void graphPacket(String deviceAddress, byte[] data)
+    {
+        if(data == null || deviceAddresses == null || exerciseModes == null)
+            return;
+
+        int deviceIndex = Arrays.asList(deviceAddresses).indexOf(deviceAddress);
+        if(deviceIndex < 0 || deviceIndex >= exerciseModes.length)
+            return;
+
+        // The packets graphed are only a sample of those received, so each device gets its own
+        // decoder, which stays in the legacy format unless it sees the format descriptor. Every
+        // format starts the flex packet with the thumb and index readings.
+        if(graphDecoders == null || graphDecoders.length != exerciseModes.length)
+            graphDecoders = new PacketDecoder[exerciseModes.length];
+        PacketDecoder decoder = graphDecoders[deviceIndex];
+        if(decoder == null) {
+            decoder = PacketDecoders.create(ExerciseMode.getExercise(exerciseModes[deviceIndex]));
+            graphDecoders[deviceIndex] = decoder;
+        }
+        graphDevice = deviceIndex;
+        if(decoder != null)
+            decoder.decode(ByteBuffer.wrap(data), mGraphSink);
+    }
+
+    /**
+     * Shows the throughput and latency of the live stream, if one is on, at most once every
+     * LIVE_STREAM_TEXT_MS.
+     */
+    private void showLiveStream()
+    {
+        LiveStream.Metrics metrics = TexTronicsManagerService.getLiveStreamMetrics();
+        long now = System.currentTimeMillis();
+        if(liveStreamText == null || metrics == null || now - liveStreamTextTime < LIVE_STREAM_TEXT_MS)
+            return;
+        liveStreamTextTime = now;
+        liveStreamText.setVisibility(View.VISIBLE);
+        liveStreamText.setText(String.format(Locale.US, "Live: %d samples/s, %d ms (max %d ms), %d dropped",
+                Math.round(metrics.getSamplesPerSecond()), metrics.getAverageLatencyNanos() / 1000000,
+                metrics.getMaxLatencyNanos() / 1000000, metrics.getSamplesDropped()));
+    }
+
+    /**
+     * Adds the thumb and index readings of the graphed device's samples to the graph, in degrees if
+     * it is calibrated, and passes every device's readings on to a calibration being captured.
+     */
+    private final SampleSink mGraphSink = new SampleSink() {
         @Override
-        public void onReceive(Context context, Intent intent) {
-            Log.d(TAG, "Received BLE Update");
-            String deviceAddress = intent.getStringExtra(BluetoothLeConnectionService.INTENT_DEVICE);
-            String action = intent.getStringExtra(BluetoothLeConnectionService.INTENT_EXTRA);
-            Log.v(TAG, "DeviceAddress: " + deviceAddress);
-            Log.v(TAG, "BLE Action: " + action);
-
-            if(action.equals(BluetoothLeConnectionService.GATT_CHARACTERISTIC_NOTIFY)) {
-                UUID characterUUID = UUID.fromString(intent.getStringExtra(BluetoothLeConnectionService.INTENT_CHARACTERISTIC));
-                if(characterUUID.equals(GattCharacteristics.RX_CHARACTERISTIC)) {
-                    Log.d(TAG, "Data Received");
-                    byte[] data = intent.getByteArrayExtra(BluetoothLeConnectionService.INTENT_DATA);
-
-                    // First Data Set
-                    int thumb = (((data[2] & 0x00FF) << 8) | ((data[3] & 0x00FF)));
-                    int index = (((data[4] & 0x00FF) << 8) | ((data[5] & 0x00FF)));
-                    if(startLog)
-                        addEntry(thumb, index);
-
-                    // Second Data Set
-                    thumb = (((data[8] & 0x00FF) << 8) | ((data[9] & 0x00FF)));
-                    index = (((data[10] & 0x00FF) << 8) | ((data[11] & 0x00FF)));
-                    if(startLog)
-                        addEntry(thumb, index);
-
-
-                    // Third Data Set
-                    thumb = (((data[14] & 0x00FF) << 8) | ((data[15] & 0x00FF)));
-                    index = (((data[16] & 0x00FF) << 8) | ((data[17] & 0x00FF)));
-                    if(startLog)
-                        addEntry(thumb, index);
-                }
-            }
+        public void onFlex(long timestamp, int thumb, int index, int middle, int ring, int pinky) {
+            CalibrationCapture capture = calibrations == null ? null : calibrations[graphDevice];
+            if(capture != null)
+                capture.onFlex(timestamp, thumb, index, middle, ring, pinky);
+
+            if(!startLog || graphDevice != graphedDevice)
+                return;
+            AngleTable angleTable = angleTables == null ? null : angleTables[graphDevice];
+            if(isInDegrees(angleTable))
+                addEntry(angleTable.getDegrees(SampleBlock.THUMB, thumb), angleTable.getDegrees(SampleBlock.INDEX, index), true);
+            else
+                addEntry(thumb, index, false);
+        }
+
+        @Override
+        public void onImu(int accX, int accY, int accZ, int gyrX, int gyrY, int gyrZ, int magX, int magY, int magZ) {
+
+        }
+
+        @Override
+        public void onSampleComplete() {
+
         }
     };
 
@@ -393,18 +623,20 @@ public class GloveExerciseActivity extends AppCompatActivity implements SmartGlo
             switch (updateType) {
                 case started:
                     UUID exerciseID = UUID.randomUUID();
+                    DeviceType[] types = new DeviceType[deviceAddresses.length];
                     for(int i = 0; i < deviceAddresses.length; i++)
                     {
-                        // Connect to Each Device
-                        //TODO: Exercise Modes is hard coded and this is wrong
-                        Log.e("Length Test",Integer.toString(exerciseModes.length));
-                        //TODO: this function has a lot of arguments, maybe make some kind of exercise abstraction?
-                        TexTronicsManagerService.connect(mContext,
-                                deviceAddresses[i],
-                                Choice.getChoice(exerciseName),
-                                ExerciseMode.getExercise(exerciseModes[0]),
-                                DeviceType.getDevicetype(deviceTypes[i]),exerciseID,routineID);
+                        types[i] = DeviceType.getDevicetype(deviceTypes[i]);
                     }
+                    // Connect to every device at once
+                    //TODO: Exercise Modes is hard coded and this is wrong
+                    Log.e("Length Test",Integer.toString(exerciseModes.length));
+                    //TODO: this function has a lot of arguments, maybe make some kind of exercise abstraction?
+                    TexTronicsManagerService.connectAll(mContext,
+                            deviceAddresses,
+                            Choice.getChoice(exerciseName),
+                            ExerciseMode.getExercise(exerciseModes[0]),
+                            types,exerciseID,routineID);
 
                     break;
                 case ble_connecting:
@@ -417,33 +649,26 @@ public class GloveExerciseActivity extends AppCompatActivity implements SmartGlo
                     connectCount++;
                     if(connectCount >= deviceAddresses.length)
                     {
-                        Log.d(TAG, "Starting data logging.");
-                        final CountDownTimer startTimer = new CountDownTimer(3000, 980) {
-                            int countdown = 3;
-
-                            @Override
-                            public void onTick(long l)
-                            {
-                                Log.v(TAG, "Tick: " + countdown);
-                                loadingText.setText("" + countdown);
-                                countdown--;
-                            }
-
-                            @Override
-                            public void onFinish()
-                            {
-                                startLog = true;
-                                graph.setVisibility(View.VISIBLE);
-                                loadingText.setVisibility(View.INVISIBLE);
-                            }
-                        };
-                        startTimer.start();
+                        startCalibration();
                     }
                     break;
+                case ble_data:
+                    // New data from Device <deviceAddress>
+                    graphPacket(deviceAddress, intent.getByteArrayExtra(UPDATE_DATA));
+                    showLiveStream();
+                    break;
                 case ble_disconnecting:
                     // Disconnecting from Device <deviceAddress>
                     Log.d(TAG, "Disconnecting from " + deviceAddress);
                     break;
+                case ble_reconnecting:
+                    // Connection to Device <deviceAddress> lost, reconnecting
+                    Log.d(TAG, "Reconnecting to " + deviceAddress);
+                    break;
+                case ble_reconnected:
+                    // Device <deviceAddress> Has Been Reconnected
+                    Log.d(TAG, "Reconnected to " + deviceAddress);
+                    break;
                 case ble_disconnected:
                     // Device <deviceAddress> Has Been Disconnected
                     Log.d(TAG, "Disconnected from " + deviceAddress);
@@ -479,7 +704,6 @@ public class GloveExerciseActivity extends AppCompatActivity implements SmartGlo
         Log.v(TAG, "Starting Glove Exercise...");
         super.onStart();
 
-        registerReceiver(mBLEUpdateReceiver, new IntentFilter(BluetoothLeConnectionService.INTENT_FILTER_STRING));
         registerReceiver(mTexTronicsUpdateReceiver, TexTronicsUpdateReceiver.INTENT_FILTER);
     }
 
@@ -488,7 +712,6 @@ public class GloveExerciseActivity extends AppCompatActivity implements SmartGlo
     {
 //        processData.setHandler(null);
         unregisterReceiver(mTexTronicsUpdateReceiver);
-        unregisterReceiver(mBLEUpdateReceiver);
 
         super.onStop();
     }
@@ -29,6 +29,7 @@ import edu.uri.wbl.tex_tronics.smartglove.io.SmartGloveInterface;
 import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.TexTronicsManagerService;
 import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.TexTronicsUpdate;
 import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.TexTronicsUpdateReceiver;
+import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.calibration.CalibrationStore;
 import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.enums.DeviceType;
 import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.enums.ExerciseMode;
 
@@ -263,6 +264,12 @@ public class MainActivity extends AppCompatActivity implements SmartGloveInterfa
             case R.id.change_name:
                 confirmPatient();
                 return true;
+            // Forgets the patient's calibration, so it is captured again before the next exercise
+            case R.id.recalibrate:
+                String name = getSharedPreferences("myPref", 0).getString(Preferences.NAME, "");
+                CalibrationStore.clear(mContext, name);
+                Toast.makeText(mContext, "Calibration will be repeated before the next exercise.", Toast.LENGTH_SHORT).show();
+                return true;
             default:
                 return super.onOptionsItemSelected(item);
         }
@@ -335,6 +342,14 @@ public class MainActivity extends AppCompatActivity implements SmartGloveInterfa
                     // Disconnecting from Device <deviceAddress>
                     Log.d(TAG,"Disconnecting from " + deviceAddress);
                     break;
+                case ble_reconnecting:
+                    // Connection to Device <deviceAddress> lost, reconnecting
+                    Log.d(TAG,"Reconnecting to " + deviceAddress);
+                    break;
+                case ble_reconnected:
+                    // Device <deviceAddress> Has Been Reconnected
+                    Log.d(TAG,"Reconnected to " + deviceAddress);
+                    break;
                 case ble_disconnected:
                     // Device <deviceAddress> Has Been Disconnected
                     Log.d(TAG,"Disconnected from " + deviceAddress);
@@ -13,11 +13,16 @@ import android.bluetooth.BluetoothProfile;
 import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.os.Binder;
+import android.os.Build;
 import android.os.IBinder;
+import android.os.SystemClock;
 import android.util.Log;
 
-import java.util.HashMap;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Created by mcons on 2/8/2018.
@@ -33,6 +38,8 @@ public class BluetoothLeConnectionService extends Service {
     public static final String GATT_STATE_CONNECTING = "gatt_state_connecting";
     public static final String GATT_STATE_DISCONNECTED = "gatt_state_disconnected";
     public static final String GATT_STATE_DISCONNECTING = "gatt_state_disconnecting";
+    public static final String GATT_STATE_RECONNECTING = "gatt_state_reconnecting";
+    public static final String GATT_STATE_RECONNECTED = "gatt_state_reconnected";
     public static final String GATT_DISCOVERED_SERVICES = "gatt_discovered_services";
     public static final String GATT_CHARACTERISTIC_READ = "gatt_characteristic_read";
     public static final String GATT_CHARACTERISTIC_NOTIFY = "gatt_characteristic_notify";
@@ -44,38 +51,102 @@ public class BluetoothLeConnectionService extends Service {
 
     private static final String DEBUG_LOG_TAG = BluetoothLeConnectionService.class.getSimpleName();
 
+    /**
+     * Number of notifications each device's packet buffer can hold before packets are dropped.
+     */
+    private static final int PACKET_BUFFER_CAPACITY = 512;
+
+    /**
+     * Size of the ATT header included in the MTU (opcode + attribute handle).
+     */
+    private static final int ATT_HEADER_SIZE = 3;
+
+    /**
+     * The largest MTU requested from a device. 247 lets a notification payload fill a single
+     * Data Length Extension link layer packet (251 bytes).
+     */
+    public static final int MAX_MTU = 247;
+
+    /**
+     * The payload size of a notification before any MTU has been negotiated (23 byte MTU).
+     */
+    public static final int DEFAULT_PAYLOAD_SIZE = 20;
+
+    /**
+     * Largest notification (in bytes) a packet buffer slot can hold.
+     */
+    private static final int PACKET_BUFFER_SLOT_SIZE = MAX_MTU - ATT_HEADER_SIZE;
+
+    /**
+     * Notified from the BluetoothGattCallback thread whenever a new RX packet has been placed in a
+     * device's PacketRingBuffer. Implementations must return quickly (e.g. post to a Handler).
+     */
+    public interface PacketListener {
+        void onPacketsAvailable(String bluetoothDeviceAddress);
+    }
+
     private IBinder mBinder = new BLEConnectionBinder();
     private BluetoothManager mBluetoothManager;
     private BluetoothAdapter mBluetoothAdapter;
-    private HashMap<String,BluetoothGatt> mBluetoothGattList;
+
+    /**
+     * Every device connect(String) has been called for and that has not been disconnected yet,
+     * whether it is currently connected or waiting to reconnect.
+     */
+    private ConcurrentHashMap<String, DeviceConnection> mConnections;
+    private ConcurrentHashMap<String, PacketRingBuffer> mPacketBuffers;
+
+    /**
+     * One command queue per connected device. Every GATT operation goes through the device's queue
+     * so that only one is in flight at a time.
+     */
+    private ConcurrentHashMap<String, GattCommandQueue> mCommandQueues;
+
+    /**
+     * Notification payload size (negotiated MTU minus the ATT header) of each connected device.
+     */
+    private ConcurrentHashMap<String, Integer> mPayloadSizes;
+    private ScheduledExecutorService mGattScheduler;
+    private volatile PacketListener mPacketListener;
 
     private BluetoothGattCallback mBluetoothGattCallback = new BluetoothGattCallback() {
         @Override
         public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
+            String deviceAddress = gatt.getDevice().getAddress();
+            DeviceConnection connection = mConnections.get(deviceAddress);
+            if (connection == null || connection.getBluetoothGatt() != gatt) {
+                // Callback from a BluetoothGatt that has already been replaced or disconnected
+                log("Ignoring state change from stale Gatt (" + deviceAddress + ")");
+                gatt.close();
+                return;
+            }
+
+            if (status == BluetoothGatt.GATT_SUCCESS && newState == BluetoothProfile.STATE_CONNECTED) {
+                log("Connected to " + gatt.getDevice().getName());
+                boolean reconnected = connection.onConnected();
+                mCommandQueues.put(deviceAddress, new GattCommandQueue(deviceAddress, gatt, mGattScheduler));
+                sendBroadcast(generateIntent(deviceAddress, reconnected ? GATT_STATE_RECONNECTED : GATT_STATE_CONNECTED));
+                String[] deviceInfo = {gatt.getDevice().getName(), deviceAddress};
+                sendBroadcast(generateIntent(deviceAddress, GATT_DEVICE_INFO_READ, deviceInfo));
+                return;
+            }
+
             if (status != BluetoothGatt.GATT_SUCCESS) {
-                log("Bluetooth Gatt Error (" + status + ")");
+                log("Bluetooth Gatt Error (" + status + ") on " + deviceAddress);
+            } else if (newState != BluetoothProfile.STATE_DISCONNECTED) {
                 return;
             }
 
-            switch (newState) {
-                case BluetoothProfile.STATE_CONNECTED:
-                    log("Connected to " + gatt.getDevice().getName());
-                    mBluetoothGattList.put(gatt.getDevice().getAddress(), gatt);
-                    sendBroadcast(generateIntent(gatt.getDevice().getAddress(), GATT_STATE_CONNECTED));
-                    String[] deviceInfo = {gatt.getDevice().getName(), gatt.getDevice().getAddress()};
-
-                    // Two devices
-//                    if(mBluetoothGattList.size() < 2)
-//                        connect();
-                    sendBroadcast(generateIntent(gatt.getDevice().getAddress(), GATT_DEVICE_INFO_READ, deviceInfo));
-                    break;
-                case BluetoothProfile.STATE_DISCONNECTED:
-                    log("Disconnected from " + gatt.getDevice().getName());
-                    mBluetoothGattList.remove(gatt.getDevice().getAddress());
-                    sendBroadcast(generateIntent(gatt.getDevice().getAddress(), GATT_STATE_DISCONNECTED));
-                    gatt.close();
-                    break;
+            // Link lost, connection attempt failed, or disconnect requested
+            log("Disconnected from " + gatt.getDevice().getName());
+            closeGatt(connection);
+
+            if (connection.getState() == DeviceConnection.State.DISCONNECTING) {
+                mConnections.remove(deviceAddress);
+                sendBroadcast(generateIntent(deviceAddress, GATT_STATE_DISCONNECTED));
+                return;
             }
+            scheduleReconnect(connection);
         }
 
         @Override
@@ -95,6 +166,7 @@ public class BluetoothLeConnectionService extends Service {
             } else {
                 log("Bluetooth Gatt Error (" + status + ")");
             }
+            onOperationComplete(gatt, GattOperation.Type.DISCOVER_SERVICES, status, null);
         }
 
         @Override
@@ -103,6 +175,7 @@ public class BluetoothLeConnectionService extends Service {
                 log("Characteristic Read (" + characteristic.getUuid() + ")");
             }
             sendBroadcast(generateIntent(gatt.getDevice().getAddress(), GATT_CHARACTERISTIC_READ, characteristic.getValue(), characteristic.getUuid()));
+            onOperationComplete(gatt, GattOperation.Type.READ_CHARACTERISTIC, status, characteristic.getValue());
         }
 
         @Override
@@ -112,13 +185,35 @@ public class BluetoothLeConnectionService extends Service {
             } else {
                 log("Error Writing Characteristic (" + characteristic.getUuid() + ")");
             }
+            onOperationComplete(gatt, GattOperation.Type.WRITE_CHARACTERISTIC, status, null);
         }
 
-        // This is where it characteristic gets updated. You need to figure how to get the value over to manager
         @Override
         public void onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
+            String deviceAddress = gatt.getDevice().getAddress();
+
+            // RX data is handed to the Manager through the device's packet buffer (no Intent per packet)
+            if (GattCharacteristics.RX_CHARACTERISTIC.equals(characteristic.getUuid())) {
+                PacketRingBuffer packetBuffer = mPacketBuffers.get(deviceAddress);
+                if (packetBuffer != null) {
+                    long timestampNanos = SystemClock.elapsedRealtimeNanos();
+                    packetBuffer.offer(characteristic.getValue(), timestampNanos);
+
+                    DeviceConnection connection = mConnections.get(deviceAddress);
+                    if (connection != null && connection.onSample(timestampNanos)) {
+                        log("First sample from " + deviceAddress + " after " + (connection.getTimeToFirstSampleNanos() / 1000000) + " ms");
+                    }
+
+                    PacketListener packetListener = mPacketListener;
+                    if (packetListener != null) {
+                        packetListener.onPacketsAvailable(deviceAddress);
+                    }
+                    return;
+                }
+            }
+
             log("Characteristic Updated (" + characteristic.getUuid() + ")");
-            sendBroadcast(generateIntent(gatt.getDevice().getAddress(), GATT_CHARACTERISTIC_NOTIFY, characteristic.getValue(), characteristic.getUuid()));
+            sendBroadcast(generateIntent(deviceAddress, GATT_CHARACTERISTIC_NOTIFY, characteristic.getValue(), characteristic.getUuid()));
         }
 
         @Override
@@ -139,6 +234,7 @@ public class BluetoothLeConnectionService extends Service {
             } else {
                 log("Error Writing Descriptor (" + descriptor.getUuid() + ")");
             }
+            onOperationComplete(gatt, GattOperation.Type.WRITE_DESCRIPTOR, status, null);
         }
 
         @Override
@@ -153,7 +249,13 @@ public class BluetoothLeConnectionService extends Service {
 
         @Override
         public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
-            super.onMtuChanged(gatt, mtu, status);
+            if (status == BluetoothGatt.GATT_SUCCESS) {
+                log("MTU Changed (" + mtu + ") on " + gatt.getDevice().getAddress());
+                mPayloadSizes.put(gatt.getDevice().getAddress(), Math.min(mtu, MAX_MTU) - ATT_HEADER_SIZE);
+            } else {
+                log("Error Changing MTU (" + status + ")");
+            }
+            onOperationComplete(gatt, GattOperation.Type.REQUEST_MTU, status, null);
         }
     };
 
@@ -180,7 +282,11 @@ public class BluetoothLeConnectionService extends Service {
             log("Successfully Initialized Bluetooth Adapter");
         }
         //Initialize Hash Map of Connected Gatt Servers (Currently, only 7 BLE peripheral devices can be connected to a single Central device at a time
-        mBluetoothGattList = new HashMap<>(7);
+        mConnections = new ConcurrentHashMap<>(7);
+        mPacketBuffers = new ConcurrentHashMap<>(7);
+        mCommandQueues = new ConcurrentHashMap<>(7);
+        mPayloadSizes = new ConcurrentHashMap<>(7);
+        mGattScheduler = Executors.newSingleThreadScheduledExecutor();
     }
 
     @Override
@@ -196,6 +302,17 @@ public class BluetoothLeConnectionService extends Service {
 
     @Override
     public void onDestroy() {
+        for (DeviceConnection connection : mConnections.values()) {
+            connection.cancelReconnect();
+            connection.setState(DeviceConnection.State.DISCONNECTING);
+            closeGatt(connection);
+        }
+        mConnections.clear();
+        for (GattCommandQueue commandQueue : mCommandQueues.values()) {
+            commandQueue.close();
+        }
+        mCommandQueues.clear();
+        mGattScheduler.shutdown();
         super.onDestroy();
         log("BLEConnectionService Destroyed");
     }
@@ -210,27 +327,77 @@ public class BluetoothLeConnectionService extends Service {
         Log.d(DEBUG_LOG_TAG, message);
     }
 
+    private void onOperationComplete(BluetoothGatt gatt, GattOperation.Type type, int status, byte[] value) {
+        GattCommandQueue commandQueue = mCommandQueues.get(gatt.getDevice().getAddress());
+        if (commandQueue != null) {
+            commandQueue.onOperationComplete(type, status, value);
+        }
+    }
+
+    /**
+     * Queues an operation on the device's command queue.
+     */
+    private GattFuture enqueue(String bluetoothDeviceAddress, GattOperation operation) {
+        GattCommandQueue commandQueue = mCommandQueues.get(bluetoothDeviceAddress);
+        if (commandQueue == null) {
+            log("Bluetooth Device's Gatt Server not Connected");
+            return GattFuture.failed(GattFuture.STATUS_INVALID);
+        }
+        return commandQueue.enqueue(operation);
+    }
 
+    /**
+     * Sets the listener that is notified when RX packets are available. Pass null to remove it.
+     */
+    public void setPacketListener(PacketListener packetListener) {
+        mPacketListener = packetListener;
+    }
+
+    /**
+     * Returns the packet buffer RX notifications from the given device are written to, or null if
+     * connect(String) has not been called for the device.
+     */
+    public PacketRingBuffer getPacketBuffer(String bluetoothDeviceAddress) {
+        return mPacketBuffers.get(bluetoothDeviceAddress);
+    }
+
+
+    /**
+     * Connects to the device. If the connection is lost (or cannot be established) the device is
+     * reconnected with a jittered exponential backoff until disconnect(String) is called or
+     * DeviceConnection.MAX_RECONNECT_ATTEMPTS attempts in a row fail. GATT_STATE_RECONNECTING is
+     * broadcast when a reconnect is scheduled and GATT_STATE_RECONNECTED once it succeeds.
+     */
     public boolean connect(String bluetoothDeviceAddress) {
         if (mBluetoothAdapter == null) {
             log("Bluetooth Adapter not initialized");
             return false;
         }
 
-        if(mBluetoothGattList.size() >= 7) {
+        if (mConnections.containsKey(bluetoothDeviceAddress)) {
+            log("Already connected to " + bluetoothDeviceAddress);
+            return true;
+        }
+
+        if(mConnections.size() >= 7) {
             // Too many devices connected
             log("Too many Devices connected");
             return false;
         }
 
-        BluetoothDevice bluetoothDevice = mBluetoothAdapter.getRemoteDevice(bluetoothDeviceAddress);
-        if (bluetoothDevice == null) {
-            log("Could not find device");
-            return false;
+        // Buffer must exist before the first notification arrives
+        if (!mPacketBuffers.containsKey(bluetoothDeviceAddress)) {
+            mPacketBuffers.put(bluetoothDeviceAddress, new PacketRingBuffer(PACKET_BUFFER_CAPACITY, PACKET_BUFFER_SLOT_SIZE));
         }
-        BluetoothGatt bluetoothGatt = bluetoothDevice.connectGatt(this, true, mBluetoothGattCallback);
-        if (bluetoothGatt == null) {
-            log("Could not connect to device's Gatt Server");
+
+        DeviceConnection connection = new DeviceConnection(bluetoothDeviceAddress);
+        if (mConnections.putIfAbsent(bluetoothDeviceAddress, connection) != null) {
+            log("Already connected to " + bluetoothDeviceAddress);
+            return true;
+        }
+
+        if (!openGatt(connection)) {
+            mConnections.remove(bluetoothDeviceAddress);
             return false;
         }
         log("Establishing connection to " + bluetoothDeviceAddress + "...");
@@ -238,84 +405,251 @@ public class BluetoothLeConnectionService extends Service {
         return true;
     }
 
+    /**
+     * Starts connecting to every device at once. Each device is connected (and reconnected)
+     * independently, so one slow or missing device does not hold up the others.
+     *
+     * @return The number of devices a connection was started for.
+     */
+    public int connectAll(String[] bluetoothDeviceAddresses) {
+        int started = 0;
+        for (String bluetoothDeviceAddress : bluetoothDeviceAddresses) {
+            if (connect(bluetoothDeviceAddress)) {
+                started++;
+            }
+        }
+        return started;
+    }
+
     public boolean disconnect(String bluetoothDeviceAddress) {
         if (mBluetoothAdapter == null) {
             log("Bluetooth Adapter not initialized");
             return false;
         }
 
-        BluetoothGatt bluetoothGatt = mBluetoothGattList.get(bluetoothDeviceAddress);
-        if (bluetoothGatt == null) {
+        DeviceConnection connection = mConnections.get(bluetoothDeviceAddress);
+        if (connection == null) {
             log("Bluetooth Device's Gatt Server not Connected");
             return false;
         }
 
-        bluetoothGatt.disconnect();
+        connection.cancelReconnect();
+        DeviceConnection.State previousState;
+        BluetoothGatt bluetoothGatt;
+        synchronized (connection) {
+            previousState = connection.getState();
+            connection.setState(DeviceConnection.State.DISCONNECTING);
+            bluetoothGatt = connection.getBluetoothGatt();
+        }
+
         log("Disconnecting from " + bluetoothDeviceAddress + "...");
         sendBroadcast(generateIntent(bluetoothDeviceAddress, GATT_STATE_DISCONNECTING));
+        if (bluetoothGatt != null && previousState == DeviceConnection.State.CONNECTED) {
+            // Finished in onConnectionStateChange
+            bluetoothGatt.disconnect();
+        } else {
+            // Not connected (still connecting or waiting to reconnect), so there will be no callback
+            closeGatt(connection);
+            mConnections.remove(bluetoothDeviceAddress);
+            sendBroadcast(generateIntent(bluetoothDeviceAddress, GATT_STATE_DISCONNECTED));
+        }
         return true;
     }
 
-    public boolean discoverServices(String bluetoothDeviceAddress)
-    {
+    /**
+     * @return Time (in milliseconds) between the device's last connection or reconnection starting
+     *         and its first sample arriving, or -1 if no sample has arrived since.
+     */
+    public long getTimeToFirstSample(String bluetoothDeviceAddress) {
+        DeviceConnection connection = mConnections.get(bluetoothDeviceAddress);
+        if (connection == null || connection.getTimeToFirstSampleNanos() < 0) {
+            return -1;
+        }
+        return connection.getTimeToFirstSampleNanos() / 1000000;
+    }
+
+    /**
+     * Starts a connection attempt. The BluetoothGatt is stored before the connection lock is
+     * released so its first callback always finds it.
+     */
+    private boolean openGatt(DeviceConnection connection) {
+        BluetoothDevice bluetoothDevice = mBluetoothAdapter.getRemoteDevice(connection.getDeviceAddress());
+        if (bluetoothDevice == null) {
+            log("Could not find device");
+            return false;
+        }
+
+        synchronized (connection) {
+            // Direct connection (autoConnect false) is much faster; reconnects are handled here
+            BluetoothGatt bluetoothGatt = bluetoothDevice.connectGatt(this, false, mBluetoothGattCallback);
+            if (bluetoothGatt == null) {
+                log("Could not connect to device's Gatt Server");
+                return false;
+            }
+            connection.setBluetoothGatt(bluetoothGatt);
+        }
+        return true;
+    }
+
+    /**
+     * Releases the device's BluetoothGatt and fails any GATT operations still queued for it.
+     */
+    private void closeGatt(DeviceConnection connection) {
+        String deviceAddress = connection.getDeviceAddress();
+        mPayloadSizes.remove(deviceAddress);
+        GattCommandQueue commandQueue = mCommandQueues.remove(deviceAddress);
+        if (commandQueue != null) {
+            commandQueue.close();
+        }
+
+        BluetoothGatt bluetoothGatt;
+        synchronized (connection) {
+            bluetoothGatt = connection.getBluetoothGatt();
+            connection.setBluetoothGatt(null);
+        }
+        if (bluetoothGatt != null) {
+            bluetoothGatt.close();
+        }
+    }
+
+    private void scheduleReconnect(final DeviceConnection connection) {
+        final String deviceAddress = connection.getDeviceAddress();
+        long delay = connection.onConnectionLost();
+        if (delay < 0) {
+            log("Giving up on " + deviceAddress + " after " + DeviceConnection.MAX_RECONNECT_ATTEMPTS + " attempts");
+            mConnections.remove(deviceAddress);
+            sendBroadcast(generateIntent(deviceAddress, GATT_STATE_DISCONNECTED));
+            return;
+        }
+
+        log("Reconnecting to " + deviceAddress + " in " + delay + " ms (attempt " + connection.getReconnectAttempts() + ")");
+        sendBroadcast(generateIntent(deviceAddress, GATT_STATE_RECONNECTING));
+        connection.setReconnect(mGattScheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (connection) {
+                    if (mConnections.get(deviceAddress) != connection
+                            || connection.getState() != DeviceConnection.State.WAITING_TO_RECONNECT) {
+                        // Disconnected while waiting
+                        return;
+                    }
+                    connection.setState(DeviceConnection.State.CONNECTING);
+                }
+                if (!openGatt(connection)) {
+                    scheduleReconnect(connection);
+                }
+            }
+        }, delay, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * Returns the device's BluetoothGatt if the device is currently connected, otherwise null.
+     */
+    private BluetoothGatt getConnectedGatt(String bluetoothDeviceAddress) {
+        DeviceConnection connection = mConnections.get(bluetoothDeviceAddress);
+        if (connection == null) {
+            return null;
+        }
+        synchronized (connection) {
+            return connection.getState() == DeviceConnection.State.CONNECTED ? connection.getBluetoothGatt() : null;
+        }
+    }
+
+    /**
+     * Queues an MTU request on the device. Once the request completes the negotiated notification
+     * payload size is available from getPayloadSize(String). Requires Lollipop or above; on older
+     * versions the future fails and the payload size stays at DEFAULT_PAYLOAD_SIZE.
+     */
+    public GattFuture requestMtu(String bluetoothDeviceAddress, int mtu) {
         if (mBluetoothAdapter == null) {
             log("Bluetooth Adapter not initialized");
+            return GattFuture.failed(GattFuture.STATUS_INVALID);
+        }
+
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            return GattFuture.failed(GattFuture.STATUS_INVALID);
+        }
+
+        log("Requesting MTU (" + mtu + ") on " + bluetoothDeviceAddress + "...");
+        return enqueue(bluetoothDeviceAddress, GattOperation.requestMtu(mtu));
+    }
+
+    /**
+     * Requests a connection priority (BluetoothGatt.CONNECTION_PRIORITY_HIGH shortens the connection
+     * interval). This is not a GATT request, so it is sent immediately rather than queued.
+     */
+    public boolean requestConnectionPriority(String bluetoothDeviceAddress, int connectionPriority) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
             return false;
         }
-        BluetoothGatt bluetoothGatt = mBluetoothGattList.get(bluetoothDeviceAddress);
+
+        BluetoothGatt bluetoothGatt = getConnectedGatt(bluetoothDeviceAddress);
         if (bluetoothGatt == null) {
             log("Bluetooth Device's Gatt Server not Connected");
             return false;
         }
 
-        log("Discovering Services on " + bluetoothDeviceAddress + "...");
-        return bluetoothGatt.discoverServices();
+        log("Requesting Connection Priority (" + connectionPriority + ") on " + bluetoothDeviceAddress + "...");
+        return bluetoothGatt.requestConnectionPriority(connectionPriority);
     }
 
-    public boolean readCharacteristic(String bluetoothDeviceAddress, BluetoothGattCharacteristic characteristic) {
+    /**
+     * @return The largest notification payload (in bytes) the device can send.
+     */
+    public int getPayloadSize(String bluetoothDeviceAddress) {
+        Integer payloadSize = mPayloadSizes.get(bluetoothDeviceAddress);
+        return payloadSize == null ? DEFAULT_PAYLOAD_SIZE : payloadSize;
+    }
+
+    /**
+     * Queues service discovery on the device. GATT_DISCOVERED_SERVICES is still broadcast once
+     * discovery succeeds.
+     */
+    public GattFuture discoverServices(String bluetoothDeviceAddress)
+    {
         if (mBluetoothAdapter == null) {
             log("Bluetooth Adapter not initialized");
-            return false;
+            return GattFuture.failed(GattFuture.STATUS_INVALID);
         }
 
-        BluetoothGatt bluetoothGatt = mBluetoothGattList.get(bluetoothDeviceAddress);
-        if (bluetoothGatt == null) {
-            log("Bluetooth Device's Gatt Server not Connected");
-            return false;
+        log("Discovering Services on " + bluetoothDeviceAddress + "...");
+        return enqueue(bluetoothDeviceAddress, GattOperation.discoverServices());
+    }
+
+    /**
+     * Queues a read of the characteristic. The value read is available from GattFuture.getValue().
+     */
+    public GattFuture readCharacteristic(String bluetoothDeviceAddress, BluetoothGattCharacteristic characteristic) {
+        if (mBluetoothAdapter == null) {
+            log("Bluetooth Adapter not initialized");
+            return GattFuture.failed(GattFuture.STATUS_INVALID);
         }
 
         if (characteristic == null) {
             log("Invalid Characteristic");
-            return false;
+            return GattFuture.failed(GattFuture.STATUS_INVALID);
         }
 
         log("Reading Characteristic (" + characteristic.getUuid() + ") on " + bluetoothDeviceAddress + "...");
-        return bluetoothGatt.readCharacteristic(characteristic);
+        return enqueue(bluetoothDeviceAddress, GattOperation.readCharacteristic(characteristic));
     }
 
-    public boolean writeCharacteristic(String bluetoothDeviceAddress, BluetoothGattCharacteristic characteristic, byte[] value) {
+    /**
+     * Queues a write of the given value to the characteristic.
+     */
+    public GattFuture writeCharacteristic(String bluetoothDeviceAddress, BluetoothGattCharacteristic characteristic, byte[] value) {
         if (mBluetoothAdapter == null) {
             log("Bluetooth Adapter not initialized");
-            return false;
+            return GattFuture.failed(GattFuture.STATUS_INVALID);
         }
 
-        BluetoothGatt bluetoothGatt = mBluetoothGattList.get(bluetoothDeviceAddress);
-        if (bluetoothGatt == null) {
-            log("Bluetooth Device's Gatt Server not Connected");
-            return false;
-        }
-
-        if (characteristic == null) {
+        if (characteristic == null || value == null) {
             log("Invalid Characteristic");
-            return false;
+            return GattFuture.failed(GattFuture.STATUS_INVALID);
         }
 
         log("Writing Characteristic (" + characteristic.getUuid() + ")...");
-        if (!characteristic.setValue(value)) {
-            log("Error setting Characteristic Value");
-            return false;
-        }
-        return bluetoothGatt.writeCharacteristic(characteristic);
+        return enqueue(bluetoothDeviceAddress, GattOperation.writeCharacteristic(characteristic, value));
     }
 
     public BluetoothGattService getService(String bluetoothDeviceAddress, UUID serviceUUID) {
@@ -324,7 +658,7 @@ public class BluetoothLeConnectionService extends Service {
             return null;
         }
 
-        BluetoothGatt bluetoothGatt = mBluetoothGattList.get(bluetoothDeviceAddress);
+        BluetoothGatt bluetoothGatt = getConnectedGatt(bluetoothDeviceAddress);
         if (bluetoothGatt == null) {
             log("Bluetooth Device's Gatt Server not Connected");
             return null;
@@ -351,72 +685,39 @@ public class BluetoothLeConnectionService extends Service {
         return characteristic;
     }
 
-    public boolean enableNotifications(String bluetoothDeviceAddress, BluetoothGattCharacteristic characteristic) {
-        if (mBluetoothAdapter == null) {
-            log("Bluetooth Adapter not initialized");
-            return false;
-        }
-
-        BluetoothGatt bluetoothGatt = mBluetoothGattList.get(bluetoothDeviceAddress);
-        if (bluetoothGatt == null) {
-            log("Bluetooth Device's Gatt Server not Connected");
-            return false;
-        }
-
-        if (characteristic == null) {
-            log("Invalid Characteristic");
-            return false;
-        }
+    /**
+     * Queues enabling notifications on the characteristic (writes its notification descriptor).
+     */
+    public GattFuture enableNotifications(String bluetoothDeviceAddress, BluetoothGattCharacteristic characteristic) {
+        return setNotifications(bluetoothDeviceAddress, characteristic, true);
+    }
 
-        bluetoothGatt.setCharacteristicNotification(characteristic, true);
-        BluetoothGattDescriptor descriptor = characteristic.getDescriptor(GattDescriptors.NOTIFICATION_DESCRIPTOR);
-        if (descriptor == null) {
-            log("Characteristic does not have Notification Descriptor");
-            return false;
-        } else {
-            descriptor.setValue(BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
-            if (!bluetoothGatt.writeDescriptor(descriptor)) {
-                log("Could not write to descriptor");
-                return false;
-            } else {
-                log("Writing to descriptor...");
-            }
-        }
-        return true;
+    /**
+     * Queues disabling notifications on the characteristic (writes its notification descriptor).
+     */
+    public GattFuture disableNotifications(String bluetoothDeviceAddress, BluetoothGattCharacteristic characteristic) {
+        return setNotifications(bluetoothDeviceAddress, characteristic, false);
     }
 
-    public boolean disableNotifications(String bluetoothDeviceAddress, BluetoothGattCharacteristic characteristic) {
+    private GattFuture setNotifications(String bluetoothDeviceAddress, BluetoothGattCharacteristic characteristic, boolean enable) {
         if (mBluetoothAdapter == null) {
             log("Bluetooth Adapter not initialized");
-            return false;
-        }
-
-        BluetoothGatt bluetoothGatt = mBluetoothGattList.get(bluetoothDeviceAddress);
-        if (bluetoothGatt == null) {
-            log("Bluetooth Device's Gatt Server not Connected");
-            return false;
+            return GattFuture.failed(GattFuture.STATUS_INVALID);
         }
 
         if (characteristic == null) {
             log("Invalid Characteristic");
-            return false;
+            return GattFuture.failed(GattFuture.STATUS_INVALID);
         }
 
-        bluetoothGatt.setCharacteristicNotification(characteristic, false);
         BluetoothGattDescriptor descriptor = characteristic.getDescriptor(GattDescriptors.NOTIFICATION_DESCRIPTOR);
         if (descriptor == null) {
             log("Characteristic does not have Notification Descriptor");
-            return false;
-        } else {
-            descriptor.setValue(BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE);
-            if (!bluetoothGatt.writeDescriptor(descriptor)) {
-                log("Could not write to descriptor");
-                return false;
-            } else {
-                log("Writing to descriptor...");
-            }
+            return GattFuture.failed(GattFuture.STATUS_INVALID);
         }
-        return true;
+
+        log("Writing to descriptor...");
+        return enqueue(bluetoothDeviceAddress, GattOperation.writeNotificationDescriptor(characteristic, descriptor, enable));
     }
 
     private Intent generateIntent(String bluetoothDeviceAddress, String action) {
@@ -0,0 +1,168 @@
+package edu.uri.wbl.tex_tronics.smartglove.ble;
+
+import android.bluetooth.BluetoothGatt;
+import android.os.SystemClock;
+
+import java.util.Random;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * Connection state of a single device managed by the BluetoothLeConnectionService. A connection is
+ * created when connect(String) is called and lives until disconnect(String) is called or the
+ * device cannot be reconnected, across any number of reconnects in between.
+ *
+ * All methods are synchronized; the BluetoothGattCallback thread, the GATT scheduler and the
+ * callers of the service all touch the same connection.
+ */
+
+class DeviceConnection {
+    enum State {
+        CONNECTING,
+        CONNECTED,
+        WAITING_TO_RECONNECT,
+        DISCONNECTING
+    }
+
+    /**
+     * Delay before the first reconnect attempt. Doubled after each failed attempt.
+     */
+    private static final long RECONNECT_BASE_DELAY_MS = 250;
+
+    /**
+     * Upper bound of the reconnect delay.
+     */
+    private static final long RECONNECT_MAX_DELAY_MS = 16000;
+
+    /**
+     * Number of reconnect attempts in a row before the device is reported as disconnected.
+     */
+    static final int MAX_RECONNECT_ATTEMPTS = 10;
+
+    private static final Random JITTER = new Random();
+
+    private final String mDeviceAddress;
+    private BluetoothGatt mBluetoothGatt;
+    private State mState;
+    private int mReconnectAttempts;
+    private boolean mHasConnected = false;
+    private ScheduledFuture<?> mReconnect;
+
+    /**
+     * Time the current (re)connection was started, used to measure the time to first sample. For a
+     * reconnect this is the time the connection was lost.
+     */
+    private long mConnectStartedNanos;
+
+    /**
+     * Checked on every notification, so kept outside the lock.
+     */
+    private volatile boolean mAwaitingFirstSample;
+    private volatile long mTimeToFirstSampleNanos = -1;
+
+    DeviceConnection(String deviceAddress) {
+        mDeviceAddress = deviceAddress;
+        mState = State.CONNECTING;
+        mReconnectAttempts = 0;
+        startTiming();
+    }
+
+    String getDeviceAddress() {
+        return mDeviceAddress;
+    }
+
+    synchronized BluetoothGatt getBluetoothGatt() {
+        return mBluetoothGatt;
+    }
+
+    synchronized void setBluetoothGatt(BluetoothGatt bluetoothGatt) {
+        mBluetoothGatt = bluetoothGatt;
+    }
+
+    synchronized State getState() {
+        return mState;
+    }
+
+    synchronized void setState(State state) {
+        mState = state;
+    }
+
+    /**
+     * @return true if the device had been connected before (this is a reconnect).
+     */
+    synchronized boolean onConnected() {
+        boolean reconnected = mHasConnected;
+        mState = State.CONNECTED;
+        mReconnectAttempts = 0;
+        mHasConnected = true;
+        return reconnected;
+    }
+
+    /**
+     * Called when the connection is lost or a connection attempt fails.
+     *
+     * @return The jittered delay before the next attempt, or -1 if the device should be given up on.
+     */
+    synchronized long onConnectionLost() {
+        if (mState == State.CONNECTED) {
+            // Measure the outage from the moment the link dropped
+            startTiming();
+        }
+        if (mReconnectAttempts >= MAX_RECONNECT_ATTEMPTS) {
+            return -1;
+        }
+        mState = State.WAITING_TO_RECONNECT;
+
+        long delay = Math.min(RECONNECT_MAX_DELAY_MS, RECONNECT_BASE_DELAY_MS << mReconnectAttempts);
+        mReconnectAttempts++;
+        // Half fixed, half random so devices dropped at the same time do not reconnect in lockstep
+        return delay / 2 + (long) (JITTER.nextDouble() * (delay / 2));
+    }
+
+    synchronized int getReconnectAttempts() {
+        return mReconnectAttempts;
+    }
+
+    synchronized void setReconnect(ScheduledFuture<?> reconnect) {
+        mReconnect = reconnect;
+    }
+
+    synchronized void cancelReconnect() {
+        if (mReconnect != null) {
+            mReconnect.cancel(false);
+            mReconnect = null;
+        }
+    }
+
+    private void startTiming() {
+        mConnectStartedNanos = SystemClock.elapsedRealtimeNanos();
+        mTimeToFirstSampleNanos = -1;
+        mAwaitingFirstSample = true;
+    }
+
+    /**
+     * Called for every RX notification.
+     *
+     * @return true if this was the first sample since the connection was (re)started.
+     */
+    boolean onSample(long timestampNanos) {
+        if (!mAwaitingFirstSample) {
+            return false;
+        }
+        synchronized (this) {
+            if (!mAwaitingFirstSample) {
+                return false;
+            }
+            mAwaitingFirstSample = false;
+            mTimeToFirstSampleNanos = timestampNanos - mConnectStartedNanos;
+            return true;
+        }
+    }
+
+    /**
+     * @return Time between the last (re)connection starting and its first sample, or -1 if no
+     *         sample has been received yet.
+     */
+    long getTimeToFirstSampleNanos() {
+        return mTimeToFirstSampleNanos;
+    }
+}
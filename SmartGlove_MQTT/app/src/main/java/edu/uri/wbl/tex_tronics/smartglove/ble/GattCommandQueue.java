@@ -0,0 +1,203 @@
+package edu.uri.wbl.tex_tronics.smartglove.ble;
+
+import android.bluetooth.BluetoothGatt;
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serializes the GATT operations issued to a single device. BluetoothGatt silently drops a request
+ * made while another one is still in flight, so operations are queued here and the next one is only
+ * started once the BluetoothGattCallback reports the previous one complete.
+ *
+ * An operation that BluetoothGatt refuses to start, that fails, or that does not complete within
+ * the timeout is retried up to MAX_ATTEMPTS times before its GattFuture is failed.
+ */
+
+public class GattCommandQueue {
+    private static final String TAG = "GattCommandQueue";
+
+    /**
+     * Time to wait for the callback of an operation before it is retried.
+     */
+    private static final long OPERATION_TIMEOUT_MS = 2000;
+
+    /**
+     * Number of times an operation is started before it is failed.
+     */
+    private static final int MAX_ATTEMPTS = 3;
+
+    private final String mDeviceAddress;
+    private final BluetoothGatt mBluetoothGatt;
+    private final ScheduledExecutorService mScheduler;
+    private final ArrayDeque<GattOperation> mPending = new ArrayDeque<>();
+
+    private GattOperation mCurrent;
+    private ScheduledFuture<?> mTimeout;
+    private boolean mClosed = false;
+
+    /**
+     * @param scheduler Used to run timeouts and retries. Shared between all queues.
+     */
+    public GattCommandQueue(String deviceAddress, BluetoothGatt bluetoothGatt, ScheduledExecutorService scheduler) {
+        mDeviceAddress = deviceAddress;
+        mBluetoothGatt = bluetoothGatt;
+        mScheduler = scheduler;
+    }
+
+    /**
+     * Adds an operation to the end of the queue, starting it immediately if the queue is idle.
+     */
+    public GattFuture enqueue(GattOperation operation) {
+        synchronized (this) {
+            if (mClosed) {
+                operation.getFuture().complete(GattFuture.STATUS_CANCELLED, null);
+                return operation.getFuture();
+            }
+            mPending.add(operation);
+            if (mCurrent == null) {
+                startNext();
+            }
+        }
+        return operation.getFuture();
+    }
+
+    /**
+     * Called from the BluetoothGattCallback when an operation of the given type completes.
+     */
+    public void onOperationComplete(GattOperation.Type type, int status, byte[] value) {
+        GattOperation completed;
+        synchronized (this) {
+            if (mCurrent == null || mCurrent.getType() != type) {
+                // Not something this queue started (e.g. a notification or a remote-initiated event)
+                return;
+            }
+            cancelTimeout();
+
+            if (status != BluetoothGatt.GATT_SUCCESS && mCurrent.getAttempts() < MAX_ATTEMPTS) {
+                Log.w(TAG, mDeviceAddress + ": " + mCurrent + " failed (" + status + "), retrying");
+                retryCurrent();
+                return;
+            }
+
+            completed = mCurrent;
+            mCurrent = null;
+            startNext();
+        }
+        completed.getFuture().complete(status, value);
+    }
+
+    /**
+     * Fails every pending operation. Called when the device disconnects.
+     */
+    public void close() {
+        ArrayDeque<GattOperation> cancelled = new ArrayDeque<>();
+        synchronized (this) {
+            mClosed = true;
+            cancelTimeout();
+            if (mCurrent != null) {
+                cancelled.add(mCurrent);
+                mCurrent = null;
+            }
+            cancelled.addAll(mPending);
+            mPending.clear();
+        }
+        for (GattOperation operation : cancelled) {
+            operation.getFuture().complete(GattFuture.STATUS_CANCELLED, null);
+        }
+    }
+
+    public synchronized int size() {
+        return mPending.size() + (mCurrent == null ? 0 : 1);
+    }
+
+    /**
+     * Starts pending operations until one is successfully started. Must hold the lock.
+     */
+    private void startNext() {
+        while (mCurrent == null && !mPending.isEmpty()) {
+            mCurrent = mPending.poll();
+            if (!startCurrent()) {
+                // Completing the future may call back into this queue, so do it without the lock
+                final GattOperation failed = mCurrent;
+                mCurrent = null;
+                mScheduler.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        failed.getFuture().complete(GattFuture.STATUS_NOT_STARTED, null);
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Starts the current operation, retrying immediately if BluetoothGatt refuses it. Must hold the
+     * lock.
+     *
+     * @return false if the operation could not be started within MAX_ATTEMPTS.
+     */
+    private boolean startCurrent() {
+        while (mCurrent.getAttempts() < MAX_ATTEMPTS) {
+            if (mCurrent.start(mBluetoothGatt)) {
+                scheduleTimeout(mCurrent);
+                return true;
+            }
+            Log.w(TAG, mDeviceAddress + ": Could not start " + mCurrent);
+        }
+        return false;
+    }
+
+    private void retryCurrent() {
+        if (!startCurrent()) {
+            final GattOperation failed = mCurrent;
+            mCurrent = null;
+            startNext();
+            mScheduler.execute(new Runnable() {
+                @Override
+                public void run() {
+                    failed.getFuture().complete(GattFuture.STATUS_NOT_STARTED, null);
+                }
+            });
+        }
+    }
+
+    private void scheduleTimeout(final GattOperation operation) {
+        mTimeout = mScheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                onTimeout(operation);
+            }
+        }, OPERATION_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private void cancelTimeout() {
+        if (mTimeout != null) {
+            mTimeout.cancel(false);
+            mTimeout = null;
+        }
+    }
+
+    private void onTimeout(GattOperation operation) {
+        GattOperation timedOut;
+        synchronized (this) {
+            if (mCurrent != operation) {
+                return;
+            }
+            mTimeout = null;
+            if (mCurrent.getAttempts() < MAX_ATTEMPTS) {
+                Log.w(TAG, mDeviceAddress + ": " + mCurrent + " timed out, retrying");
+                retryCurrent();
+                return;
+            }
+            Log.w(TAG, mDeviceAddress + ": " + mCurrent + " timed out");
+            timedOut = mCurrent;
+            mCurrent = null;
+            startNext();
+        }
+        timedOut.getFuture().complete(GattFuture.STATUS_TIMEOUT, null);
+    }
+}
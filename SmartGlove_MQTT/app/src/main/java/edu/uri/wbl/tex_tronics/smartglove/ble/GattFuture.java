@@ -0,0 +1,125 @@
+package edu.uri.wbl.tex_tronics.smartglove.ble;
+
+import android.bluetooth.BluetoothGatt;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The result of a GATT operation scheduled by a GattCommandQueue. The operation completes when the
+ * matching BluetoothGattCallback method is called, when it times out after all retries, or when the
+ * device disconnects before it could run.
+ *
+ * Listeners are called on the thread that completes the operation (usually the
+ * BluetoothGattCallback thread) and must not block.
+ */
+
+public class GattFuture {
+    /**
+     * The operation did not complete within its timeout (after all retries).
+     */
+    public static final int STATUS_TIMEOUT = -1;
+
+    /**
+     * BluetoothGatt refused to start the operation (after all retries).
+     */
+    public static final int STATUS_NOT_STARTED = -2;
+
+    /**
+     * The operation was cancelled because the device disconnected.
+     */
+    public static final int STATUS_CANCELLED = -3;
+
+    /**
+     * The operation could not be scheduled (not connected, invalid characteristic, ...).
+     */
+    public static final int STATUS_INVALID = -4;
+
+    public interface Listener {
+        void onComplete(GattFuture future);
+    }
+
+    private final CountDownLatch mLatch = new CountDownLatch(1);
+    private final List<Listener> mListeners = new ArrayList<>(1);
+    private boolean mDone = false;
+    private int mStatus;
+    private byte[] mValue;
+
+    public static GattFuture failed(int status) {
+        GattFuture future = new GattFuture();
+        future.complete(status, null);
+        return future;
+    }
+
+    /**
+     * Completes this future. Only the first call has any effect.
+     *
+     * @return true if this call completed the future.
+     */
+    boolean complete(int status, byte[] value) {
+        List<Listener> listeners;
+        synchronized (this) {
+            if (mDone) {
+                return false;
+            }
+            mDone = true;
+            mStatus = status;
+            mValue = value;
+            listeners = new ArrayList<>(mListeners);
+            mListeners.clear();
+        }
+        mLatch.countDown();
+        for (Listener listener : listeners) {
+            listener.onComplete(this);
+        }
+        return true;
+    }
+
+    /**
+     * Adds a listener to be called once the operation completes. If the operation has already
+     * completed, the listener is called immediately on the calling thread.
+     */
+    public GattFuture addListener(Listener listener) {
+        synchronized (this) {
+            if (!mDone) {
+                mListeners.add(listener);
+                return this;
+            }
+        }
+        listener.onComplete(this);
+        return this;
+    }
+
+    /**
+     * Blocks until the operation completes. Never call this from the BluetoothGattCallback thread.
+     *
+     * @return false if the wait timed out.
+     */
+    public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+        return mLatch.await(timeout, unit);
+    }
+
+    public synchronized boolean isDone() {
+        return mDone;
+    }
+
+    public synchronized boolean isSuccess() {
+        return mDone && mStatus == BluetoothGatt.GATT_SUCCESS;
+    }
+
+    /**
+     * @return The GATT status reported by the callback, or one of the STATUS_ constants.
+     */
+    public synchronized int getStatus() {
+        return mStatus;
+    }
+
+    /**
+     * @return The value read for read operations, otherwise null.
+     */
+    public synchronized byte[] getValue() {
+        return mValue;
+    }
+}
@@ -0,0 +1,114 @@
+package edu.uri.wbl.tex_tronics.smartglove.ble;
+
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.os.Build;
+
+/**
+ * A single GATT request queued on a GattCommandQueue. Android only allows one outstanding request
+ * per BluetoothGatt, so each operation is started only once the previous one has completed.
+ */
+
+public abstract class GattOperation {
+    public enum Type {
+        DISCOVER_SERVICES,
+        READ_CHARACTERISTIC,
+        WRITE_CHARACTERISTIC,
+        WRITE_DESCRIPTOR,
+        REQUEST_MTU
+    }
+
+    private final Type mType;
+    private final GattFuture mFuture;
+    private int mAttempts;
+
+    GattOperation(Type type) {
+        mType = type;
+        mFuture = new GattFuture();
+        mAttempts = 0;
+    }
+
+    public Type getType() {
+        return mType;
+    }
+
+    public GattFuture getFuture() {
+        return mFuture;
+    }
+
+    int getAttempts() {
+        return mAttempts;
+    }
+
+    /**
+     * Starts the request on the given BluetoothGatt.
+     *
+     * @return The value returned by BluetoothGatt (false if the request could not be started).
+     */
+    boolean start(BluetoothGatt bluetoothGatt) {
+        mAttempts++;
+        return execute(bluetoothGatt);
+    }
+
+    protected abstract boolean execute(BluetoothGatt bluetoothGatt);
+
+    @Override
+    public String toString() {
+        return mType.toString();
+    }
+
+    static GattOperation discoverServices() {
+        return new GattOperation(Type.DISCOVER_SERVICES) {
+            @Override
+            protected boolean execute(BluetoothGatt bluetoothGatt) {
+                return bluetoothGatt.discoverServices();
+            }
+        };
+    }
+
+    static GattOperation readCharacteristic(final BluetoothGattCharacteristic characteristic) {
+        return new GattOperation(Type.READ_CHARACTERISTIC) {
+            @Override
+            protected boolean execute(BluetoothGatt bluetoothGatt) {
+                return bluetoothGatt.readCharacteristic(characteristic);
+            }
+        };
+    }
+
+    static GattOperation writeCharacteristic(final BluetoothGattCharacteristic characteristic, byte[] value) {
+        // The characteristic object is shared, so its value is only set once this operation runs
+        final byte[] valueCopy = value.clone();
+        return new GattOperation(Type.WRITE_CHARACTERISTIC) {
+            @Override
+            protected boolean execute(BluetoothGatt bluetoothGatt) {
+                return characteristic.setValue(valueCopy) && bluetoothGatt.writeCharacteristic(characteristic);
+            }
+        };
+    }
+
+    static GattOperation writeNotificationDescriptor(final BluetoothGattCharacteristic characteristic,
+                                                     final BluetoothGattDescriptor descriptor,
+                                                     final boolean enable) {
+        return new GattOperation(Type.WRITE_DESCRIPTOR) {
+            @Override
+            protected boolean execute(BluetoothGatt bluetoothGatt) {
+                if (!bluetoothGatt.setCharacteristicNotification(characteristic, enable)) {
+                    return false;
+                }
+                descriptor.setValue(enable ? BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE
+                        : BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE);
+                return bluetoothGatt.writeDescriptor(descriptor);
+            }
+        };
+    }
+
+    static GattOperation requestMtu(final int mtu) {
+        return new GattOperation(Type.REQUEST_MTU) {
+            @Override
+            protected boolean execute(BluetoothGatt bluetoothGatt) {
+                return Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP && bluetoothGatt.requestMtu(mtu);
+            }
+        };
+    }
+}
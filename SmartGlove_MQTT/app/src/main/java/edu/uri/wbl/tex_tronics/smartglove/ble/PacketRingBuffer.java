@@ -0,0 +1,146 @@
+package edu.uri.wbl.tex_tronics.smartglove.ble;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Single-producer/single-consumer ring buffer used to hand raw BLE notifications from the
+ * BluetoothGattCallback thread to the TexTronics Manager Service without allocating an Intent
+ * (and a copy of the packet) for every notification.
+ *
+ * All storage is allocated up front. The producer copies each packet into the next free slot and
+ * publishes it by advancing the write index; the consumer drains every published slot in a batch
+ * and then advances the read index. Only the producer may call {@link #offer(byte[], long)} and
+ * only the consumer may call {@link #drain(PacketConsumer, int)}.
+ */
+
+public class PacketRingBuffer {
+    /**
+     * Receives packets while the buffer is being drained. The ByteBuffer passed in is a reused view
+     * of the slot itself (position 0, limit at the end of the packet, big-endian) and is only valid
+     * for the duration of the call.
+     */
+    public interface PacketConsumer {
+        void onPacket(ByteBuffer packet, long timestampNanos);
+    }
+
+    private final int mCapacity;
+    private final int mMask;
+    private final int mSlotSize;
+    private final byte[][] mSlots;
+    private final ByteBuffer[] mViews;
+    private final int[] mLengths;
+    private final long[] mTimestamps;
+
+    /**
+     * Index of the next slot the consumer will read. Written only by the consumer.
+     */
+    private final AtomicLong mReadIndex = new AtomicLong(0);
+
+    /**
+     * Index of the next slot the producer will write. Written only by the producer.
+     */
+    private final AtomicLong mWriteIndex = new AtomicLong(0);
+
+    /**
+     * Number of packets rejected because the buffer was full or the packet did not fit in a slot.
+     */
+    private final AtomicLong mDropped = new AtomicLong(0);
+
+    /**
+     * @param capacity Number of packets the buffer can hold. Rounded up to a power of two.
+     * @param slotSize Largest packet (in bytes) that can be stored.
+     */
+    public PacketRingBuffer(int capacity, int slotSize) {
+        if (capacity <= 0 || slotSize <= 0) {
+            throw new IllegalArgumentException("Capacity and Slot Size must be positive");
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        mCapacity = size;
+        mMask = size - 1;
+        mSlotSize = slotSize;
+        mSlots = new byte[size][slotSize];
+        mViews = new ByteBuffer[size];
+        for (int i = 0; i < size; i++) {
+            mViews[i] = ByteBuffer.wrap(mSlots[i]);
+        }
+        mLengths = new int[size];
+        mTimestamps = new long[size];
+    }
+
+    /**
+     * Copies a packet into the buffer. Producer thread only.
+     *
+     * @param packet Raw packet received from the device.
+     * @param timestampNanos Time the packet was received (SystemClock.elapsedRealtimeNanos()).
+     * @return false if the packet was dropped because the buffer is full or the packet is too large.
+     */
+    public boolean offer(byte[] packet, long timestampNanos) {
+        if (packet == null || packet.length > mSlotSize) {
+            mDropped.incrementAndGet();
+            return false;
+        }
+
+        long writeIndex = mWriteIndex.get();
+        if (writeIndex - mReadIndex.get() >= mCapacity) {
+            mDropped.incrementAndGet();
+            return false;
+        }
+
+        int slot = (int) (writeIndex & mMask);
+        System.arraycopy(packet, 0, mSlots[slot], 0, packet.length);
+        mLengths[slot] = packet.length;
+        mTimestamps[slot] = timestampNanos;
+
+        // Publish the slot (ordered store, the consumer will see the slot contents before the index)
+        mWriteIndex.lazySet(writeIndex + 1);
+        return true;
+    }
+
+    /**
+     * Hands every available packet (up to maxPackets) to the consumer. Consumer thread only.
+     *
+     * @return The number of packets drained.
+     */
+    public int drain(PacketConsumer consumer, int maxPackets) {
+        long readIndex = mReadIndex.get();
+        long available = mWriteIndex.get() - readIndex;
+        int count = (int) Math.min(available, maxPackets);
+
+        for (int i = 0; i < count; i++) {
+            int slot = (int) ((readIndex + i) & mMask);
+            ByteBuffer view = mViews[slot];
+            view.clear();
+            view.limit(mLengths[slot]);
+            consumer.onPacket(view, mTimestamps[slot]);
+        }
+
+        // Release the slots back to the producer
+        mReadIndex.lazySet(readIndex + count);
+        return count;
+    }
+
+    public int size() {
+        long readIndex = mReadIndex.get();
+        return (int) Math.max(0, mWriteIndex.get() - readIndex);
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    public int getSlotSize() {
+        return mSlotSize;
+    }
+
+    public long getDroppedCount() {
+        return mDropped.get();
+    }
+}
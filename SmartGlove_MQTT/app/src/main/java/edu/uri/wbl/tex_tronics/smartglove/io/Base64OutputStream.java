@@ -0,0 +1,87 @@
+package edu.uri.wbl.tex_tronics.smartglove.io;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Base64 encodes (RFC 4648, with padding and no line breaks) what is written to it. The last
+ * characters are written by close().
+ *
+ * Plain Java rather than android.util.Base64OutputStream, so the upload code runs in local unit
+ * tests; java.util.Base64 needs API 26.
+ */
+
+public class Base64OutputStream extends FilterOutputStream {
+    private static final byte[] ALPHABET =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".getBytes();
+
+    private final byte[] mOutput = new byte[1024];
+    private int mOutputLength;
+
+    // Bytes of the group of three being encoded
+    private int mGroup;
+    private int mGroupLength;
+    private boolean mClosed;
+
+    public Base64OutputStream(OutputStream out) {
+        super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        mGroup = (mGroup << 8) | (b & 0xFF);
+        if (++mGroupLength == 3) {
+            if (mOutputLength + 4 > mOutput.length) {
+                flushOutput();
+            }
+            mOutput[mOutputLength++] = ALPHABET[(mGroup >> 18) & 0x3F];
+            mOutput[mOutputLength++] = ALPHABET[(mGroup >> 12) & 0x3F];
+            mOutput[mOutputLength++] = ALPHABET[(mGroup >> 6) & 0x3F];
+            mOutput[mOutputLength++] = ALPHABET[mGroup & 0x3F];
+            mGroup = 0;
+            mGroupLength = 0;
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        for (int i = off; i < off + len; i++) {
+            write(b[i]);
+        }
+    }
+
+    /**
+     * Writes the characters of the complete groups of three bytes written so far.
+     */
+    @Override
+    public void flush() throws IOException {
+        flushOutput();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (mClosed) {
+            return;
+        }
+        mClosed = true;
+        if (mGroupLength > 0) {
+            if (mOutputLength + 4 > mOutput.length) {
+                flushOutput();
+            }
+            int group = mGroup << (8 * (3 - mGroupLength));
+            mOutput[mOutputLength++] = ALPHABET[(group >> 18) & 0x3F];
+            mOutput[mOutputLength++] = ALPHABET[(group >> 12) & 0x3F];
+            mOutput[mOutputLength++] = mGroupLength == 2 ? ALPHABET[(group >> 6) & 0x3F] : (byte) '=';
+            mOutput[mOutputLength++] = '=';
+        }
+        flushOutput();
+        out.close();
+    }
+
+    private void flushOutput() throws IOException {
+        out.write(mOutput, 0, mOutputLength);
+        mOutputLength = 0;
+    }
+}
@@ -0,0 +1,35 @@
+package edu.uri.wbl.tex_tronics.smartglove.io;
+
+import java.io.IOException;
+
+/**
+ * Compresses one block of bytes at a time. Blocks are compressed independently, so a block can be
+ * decompressed without the ones before it. Implementations keep their working buffers between
+ * calls and are not thread safe.
+ */
+
+public interface BlockCodec {
+    /**
+     * @return Name of the codec, sent to the fog node with the compressed data.
+     */
+    String getName();
+
+    /**
+     * @return Most bytes compress() writes for a block of the given length.
+     */
+    int getMaxCompressedLength(int length);
+
+    /**
+     * @param dst Receives the compressed block; must have getMaxCompressedLength(length) bytes
+     *            from dstOffset.
+     * @return Length of the compressed block.
+     */
+    int compress(byte[] src, int srcOffset, int length, byte[] dst, int dstOffset);
+
+    /**
+     * @param rawLength Length of the block before it was compressed.
+     * @return Number of bytes written to dst (rawLength).
+     * @throws IOException If the compressed block is corrupt.
+     */
+    int decompress(byte[] src, int srcOffset, int length, byte[] dst, int dstOffset, int rawLength) throws IOException;
+}
@@ -0,0 +1,150 @@
+package edu.uri.wbl.tex_tronics.smartglove.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Compresses a whole upload as a series of fixed-size blocks, each compressed on its own with a
+ * BlockCodec. Every block is framed as (big endian):
+ *
+ *   int   length before compression (at most the block size)
+ *   int   compressed length
+ *   ...   compressed block
+ *
+ * Fixed blocks keep the buffers small and allocated once, let a session be compressed as it is
+ * read (see CsvInputStream) and let the fog node decompress one block at a time.
+ */
+
+public class BlockCompressor {
+    public static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+
+    private static final int FRAME_HEADER_SIZE = 8;
+
+    private final BlockCodec mCodec;
+    private final int mBlockSize;
+    private final byte[] mRaw;
+    private final byte[] mBlock;
+    private final ByteBuffer mFrameHeader = ByteBuffer.allocate(FRAME_HEADER_SIZE);
+
+    public BlockCompressor(BlockCodec codec) {
+        this(codec, DEFAULT_BLOCK_SIZE);
+    }
+
+    public BlockCompressor(BlockCodec codec, int blockSize) {
+        mCodec = codec;
+        mBlockSize = blockSize;
+        mRaw = new byte[blockSize];
+        mBlock = new byte[codec.getMaxCompressedLength(blockSize)];
+    }
+
+    /**
+     * @param name Name of a codec, as given by BlockCodec.getName().
+     * @return A new codec of that name.
+     * @throws IllegalArgumentException If there is no such codec.
+     */
+    public static BlockCodec createCodec(String name) {
+        if (DeflateCodec.NAME.equals(name)) {
+            return new DeflateCodec();
+        } else if (Lz4Codec.NAME.equals(name)) {
+            return new Lz4Codec();
+        }
+        throw new IllegalArgumentException("Unknown Codec: " + name);
+    }
+
+    public BlockCodec getCodec() {
+        return mCodec;
+    }
+
+    public int getBlockSize() {
+        return mBlockSize;
+    }
+
+    public byte[] compress(byte[] data) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream(data.length / 4 + FRAME_HEADER_SIZE);
+        try {
+            compress(new ByteArrayInputStream(data), output);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return output.toByteArray();
+    }
+
+    /**
+     * Compresses everything left in the input, one block at a time, so only a block is held in
+     * memory however long the input is. Neither stream is closed.
+     *
+     * @return Number of bytes read from the input.
+     */
+    public long compress(InputStream input, OutputStream output) throws IOException {
+        long total = 0;
+        int length;
+        while ((length = readBlock(input, mRaw, mBlockSize)) > 0) {
+            int compressedLength = mCodec.compress(mRaw, 0, length, mBlock, 0);
+            mFrameHeader.clear();
+            mFrameHeader.putInt(length).putInt(compressedLength);
+            output.write(mFrameHeader.array(), 0, FRAME_HEADER_SIZE);
+            output.write(mBlock, 0, compressedLength);
+            total += length;
+        }
+        return total;
+    }
+
+    /**
+     * @throws IOException If the data is not a series of blocks compressed with this codec.
+     */
+    public byte[] decompress(byte[] data) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream(data.length * 4);
+        decompress(new ByteArrayInputStream(data), output);
+        return output.toByteArray();
+    }
+
+    /**
+     * Decompresses every block left in the input, one block at a time. Neither stream is closed.
+     *
+     * @return Number of bytes written to the output.
+     * @throws IOException If the input is not a series of blocks compressed with this codec.
+     */
+    public long decompress(InputStream input, OutputStream output) throws IOException {
+        long total = 0;
+        int read;
+        while ((read = readBlock(input, mFrameHeader.array(), FRAME_HEADER_SIZE)) > 0) {
+            if (read < FRAME_HEADER_SIZE) {
+                throw new IOException("Truncated Block Header");
+            }
+            mFrameHeader.clear();
+            int length = mFrameHeader.getInt();
+            int compressedLength = mFrameHeader.getInt();
+            if (length < 0 || length > mBlockSize || compressedLength < 0 || compressedLength > mBlock.length) {
+                throw new IOException("Corrupt Block Header");
+            }
+            if (readBlock(input, mBlock, compressedLength) < compressedLength) {
+                throw new IOException("Truncated Block");
+            }
+            mCodec.decompress(mBlock, 0, compressedLength, mRaw, 0, length);
+            output.write(mRaw, 0, length);
+            total += length;
+        }
+        return total;
+    }
+
+    /**
+     * Reads until the length is read or the input ends.
+     *
+     * @return Number of bytes read, less than length only at the end of the input.
+     */
+    private static int readBlock(InputStream input, byte[] buffer, int length) throws IOException {
+        int position = 0;
+        while (position < length) {
+            int read = input.read(buffer, position, length - position);
+            if (read < 0) {
+                break;
+            }
+            position += read;
+        }
+        return position;
+    }
+}
@@ -0,0 +1,109 @@
+package edu.uri.wbl.tex_tronics.smartglove.io;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Replaces a CSV file with its contents compressed by a BlockCompressor, and restores it. Any CSV
+ * can be compacted, whatever its columns: the session CSVs of older versions of the app, the
+ * merged session files and those of the first Smart Glove app.
+ *
+ * Layout: int MAGIC ("TTBZ"), the codec's name (DataOutput.writeUTF), int block size, then the
+ * blocks as framed by BlockCompressor. The compacted file is named after the CSV with
+ * FILE_EXTENSION appended.
+ */
+
+public class CsvCompactor {
+    public static final String FILE_EXTENSION = ".z";
+    public static final int MAGIC = 0x5454425A;
+
+    private static final int MAX_BLOCK_SIZE = 16 * 1024 * 1024;
+
+    private final BlockCompressor mCompressor;
+
+    public CsvCompactor(BlockCompressor compressor) {
+        mCompressor = compressor;
+    }
+
+    public static boolean isCompacted(File file) {
+        return file.getName().endsWith(FILE_EXTENSION);
+    }
+
+    /**
+     * Writes the compacted file, then deletes the CSV. The compacted file keeps the CSV's
+     * modification time.
+     *
+     * @return The compacted file.
+     */
+    public File compact(File csvFile) throws IOException {
+        File compacted = new File(csvFile.getPath() + FILE_EXTENSION);
+        File temporary = new File(compacted.getPath() + ".tmp");
+        FileInputStream input = new FileInputStream(csvFile);
+        try {
+            FileOutputStream file = new FileOutputStream(temporary);
+            try {
+                DataOutputStream output = new DataOutputStream(new BufferedOutputStream(file));
+                output.writeInt(MAGIC);
+                output.writeUTF(mCompressor.getCodec().getName());
+                output.writeInt(mCompressor.getBlockSize());
+                mCompressor.compress(input, output);
+                output.flush();
+                // The CSV is deleted next; the compacted file must be on the disk first
+                file.getFD().sync();
+            } finally {
+                file.close();
+            }
+        } catch (IOException e) {
+            if (!temporary.delete()) {
+                temporary.deleteOnExit();
+            }
+            throw e;
+        } finally {
+            input.close();
+        }
+
+        if (!temporary.setLastModified(csvFile.lastModified()) || !temporary.renameTo(compacted)) {
+            throw new IOException("Could not replace " + compacted);
+        }
+        if (!csvFile.delete()) {
+            throw new IOException("Could not delete " + csvFile);
+        }
+        return compacted;
+    }
+
+    /**
+     * Writes the CSV of a compacted file, replacing the CSV file. The compacted file is kept.
+     *
+     * @return Number of bytes of CSV written.
+     */
+    public static long restore(File compacted, File csvFile) throws IOException {
+        DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(compacted)));
+        try {
+            if (input.readInt() != MAGIC) {
+                throw new IOException(compacted.getName() + " is not a Compacted CSV");
+            }
+            BlockCodec codec = BlockCompressor.createCodec(input.readUTF());
+            int blockSize = input.readInt();
+            if (blockSize <= 0 || blockSize > MAX_BLOCK_SIZE) {
+                throw new IOException(compacted.getName() + " has Invalid Block Size " + blockSize);
+            }
+            BlockCompressor compressor = new BlockCompressor(codec, blockSize);
+            FileOutputStream output = new FileOutputStream(csvFile);
+            try {
+                return compressor.decompress(input, output);
+            } finally {
+                output.close();
+            }
+        } catch (IllegalArgumentException e) {
+            throw new IOException(compacted.getName() + " - " + e.getMessage());
+        } finally {
+            input.close();
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package edu.uri.wbl.tex_tronics.smartglove.io;
+
+/**
+ * Formats CSV rows of numbers straight into a reused byte buffer: integers are written as ASCII
+ * digits without going through a String, and text that is the same for a whole session (device
+ * address, exercise mode) is encoded once, with toAscii() or as the row prefix, and copied into
+ * each row. Once the buffer has grown to hold the rows between two clear() calls, formatting a row
+ * allocates nothing.
+ *
+ * Not thread safe; an encoder belongs to the thread that formats the rows.
+ */
+
+public class CsvEncoder {
+    private static final byte[] DIGITS = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9'};
+    private static final long[] POWERS_OF_TEN = new long[19];
+    private static final byte[] LONG_MIN_VALUE = toAscii(Long.toString(Long.MIN_VALUE));
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    private byte[] mBuffer;
+    private int mLength;
+    private byte[] mPrefix = new byte[0];
+
+    public CsvEncoder(int capacity) {
+        mBuffer = new byte[Math.max(capacity, 32)];
+    }
+
+    /**
+     * @return The text as ASCII; other characters become '?'.
+     */
+    public static byte[] toAscii(CharSequence text) {
+        byte[] bytes = new byte[text.length()];
+        for (int i = 0; i < bytes.length; i++) {
+            char c = text.charAt(i);
+            bytes[i] = c < 0x80 ? (byte) c : (byte) '?';
+        }
+        return bytes;
+    }
+
+    /**
+     * @param fields Fields every row starts with (e.g. device address and exercise mode), each
+     *               followed by a comma.
+     */
+    public CsvEncoder setPrefix(String... fields) {
+        StringBuilder prefix = new StringBuilder();
+        for (String field : fields) {
+            prefix.append(field).append(',');
+        }
+        mPrefix = toAscii(prefix);
+        return this;
+    }
+
+    /**
+     * Starts a row with the prefix.
+     */
+    public CsvEncoder beginRow() {
+        return append(mPrefix, 0, mPrefix.length);
+    }
+
+    /**
+     * Ends the row with a line break.
+     */
+    public CsvEncoder endRow() {
+        return append('\n');
+    }
+
+    /**
+     * Separates two fields.
+     */
+    public CsvEncoder comma() {
+        return append(',');
+    }
+
+    public CsvEncoder append(char c) {
+        ensureCapacity(1);
+        mBuffer[mLength++] = c < 0x80 ? (byte) c : (byte) '?';
+        return this;
+    }
+
+    public CsvEncoder append(byte[] ascii) {
+        return append(ascii, 0, ascii.length);
+    }
+
+    public CsvEncoder append(byte[] ascii, int offset, int length) {
+        ensureCapacity(length);
+        System.arraycopy(ascii, offset, mBuffer, mLength, length);
+        mLength += length;
+        return this;
+    }
+
+    /**
+     * Appends text, such as a header line. Rows should append text encoded once with toAscii().
+     */
+    public CsvEncoder append(CharSequence text) {
+        int length = text.length();
+        ensureCapacity(length);
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            mBuffer[mLength++] = c < 0x80 ? (byte) c : (byte) '?';
+        }
+        return this;
+    }
+
+    public CsvEncoder append(int value) {
+        if (value == Integer.MIN_VALUE) {
+            return append((long) value);
+        }
+        ensureCapacity(11);
+        if (value < 0) {
+            mBuffer[mLength++] = '-';
+            value = -value;
+        }
+        // Channel values: int division is cheaper than long division
+        int end = mLength + digitCount(value);
+        int position = end;
+        while (value >= 10) {
+            int quotient = value / 10;
+            mBuffer[--position] = DIGITS[value - quotient * 10];
+            value = quotient;
+        }
+        mBuffer[--position] = DIGITS[value];
+        mLength = end;
+        return this;
+    }
+
+    public CsvEncoder append(long value) {
+        if (value >= Integer.MIN_VALUE + 1 && value <= Integer.MAX_VALUE) {
+            return append((int) value);
+        }
+        if (value == Long.MIN_VALUE) {
+            return append(LONG_MIN_VALUE);
+        }
+        ensureCapacity(20);
+        if (value < 0) {
+            mBuffer[mLength++] = '-';
+            value = -value;
+        }
+        // Digits are written from the last one back
+        int end = mLength + digitCount(value);
+        int position = end;
+        while (value >= 10) {
+            long quotient = value / 10;
+            mBuffer[--position] = DIGITS[(int) (value - quotient * 10)];
+            value = quotient;
+        }
+        mBuffer[--position] = DIGITS[(int) value];
+        mLength = end;
+        return this;
+    }
+
+    /**
+     * @return The formatted rows. Valid up to length(), until the next append or clear().
+     */
+    public byte[] getBuffer() {
+        return mBuffer;
+    }
+
+    public int length() {
+        return mLength;
+    }
+
+    /**
+     * Empties the buffer, keeping its capacity and the prefix.
+     */
+    public void clear() {
+        mLength = 0;
+    }
+
+    private static int digitCount(long value) {
+        int count = 1;
+        while (count < POWERS_OF_TEN.length && value >= POWERS_OF_TEN[count]) {
+            count++;
+        }
+        return count;
+    }
+
+    private void ensureCapacity(int length) {
+        if (mLength + length > mBuffer.length) {
+            byte[] buffer = new byte[Math.max(mLength + length, mBuffer.length * 2)];
+            System.arraycopy(mBuffer, 0, buffer, 0, mLength);
+            mBuffer = buffer;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package edu.uri.wbl.tex_tronics.smartglove.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Converts binary session files to the CSV files the fog node and the spreadsheets expect: a
+ * header line, then one line per sample with the device address, exercise mode, device timestamp
+ * and the value of each channel.
+ *
+ * Nothing is kept as CSV on the phone any more; a CSV is produced when one is needed, streamed
+ * block by block through a CsvInputStream.
+ */
+
+public class CsvExporter {
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+
+    private final byte[] mBuffer = new byte[SessionWriter.DEFAULT_BUFFER_SIZE];
+
+    /**
+     * @return The CSV header line of the session, without a line break.
+     */
+    public static String getHeader(SessionHeader header) {
+        StringBuilder line = new StringBuilder("Device Address,Exercise,Timestamp");
+        for (int channel = 0; channel < header.getChannelCount(); channel++) {
+            line.append(',').append(header.getChannel(channel).getName());
+        }
+        return line.toString();
+    }
+
+    /**
+     * @return The whole session as CSV. Holds the session in memory; read a CsvInputStream to go
+     *         through a long session.
+     */
+    public String toCsv(File sessionFile) throws IOException {
+        CsvInputStream csv = new CsvInputStream(sessionFile);
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            copy(csv, bytes);
+            return new String(bytes.toByteArray(), US_ASCII);
+        } finally {
+            csv.close();
+        }
+    }
+
+    /**
+     * Writes the session to a CSV file, replacing the file.
+     *
+     * @return Number of samples exported.
+     */
+    public long export(File sessionFile, File csvFile) throws IOException {
+        CsvInputStream csv = new CsvInputStream(sessionFile);
+        try {
+            if (csvFile.exists() && !csvFile.delete()) {
+                throw new IOException("Could not replace " + csvFile);
+            }
+            FileOutputStream output = new FileOutputStream(csvFile);
+            try {
+                copy(csv, output);
+            } finally {
+                output.close();
+            }
+            return csv.getSampleCount();
+        } finally {
+            csv.close();
+        }
+    }
+
+    private void copy(InputStream input, OutputStream output) throws IOException {
+        int read;
+        while ((read = input.read(mBuffer, 0, mBuffer.length)) >= 0) {
+            output.write(mBuffer, 0, read);
+        }
+    }
+
+    /**
+     * @return An encoder whose rows start with the session's device address and exercise mode.
+     */
+    static CsvEncoder createEncoder(SessionHeader header, int capacity) {
+        return new CsvEncoder(capacity).setPrefix(header.getDeviceAddress(), header.getExerciseMode().toString());
+    }
+
+    /**
+     * Appends the lines of samples [from, to) of the block, using an encoder from createEncoder().
+     */
+    static void appendLines(SessionFileReader.Block block, int channels, int from, int to, CsvEncoder lines) {
+        for (int sample = from; sample < to; sample++) {
+            lines.beginRow().append(block.getTimestamp(sample));
+            for (int channel = 0; channel < channels; channel++) {
+                lines.comma().append(block.get(channel, sample));
+            }
+            lines.endRow();
+        }
+    }
+}
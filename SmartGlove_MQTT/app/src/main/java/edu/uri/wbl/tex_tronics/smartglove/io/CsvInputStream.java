@@ -0,0 +1,137 @@
+package edu.uri.wbl.tex_tronics.smartglove.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads a binary session file as the CSV CsvExporter produces, one block at a time. Only the
+ * lines of one block are held in memory, however long the session, so the upload, the CSV export
+ * and replay tools can go through a session of any length.
+ *
+ * A range of samples can be read on its own: reading starts at the block holding the first
+ * sample, found through the file's block index.
+ */
+
+public class CsvInputStream extends InputStream {
+    private final SessionFileReader mReader;
+    private final SessionHeader mHeader;
+    private final SessionFileReader.Block mBlock;
+    private final CsvEncoder mLines;
+    private final long mFirstSample;
+    private final long mEndSample;
+    private long mNextSample;
+    private int mNextBlock;
+    private int mChunkLength;
+    private int mChunkPosition;
+    private long mBytesRead;
+
+    /**
+     * Reads the whole session, header line first.
+     */
+    public CsvInputStream(File sessionFile) throws IOException {
+        this(sessionFile, 0, Long.MAX_VALUE, true);
+    }
+
+    /**
+     * @param firstSample First sample read.
+     * @param sampleCount Most samples read; the range ends early at the end of the session.
+     * @param withHeader  true to start with the CSV header line.
+     */
+    public CsvInputStream(File sessionFile, long firstSample, long sampleCount, boolean withHeader) throws IOException {
+        if (firstSample < 0 || sampleCount < 0) {
+            throw new IllegalArgumentException("Invalid Sample Range");
+        }
+        mReader = new SessionFileReader(sessionFile);
+        mHeader = mReader.getHeader();
+        mBlock = mReader.createBlock();
+        // Room for a block of lines: address, mode and timestamp, then up to 5 digits per channel
+        mLines = CsvExporter.createEncoder(mHeader,
+                mHeader.getSamplesPerBlock() * (48 + 6 * mHeader.getChannelCount()));
+        long sessionSamples = mReader.getSampleCount();
+        mNextSample = Math.min(firstSample, sessionSamples);
+        mFirstSample = mNextSample;
+        mEndSample = mNextSample + Math.min(sampleCount, sessionSamples - mNextSample);
+        mNextBlock = mNextSample < sessionSamples ? mReader.getBlockOf(mNextSample) : mReader.getBlockCount();
+        if (withHeader) {
+            mLines.append(CsvExporter.getHeader(mHeader)).endRow();
+            mChunkLength = mLines.length();
+        }
+    }
+
+    public SessionHeader getHeader() {
+        return mHeader;
+    }
+
+    /**
+     * @return Number of samples in the range read.
+     */
+    public long getSampleCount() {
+        return mEndSample - mFirstSample;
+    }
+
+    /**
+     * @return Bytes of CSV read so far.
+     */
+    public long getBytesRead() {
+        return mBytesRead;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (mChunkPosition == mChunkLength && !nextChunk()) {
+            return -1;
+        }
+        mBytesRead++;
+        return mLines.getBuffer()[mChunkPosition++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        if (mChunkPosition == mChunkLength && !nextChunk()) {
+            return -1;
+        }
+        int read = Math.min(length, mChunkLength - mChunkPosition);
+        System.arraycopy(mLines.getBuffer(), mChunkPosition, buffer, offset, read);
+        mChunkPosition += read;
+        mBytesRead += read;
+        return read;
+    }
+
+    @Override
+    public int available() {
+        return mChunkLength - mChunkPosition;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mReader.close();
+    }
+
+    /**
+     * Formats the lines of the next block, once those of the last one are read.
+     *
+     * @return false at the end of the range.
+     */
+    private boolean nextChunk() throws IOException {
+        mLines.clear();
+        while (mLines.length() == 0) {
+            if (mNextSample >= mEndSample) {
+                mChunkLength = 0;
+                mChunkPosition = 0;
+                return false;
+            }
+            mReader.readBlock(mNextBlock++, mBlock);
+            int from = (int) (mNextSample - mBlock.getFirstSample());
+            int to = (int) Math.min(mBlock.size(), mEndSample - mBlock.getFirstSample());
+            CsvExporter.appendLines(mBlock, mHeader.getChannelCount(), from, to, mLines);
+            mNextSample = mBlock.getFirstSample() + to;
+        }
+        mChunkLength = mLines.length();
+        mChunkPosition = 0;
+        return true;
+    }
+}
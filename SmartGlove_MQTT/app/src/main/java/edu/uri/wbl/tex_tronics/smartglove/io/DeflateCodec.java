@@ -0,0 +1,80 @@
+package edu.uri.wbl.tex_tronics.smartglove.io;
+
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Deflate with the zlib wrapper (RFC 1950), which every platform can decompress (zlib.decompress()
+ * on the fog node).
+ */
+
+public class DeflateCodec implements BlockCodec {
+    public static final String NAME = "deflate";
+
+    private final Deflater mDeflater;
+    private final Inflater mInflater = new Inflater();
+
+    public DeflateCodec() {
+        this(Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * @param level Deflater.BEST_SPEED to Deflater.BEST_COMPRESSION.
+     */
+    public DeflateCodec(int level) {
+        mDeflater = new Deflater(level);
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public int getMaxCompressedLength(int length) {
+        // zlib's compressBound() plus room for the stream's end
+        return length + (length >> 12) + (length >> 14) + (length >> 25) + 32;
+    }
+
+    @Override
+    public int compress(byte[] src, int srcOffset, int length, byte[] dst, int dstOffset) {
+        mDeflater.reset();
+        mDeflater.setInput(src, srcOffset, length);
+        mDeflater.finish();
+        int end = dstOffset + getMaxCompressedLength(length);
+        int position = dstOffset;
+        while (!mDeflater.finished()) {
+            int written = mDeflater.deflate(dst, position, end - position);
+            if (written == 0 && position == end) {
+                throw new IllegalStateException("Compressed Block Larger than Bound");
+            }
+            position += written;
+        }
+        return position - dstOffset;
+    }
+
+    @Override
+    public int decompress(byte[] src, int srcOffset, int length, byte[] dst, int dstOffset, int rawLength) throws IOException {
+        mInflater.reset();
+        mInflater.setInput(src, srcOffset, length);
+        int position = dstOffset;
+        int end = dstOffset + rawLength;
+        try {
+            while (!mInflater.finished()) {
+                int read = mInflater.inflate(dst, position, end - position);
+                if (read == 0 && (mInflater.needsInput() || mInflater.needsDictionary() || position == end)) {
+                    break;
+                }
+                position += read;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt Deflate Block - " + e.getMessage());
+        }
+        if (!mInflater.finished() || position != end) {
+            throw new IOException("Corrupt Deflate Block");
+        }
+        return rawLength;
+    }
+}
@@ -0,0 +1,122 @@
+package edu.uri.wbl.tex_tronics.smartglove.io;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+import java.util.regex.Pattern;
+
+import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.enums.DeviceType;
+import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.enums.ExerciseMode;
+
+/**
+ * Adds the session CSVs recorded before the SessionCatalog existed to it, as LEGACY, so
+ * SessionRetention compacts and trims them with the rest. Run once: the files of the catalog's
+ * time are cataloged when they are written.
+ *
+ * Only the files named the way the apps name sessions are taken, in MM/dd/yyyy directories under
+ * the session directory: kk_mm_ss_SSS_glove.csv (Smart Glove apps), kk_mm_ss_SSS.csv (first Smart
+ * Glove app) and kk_mm_ss_SSS_session.csv (merged sessions). Files already cataloged are left as
+ * they are.
+ */
+
+public class LegacySessionImport {
+    private static final Pattern MONTH_OR_DAY = Pattern.compile("\\d{2}");
+    private static final Pattern YEAR = Pattern.compile("\\d{4}");
+    private static final Pattern SESSION_FILE = Pattern.compile("\\d{2}_\\d{2}_\\d{2}_\\d{3}(_glove|_session)?\\.csv");
+    private static final String MERGED_SESSION_SUFFIX = "_session.csv";
+    private static final String DEVICE_ADDRESS_COLUMN = "Device Address";
+    private static final String IMU_COLUMN = "Acc(x)";
+
+    private final File mDirectory;
+    private final SessionCatalog mCatalog;
+
+    public LegacySessionImport(File directory, SessionCatalog catalog) {
+        mDirectory = directory;
+        mCatalog = catalog;
+    }
+
+    /**
+     * @return The number of session files cataloged.
+     * @throws IOException The first error. The import goes on after an error, so one file that
+     *                     cannot be read does not keep the others out of the catalog.
+     */
+    public int run() throws IOException {
+        IOException error = null;
+        int imported = 0;
+        for (File month : list(mDirectory, MONTH_OR_DAY)) {
+            for (File day : list(month, MONTH_OR_DAY)) {
+                for (File year : list(day, YEAR)) {
+                    for (File file : list(year, SESSION_FILE)) {
+                        if (!file.isFile() || mCatalog.get(file) != null) {
+                            continue;
+                        }
+                        try {
+                            mCatalog.put(createEntry(file, month.getName() + "-" + day.getName() + "-"
+                                    + year.getName()));
+                            imported++;
+                        } catch (IOException e) {
+                            error = error == null ? e : error;
+                        }
+                    }
+                }
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+        return imported;
+    }
+
+    /**
+     * Reads the header and counts the rows of the CSV. The device address is the one of the first
+     * row, if the CSV has the column.
+     *
+     * @param date The date of the session (MM-dd-yyyy).
+     */
+    private static SessionCatalog.Entry createEntry(File file, String date) throws IOException {
+        String name = file.getName();
+        String deviceAddress = name.endsWith(MERGED_SESSION_SUFFIX) ? SessionCatalog.MERGED_SESSION_ADDRESS : "";
+        ExerciseMode exerciseMode = ExerciseMode.FLEX_ONLY;
+        long rows = 0;
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "US-ASCII"));
+        try {
+            String header = reader.readLine();
+            int addressColumn = -1;
+            if (header != null) {
+                String[] columns = header.split(",");
+                addressColumn = Arrays.asList(columns).indexOf(DEVICE_ADDRESS_COLUMN);
+                if (Arrays.asList(columns).contains(IMU_COLUMN)) {
+                    exerciseMode = ExerciseMode.FLEX_IMU;
+                }
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (rows++ == 0 && addressColumn >= 0 && deviceAddress.isEmpty()) {
+                    String[] values = line.split(",");
+                    deviceAddress = addressColumn < values.length ? values[addressColumn] : "";
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        // kk_mm_ss_SSS -> kk:mm:ss:SSS
+        String time = name.substring(0, 12).replace('_', ':');
+        return new SessionCatalog.Entry(file.getAbsolutePath(), null, deviceAddress, DeviceType.SMART_GLOVE,
+                exerciseMode, null, null, null, date + " " + time, rows, 0, file.lastModified(),
+                SessionCatalog.UploadState.LEGACY, 0);
+    }
+
+    private static File[] list(File directory, final Pattern name) {
+        File[] files = directory.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return name.matcher(file.getName()).matches();
+            }
+        });
+        return files == null ? new File[0] : files;
+    }
+}
@@ -0,0 +1,172 @@
+package edu.uri.wbl.tex_tronics.smartglove.io;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * LZ77 compression in the LZ4 block format: literals and back references to the last 64 KB, with
+ * no entropy coding. Compresses less than Deflate but several times faster, for uploads when the
+ * phone is busy recording. The output is a standard LZ4 block, readable by any LZ4 library.
+ *
+ * A block is a sequence of: a token (high nibble literal count, low nibble match length - 4, 15
+ * meaning more length bytes follow, each added until one is below 255), the literals, the match
+ * offset (16 bit little endian) and the remaining match length bytes. The last sequence has
+ * literals only, and covers at least the last LAST_LITERALS bytes.
+ */
+
+public class Lz4Codec implements BlockCodec {
+    public static final String NAME = "lz4";
+
+    private static final int MIN_MATCH = 4;
+    private static final int LAST_LITERALS = 5;
+
+    /**
+     * A match may not start in the last MATCH_FIND_LIMIT bytes.
+     */
+    private static final int MATCH_FIND_LIMIT = 12;
+    private static final int MAX_OFFSET = 0xFFFF;
+    private static final int HASH_BITS = 12;
+
+    /**
+     * Position of the last 4 bytes seen with each hash, -1 if none.
+     */
+    private final int[] mHashTable = new int[1 << HASH_BITS];
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public int getMaxCompressedLength(int length) {
+        return length + length / 255 + 16;
+    }
+
+    @Override
+    public int compress(byte[] src, int srcOffset, int length, byte[] dst, int dstOffset) {
+        int end = srcOffset + length;
+        int matchLimit = end - LAST_LITERALS;
+        int findLimit = end - MATCH_FIND_LIMIT;
+        int anchor = srcOffset;
+        int position = srcOffset;
+        int output = dstOffset;
+
+        Arrays.fill(mHashTable, -1);
+        while (position < findLimit) {
+            int sequence = readInt(src, position);
+            int hash = (sequence * -1640531535) >>> (32 - HASH_BITS);
+            int reference = mHashTable[hash];
+            mHashTable[hash] = position;
+            if (reference < 0 || position - reference > MAX_OFFSET || readInt(src, reference) != sequence) {
+                position++;
+                continue;
+            }
+
+            int matchLength = MIN_MATCH;
+            while (position + matchLength < matchLimit && src[reference + matchLength] == src[position + matchLength]) {
+                matchLength++;
+            }
+            output = writeSequence(src, anchor, position - anchor, position - reference, matchLength, dst, output);
+            position += matchLength;
+            anchor = position;
+        }
+        return writeLastLiterals(src, anchor, end - anchor, dst, output) - dstOffset;
+    }
+
+    @Override
+    public int decompress(byte[] src, int srcOffset, int length, byte[] dst, int dstOffset, int rawLength) throws IOException {
+        int input = srcOffset;
+        int end = srcOffset + length;
+        int output = dstOffset;
+        int outputEnd = dstOffset + rawLength;
+        try {
+            while (input < end) {
+                int token = src[input++] & 0xFF;
+                int literals = token >>> 4;
+                if (literals == 15) {
+                    int b;
+                    do {
+                        b = src[input++] & 0xFF;
+                        literals += b;
+                    } while (b == 255);
+                }
+                if (input + literals > end || output + literals > outputEnd) {
+                    throw new IOException("Corrupt LZ4 Block");
+                }
+                System.arraycopy(src, input, dst, output, literals);
+                input += literals;
+                output += literals;
+                if (input == end) {
+                    break;
+                }
+
+                int offset = (src[input] & 0xFF) | (src[input + 1] & 0xFF) << 8;
+                input += 2;
+                int matchLength = token & 0x0F;
+                if (matchLength == 15) {
+                    int b;
+                    do {
+                        b = src[input++] & 0xFF;
+                        matchLength += b;
+                    } while (b == 255);
+                }
+                matchLength += MIN_MATCH;
+                if (offset == 0 || output - offset < dstOffset || output + matchLength > outputEnd) {
+                    throw new IOException("Corrupt LZ4 Block");
+                }
+                // Byte by byte: the match may overlap the bytes it produces
+                for (int i = 0; i < matchLength; i++) {
+                    dst[output + i] = dst[output - offset + i];
+                }
+                output += matchLength;
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IOException("Truncated LZ4 Block");
+        }
+        if (output != outputEnd) {
+            throw new IOException("Corrupt LZ4 Block");
+        }
+        return rawLength;
+    }
+
+    private static int writeSequence(byte[] src, int literalStart, int literals, int offset, int matchLength,
+                                     byte[] dst, int output) {
+        int token = output++;
+        int matchCode = matchLength - MIN_MATCH;
+        dst[token] = (byte) ((Math.min(literals, 15) << 4) | Math.min(matchCode, 15));
+        output = writeLength(literals, dst, output);
+        System.arraycopy(src, literalStart, dst, output, literals);
+        output += literals;
+        dst[output++] = (byte) offset;
+        dst[output++] = (byte) (offset >>> 8);
+        return writeLength(matchCode, dst, output);
+    }
+
+    private static int writeLastLiterals(byte[] src, int literalStart, int literals, byte[] dst, int output) {
+        dst[output++] = (byte) (Math.min(literals, 15) << 4);
+        output = writeLength(literals, dst, output);
+        System.arraycopy(src, literalStart, dst, output, literals);
+        return output + literals;
+    }
+
+    /**
+     * Writes the bytes that follow a nibble of 15.
+     */
+    private static int writeLength(int length, byte[] dst, int output) {
+        if (length < 15) {
+            return output;
+        }
+        length -= 15;
+        while (length >= 255) {
+            dst[output++] = (byte) 255;
+            length -= 255;
+        }
+        dst[output++] = (byte) length;
+        return output;
+    }
+
+    private static int readInt(byte[] src, int position) {
+        return (src[position] & 0xFF) | (src[position + 1] & 0xFF) << 8
+                | (src[position + 2] & 0xFF) << 16 | (src[position + 3] & 0xFF) << 24;
+    }
+}
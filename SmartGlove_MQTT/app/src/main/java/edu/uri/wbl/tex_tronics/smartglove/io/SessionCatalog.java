@@ -0,0 +1,667 @@
+package edu.uri.wbl.tex_tronics.smartglove.io;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.enums.DeviceType;
+import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.enums.ExerciseMode;
+import edu.uri.wbl.tex_tronics.smartglove.visualize.Choice;
+
+/**
+ * Index of the recorded session files by patient, routine, exercise, device and Choice, so the
+ * history and upload screens find sessions without walking the storage and opening every file.
+ *
+ * The catalog is kept in memory and backed by an append-only file: each change appends one
+ * record, the latest record of a session file replacing the ones before it. A record torn by the
+ * app being killed is dropped when the file is next loaded. Once most records are replaced the
+ * file is rewritten with only the current ones.
+ *
+ * Layout (big endian): int MAGIC ("TTBC"), int VERSION, then records of int payload length, int
+ * CRC-32 of the payload and the payload: a type byte (PUT with a whole Entry, REMOVE with a path).
+ * Fields added to an Entry later are appended to its payload, and read as their default from the
+ * records written before them.
+ *
+ * Thread safe.
+ */
+
+public class SessionCatalog {
+    public static final int MAGIC = 0x54544243;
+    public static final int VERSION = 1;
+
+    /**
+     * Device address of the merged session of an exercise's devices (a CSV file written by
+     * SessionWriter), as cataloged and uploaded.
+     */
+    public static final String MERGED_SESSION_ADDRESS = "session";
+
+    private static final int FILE_HEADER_SIZE = 8;
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final int MAX_RECORD_SIZE = 64 * 1024;
+    private static final byte TYPE_PUT = 1;
+    private static final byte TYPE_REMOVE = 2;
+
+    /**
+     * Records kept beyond the current entries before the file is rewritten.
+     */
+    private static final int MIN_STALE_RECORDS = 64;
+
+    public enum UploadState {
+        /**
+         * Recorded; not sent to the fog node yet.
+         */
+        PENDING,
+
+        /**
+         * Every chunk handed to the MQTT client; the fog node has not acknowledged them all yet.
+         */
+        UPLOADED,
+
+        /**
+         * The fog node acknowledged every chunk: the session is stored on it.
+         */
+        ACKNOWLEDGED,
+
+        /**
+         * Recorded before the catalog (LegacySessionImport) and sent whole by the app of the time,
+         * which had no acknowledgements. Never uploaded again.
+         */
+        LEGACY
+    }
+
+    private final File mFile;
+    private final Map<String, Entry> mEntries = new LinkedHashMap<>();
+    private final Map<String, List<Entry>> mByPatient = new HashMap<>();
+    private final Map<String, List<Entry>> mByRoutine = new HashMap<>();
+    private final Map<String, List<Entry>> mByExercise = new HashMap<>();
+    private final Map<String, List<Entry>> mByDevice = new HashMap<>();
+    private final Map<Choice, List<Entry>> mByChoice = new HashMap<>();
+    private final CRC32 mCrc = new CRC32();
+    private int mRecords;
+
+    /**
+     * Loads the catalog, creating the file if needed.
+     */
+    public SessionCatalog(File file) throws IOException {
+        mFile = file;
+        load();
+        if (mRecords - mEntries.size() > Math.max(MIN_STALE_RECORDS, mEntries.size())) {
+            compact();
+        }
+    }
+
+    public File getFile() {
+        return mFile;
+    }
+
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    /**
+     * @return The entry of the session file, or null if it is not in the catalog.
+     */
+    public synchronized Entry get(File sessionFile) {
+        return mEntries.get(sessionFile.getAbsolutePath());
+    }
+
+    /**
+     * Adds a session, or replaces what the catalog had for its file.
+     */
+    public synchronized void put(Entry entry) throws IOException {
+        append(encodePut(entry));
+        index(entry);
+    }
+
+    /**
+     * @return false if the session file is not in the catalog.
+     */
+    public synchronized boolean setUploadState(File sessionFile, UploadState uploadState) throws IOException {
+        Entry entry = get(sessionFile);
+        if (entry == null) {
+            return false;
+        }
+        if (entry.mUploadState != uploadState) {
+            put(new Entry(entry, uploadState, entry.mChunksAcknowledged));
+        }
+        return true;
+    }
+
+    /**
+     * Records how far the fog node has acknowledged the upload of a session (see SessionUpload).
+     *
+     * @return false if the session file is not in the catalog.
+     */
+    public synchronized boolean setChunksAcknowledged(File sessionFile, int chunksAcknowledged) throws IOException {
+        Entry entry = get(sessionFile);
+        if (entry == null) {
+            return false;
+        }
+        if (entry.mChunksAcknowledged != chunksAcknowledged) {
+            put(new Entry(entry, entry.mUploadState, chunksAcknowledged));
+        }
+        return true;
+    }
+
+    /**
+     * Moves a session to a new file, e.g. once its CSV is compacted (CsvCompactor).
+     *
+     * @return false if the session file is not in the catalog.
+     */
+    public synchronized boolean moveFile(File sessionFile, File newFile) throws IOException {
+        Entry entry = get(sessionFile);
+        if (entry == null) {
+            return false;
+        }
+        put(new Entry(newFile.getAbsolutePath(), entry));
+        remove(sessionFile);
+        return true;
+    }
+
+    /**
+     * Forgets a session, e.g. once its file is deleted.
+     *
+     * @return false if the session file is not in the catalog.
+     */
+    public synchronized boolean remove(File sessionFile) throws IOException {
+        String path = sessionFile.getAbsolutePath();
+        if (!mEntries.containsKey(path)) {
+            return false;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+        output.writeByte(TYPE_REMOVE);
+        output.writeUTF(path);
+        append(bytes.toByteArray());
+        unindex(path);
+        return true;
+    }
+
+    /**
+     * @return The sessions matching every criterion set in the query, oldest first.
+     */
+    public synchronized List<Entry> find(Query query) {
+        // Start from the shortest index the query can use
+        List<Entry> candidates = null;
+        candidates = shorter(candidates, query.mPatient, mByPatient);
+        candidates = shorter(candidates, query.mRoutineID, mByRoutine);
+        candidates = shorter(candidates, query.mExerciseID, mByExercise);
+        candidates = shorter(candidates, query.mDeviceAddress, mByDevice);
+        candidates = shorter(candidates, query.mChoice, mByChoice);
+        if (candidates == null) {
+            candidates = new ArrayList<>(mEntries.values());
+        }
+
+        List<Entry> matches = new ArrayList<>();
+        for (Entry entry : candidates) {
+            if (query.matches(entry)) {
+                matches.add(entry);
+            }
+        }
+        return matches;
+    }
+
+    private static <K> List<Entry> shorter(List<Entry> candidates, K key, Map<K, List<Entry>> index) {
+        if (key == null) {
+            return candidates;
+        }
+        List<Entry> entries = index.get(key);
+        if (entries == null) {
+            return new ArrayList<>();
+        }
+        return candidates == null || entries.size() < candidates.size() ? entries : candidates;
+    }
+
+    private void index(Entry entry) {
+        Entry previous = mEntries.put(entry.mPath, entry);
+        reindex(mByPatient, previous == null ? null : previous.mPatient, entry.mPatient, previous, entry);
+        reindex(mByRoutine, previous == null ? null : previous.mRoutineID, entry.mRoutineID, previous, entry);
+        reindex(mByExercise, previous == null ? null : previous.mExerciseID, entry.mExerciseID, previous, entry);
+        reindex(mByDevice, previous == null ? null : previous.mDeviceAddress, entry.mDeviceAddress, previous, entry);
+        reindex(mByChoice, previous == null ? null : previous.mChoice, entry.mChoice, previous, entry);
+    }
+
+    private void unindex(String path) {
+        Entry entry = mEntries.remove(path);
+        if (entry != null) {
+            removeFrom(mByPatient, entry.mPatient, entry);
+            removeFrom(mByRoutine, entry.mRoutineID, entry);
+            removeFrom(mByExercise, entry.mExerciseID, entry);
+            removeFrom(mByDevice, entry.mDeviceAddress, entry);
+            removeFrom(mByChoice, entry.mChoice, entry);
+        }
+    }
+
+    /**
+     * Moves a session from the list of its previous key to the list of its key, keeping its place
+     * if the key is the same.
+     */
+    private static <K> void reindex(Map<K, List<Entry>> index, K previousKey, K key, Entry previous, Entry entry) {
+        if (previous != null && previousKey != null && previousKey.equals(key)) {
+            List<Entry> entries = index.get(key);
+            entries.set(entries.indexOf(previous), entry);
+            return;
+        }
+        if (previous != null) {
+            removeFrom(index, previousKey, previous);
+        }
+        if (key == null) {
+            return;
+        }
+        List<Entry> entries = index.get(key);
+        if (entries == null) {
+            entries = new ArrayList<>();
+            index.put(key, entries);
+        }
+        entries.add(entry);
+    }
+
+    private static <K> void removeFrom(Map<K, List<Entry>> index, K key, Entry entry) {
+        if (key == null) {
+            return;
+        }
+        List<Entry> entries = index.get(key);
+        if (entries == null) {
+            return;
+        }
+        entries.remove(entry);
+        if (entries.isEmpty()) {
+            index.remove(key);
+        }
+    }
+
+    private void load() throws IOException {
+        if (!mFile.exists() || mFile.length() < FILE_HEADER_SIZE) {
+            create(mFile);
+            return;
+        }
+
+        long validLength = FILE_HEADER_SIZE;
+        DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+        try {
+            if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+                throw new IOException("Not a Session Catalog: " + mFile);
+            }
+            byte[] payload = new byte[256];
+            while (true) {
+                int length;
+                int crc;
+                try {
+                    length = input.readInt();
+                    crc = input.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (length <= 0 || length > MAX_RECORD_SIZE) {
+                    break;
+                }
+                if (payload.length < length) {
+                    payload = new byte[length];
+                }
+                try {
+                    input.readFully(payload, 0, length);
+                } catch (EOFException e) {
+                    break;
+                }
+                mCrc.reset();
+                mCrc.update(payload, 0, length);
+                if ((int) mCrc.getValue() != crc) {
+                    break;
+                }
+                apply(payload, length);
+                validLength += RECORD_HEADER_SIZE + length;
+                mRecords++;
+            }
+        } finally {
+            input.close();
+        }
+
+        // Drop a record torn by the app being killed, so the next one is appended after the last good one
+        if (validLength < mFile.length()) {
+            RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+            try {
+                file.setLength(validLength);
+            } finally {
+                file.close();
+            }
+        }
+    }
+
+    private void apply(byte[] payload, int length) throws IOException {
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(payload, 0, length));
+        byte type = input.readByte();
+        if (type == TYPE_PUT) {
+            index(Entry.read(input));
+        } else if (type == TYPE_REMOVE) {
+            unindex(input.readUTF());
+        } else {
+            throw new IOException("Unknown Catalog Record: " + type);
+        }
+    }
+
+    private void append(byte[] payload) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        try {
+            file.seek(file.length());
+            file.getChannel().write(frame(payload));
+            file.getChannel().force(false);
+        } finally {
+            file.close();
+        }
+        mRecords++;
+    }
+
+    private ByteBuffer frame(byte[] payload) {
+        mCrc.reset();
+        mCrc.update(payload, 0, payload.length);
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + payload.length);
+        record.putInt(payload.length).putInt((int) mCrc.getValue()).put(payload);
+        record.flip();
+        return record;
+    }
+
+    /**
+     * Rewrites the file with one record per session.
+     */
+    private void compact() throws IOException {
+        File temporary = new File(mFile.getPath() + ".tmp");
+        create(temporary);
+        RandomAccessFile file = new RandomAccessFile(temporary, "rw");
+        try {
+            file.seek(FILE_HEADER_SIZE);
+            for (Entry entry : mEntries.values()) {
+                file.getChannel().write(frame(encodePut(entry)));
+            }
+            file.getChannel().force(false);
+        } finally {
+            file.close();
+        }
+        if (!temporary.renameTo(mFile)) {
+            throw new IOException("Could not replace " + mFile);
+        }
+        mRecords = mEntries.size();
+    }
+
+    private static void create(File file) throws IOException {
+        File parent = file.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Could not create " + parent);
+        }
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            randomAccessFile.setLength(0);
+            randomAccessFile.writeInt(MAGIC);
+            randomAccessFile.writeInt(VERSION);
+            randomAccessFile.getChannel().force(false);
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    private static byte[] encodePut(Entry entry) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream output = new DataOutputStream(bytes);
+        output.writeByte(TYPE_PUT);
+        entry.write(output);
+        return bytes.toByteArray();
+    }
+
+    /**
+     * One recorded session file.
+     */
+    public static class Entry {
+        private final String mPath;
+        private final String mPatient;
+        private final String mDeviceAddress;
+        private final DeviceType mDeviceType;
+        private final ExerciseMode mExerciseMode;
+        private final Choice mChoice;
+        private final String mExerciseID;
+        private final String mRoutineID;
+        private final String mDate;
+        private final long mSampleCount;
+        private final long mDurationMs;
+        private final long mFinishedTime;
+        private final UploadState mUploadState;
+        private final int mChunksAcknowledged;
+
+        /**
+         * @param patient      Patient recorded (null if not known).
+         * @param durationMs   Time covered by the samples.
+         * @param finishedTime When the session file was finished (System.currentTimeMillis()).
+         */
+        public Entry(File sessionFile, SessionHeader header, String patient, long sampleCount, long durationMs,
+                     long finishedTime, UploadState uploadState) {
+            this(sessionFile, header, header.getDeviceAddress(), patient, sampleCount, durationMs, finishedTime,
+                    uploadState);
+        }
+
+        /**
+         * @param header        Header of a session of the exercise, e.g. one of the devices merged.
+         * @param deviceAddress Device address cataloged instead of the header's (MERGED_SESSION_ADDRESS).
+         */
+        public Entry(File sessionFile, SessionHeader header, String deviceAddress, String patient, long sampleCount,
+                     long durationMs, long finishedTime, UploadState uploadState) {
+            this(sessionFile.getAbsolutePath(), patient, deviceAddress, header.getDeviceType(),
+                    header.getExerciseMode(), header.getChoice(), header.getExerciseID(), header.getRoutineID(),
+                    header.getDate(), sampleCount, durationMs, finishedTime, uploadState, 0);
+        }
+
+        private Entry(String path, Entry entry) {
+            this(path, entry.mPatient, entry.mDeviceAddress, entry.mDeviceType, entry.mExerciseMode,
+                    entry.mChoice, entry.mExerciseID, entry.mRoutineID, entry.mDate, entry.mSampleCount,
+                    entry.mDurationMs, entry.mFinishedTime, entry.mUploadState, entry.mChunksAcknowledged);
+        }
+
+        private Entry(Entry entry, UploadState uploadState, int chunksAcknowledged) {
+            this(entry.mPath, entry.mPatient, entry.mDeviceAddress, entry.mDeviceType, entry.mExerciseMode,
+                    entry.mChoice, entry.mExerciseID, entry.mRoutineID, entry.mDate, entry.mSampleCount,
+                    entry.mDurationMs, entry.mFinishedTime, uploadState, chunksAcknowledged);
+        }
+
+        Entry(String path, String patient, String deviceAddress, DeviceType deviceType,
+              ExerciseMode exerciseMode, Choice choice, String exerciseID, String routineID, String date,
+              long sampleCount, long durationMs, long finishedTime, UploadState uploadState,
+              int chunksAcknowledged) {
+            mPath = path;
+            mPatient = patient;
+            mDeviceAddress = deviceAddress;
+            mDeviceType = deviceType;
+            mExerciseMode = exerciseMode;
+            mChoice = choice;
+            mExerciseID = exerciseID;
+            mRoutineID = routineID;
+            mDate = date;
+            mSampleCount = sampleCount;
+            mDurationMs = durationMs;
+            mFinishedTime = finishedTime;
+            mUploadState = uploadState;
+            mChunksAcknowledged = chunksAcknowledged;
+        }
+
+        public File getFile() {
+            return new File(mPath);
+        }
+
+        public String getPatient() {
+            return mPatient;
+        }
+
+        public String getDeviceAddress() {
+            return mDeviceAddress;
+        }
+
+        public DeviceType getDeviceType() {
+            return mDeviceType;
+        }
+
+        public ExerciseMode getExerciseMode() {
+            return mExerciseMode;
+        }
+
+        public Choice getChoice() {
+            return mChoice;
+        }
+
+        public String getExerciseID() {
+            return mExerciseID;
+        }
+
+        public String getRoutineID() {
+            return mRoutineID;
+        }
+
+        /**
+         * @return When the session started, as in the upload ("MM-dd-yyyy kk:mm:ss:SSS").
+         */
+        public String getDate() {
+            return mDate;
+        }
+
+        public long getSampleCount() {
+            return mSampleCount;
+        }
+
+        public long getDurationMs() {
+            return mDurationMs;
+        }
+
+        public long getFinishedTime() {
+            return mFinishedTime;
+        }
+
+        public UploadState getUploadState() {
+            return mUploadState;
+        }
+
+        /**
+         * @return Number of chunks of the upload the fog node has acknowledged in order.
+         */
+        public int getChunksAcknowledged() {
+            return mChunksAcknowledged;
+        }
+
+        private void write(DataOutputStream output) throws IOException {
+            output.writeUTF(mPath);
+            writeNullable(output, mPatient);
+            output.writeUTF(mDeviceAddress);
+            output.writeUTF(mDeviceType.name());
+            output.writeUTF(mExerciseMode.name());
+            writeNullable(output, mChoice == null ? null : mChoice.name());
+            writeNullable(output, mExerciseID);
+            writeNullable(output, mRoutineID);
+            output.writeUTF(mDate == null ? "" : mDate);
+            output.writeLong(mSampleCount);
+            output.writeLong(mDurationMs);
+            output.writeLong(mFinishedTime);
+            output.writeUTF(mUploadState.name());
+            output.writeInt(mChunksAcknowledged);
+        }
+
+        private static Entry read(DataInputStream input) throws IOException {
+            try {
+                String path = input.readUTF();
+                String patient = readNullable(input);
+                String deviceAddress = input.readUTF();
+                DeviceType deviceType = DeviceType.valueOf(input.readUTF());
+                ExerciseMode exerciseMode = ExerciseMode.valueOf(input.readUTF());
+                String choice = readNullable(input);
+                String exerciseID = readNullable(input);
+                String routineID = readNullable(input);
+                String date = input.readUTF();
+                long sampleCount = input.readLong();
+                long durationMs = input.readLong();
+                long finishedTime = input.readLong();
+                UploadState uploadState = UploadState.valueOf(input.readUTF());
+                int chunksAcknowledged = input.available() >= 4 ? input.readInt() : 0;
+                return new Entry(path, patient, deviceAddress, deviceType, exerciseMode,
+                        choice == null ? null : Choice.valueOf(choice), exerciseID, routineID, date, sampleCount,
+                        durationMs, finishedTime, uploadState, chunksAcknowledged);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Unknown Value in Catalog - " + e.getMessage());
+            }
+        }
+
+        private static void writeNullable(DataOutputStream output, String value) throws IOException {
+            output.writeBoolean(value != null);
+            if (value != null) {
+                output.writeUTF(value);
+            }
+        }
+
+        private static String readNullable(DataInputStream input) throws IOException {
+            return input.readBoolean() ? input.readUTF() : null;
+        }
+
+        @Override
+        public String toString() {
+            return mPath + " (" + mDeviceAddress + ", " + Choice.toString(mChoice) + ", " + mSampleCount + " samples, "
+                    + mUploadState + ")";
+        }
+    }
+
+    /**
+     * Criteria of find(). Criteria left unset match every session.
+     */
+    public static class Query {
+        private String mPatient;
+        private String mRoutineID;
+        private String mExerciseID;
+        private String mDeviceAddress;
+        private Choice mChoice;
+        private UploadState mUploadState;
+
+        public Query setPatient(String patient) {
+            mPatient = patient;
+            return this;
+        }
+
+        public Query setRoutineID(String routineID) {
+            mRoutineID = routineID;
+            return this;
+        }
+
+        public Query setExerciseID(String exerciseID) {
+            mExerciseID = exerciseID;
+            return this;
+        }
+
+        public Query setDeviceAddress(String deviceAddress) {
+            mDeviceAddress = deviceAddress;
+            return this;
+        }
+
+        public Query setChoice(Choice choice) {
+            mChoice = choice;
+            return this;
+        }
+
+        public Query setUploadState(UploadState uploadState) {
+            mUploadState = uploadState;
+            return this;
+        }
+
+        private boolean matches(Entry entry) {
+            return (mPatient == null || mPatient.equals(entry.mPatient))
+                    && (mRoutineID == null || mRoutineID.equals(entry.mRoutineID))
+                    && (mExerciseID == null || mExerciseID.equals(entry.mExerciseID))
+                    && (mDeviceAddress == null || mDeviceAddress.equals(entry.mDeviceAddress))
+                    && (mChoice == null || mChoice == entry.mChoice)
+                    && (mUploadState == null || mUploadState == entry.mUploadState);
+        }
+    }
+}
@@ -0,0 +1,283 @@
+package edu.uri.wbl.tex_tronics.smartglove.io;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads a binary session file (see SessionHeader for the layout). The block index is read from the
+ * trailer when the file is opened, so any block can then be read with a single seek.
+ *
+ * A file that was not closed (the app stopped while recording) has no trailer; its blocks are
+ * found by walking them from the start instead, up to the last one that was written completely.
+ */
+
+public class SessionFileReader implements Closeable {
+    /**
+     * The decoded samples of one block, column by column, in the order of the header's channels.
+     */
+    public static class Block {
+        private final long[] mTimestamps;
+        private final int[][] mValues;
+        private int mSize = 0;
+        private long mFirstSample = 0;
+
+        public Block(SessionHeader header) {
+            mTimestamps = new long[header.getSamplesPerBlock()];
+            mValues = new int[header.getChannelCount()][header.getSamplesPerBlock()];
+        }
+
+        public int size() {
+            return mSize;
+        }
+
+        /**
+         * @return Number of the block's first sample in the session.
+         */
+        public long getFirstSample() {
+            return mFirstSample;
+        }
+
+        public long getTimestamp(int sample) {
+            return mTimestamps[sample];
+        }
+
+        /**
+         * @param channel Index of the channel in the header.
+         */
+        public int get(int channel, int sample) {
+            return mValues[channel][sample];
+        }
+    }
+
+    private final File mFile;
+    private final RandomAccessFile mRandomAccessFile;
+    private final FileChannel mChannel;
+    private final SessionHeader mHeader;
+    private final ByteBuffer mBlockHeader = ByteBuffer.allocate(SessionHeader.BLOCK_HEADER_SIZE);
+    private final ByteBuffer mPayload;
+
+    private long[] mBlockOffsets;
+    private int mBlockCount;
+    private long mSampleCount;
+    private long mDataEnd;
+    private boolean mComplete;
+
+    public SessionFileReader(File file) throws IOException {
+        mFile = file;
+        mRandomAccessFile = new RandomAccessFile(file, "r");
+        mChannel = mRandomAccessFile.getChannel();
+        try {
+            ByteBuffer prefix = ByteBuffer.allocate(SessionHeader.PREFIX_SIZE);
+            readFully(prefix, 0);
+            if (prefix.getInt() != SessionHeader.MAGIC) {
+                throw new IOException(file.getName() + " is not a Session File");
+            }
+            short version = prefix.getShort();
+            if (version != SessionHeader.VERSION) {
+                throw new IOException("Unsupported Session File Version " + version);
+            }
+            int headerLength = prefix.getInt();
+            if (headerLength <= 0 || headerLength > SessionHeader.MAX_HEADER_SIZE) {
+                throw new IOException("Invalid Session Header Length " + headerLength);
+            }
+            ByteBuffer header = ByteBuffer.allocate(headerLength);
+            readFully(header, SessionHeader.PREFIX_SIZE);
+            mHeader = SessionHeader.decode(header.array());
+            mPayload = ByteBuffer.allocate(mHeader.getMaxPayloadSize());
+
+            long dataStart = SessionHeader.PREFIX_SIZE + headerLength;
+            if (!readIndex(dataStart)) {
+                scanBlocks(dataStart);
+            }
+        } catch (IOException e) {
+            mRandomAccessFile.close();
+            throw e;
+        }
+    }
+
+    public File getFile() {
+        return mFile;
+    }
+
+    public SessionHeader getHeader() {
+        return mHeader;
+    }
+
+    /**
+     * @return false if the file was not closed and its blocks were recovered by walking them.
+     */
+    public boolean isComplete() {
+        return mComplete;
+    }
+
+    public long getSampleCount() {
+        return mSampleCount;
+    }
+
+    public int getBlockCount() {
+        return mBlockCount;
+    }
+
+    public long getBlockOffset(int block) {
+        return mBlockOffsets[block];
+    }
+
+    /**
+     * @return Offset just past the last block, where the index starts.
+     */
+    public long getDataEnd() {
+        return mDataEnd;
+    }
+
+    /**
+     * @return The block holding the sample.
+     */
+    public int getBlockOf(long sample) {
+        if (sample < 0 || sample >= mSampleCount) {
+            throw new IndexOutOfBoundsException("Sample " + sample + " of " + mSampleCount);
+        }
+        return (int) (sample / mHeader.getSamplesPerBlock());
+    }
+
+    public Block createBlock() {
+        return new Block(mHeader);
+    }
+
+    /**
+     * Reads and decodes one block.
+     *
+     * @return Number of samples in the block.
+     */
+    public int readBlock(int block, Block samples) throws IOException {
+        if (block < 0 || block >= mBlockCount) {
+            throw new IndexOutOfBoundsException("Block " + block + " of " + mBlockCount);
+        }
+        long offset = mBlockOffsets[block];
+        int size = readBlockHeader(offset, mDataEnd);
+        if (size < 0) {
+            throw new IOException("Corrupt Block " + block + " in " + mFile.getName());
+        }
+        mPayload.clear();
+        mPayload.limit(mBlockHeader.getInt(4));
+        readFully(mPayload, offset + SessionHeader.BLOCK_HEADER_SIZE);
+
+        try {
+            long timestamp = 0;
+            for (int sample = 0; sample < size; sample++) {
+                timestamp += VarInt.getLong(mPayload);
+                samples.mTimestamps[sample] = timestamp;
+            }
+            for (int channel = 0; channel < mHeader.getChannelCount(); channel++) {
+                int[] values = samples.mValues[channel];
+                int value = 0;
+                for (int sample = 0; sample < size; sample++) {
+                    value += VarInt.getInt(mPayload);
+                    values[sample] = value;
+                }
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException("Corrupt Block " + block + " in " + mFile.getName());
+        }
+        samples.mSize = size;
+        samples.mFirstSample = (long) block * mHeader.getSamplesPerBlock();
+        return size;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mRandomAccessFile.close();
+    }
+
+    private boolean readIndex(long dataStart) throws IOException {
+        long length = mChannel.size();
+        if (length < dataStart + SessionHeader.TRAILER_SIZE) {
+            return false;
+        }
+        ByteBuffer trailer = ByteBuffer.allocate(SessionHeader.TRAILER_SIZE);
+        readFully(trailer, length - SessionHeader.TRAILER_SIZE);
+        long indexOffset = trailer.getLong();
+        long sampleCount = trailer.getLong();
+        int blockCount = trailer.getInt();
+        if (trailer.getInt() != SessionHeader.TRAILER_MAGIC || blockCount < 0 || indexOffset < dataStart
+                || indexOffset + 8L * blockCount + SessionHeader.TRAILER_SIZE != length) {
+            return false;
+        }
+
+        ByteBuffer index = ByteBuffer.allocate(8 * blockCount);
+        readFully(index, indexOffset);
+        mBlockOffsets = new long[Math.max(1, blockCount)];
+        for (int block = 0; block < blockCount; block++) {
+            mBlockOffsets[block] = index.getLong();
+        }
+        mBlockCount = blockCount;
+        mSampleCount = sampleCount;
+        mDataEnd = indexOffset;
+        mComplete = true;
+        return true;
+    }
+
+    private void scanBlocks(long dataStart) throws IOException {
+        long length = mChannel.size();
+        mBlockOffsets = new long[16];
+        mBlockCount = 0;
+        mSampleCount = 0;
+        long offset = dataStart;
+        while (true) {
+            int size = readBlockHeader(offset, length);
+            if (size <= 0) {
+                break;
+            }
+            if (mBlockCount == mBlockOffsets.length) {
+                long[] blockOffsets = new long[mBlockOffsets.length * 2];
+                System.arraycopy(mBlockOffsets, 0, blockOffsets, 0, mBlockCount);
+                mBlockOffsets = blockOffsets;
+            }
+            mBlockOffsets[mBlockCount++] = offset;
+            mSampleCount += size;
+            offset += SessionHeader.BLOCK_HEADER_SIZE + mBlockHeader.getInt(4);
+            if (size < mHeader.getSamplesPerBlock()) {
+                // Only the last block may be short
+                break;
+            }
+        }
+        mDataEnd = offset;
+        mComplete = false;
+    }
+
+    /**
+     * Reads the header of the block at the offset into mBlockHeader.
+     *
+     * @return The block's sample count, or -1 if there is no valid block before the end.
+     */
+    private int readBlockHeader(long offset, long end) throws IOException {
+        if (offset + SessionHeader.BLOCK_HEADER_SIZE > end) {
+            return -1;
+        }
+        mBlockHeader.clear();
+        readFully(mBlockHeader, offset);
+        int size = mBlockHeader.getInt(0);
+        int payloadLength = mBlockHeader.getInt(4);
+        if (size <= 0 || size > mHeader.getSamplesPerBlock() || payloadLength < 0
+                || payloadLength > mPayload.capacity()
+                || offset + SessionHeader.BLOCK_HEADER_SIZE + payloadLength > end) {
+            return -1;
+        }
+        return size;
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = mChannel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Unexpected End of " + mFile.getName());
+            }
+            position += read;
+        }
+        buffer.flip();
+    }
+}
@@ -0,0 +1,358 @@
+package edu.uri.wbl.tex_tronics.smartglove.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.data_types.SampleBlock;
+
+/**
+ * Records a session in a binary session file (see SessionHeader for the layout). Samples are kept
+ * in columns until a block is full, then the block is encoded into a preallocated buffer and
+ * written with one call. close() writes the last, short block and the block index.
+ *
+ * Opening a file that already holds samples of the same channels continues it: its last block is
+ * read back and the index is dropped, to be written again on close(). Not thread safe: a writer
+ * belongs to the thread that appends to it.
+ *
+ * Given a journal directory, the samples of the block not yet written are also kept in a
+ * SessionJournal until the block is, so a recording cut short loses nothing that was appended.
+ * A writer that finds its journal replays it after continuing the file.
+ */
+
+public class SessionFileWriter {
+    private final File mFile;
+    private final SessionHeader mHeader;
+    private final int mSamplesPerBlock;
+    private final int[] mColumns;
+
+    private final long[] mTimestamps;
+    private final int[][] mValues;
+    private int mSize = 0;
+
+    private final ByteBuffer mBlock;
+
+    private RandomAccessFile mRandomAccessFile;
+    private FileChannel mChannel;
+    private long mPosition;
+
+    private long[] mBlockOffsets = new long[64];
+    private int mBlockCount = 0;
+    private long mSampleCount = 0;
+
+    private SessionJournal mJournal;
+
+    private long mBytesWritten = 0;
+    private long mMaxFlushNanos = 0;
+
+    public SessionFileWriter(File file, SessionHeader header) throws IOException {
+        this(file, header, null);
+    }
+
+    /**
+     * Creates the file and its directories, or continues the file if it already holds samples.
+     *
+     * @param journalDirectory Where the journal is kept, or null to keep the samples of the block
+     *                         being filled in memory only.
+     * @throws IOException If the file holds samples of other channels.
+     */
+    public SessionFileWriter(File file, SessionHeader header, File journalDirectory) throws IOException {
+        mFile = file;
+        mHeader = header;
+        mSamplesPerBlock = header.getSamplesPerBlock();
+        mColumns = new int[header.getChannelCount()];
+        for (int channel = 0; channel < mColumns.length; channel++) {
+            mColumns[channel] = header.getChannel(channel).getColumn();
+        }
+        mTimestamps = new long[mSamplesPerBlock];
+        mValues = new int[mColumns.length][mSamplesPerBlock];
+        mBlock = ByteBuffer.allocateDirect(SessionHeader.BLOCK_HEADER_SIZE + header.getMaxPayloadSize());
+
+        File parent = file.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Could not create " + parent);
+        }
+        if (file.length() > 0) {
+            continueFile();
+        } else {
+            createFile();
+        }
+        if (journalDirectory != null) {
+            try {
+                openJournal(SessionJournal.getJournalFile(journalDirectory, file));
+            } catch (IOException e) {
+                mRandomAccessFile.close();
+                mChannel = null;
+                throw e;
+            }
+        }
+    }
+
+    private void createFile() throws IOException {
+        byte[] header = mHeader.encode();
+        ByteBuffer prefix = ByteBuffer.allocate(SessionHeader.PREFIX_SIZE + header.length);
+        prefix.putInt(SessionHeader.MAGIC).putShort(SessionHeader.VERSION).putInt(header.length).put(header);
+        prefix.flip();
+
+        mRandomAccessFile = new RandomAccessFile(mFile, "rw");
+        mChannel = mRandomAccessFile.getChannel();
+        mPosition = 0;
+        write(prefix);
+    }
+
+    private void continueFile() throws IOException {
+        SessionFileReader reader = new SessionFileReader(mFile);
+        try {
+            if (!reader.getHeader().isCompatible(mHeader)) {
+                throw new IOException(mFile.getName() + " holds a different Session");
+            }
+            mBlockCount = reader.getBlockCount();
+            mSampleCount = reader.getSampleCount();
+            mPosition = reader.getDataEnd();
+            if (mBlockOffsets.length < mBlockCount) {
+                mBlockOffsets = new long[mBlockCount * 2];
+            }
+            for (int block = 0; block < mBlockCount; block++) {
+                mBlockOffsets[block] = reader.getBlockOffset(block);
+            }
+
+            // A short last block is filled up before it is written again
+            if (mBlockCount > 0 && mSampleCount % mSamplesPerBlock != 0) {
+                SessionFileReader.Block last = reader.createBlock();
+                int size = reader.readBlock(mBlockCount - 1, last);
+                for (int sample = 0; sample < size; sample++) {
+                    mTimestamps[sample] = last.getTimestamp(sample);
+                    for (int channel = 0; channel < mColumns.length; channel++) {
+                        mValues[channel][sample] = last.get(channel, sample);
+                    }
+                }
+                mSize = size;
+                mBlockCount--;
+                mSampleCount -= size;
+                mPosition = mBlockOffsets[mBlockCount];
+            }
+        } finally {
+            reader.close();
+        }
+
+        mRandomAccessFile = new RandomAccessFile(mFile, "rw");
+        mChannel = mRandomAccessFile.getChannel();
+        mChannel.truncate(mPosition);
+    }
+
+    /**
+     * Replays the samples the journal holds that did not reach the file, then starts journaling
+     * the samples of the block being filled.
+     */
+    private void openJournal(File journalFile) throws IOException {
+        mJournal = new SessionJournal(journalFile, mFile, mColumns.length, mSamplesPerBlock);
+
+        long[] timestamps = new long[0];
+        int[][] values = new int[0][];
+        if (mJournal.isValid()) {
+            // Records up to the file's end were written before the journal was reset
+            long first = Math.max(0, getSampleCount() - mJournal.getBaseSample());
+            int count = (int) Math.max(0, mJournal.getCommitted() - first);
+            timestamps = new long[count];
+            values = new int[count][mColumns.length];
+            for (int i = 0; i < count; i++) {
+                int record = (int) first + i;
+                timestamps[i] = mJournal.getTimestamp(record);
+                for (int channel = 0; channel < mColumns.length; channel++) {
+                    values[i][channel] = mJournal.getValue(record, channel);
+                }
+            }
+        }
+
+        mJournal.reset(mSampleCount);
+        for (int sample = 0; sample < mSize; sample++) {
+            mJournal.put(sample, mTimestamps[sample], mValues, sample);
+        }
+        mJournal.commit(mSize);
+        for (int i = 0; i < timestamps.length; i++) {
+            append(timestamps[i], values[i]);
+        }
+    }
+
+    public File getFile() {
+        return mFile;
+    }
+
+    public SessionHeader getHeader() {
+        return mHeader;
+    }
+
+    public boolean isOpen() {
+        return mChannel != null;
+    }
+
+    /**
+     * Appends every sample of the block, storing the header's channels.
+     */
+    public void append(SampleBlock block) throws IOException {
+        checkOpen();
+        for (int sample = 0; sample < block.size(); sample++) {
+            mTimestamps[mSize] = block.getTimestamp(sample);
+            for (int channel = 0; channel < mColumns.length; channel++) {
+                mValues[channel][mSize] = block.get(mColumns[channel], sample);
+            }
+            if (mJournal != null) {
+                mJournal.put(mSize, mTimestamps[mSize], mValues, mSize);
+            }
+            if (++mSize == mSamplesPerBlock) {
+                flush();
+            }
+        }
+        if (mJournal != null) {
+            mJournal.commit(mSize);
+        }
+    }
+
+    /**
+     * Appends one sample.
+     *
+     * @param values Value of each of the header's channels, in order.
+     */
+    public void append(long timestamp, int[] values) throws IOException {
+        checkOpen();
+        mTimestamps[mSize] = timestamp;
+        for (int channel = 0; channel < mColumns.length; channel++) {
+            mValues[channel][mSize] = values[channel];
+        }
+        if (mJournal != null) {
+            mJournal.put(mSize, timestamp, mValues, mSize);
+        }
+        if (++mSize == mSamplesPerBlock) {
+            flush();
+        }
+        if (mJournal != null) {
+            mJournal.commit(mSize);
+        }
+    }
+
+    /**
+     * Encodes and writes the samples appended since the last block, as a block of their own.
+     */
+    private void flush() throws IOException {
+        if (mSize == 0) {
+            return;
+        }
+        long start = System.nanoTime();
+
+        mBlock.clear();
+        mBlock.position(SessionHeader.BLOCK_HEADER_SIZE);
+        long previousTimestamp = 0;
+        for (int sample = 0; sample < mSize; sample++) {
+            VarInt.putLong(mBlock, mTimestamps[sample] - previousTimestamp);
+            previousTimestamp = mTimestamps[sample];
+        }
+        for (int channel = 0; channel < mColumns.length; channel++) {
+            int[] values = mValues[channel];
+            int previous = 0;
+            for (int sample = 0; sample < mSize; sample++) {
+                VarInt.putInt(mBlock, values[sample] - previous);
+                previous = values[sample];
+            }
+        }
+        mBlock.putInt(0, mSize);
+        mBlock.putInt(4, mBlock.position() - SessionHeader.BLOCK_HEADER_SIZE);
+        mBlock.flip();
+
+        if (mBlockCount == mBlockOffsets.length) {
+            long[] blockOffsets = new long[mBlockOffsets.length * 2];
+            System.arraycopy(mBlockOffsets, 0, blockOffsets, 0, mBlockCount);
+            mBlockOffsets = blockOffsets;
+        }
+        mBlockOffsets[mBlockCount++] = mPosition;
+        mSampleCount += mSize;
+        mSize = 0;
+        write(mBlock);
+        if (mJournal != null) {
+            mJournal.reset(mSampleCount);
+        }
+
+        long flushNanos = System.nanoTime() - start;
+        if (flushNanos > mMaxFlushNanos) {
+            mMaxFlushNanos = flushNanos;
+        }
+    }
+
+    /**
+     * Writes the last block and the block index, makes sure they have reached the storage device
+     * and closes the file. Does nothing if the writer is already closed.
+     */
+    public void close() throws IOException {
+        if (mChannel == null) {
+            return;
+        }
+        try {
+            flush();
+
+            ByteBuffer index = ByteBuffer.allocate(8 * mBlockCount + SessionHeader.TRAILER_SIZE);
+            for (int block = 0; block < mBlockCount; block++) {
+                index.putLong(mBlockOffsets[block]);
+            }
+            index.putLong(mPosition).putLong(mSampleCount).putInt(mBlockCount).putInt(SessionHeader.TRAILER_MAGIC);
+            index.flip();
+            write(index);
+            mChannel.force(false);
+
+            // Only once the file is complete
+            if (mJournal != null) {
+                mJournal.delete();
+                mJournal = null;
+            }
+        } finally {
+            mRandomAccessFile.close();
+            mChannel = null;
+            mRandomAccessFile = null;
+        }
+    }
+
+    private void checkOpen() throws IOException {
+        if (mChannel == null) {
+            throw new IOException("Session File Writer Closed");
+        }
+    }
+
+    private void write(ByteBuffer buffer) throws IOException {
+        int bytes = buffer.remaining();
+        while (buffer.hasRemaining()) {
+            mPosition += mChannel.write(buffer, mPosition);
+        }
+        mBytesWritten += bytes;
+    }
+
+    /**
+     * @return Samples in the file, including those not yet written.
+     */
+    public long getSampleCount() {
+        return mSampleCount + mSize;
+    }
+
+    public int getBlockCount() {
+        return mBlockCount;
+    }
+
+    /**
+     * @return Bytes written to the file by this writer.
+     */
+    public long getBytesWritten() {
+        return mBytesWritten;
+    }
+
+    /**
+     * @return Longest time taken to encode and write a block.
+     */
+    public long getMaxFlushNanos() {
+        return mMaxFlushNanos;
+    }
+
+    @Override
+    public String toString() {
+        return mFile.getName() + ": samples=" + getSampleCount() + " blocks=" + mBlockCount +
+                " written=" + mBytesWritten + " bytes flush max=" + (mMaxFlushNanos / 1000) + "us";
+    }
+}
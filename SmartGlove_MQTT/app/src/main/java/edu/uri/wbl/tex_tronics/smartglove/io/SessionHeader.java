@@ -0,0 +1,213 @@
+package edu.uri.wbl.tex_tronics.smartglove.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.data_types.Channel;
+import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.enums.DeviceType;
+import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.enums.ExerciseMode;
+import edu.uri.wbl.tex_tronics.smartglove.visualize.Choice;
+
+/**
+ * Describes the recording in a binary session file (.ttb): who recorded it, in which exercise, and
+ * which channels each sample holds. A session file is laid out as
+ *
+ *   int     MAGIC ("TTB1")
+ *   short   VERSION
+ *   int     header length, then the header (see encode())
+ *   blocks  int sample count, int payload length, payload
+ *   index   long offset of every block
+ *   trailer long index offset, long sample count, int block count, int TRAILER_MAGIC ("TTBI")
+ *
+ * Every block but the last holds getSamplesPerBlock() samples, so the block holding a sample is
+ * found without reading the file. A block's payload holds the timestamp column and then one column
+ * per channel; each column is its first value followed by the differences between consecutive
+ * values, all as ZigZag VarInts (see VarInt). Blocks decode on their own.
+ *
+ * All numbers are big endian. Strings are Java modified UTF-8 (a 16 bit length then the bytes),
+ * empty where the recording has no value.
+ */
+
+public final class SessionHeader {
+    public static final String FILE_EXTENSION = ".ttb";
+
+    public static final int MAGIC = 0x54544231;
+    public static final int TRAILER_MAGIC = 0x54544249;
+    public static final short VERSION = 1;
+
+    /**
+     * Bytes before the header: magic, version and header length.
+     */
+    public static final int PREFIX_SIZE = 10;
+
+    /**
+     * Bytes before a block's payload: sample count and payload length.
+     */
+    public static final int BLOCK_HEADER_SIZE = 8;
+
+    public static final int TRAILER_SIZE = 24;
+
+    public static final int DEFAULT_SAMPLES_PER_BLOCK = 256;
+
+    /**
+     * Largest header accepted by readers, to reject a corrupt length before allocating it.
+     */
+    public static final int MAX_HEADER_SIZE = 64 * 1024;
+
+    private final String mDeviceAddress;
+    private final DeviceType mDeviceType;
+    private final ExerciseMode mExerciseMode;
+    private final Choice mChoice;
+    private final String mExerciseID;
+    private final String mRoutineID;
+    private final String mDate;
+    private final Channel[] mChannels;
+    private final int mSamplesPerBlock;
+
+    /**
+     * @param choice Exercise performed, may be null.
+     * @param exerciseID May be null.
+     * @param routineID May be null.
+     * @param date Start of the recording as shown to the fog node (TexTronicsDevice.getDate()).
+     * @param channels Channels of each sample, in the order they are stored.
+     */
+    public SessionHeader(String deviceAddress, DeviceType deviceType, ExerciseMode exerciseMode, Choice choice,
+                         String exerciseID, String routineID, String date, Channel[] channels, int samplesPerBlock) {
+        if (channels.length == 0 || channels.length > Byte.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid Channel Count " + channels.length);
+        }
+        if (samplesPerBlock <= 0 || samplesPerBlock > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid Samples per Block " + samplesPerBlock);
+        }
+        mDeviceAddress = deviceAddress;
+        mDeviceType = deviceType;
+        mExerciseMode = exerciseMode;
+        mChoice = choice;
+        mExerciseID = exerciseID;
+        mRoutineID = routineID;
+        mDate = date;
+        mChannels = channels.clone();
+        mSamplesPerBlock = samplesPerBlock;
+    }
+
+    public String getDeviceAddress() {
+        return mDeviceAddress;
+    }
+
+    public DeviceType getDeviceType() {
+        return mDeviceType;
+    }
+
+    public ExerciseMode getExerciseMode() {
+        return mExerciseMode;
+    }
+
+    public Choice getChoice() {
+        return mChoice;
+    }
+
+    public String getExerciseID() {
+        return mExerciseID;
+    }
+
+    public String getRoutineID() {
+        return mRoutineID;
+    }
+
+    public String getDate() {
+        return mDate;
+    }
+
+    public int getChannelCount() {
+        return mChannels.length;
+    }
+
+    public Channel getChannel(int index) {
+        return mChannels[index];
+    }
+
+    public int getSamplesPerBlock() {
+        return mSamplesPerBlock;
+    }
+
+    /**
+     * @return Most bytes a block's payload takes.
+     */
+    public int getMaxPayloadSize() {
+        return mSamplesPerBlock * (VarInt.MAX_LONG_BYTES + mChannels.length * VarInt.MAX_INT_BYTES);
+    }
+
+    /**
+     * @return true if samples of the other header can be stored in the same file.
+     */
+    public boolean isCompatible(SessionHeader other) {
+        return mSamplesPerBlock == other.mSamplesPerBlock && Arrays.equals(mChannels, other.mChannels);
+    }
+
+    /**
+     * Header fields, in order: device address, device type, exercise mode, choice, exercise ID,
+     * routine ID and date as strings (enums by name), short samples per block, byte channel count,
+     * and the name of each channel (Channel.name()).
+     */
+    public byte[] encode() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeUTF(toString(mDeviceAddress));
+        out.writeUTF(mDeviceType.name());
+        out.writeUTF(mExerciseMode.name());
+        out.writeUTF(mChoice == null ? "" : mChoice.name());
+        out.writeUTF(toString(mExerciseID));
+        out.writeUTF(toString(mRoutineID));
+        out.writeUTF(toString(mDate));
+        out.writeShort(mSamplesPerBlock);
+        out.writeByte(mChannels.length);
+        for (Channel channel : mChannels) {
+            out.writeUTF(channel.name());
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @throws IOException If the header is truncated or names an unknown device, mode or channel.
+     */
+    public static SessionHeader decode(byte[] encoded) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(encoded));
+        try {
+            String deviceAddress = in.readUTF();
+            DeviceType deviceType = DeviceType.valueOf(in.readUTF());
+            ExerciseMode exerciseMode = ExerciseMode.valueOf(in.readUTF());
+            String choice = in.readUTF();
+            String exerciseID = in.readUTF();
+            String routineID = in.readUTF();
+            String date = in.readUTF();
+            int samplesPerBlock = in.readShort();
+            Channel[] channels = new Channel[in.readByte()];
+            for (int i = 0; i < channels.length; i++) {
+                channels[i] = Channel.valueOf(in.readUTF());
+            }
+            return new SessionHeader(deviceAddress, deviceType, exerciseMode,
+                    choice.isEmpty() ? null : Choice.valueOf(choice),
+                    toNullable(exerciseID), toNullable(routineID), date, channels, samplesPerBlock);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid Session Header - " + e.getMessage());
+        }
+    }
+
+    private static String toString(String value) {
+        return value == null ? "" : value;
+    }
+
+    private static String toNullable(String value) {
+        return value.isEmpty() ? null : value;
+    }
+
+    @Override
+    public String toString() {
+        return mDeviceAddress + " " + mExerciseMode.name() + " " + mChoice + " " + Arrays.toString(mChannels);
+    }
+}
@@ -0,0 +1,253 @@
+package edu.uri.wbl.tex_tronics.smartglove.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps the samples of the block a SessionFileWriter has not written yet in a memory-mapped file,
+ * so they survive the app being killed while recording. The journal is preallocated when it is
+ * opened; recording a sample is a few stores into the mapping and committing is one more, with no
+ * system call. The kernel writes the pages back on its own, so everything committed before the
+ * process died is in the file.
+ *
+ * Layout (big endian):
+ *
+ *   int   MAGIC ("TTBJ")
+ *   int   channel count
+ *   int   capacity (records)
+ *   long  base sample: samples in the session file before the first record
+ *   int   committed records
+ *   short length of the session file's path, then the path (UTF-8)
+ *   ...   records from HEADER_SIZE: long timestamp, int value of each channel
+ *
+ * A writer that finds the journal of its session file replays it (see SessionFileWriter);
+ * recover() does so for every journal left in a directory.
+ */
+
+public class SessionJournal {
+    public static final String FILE_EXTENSION = ".journal";
+
+    public static final int MAGIC = 0x5454424A;
+
+    /**
+     * Bytes before the first record, leaving room for the session file's path.
+     */
+    public static final int HEADER_SIZE = 1024;
+
+    private static final int OFFSET_CHANNELS = 4;
+    private static final int OFFSET_CAPACITY = 8;
+    private static final int OFFSET_BASE_SAMPLE = 12;
+    private static final int OFFSET_COMMITTED = 20;
+    private static final int OFFSET_PATH = 24;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File mFile;
+    private final int mChannels;
+    private final int mCapacity;
+    private final int mRecordSize;
+    private RandomAccessFile mRandomAccessFile;
+    private MappedByteBuffer mBuffer;
+
+    /**
+     * Maps the journal of the session file, creating it if needed. Whatever the journal held is
+     * kept until reset() is called.
+     *
+     * @param capacity Records the journal holds (the writer's samples per block).
+     */
+    public SessionJournal(File file, File sessionFile, int channels, int capacity) throws IOException {
+        mFile = file;
+        mChannels = channels;
+        mCapacity = capacity;
+        mRecordSize = 8 + 4 * channels;
+
+        byte[] path = sessionFile.getAbsolutePath().getBytes(UTF_8);
+        if (OFFSET_PATH + 2 + path.length > HEADER_SIZE) {
+            throw new IOException("Session File Path too Long");
+        }
+
+        File parent = file.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Could not create " + parent);
+        }
+        mRandomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            // Mapping past the end of the file extends it
+            mBuffer = mRandomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+                    HEADER_SIZE + (long) capacity * mRecordSize);
+        } catch (IOException e) {
+            mRandomAccessFile.close();
+            throw e;
+        }
+        mBuffer.putShort(OFFSET_PATH, (short) path.length);
+        for (int i = 0; i < path.length; i++) {
+            mBuffer.put(OFFSET_PATH + 2 + i, path[i]);
+        }
+    }
+
+    public File getFile() {
+        return mFile;
+    }
+
+    /**
+     * @return true if the journal holds records of this journal's channel count and capacity.
+     */
+    public boolean isValid() {
+        return mBuffer.getInt(0) == MAGIC && mBuffer.getInt(OFFSET_CHANNELS) == mChannels
+                && mBuffer.getInt(OFFSET_CAPACITY) == mCapacity
+                && getCommitted() >= 0 && getCommitted() <= mCapacity;
+    }
+
+    public long getBaseSample() {
+        return mBuffer.getLong(OFFSET_BASE_SAMPLE);
+    }
+
+    public int getCommitted() {
+        return mBuffer.getInt(OFFSET_COMMITTED);
+    }
+
+    public long getTimestamp(int record) {
+        return mBuffer.getLong(HEADER_SIZE + record * mRecordSize);
+    }
+
+    public int getValue(int record, int channel) {
+        return mBuffer.getInt(HEADER_SIZE + record * mRecordSize + 8 + 4 * channel);
+    }
+
+    /**
+     * Empties the journal.
+     *
+     * @param baseSample Samples in the session file before the next record.
+     */
+    public void reset(long baseSample) {
+        mBuffer.putInt(OFFSET_COMMITTED, 0);
+        mBuffer.putLong(OFFSET_BASE_SAMPLE, baseSample);
+        mBuffer.putInt(OFFSET_CHANNELS, mChannels);
+        mBuffer.putInt(OFFSET_CAPACITY, mCapacity);
+        mBuffer.putInt(0, MAGIC);
+    }
+
+    /**
+     * Stores a record. It is only recovered once commit() has counted it.
+     *
+     * @param values Values of each channel, column by column; the record takes column[sample].
+     */
+    public void put(int record, long timestamp, int[][] values, int sample) {
+        int offset = HEADER_SIZE + record * mRecordSize;
+        mBuffer.putLong(offset, timestamp);
+        offset += 8;
+        for (int channel = 0; channel < mChannels; channel++) {
+            mBuffer.putInt(offset, values[channel][sample]);
+            offset += 4;
+        }
+    }
+
+    /**
+     * Marks the first records as recorded.
+     */
+    public void commit(int records) {
+        mBuffer.putInt(OFFSET_COMMITTED, records);
+    }
+
+    /**
+     * Closes the journal and deletes it. Only called once the samples are in the session file.
+     */
+    public void delete() throws IOException {
+        if (mRandomAccessFile == null) {
+            return;
+        }
+        mRandomAccessFile.close();
+        mRandomAccessFile = null;
+        mBuffer = null;
+        if (!mFile.delete() && mFile.exists()) {
+            throw new IOException("Could not delete " + mFile);
+        }
+    }
+
+    /**
+     * @return Where the journal of a session file is kept.
+     */
+    public static File getJournalFile(File directory, File sessionFile) {
+        // Session files are only unique with their directories (MM/dd/yyyy)
+        String path = sessionFile.getAbsolutePath();
+        return new File(directory, Integer.toHexString(path.hashCode()) + "_" + sessionFile.getName() + FILE_EXTENSION);
+    }
+
+    /**
+     * Finishes the session files of the journals left in a directory by a recording that was cut
+     * short: each is continued with the samples in its journal, given its block index and closed.
+     * Journals whose session file is gone are deleted.
+     *
+     * @return The session files that were finished.
+     * @throws IOException The first error, after trying every journal. Journals that could not be
+     *                     recovered are kept.
+     */
+    public static List<File> recover(File directory) throws IOException {
+        List<File> recovered = new ArrayList<>();
+        File[] journals = directory.listFiles();
+        if (journals == null) {
+            return recovered;
+        }
+        IOException error = null;
+        for (File journal : journals) {
+            if (!journal.getName().endsWith(FILE_EXTENSION)) {
+                continue;
+            }
+            try {
+                File sessionFile = readSessionFile(journal);
+                if (sessionFile == null || sessionFile.length() == 0) {
+                    if (!journal.delete()) {
+                        throw new IOException("Could not delete " + journal);
+                    }
+                    continue;
+                }
+
+                SessionFileReader reader = new SessionFileReader(sessionFile);
+                SessionHeader header;
+                try {
+                    header = reader.getHeader();
+                } finally {
+                    reader.close();
+                }
+                new SessionFileWriter(sessionFile, header, directory).close();
+                recovered.add(sessionFile);
+            } catch (IOException e) {
+                if (error == null) {
+                    error = e;
+                }
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+        return recovered;
+    }
+
+    /**
+     * @return The session file named in the journal, or null if the journal is not valid.
+     */
+    private static File readSessionFile(File journal) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(journal, "r");
+        try {
+            if (file.length() < HEADER_SIZE || file.readInt() != MAGIC) {
+                return null;
+            }
+            file.seek(OFFSET_PATH);
+            int length = file.readShort();
+            if (length <= 0 || OFFSET_PATH + 2 + length > HEADER_SIZE) {
+                return null;
+            }
+            byte[] path = new byte[length];
+            file.readFully(path);
+            return new File(new String(path, UTF_8));
+        } finally {
+            file.close();
+        }
+    }
+}
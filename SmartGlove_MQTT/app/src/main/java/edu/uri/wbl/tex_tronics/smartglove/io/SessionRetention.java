@@ -0,0 +1,255 @@
+package edu.uri.wbl.tex_tronics.smartglove.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Keeps the session files under a directory within a byte budget. Only the sessions in the
+ * SessionCatalog are touched: the directory is shared (Documents), and a file the catalog does not
+ * know, such as the user's own, is not counted, compacted or deleted. The merged session files are
+ * cataloged as they are closed, and the CSVs of older versions of the app by LegacySessionImport.
+ * One run:
+ *
+ * 1. Compacts the CSV (merged or older session) of every session the fog node has acknowledged,
+ *    or that is LEGACY (CsvCompactor), and moves its catalog entry to the compacted file. The
+ *    session files of the devices are already compact (.ttb).
+ * 2. If the sessions still take more than the budget, deletes the acknowledged and LEGACY ones
+ *    oldest first until they fit. Sessions the fog node has not acknowledged are never deleted.
+ *
+ * Files modified in the last minimum age are left alone, as they may still be being recorded.
+ * A run can be cancelled from another thread; it stops after the file it is working on.
+ */
+
+public class SessionRetention {
+    public static final long DEFAULT_MIN_AGE_MS = 10 * 60 * 1000L;
+
+    private static final String CSV_EXTENSION = ".csv";
+
+    private final File mDirectory;
+    private final SessionCatalog mCatalog;
+    private final long mBudgetBytes;
+    private final CsvCompactor mCompactor;
+    private long mMinAgeMs = DEFAULT_MIN_AGE_MS;
+    private volatile boolean mCancelled;
+    private final Metrics mMetrics = new Metrics();
+
+    /**
+     * @param directory   Directory holding the session files, in any sub-directories. Sessions
+     *                    cataloged elsewhere are left alone.
+     * @param budgetBytes Most bytes the session files should take.
+     */
+    public SessionRetention(File directory, SessionCatalog catalog, long budgetBytes, BlockCompressor compressor) {
+        mDirectory = directory;
+        mCatalog = catalog;
+        mBudgetBytes = budgetBytes;
+        mCompactor = new CsvCompactor(compressor);
+    }
+
+    public SessionRetention setMinAge(long minAgeMs) {
+        mMinAgeMs = minAgeMs;
+        return this;
+    }
+
+    /**
+     * @return The metrics of the run, updated while it goes.
+     */
+    public Metrics getMetrics() {
+        return mMetrics;
+    }
+
+    public void cancel() {
+        mCancelled = true;
+    }
+
+    /**
+     * @param nowMs The current time (System.currentTimeMillis()).
+     * @return The metrics of the run.
+     * @throws IOException The first error. The run goes on after an error, so one file that
+     *                     cannot be compacted or deleted does not keep the others over budget.
+     */
+    public Metrics run(long nowMs) throws IOException {
+        long start = System.nanoTime();
+        IOException error = null;
+        List<File> files = new ArrayList<>();
+        for (SessionCatalog.Entry entry : mCatalog.find(new SessionCatalog.Query())) {
+            File file = entry.getFile();
+            if (file.isFile() && isInDirectory(file)) {
+                files.add(file);
+                mMetrics.mFilesScanned++;
+                mMetrics.mBytesBefore += file.length();
+            }
+        }
+        mMetrics.mBytesRetained = mMetrics.mBytesBefore;
+
+        // Compact the CSVs of the acknowledged sessions
+        List<File> retained = new ArrayList<>(files.size());
+        for (File file : files) {
+            if (mCancelled) {
+                return finish(start);
+            }
+            if (file.getName().endsWith(CSV_EXTENSION) && nowMs - file.lastModified() >= mMinAgeMs
+                    && isStored(file)) {
+                long length = file.length();
+                try {
+                    File compacted = mCompactor.compact(file);
+                    mCatalog.moveFile(file, compacted);
+                    file = compacted;
+                    mMetrics.mFilesCompacted++;
+                    mMetrics.mBytesCompacted += length - file.length();
+                    mMetrics.mBytesRetained -= length - file.length();
+                } catch (IOException e) {
+                    error = error == null ? e : error;
+                }
+            }
+            retained.add(file);
+        }
+
+        // Delete the oldest acknowledged sessions until the rest fits
+        Collections.sort(retained, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long lastModifiedA = a.lastModified();
+                long lastModifiedB = b.lastModified();
+                return lastModifiedA < lastModifiedB ? -1 : (lastModifiedA == lastModifiedB ? 0 : 1);
+            }
+        });
+        for (File file : retained) {
+            if (mMetrics.mBytesRetained <= mBudgetBytes || mCancelled) {
+                break;
+            }
+            if (nowMs - file.lastModified() < mMinAgeMs || !isStored(file)) {
+                continue;
+            }
+            long length = file.length();
+            if (!file.delete()) {
+                error = error == null ? new IOException("Could not delete " + file) : error;
+                continue;
+            }
+            mMetrics.mFilesEvicted++;
+            mMetrics.mBytesEvicted += length;
+            mMetrics.mBytesRetained -= length;
+            try {
+                mCatalog.remove(file);
+            } catch (IOException e) {
+                error = error == null ? e : error;
+            }
+            deleteEmptyDirectories(file.getParentFile());
+        }
+
+        finish(start);
+        if (error != null) {
+            throw error;
+        }
+        return mMetrics;
+    }
+
+    private Metrics finish(long start) {
+        mMetrics.mElapsedNanos = System.nanoTime() - start;
+        mMetrics.mCancelled = mCancelled;
+        mMetrics.mDone = true;
+        return mMetrics;
+    }
+
+    /**
+     * @return true if the catalog has the session as stored on the fog node, or as sent by an older
+     *         version of the app (LEGACY).
+     */
+    private boolean isStored(File file) {
+        SessionCatalog.Entry entry = mCatalog.get(file);
+        return entry != null && (entry.getUploadState() == SessionCatalog.UploadState.ACKNOWLEDGED
+                || entry.getUploadState() == SessionCatalog.UploadState.LEGACY);
+    }
+
+    private boolean isInDirectory(File file) {
+        String directory = mDirectory.getAbsolutePath() + File.separator;
+        return file.getAbsolutePath().startsWith(directory);
+    }
+
+    /**
+     * Deletes the directory and its parents while they are empty (the MM/dd/yyyy directories of
+     * the sessions), up to the retention directory.
+     */
+    private void deleteEmptyDirectories(File directory) {
+        while (directory != null && !directory.equals(mDirectory)) {
+            String[] children = directory.list();
+            if (children == null || children.length > 0 || !directory.delete()) {
+                return;
+            }
+            directory = directory.getParentFile();
+        }
+    }
+
+    /**
+     * Progress of a run. Read from other threads while the run goes on.
+     */
+    public static class Metrics {
+        private volatile int mFilesScanned;
+        private volatile long mBytesBefore;
+        private volatile int mFilesCompacted;
+        private volatile long mBytesCompacted;
+        private volatile int mFilesEvicted;
+        private volatile long mBytesEvicted;
+        private volatile long mBytesRetained;
+        private volatile long mElapsedNanos;
+        private volatile boolean mCancelled;
+        private volatile boolean mDone;
+
+        public int getFilesScanned() {
+            return mFilesScanned;
+        }
+
+        public long getBytesBefore() {
+            return mBytesBefore;
+        }
+
+        public int getFilesCompacted() {
+            return mFilesCompacted;
+        }
+
+        /**
+         * @return Bytes saved by compacting.
+         */
+        public long getBytesCompacted() {
+            return mBytesCompacted;
+        }
+
+        public int getFilesEvicted() {
+            return mFilesEvicted;
+        }
+
+        public long getBytesEvicted() {
+            return mBytesEvicted;
+        }
+
+        /**
+         * @return Bytes the session files take now.
+         */
+        public long getBytesRetained() {
+            return mBytesRetained;
+        }
+
+        public long getElapsedNanos() {
+            return mElapsedNanos;
+        }
+
+        public boolean isCancelled() {
+            return mCancelled;
+        }
+
+        public boolean isDone() {
+            return mDone;
+        }
+
+        @Override
+        public String toString() {
+            return mFilesScanned + " files (" + mBytesBefore + " bytes), compacted " + mFilesCompacted + " (-"
+                    + mBytesCompacted + " bytes), evicted " + mFilesEvicted + " (-" + mBytesEvicted + " bytes), "
+                    + mBytesRetained + " bytes retained in " + mElapsedNanos / 1000000 + " ms"
+                    + (mCancelled ? " (cancelled)" : "");
+        }
+    }
+}
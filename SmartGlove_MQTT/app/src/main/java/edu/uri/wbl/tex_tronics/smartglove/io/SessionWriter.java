@@ -0,0 +1,204 @@
+package edu.uri.wbl.tex_tronics.smartglove.io;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Appends text to a file for the length of a session. The file is opened once and kept open; text
+ * is encoded into a preallocated buffer and written to the file's channel when the buffer reaches
+ * the flush size, when the flush interval has passed (see flushIfDue()) and when the writer is
+ * closed.
+ *
+ * Text must be ASCII (CSV lines of numbers, addresses and names); other characters are written as
+ * '?'. Not thread safe: a writer belongs to the thread that appends to it.
+ */
+
+public class SessionWriter {
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    public static final int DEFAULT_FLUSH_SIZE = 32 * 1024;
+    public static final long DEFAULT_FLUSH_INTERVAL_NS = 1000000000L;
+
+    private final File mFile;
+    private final int mFlushSize;
+    private final long mFlushIntervalNanos;
+    private final ByteBuffer mBuffer;
+
+    private FileOutputStream mOutputStream;
+    private FileChannel mChannel;
+    private long mLastFlushNanos;
+
+    private long mBytesWritten = 0;
+    private long mFlushes = 0;
+    private long mTotalFlushNanos = 0;
+    private long mMaxFlushNanos = 0;
+
+    public SessionWriter(File file, String header) throws IOException {
+        this(file, header, DEFAULT_BUFFER_SIZE, DEFAULT_FLUSH_SIZE, DEFAULT_FLUSH_INTERVAL_NS);
+    }
+
+    /**
+     * Opens the file for appending, creating it and its directories as needed.
+     *
+     * @param header First line of the file, written only if the file is empty. May be null.
+     * @param flushSize Buffered bytes that trigger a write to the file.
+     * @param flushIntervalNanos Longest time text is kept in the buffer (checked by flushIfDue()).
+     */
+    public SessionWriter(File file, String header, int bufferSize, int flushSize, long flushIntervalNanos) throws IOException {
+        if (bufferSize <= 0 || flushSize <= 0 || flushSize > bufferSize || flushIntervalNanos <= 0) {
+            throw new IllegalArgumentException("Invalid Session Writer Configuration");
+        }
+        mFile = file;
+        mFlushSize = flushSize;
+        mFlushIntervalNanos = flushIntervalNanos;
+        mBuffer = ByteBuffer.allocateDirect(bufferSize);
+
+        File parent = file.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Could not create " + parent);
+        }
+        mOutputStream = new FileOutputStream(file, true);
+        mChannel = mOutputStream.getChannel();
+        mLastFlushNanos = System.nanoTime();
+
+        if (header != null && mChannel.size() == 0) {
+            append(header);
+            append('\n');
+        }
+    }
+
+    public File getFile() {
+        return mFile;
+    }
+
+    public boolean isOpen() {
+        return mChannel != null;
+    }
+
+    public SessionWriter append(CharSequence text) throws IOException {
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            append(text.charAt(i));
+        }
+        return this;
+    }
+
+    public SessionWriter append(char c) throws IOException {
+        if (!mBuffer.hasRemaining()) {
+            flush();
+        }
+        mBuffer.put(c < 0x80 ? (byte) c : (byte) '?');
+        if (mBuffer.position() >= mFlushSize) {
+            flush();
+        }
+        return this;
+    }
+
+    /**
+     * Appends ASCII text already encoded, such as the rows of a CsvEncoder.
+     */
+    public SessionWriter append(byte[] ascii, int offset, int length) throws IOException {
+        while (length > 0) {
+            if (!mBuffer.hasRemaining()) {
+                flush();
+            }
+            int count = Math.min(length, mBuffer.remaining());
+            mBuffer.put(ascii, offset, count);
+            offset += count;
+            length -= count;
+            if (mBuffer.position() >= mFlushSize) {
+                flush();
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Writes the buffered text if the flush interval has passed since the last write.
+     *
+     * @param nowNanos System.nanoTime()
+     */
+    public void flushIfDue(long nowNanos) throws IOException {
+        if (mBuffer.position() > 0 && nowNanos - mLastFlushNanos >= mFlushIntervalNanos) {
+            flush();
+        }
+    }
+
+    /**
+     * Writes the buffered text to the file.
+     */
+    public void flush() throws IOException {
+        if (mChannel == null) {
+            throw new IOException("Session Writer Closed");
+        }
+        long start = System.nanoTime();
+        mLastFlushNanos = start;
+        if (mBuffer.position() == 0) {
+            return;
+        }
+
+        mBuffer.flip();
+        int bytes = mBuffer.remaining();
+        while (mBuffer.hasRemaining()) {
+            mChannel.write(mBuffer);
+        }
+        mBuffer.clear();
+
+        long flushNanos = System.nanoTime() - start;
+        mBytesWritten += bytes;
+        mFlushes++;
+        mTotalFlushNanos += flushNanos;
+        if (flushNanos > mMaxFlushNanos) {
+            mMaxFlushNanos = flushNanos;
+        }
+    }
+
+    /**
+     * Writes the buffered text, makes sure it has reached the storage device and closes the file.
+     * Does nothing if the writer is already closed.
+     */
+    public void close() throws IOException {
+        if (mChannel == null) {
+            return;
+        }
+        try {
+            flush();
+            mChannel.force(false);
+        } finally {
+            mOutputStream.close();
+            mChannel = null;
+            mOutputStream = null;
+        }
+    }
+
+    /**
+     * @return Bytes written to the file so far (not counting text still in the buffer).
+     */
+    public long getBytesWritten() {
+        return mBytesWritten;
+    }
+
+    public int getBufferedBytes() {
+        return mBuffer.position();
+    }
+
+    public long getFlushCount() {
+        return mFlushes;
+    }
+
+    public long getAverageFlushNanos() {
+        return mFlushes == 0 ? 0 : mTotalFlushNanos / mFlushes;
+    }
+
+    public long getMaxFlushNanos() {
+        return mMaxFlushNanos;
+    }
+
+    @Override
+    public String toString() {
+        return mFile.getName() + ": written=" + mBytesWritten + " bytes flushes=" + mFlushes +
+                " flush=" + (getAverageFlushNanos() / 1000) + "us (max " + (mMaxFlushNanos / 1000) + "us)";
+    }
+}
@@ -40,6 +40,8 @@ public interface SmartGloveInterface
         String TOE_TAP_TEXT = "Tap your toe against the floor 10x";
         String FOOT_STOMP_TEXT = "Stomp your feet against the floor 10x";
         String WALK_STEPS_TEXT = "Walk 30 steps";
+        String CALIBRATE_OPEN_TEXT = "Hold your hand open and flat";
+        String CALIBRATE_FIST_TEXT = "Make a fist";
     }
 
     /**
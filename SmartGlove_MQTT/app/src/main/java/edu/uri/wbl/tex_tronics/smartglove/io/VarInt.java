@@ -0,0 +1,77 @@
+package edu.uri.wbl.tex_tronics.smartglove.io;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * ZigZag variable length integers: 7 bits per byte, least significant group first, the high bit set
+ * on every byte but the last. ZigZag maps small negative numbers to small positive ones
+ * (0, -1, 1, -2 ... become 0, 1, 2, 3 ...), so the small differences between consecutive samples
+ * take one or two bytes whatever their sign.
+ */
+
+public final class VarInt {
+    /**
+     * Most bytes a long takes.
+     */
+    public static final int MAX_LONG_BYTES = 10;
+
+    /**
+     * Most bytes an int takes.
+     */
+    public static final int MAX_INT_BYTES = 5;
+
+    private VarInt() {
+
+    }
+
+    public static void putLong(ByteBuffer buffer, long value) {
+        long zigZag = (value << 1) ^ (value >> 63);
+        while ((zigZag & ~0x7FL) != 0) {
+            buffer.put((byte) ((zigZag & 0x7F) | 0x80));
+            zigZag >>>= 7;
+        }
+        buffer.put((byte) zigZag);
+    }
+
+    public static void putInt(ByteBuffer buffer, int value) {
+        int zigZag = (value << 1) ^ (value >> 31);
+        while ((zigZag & ~0x7F) != 0) {
+            buffer.put((byte) ((zigZag & 0x7F) | 0x80));
+            zigZag >>>= 7;
+        }
+        buffer.put((byte) zigZag);
+    }
+
+    /**
+     * @throws IllegalArgumentException If the value runs past MAX_LONG_BYTES.
+     * @throws BufferUnderflowException If the buffer ends inside the value.
+     */
+    public static long getLong(ByteBuffer buffer) {
+        long zigZag = 0;
+        for (int shift = 0; shift < 7 * MAX_LONG_BYTES; shift += 7) {
+            byte b = buffer.get();
+            zigZag |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return (zigZag >>> 1) ^ -(zigZag & 1);
+            }
+        }
+        throw new IllegalArgumentException("Malformed VarInt");
+    }
+
+    /**
+     * @throws IllegalArgumentException If the value runs past MAX_INT_BYTES.
+     * @throws BufferUnderflowException If the buffer ends inside the value.
+     */
+    public static int getInt(ByteBuffer buffer) {
+        int zigZag = 0;
+        for (int shift = 0; shift < 7 * MAX_INT_BYTES; shift += 7) {
+            byte b = buffer.get();
+            zigZag |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return (zigZag >>> 1) ^ -(zigZag & 1);
+            }
+        }
+        throw new IllegalArgumentException("Malformed VarInt");
+    }
+}
@@ -5,24 +5,82 @@ package edu.uri.wbl.tex_tronics.smartglove.mqtt;
  */
 
 public class JsonData {
-    private String mDate, mSensorId, mChoiceId, mExerciseID, mRoutineID, mData;
+    private String mDate, mSensorId, mChoiceId, mExerciseID, mRoutineID, mData, mQuality, mEncoding;
+    private int mChunk = -1, mChunkCount;
+    private long mChecksum;
 
     public JsonData(String date, String sensorId, String choiceID, String exerciseID, String routrineID, String data) {
+        this(date, sensorId, choiceID, exerciseID, routrineID, data, null);
+    }
+
+    /**
+     * @param quality JSON object sent as "Quality" (omitted if null).
+     */
+    public JsonData(String date, String sensorId, String choiceID, String exerciseID, String routrineID, String data, String quality) {
+        this(date, sensorId, choiceID, exerciseID, routrineID, data, quality, null);
+    }
+
+    /**
+     * @param encoding Codec the data was compressed with, sent as "Encoding" (omitted if null, the
+     *                 data then being plain CSV).
+     */
+    public JsonData(String date, String sensorId, String choiceID, String exerciseID, String routrineID, String data, String quality, String encoding) {
         mDate = date;
         mSensorId = sensorId;
         mChoiceId = choiceID;
         mExerciseID = exerciseID;
         mRoutineID = routrineID;
         mData = data;
+        mQuality = quality;
+        mEncoding = encoding;
     }
 
-    @Override
-    public String toString() {
+    public String getSensorId() {
+        return mSensorId;
+    }
+
+    public String getExerciseID() {
+        return mExerciseID;
+    }
+
+    /**
+     * Makes the message one chunk of a session (see SessionUpload), sent as "Chunk",
+     * "Chunk_Count" and "Checksum".
+     *
+     * @param checksum CRC-32 of the data.
+     */
+    public void setChunk(int chunk, int chunkCount, long checksum) {
+        mChunk = chunk;
+        mChunkCount = chunkCount;
+        mChecksum = checksum;
+    }
+
+    /**
+     * @return The message up to the data, for a message whose data is streamed in: the data
+     *         follows, then getTail().
+     */
+    public String getHead() {
         return "{\"Date\": \"" + mDate + "\", " +
                 "\"Sensor_ID\": \"" + mSensorId + "\", " +
                 "\"Exercise_ID\": \"" + mChoiceId + "\", " +
                 "\"Exercise_UUID\": \"" + mExerciseID + "\", " +
                 "\"Routine_UUID\": \"" + mRoutineID + "\", " +
-                "\"Data\": " + "\"" + mData + "\"" + "}";
+                "\"Data\": " + "\"";
+    }
+
+    /**
+     * @return The message after the data.
+     */
+    public String getTail() {
+        return "\"" +
+                (mQuality == null ? "" : ", \"Quality\": " + mQuality) +
+                (mEncoding == null ? "" : ", \"Encoding\": \"" + mEncoding + "\"") +
+                (mChunk < 0 ? "" : ", \"Chunk\": " + mChunk + ", \"Chunk_Count\": " + mChunkCount +
+                        ", \"Checksum\": " + mChecksum) + "}";
+    }
+
+    @Override
+    public String toString() {
+        return getHead() + mData + getTail();
     }
 }
\ No newline at end of file
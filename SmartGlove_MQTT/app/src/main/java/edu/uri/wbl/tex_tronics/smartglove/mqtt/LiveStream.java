@@ -0,0 +1,301 @@
+package edu.uri.wbl.tex_tronics.smartglove.mqtt;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import edu.uri.wbl.tex_tronics.smartglove.io.CsvEncoder;
+
+/**
+ * Streams the samples of a session live, in micro-batches: the pipeline offers every decoded
+ * sample, and a batch is due once it holds a number of samples or its oldest sample has waited a
+ * batch interval, whichever comes first. Each batch is CSV, one row per sample:
+ *
+ *     Sample,Time,Device Address,Thumb,Index,Middle,Ring,Pinky,Acc(x),...,Mag(z)
+ *
+ * Sample numbers the samples offered since the stream started, so a viewer can tell where samples
+ * were dropped. Time is the aligned sample time as wall clock milliseconds, as in the merged
+ * session file.
+ *
+ * The samples waiting are held in a ring of fixed capacity. When the link cannot keep up, the
+ * oldest samples are dropped to make room: a live view wants the newest data, and the session
+ * file still has every sample.
+ *
+ * Thread safe: samples are offered by the pipeline thread and batches taken by the thread that
+ * publishes them.
+ */
+
+public class LiveStream {
+    public static final String TOPIC_PREFIX = "kaya/patient/live/";
+    public static final int DEFAULT_BATCH_SAMPLES = 50;
+    public static final long DEFAULT_BATCH_INTERVAL_MS = 200;
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    /**
+     * Most values a sample can have (flex readings then IMU readings).
+     */
+    public static final int MAX_VALUES = 14;
+
+    private final String mTopic;
+    private final int mBatchSamples;
+    private final long mBatchIntervalNanos;
+    private final long mWallClockOffsetMs;
+    private final Metrics mMetrics = new Metrics();
+
+    // Ring of the samples waiting, oldest at mHead
+    private final long[] mSequences;
+    private final long[] mTimes;
+    private final long[] mReceivedNanos;
+    private final byte[][] mAddresses;
+    private final int[] mValues;
+    private final int[] mValueCounts;
+    private int mHead;
+    private int mSize;
+    private long mNextSequence;
+
+    // Device addresses as written to the rows, encoded once per device
+    private final Map<String, byte[]> mAddressCache = new HashMap<>();
+
+    private long mBatchOldestNanos;
+
+    /**
+     * @param topic              Topic the batches are published to (see getTopic()).
+     * @param batchSamples       Samples after which a batch is due.
+     * @param batchIntervalNanos Time after which a batch is due, however few samples it holds.
+     * @param capacity           Most samples held while the link is slow.
+     * @param wallClockOffsetMs  Added to the sample times (elapsedRealtime) to make them wall clock times.
+     */
+    public LiveStream(String topic, int batchSamples, long batchIntervalNanos, int capacity, long wallClockOffsetMs) {
+        if (batchSamples <= 0 || capacity < batchSamples) {
+            throw new IllegalArgumentException("Invalid Batch Size");
+        }
+        mTopic = topic;
+        mBatchSamples = batchSamples;
+        mBatchIntervalNanos = batchIntervalNanos;
+        mWallClockOffsetMs = wallClockOffsetMs;
+        mSequences = new long[capacity];
+        mTimes = new long[capacity];
+        mReceivedNanos = new long[capacity];
+        mAddresses = new byte[capacity][];
+        mValues = new int[capacity * MAX_VALUES];
+        mValueCounts = new int[capacity];
+    }
+
+    /**
+     * @return The topic of a session's live stream.
+     */
+    public static String getTopic(String exerciseID) {
+        return TOPIC_PREFIX + exerciseID;
+    }
+
+    public String getTopic() {
+        return mTopic;
+    }
+
+    public long getBatchIntervalNanos() {
+        return mBatchIntervalNanos;
+    }
+
+    public Metrics getMetrics() {
+        return mMetrics;
+    }
+
+    /**
+     * Queues a sample, dropping the oldest one if the ring is full.
+     *
+     * @param timeNanos     The aligned sample time (elapsedRealtimeNanos).
+     * @param receivedNanos When the sample's packet arrived (elapsedRealtimeNanos).
+     * @return true if this sample made a batch due by its size; the caller should have it published.
+     */
+    public synchronized boolean offer(String deviceAddress, long timeNanos, int[] values, int valueCount, long receivedNanos) {
+        int capacity = mSequences.length;
+        if (mSize == capacity) {
+            mHead = (mHead + 1) % capacity;
+            mSize--;
+            mMetrics.mSamplesDropped++;
+        }
+        int slot = (mHead + mSize) % capacity;
+        byte[] address = mAddressCache.get(deviceAddress);
+        if (address == null) {
+            address = CsvEncoder.toAscii(deviceAddress);
+            mAddressCache.put(deviceAddress, address);
+        }
+        mSequences[slot] = mNextSequence++;
+        mTimes[slot] = timeNanos;
+        mReceivedNanos[slot] = receivedNanos;
+        mAddresses[slot] = address;
+        valueCount = Math.min(valueCount, MAX_VALUES);
+        System.arraycopy(values, 0, mValues, slot * MAX_VALUES, valueCount);
+        mValueCounts[slot] = valueCount;
+        mSize++;
+
+        mMetrics.mSamplesOffered++;
+        mMetrics.mQueueDepth = mSize;
+        return mSize == mBatchSamples;
+    }
+
+    public synchronized int size() {
+        return mSize;
+    }
+
+    /**
+     * @param nowNanos The current time (elapsedRealtimeNanos).
+     * @return true if the samples waiting make a full batch, or the oldest has waited a batch interval.
+     */
+    public synchronized boolean isBatchDue(long nowNanos) {
+        return mSize >= mBatchSamples || (mSize > 0 && nowNanos - mReceivedNanos[mHead] >= mBatchIntervalNanos);
+    }
+
+    /**
+     * Moves up to a batch of the oldest samples waiting into the encoder, as CSV rows. The batch is
+     * accounted for by onBatchSent() or onBatchFailed().
+     *
+     * @param batch Cleared, then given the rows.
+     * @return Number of samples in the batch.
+     */
+    public synchronized int takeBatch(CsvEncoder batch) {
+        batch.clear();
+        int samples = Math.min(mSize, mBatchSamples);
+        if (samples > 0) {
+            mBatchOldestNanos = mReceivedNanos[mHead];
+        }
+        for (int i = 0; i < samples; i++) {
+            int slot = mHead;
+            batch.beginRow().append(mSequences[slot]).comma()
+                    .append(mWallClockOffsetMs + mTimes[slot] / 1000000).comma().append(mAddresses[slot]);
+            int valueCount = mValueCounts[slot];
+            for (int value = 0; value < MAX_VALUES; value++) {
+                batch.comma();
+                if (value < valueCount) {
+                    batch.append(mValues[slot * MAX_VALUES + value]);
+                }
+            }
+            batch.endRow();
+            mHead = (mHead + 1) % mSequences.length;
+            mSize--;
+        }
+        mMetrics.mQueueDepth = mSize;
+        return samples;
+    }
+
+    /**
+     * Called once the batch taken last has been handed to the MQTT client.
+     *
+     * @param nowNanos The current time (elapsedRealtimeNanos).
+     */
+    public synchronized void onBatchSent(int samples, int bytes, long nowNanos) {
+        mMetrics.onBatchSent(samples, bytes, nowNanos - mBatchOldestNanos, nowNanos);
+    }
+
+    /**
+     * Called if the batch taken last could not be published; its samples are counted as dropped.
+     */
+    public synchronized void onBatchFailed(int samples) {
+        mMetrics.mSamplesDropped += samples;
+        mMetrics.mBatchesFailed++;
+    }
+
+    @Override
+    public String toString() {
+        return mTopic + ": " + mMetrics;
+    }
+
+    /**
+     * Throughput and latency of a live stream. Latency is the time from the arrival of a batch's
+     * oldest sample to the batch being published, i.e. the most any of its samples waited.
+     */
+    public static class Metrics {
+        private volatile long mSamplesOffered;
+        private volatile long mSamplesSent;
+        private volatile long mSamplesDropped;
+        private volatile long mBatchesSent;
+        private volatile long mBatchesFailed;
+        private volatile long mBytesSent;
+        private volatile int mQueueDepth;
+        private volatile long mLastLatencyNanos;
+        private volatile long mAverageLatencyNanos;
+        private volatile long mMaxLatencyNanos;
+        private volatile long mFirstBatchNanos;
+        private volatile long mLastBatchNanos;
+
+        private void onBatchSent(int samples, int bytes, long latencyNanos, long nowNanos) {
+            if (mBatchesSent == 0) {
+                mFirstBatchNanos = nowNanos;
+                mAverageLatencyNanos = latencyNanos;
+            }
+            mBatchesSent++;
+            mSamplesSent += samples;
+            mBytesSent += bytes;
+            mLastBatchNanos = nowNanos;
+            mLastLatencyNanos = latencyNanos;
+            // Exponential moving average (1/16 weight) so the average follows the current link
+            mAverageLatencyNanos += (latencyNanos - mAverageLatencyNanos) >> 4;
+            if (latencyNanos > mMaxLatencyNanos) {
+                mMaxLatencyNanos = latencyNanos;
+            }
+        }
+
+        public long getSamplesOffered() {
+            return mSamplesOffered;
+        }
+
+        public long getSamplesSent() {
+            return mSamplesSent;
+        }
+
+        public long getSamplesDropped() {
+            return mSamplesDropped;
+        }
+
+        public long getBatchesSent() {
+            return mBatchesSent;
+        }
+
+        public long getBatchesFailed() {
+            return mBatchesFailed;
+        }
+
+        public long getBytesSent() {
+            return mBytesSent;
+        }
+
+        public int getQueueDepth() {
+            return mQueueDepth;
+        }
+
+        public long getLastLatencyNanos() {
+            return mLastLatencyNanos;
+        }
+
+        public long getAverageLatencyNanos() {
+            return mAverageLatencyNanos;
+        }
+
+        public long getMaxLatencyNanos() {
+            return mMaxLatencyNanos;
+        }
+
+        /**
+         * @return Samples published per second, between the first batch and the last.
+         */
+        public double getSamplesPerSecond() {
+            long elapsedNanos = mLastBatchNanos - mFirstBatchNanos;
+            return elapsedNanos <= 0 ? 0 : mSamplesSent * 1e9 / elapsedNanos;
+        }
+
+        /**
+         * @return Bytes published per second, between the first batch and the last.
+         */
+        public double getBytesPerSecond() {
+            long elapsedNanos = mLastBatchNanos - mFirstBatchNanos;
+            return elapsedNanos <= 0 ? 0 : mBytesSent * 1e9 / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return "sent " + mSamplesSent + " samples in " + mBatchesSent + " batches (" + mBytesSent + " bytes, " +
+                    Math.round(getSamplesPerSecond()) + " samples/s), dropped " + mSamplesDropped +
+                    ", queue " + mQueueDepth + ", latency " + (mAverageLatencyNanos / 1000000) + "ms (max " +
+                    (mMaxLatencyNanos / 1000000) + "ms)";
+        }
+    }
+}
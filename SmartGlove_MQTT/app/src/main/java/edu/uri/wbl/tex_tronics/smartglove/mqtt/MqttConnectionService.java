@@ -6,7 +6,10 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.os.Binder;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
+import android.os.Process;
 import android.support.v4.app.NotificationCompat;
 import android.util.Log;
 
@@ -14,11 +17,14 @@ import org.eclipse.paho.android.service.MqttAndroidClient;
 import org.eclipse.paho.client.mqttv3.IMqttActionListener;
 import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
 import org.eclipse.paho.client.mqttv3.IMqttToken;
-import org.eclipse.paho.client.mqttv3.MqttCallback;
+import org.eclipse.paho.client.mqttv3.MqttCallbackExtended;
 import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
 import org.eclipse.paho.client.mqttv3.MqttException;
 import org.eclipse.paho.client.mqttv3.MqttMessage;
 
+import java.io.File;
+import java.io.IOException;
+
 import edu.uri.wbl.tex_tronics.smartglove.R;
 import edu.uri.wbl.tex_tronics.smartglove.io.SmartGloveInterface;
 
@@ -45,7 +51,22 @@ public class MqttConnectionService extends Service {
     }
 
     public static String generateJson(String date, String sensorId, String choice, String exerciseID, String routineID, String data) {
-        JsonData jsonData = new JsonData(date, sensorId, choice, exerciseID, routineID, data);
+        return generateJson(date, sensorId, choice, exerciseID, routineID, data, null);
+    }
+
+    /**
+     * @param quality JSON object summarizing the stream integrity of the session (may be null).
+     */
+    public static String generateJson(String date, String sensorId, String choice, String exerciseID, String routineID, String data, String quality) {
+        return generateJson(date, sensorId, choice, exerciseID, routineID, data, quality, null);
+    }
+
+    /**
+     * @param encoding Codec the data was compressed with, its blocks then Base64 encoded (null if
+     *                 the data is plain CSV).
+     */
+    public static String generateJson(String date, String sensorId, String choice, String exerciseID, String routineID, String data, String quality, String encoding) {
+        JsonData jsonData = new JsonData(date, sensorId, choice, exerciseID, routineID, data, quality, encoding);
         Log.d(TAG,"JSON Data: " + jsonData.toString());
         return jsonData.toString();
     }
@@ -53,9 +74,72 @@ public class MqttConnectionService extends Service {
     private final String SERVER_URI = "tcp://131.128.51.213:1883"; //tcp://131.128.51.42:1883
     private final String PUBLISH_TOPIC = "kaya/patient/data";
 
+    /**
+     * Topic of the chunks of a session upload (see SessionUpload).
+     */
+    public static final String DATA_CHUNK_TOPIC = "kaya/patient/data/chunk";
+
+    /**
+     * Topic the fog node acknowledges chunks on: JSON with the "Sensor_ID" and "Exercise_UUID" of
+     * the upload, "Next" (number of chunks it holds in order) and "Chunk_Count".
+     */
+    public static final String ACK_TOPIC = "kaya/fognode/ack";
+
+    /**
+     * File (in the app's private files, without extension) of the MqttOutbox.
+     */
+    private static final String OUTBOX_FILE = "mqtt_outbox";
+
+    private static volatile MqttOutbox.Metrics outboxMetrics;
+
+    /**
+     * Returns the depth and age of the messages waiting to be published.
+     *
+     * @return The metrics of the outbox, or null if it has not been opened yet.
+     */
+    public static MqttOutbox.Metrics getOutboxMetrics() {
+        return outboxMetrics;
+    }
+
     private MqttAndroidClient mMqttAndroidClient;
     private String mClientId;
 
+    /**
+     * Messages sent with QoS 1 or 2 go through the outbox, which survives the process dying and
+     * the link dropping. Opened on first use; drained on mOutboxHandler.
+     */
+    private MqttOutbox mOutbox;
+    private HandlerThread mOutboxThread;
+    private Handler mOutboxHandler;
+
+    /**
+     * Publishes the messages of the outbox that may be sent now, and comes back when the next may.
+     */
+    private final Runnable mDrainRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mOutboxHandler.removeCallbacks(this);
+            MqttAndroidClient client = mMqttAndroidClient;
+            if (client == null || !client.isConnected()) {
+                // Drained again once the client connects
+                return;
+            }
+            try {
+                MqttOutbox outbox = getOutbox();
+                MqttOutbox.Message message;
+                while ((message = outbox.poll(System.currentTimeMillis())) != null) {
+                    publishFromOutbox(client, message);
+                }
+                long nextAttemptMs = outbox.getNextAttemptMs();
+                if (nextAttemptMs != Long.MAX_VALUE) {
+                    mOutboxHandler.postDelayed(this, Math.max(0, nextAttemptMs - System.currentTimeMillis()));
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "Could not read the outbox - " + e);
+            }
+        }
+    };
+
     private IBinder mBinder = new MqttConnectionBinder();
 
     @Override
@@ -66,22 +150,67 @@ public class MqttConnectionService extends Service {
 
         mClientId = "Patient";
 
+        mOutboxThread = new HandlerThread("MqttOutbox", Process.THREAD_PRIORITY_BACKGROUND);
+        mOutboxThread.start();
+        mOutboxHandler = new Handler(mOutboxThread.getLooper());
+
         mMqttAndroidClient = new MqttAndroidClient(getApplicationContext(), SERVER_URI, mClientId);
-        mMqttAndroidClient.setCallback(new MqttCallback() {
+        mMqttAndroidClient.setCallback(new MqttCallbackExtended() {
+            @Override
+            public void connectComplete(boolean reconnect, String serverURI) {
+                subscribeAcknowledgements();
+                mOutboxHandler.post(mDrainRunnable);
+                if (reconnect) {
+                    // Uploads waiting for the connection go on
+                    Log.d(TAG, "Reconnected");
+                    sendUpdate(UpdateType.connected);
+                }
+            }
+
             @Override
             public void connectionLost(Throwable cause) {
                 Log.d(TAG, "Connection Lost!");
+                mOutboxHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            getOutbox().onDisconnected();
+                        } catch (IOException e) {
+                            Log.e(TAG, "Could not open the outbox - " + e);
+                        }
+                    }
+                });
                 connectClient();
             }
 
             @Override
             public void messageArrived(String topic, MqttMessage message) throws Exception {
-                // Do Nothing, for now
+                if (ACK_TOPIC.equals(topic)) {
+                    Intent intent = new Intent(MqttUpdateReceiver.INTENT_FILTER_STRING);
+                    intent.putExtra(MqttUpdateReceiver.UPDATE_TYPE, UpdateType.acknowledged);
+                    intent.putExtra(MqttUpdateReceiver.MESSAGE, new String(message.getPayload(), "UTF-8"));
+                    sendBroadcast(intent);
+                }
             }
 
             @Override
             public void deliveryComplete(IMqttDeliveryToken token) {
-                // Do Nothing, for now
+                // Only messages from the outbox carry their id
+                final Object id = token.getUserContext();
+                if (!(id instanceof Long)) {
+                    return;
+                }
+                mOutboxHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            getOutbox().onDelivered((Long) id);
+                        } catch (IOException e) {
+                            Log.e(TAG, "Could not update the outbox - " + e);
+                        }
+                        mDrainRunnable.run();
+                    }
+                });
             }
         });
 
@@ -108,6 +237,8 @@ public class MqttConnectionService extends Service {
                     if(mMqttAndroidClient != null)
                     {
                         Log.d(TAG, "Successfully Connected");
+                        subscribeAcknowledgements();
+                        mOutboxHandler.post(mDrainRunnable);
                         sendUpdate(UpdateType.connected);
                     }
                 }
@@ -123,6 +254,14 @@ public class MqttConnectionService extends Service {
         }
     }
 
+    private void subscribeAcknowledgements() {
+        try {
+            mMqttAndroidClient.subscribe(ACK_TOPIC, 1);
+        } catch (MqttException e) {
+            Log.w(TAG, "Could not Subscribe to " + ACK_TOPIC + ": " + e.getMessage());
+        }
+    }
+
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
         return START_STICKY;
@@ -138,6 +277,14 @@ public class MqttConnectionService extends Service {
         Log.d(TAG, "MQTT Service Destroyed");
 
         mMqttAndroidClient = null;
+        mOutboxHandler.removeCallbacks(mDrainRunnable);
+        mOutboxHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                closeOutbox();
+            }
+        });
+        mOutboxThread.quitSafely();
         super.onDestroy();
     }
 
@@ -147,16 +294,60 @@ public class MqttConnectionService extends Service {
         }
     }
 
-    public void publishMessage(final String data) {
+    /**
+     * @return true if the message was queued in the outbox; false if the outbox is full or failed.
+     */
+    public boolean publishMessage(final String data) {
+        return publishMessage(data.getBytes());
+    }
+
+    /**
+     * @param payload The message, e.g. a JsonData encoded as UTF-8.
+     * @return true if the message was queued in the outbox; false if the outbox is full or failed.
+     */
+    public boolean publishMessage(final byte[] payload) {
+        return publishMessage(PUBLISH_TOPIC, payload);
+    }
+
+    /**
+     * @return true if the message was queued in the outbox; false if the outbox is full or failed.
+     */
+    public boolean publishMessage(final String topic, final byte[] payload) {
+        return publishMessage(topic, payload, 1);
+    }
+
+    /**
+     * @param qos MQTT quality of service: 0 for data that is worthless once late (LiveStream),
+     *            1 for data the fog node must get. Messages with QoS 1 or 2 are queued in the
+     *            outbox, on disk, and published from there once the client is connected.
+     * @return true if the message was handed to the MQTT client or queued in the outbox; false if
+     *         it failed, or (QoS 0) is only sent once the client has connected.
+     */
+    public boolean publishMessage(final String topic, final byte[] payload, final int qos) {
+        if (qos > 0) {
+            try {
+                if (getOutbox().enqueue(topic, payload, qos, System.currentTimeMillis()) < 0) {
+                    Log.w(TAG, "Outbox Full: " + outboxMetrics);
+                    return false;
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "Could not queue the message - " + e);
+                return false;
+            }
+            mOutboxHandler.post(mDrainRunnable);
+            return true;
+        }
         if(mMqttAndroidClient.isConnected()) {
             try {
                 MqttMessage message = new MqttMessage();
-                message.setPayload(data.getBytes());
-                mMqttAndroidClient.publish(PUBLISH_TOPIC, message);
+                message.setPayload(payload);
+                message.setQos(qos);
+                mMqttAndroidClient.publish(topic, message);
                 if (!mMqttAndroidClient.isConnected()) {
                     Log.w(TAG, "MQTT Not Connected");
-                    return;
+                    return false;
                 }
+                return true;
             } catch (MqttException e) {
                 Log.w(TAG, "Error Publishing: " + e.getMessage());
                 e.printStackTrace();
@@ -169,7 +360,7 @@ public class MqttConnectionService extends Service {
                 mMqttAndroidClient.connect(getApplicationContext(), new IMqttActionListener() {
                     @Override
                     public void onSuccess(IMqttToken asyncActionToken) {
-                        publishMessage(data);
+                        publishMessage(topic, payload, qos);
                     }
 
                     @Override
@@ -181,6 +372,81 @@ public class MqttConnectionService extends Service {
                 e.printStackTrace();
             }
         }
+        return false;
+    }
+
+    /**
+     * Publishes a message of the outbox. It stays in the outbox until its delivery completes; a
+     * failure puts it back, to be sent again after the outbox's backoff. Runs on mOutboxHandler.
+     */
+    private void publishFromOutbox(MqttAndroidClient client, final MqttOutbox.Message message) {
+        MqttMessage mqttMessage = new MqttMessage();
+        mqttMessage.setPayload(message.getPayload());
+        mqttMessage.setQos(message.getQos());
+        try {
+            client.publish(message.getTopic(), mqttMessage, message.getId(), new IMqttActionListener() {
+                @Override
+                public void onSuccess(IMqttToken asyncActionToken) {
+                    // Removed from the outbox in deliveryComplete()
+                }
+
+                @Override
+                public void onFailure(IMqttToken asyncActionToken, final Throwable exception) {
+                    mOutboxHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            onPublishFailed(message.getId(), exception);
+                        }
+                    });
+                }
+            });
+        } catch (MqttException e) {
+            onPublishFailed(message.getId(), e);
+        }
+    }
+
+    private void onPublishFailed(long id, Throwable exception) {
+        Log.w(TAG, "Error Publishing: " + exception.getMessage());
+        try {
+            getOutbox().onFailed(id, System.currentTimeMillis());
+        } catch (IOException e) {
+            Log.e(TAG, "Could not update the outbox - " + e);
+        }
+        Log.d(TAG, "Outbox: " + outboxMetrics);
+        mOutboxHandler.post(mDrainRunnable);
+    }
+
+    /**
+     * Opens the outbox on first use, with the messages a previous process left in it. The first
+     * call should not be made from the UI thread.
+     */
+    private synchronized MqttOutbox getOutbox() throws IOException {
+        if (mOutbox == null) {
+            mOutbox = new MqttOutbox(new File(getFilesDir(), OUTBOX_FILE));
+            outboxMetrics = mOutbox.getMetrics();
+            Log.d(TAG, "Outbox: " + outboxMetrics);
+        }
+        return mOutbox;
+    }
+
+    private synchronized void closeOutbox() {
+        if (mOutbox == null) {
+            return;
+        }
+        try {
+            mOutbox.close();
+        } catch (IOException e) {
+            Log.e(TAG, "Could not close the outbox - " + e);
+        }
+        mOutbox = null;
+    }
+
+    /**
+     * @return true if the MQTT client is connected to the broker.
+     */
+    public boolean isConnected() {
+        MqttAndroidClient client = mMqttAndroidClient;
+        return client != null && client.isConnected();
     }
 
     private void sendUpdate(UpdateType updateType) {
@@ -0,0 +1,620 @@
+package edu.uri.wbl.tex_tronics.smartglove.mqtt;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * Messages waiting to be published, kept on disk so they survive the process being killed and the
+ * link dropping. Two files:
+ *
+ * - <name>.queue: the messages, appended as records: length, id, time queued, QoS, topic and
+ *   payload, then a CRC-32 of the record.
+ * - <name>.index: appended fixed size entries, ADD (id and record offset) when a message is queued
+ *   and REMOVE (id) once the broker has it.
+ *
+ * The index is replayed when the outbox opens. A record the index does not point to correctly, or
+ * one past its end (the process died in between the two writes), is found by scanning the queue
+ * file instead. Once every message is delivered both files are emptied; before that, the delivered
+ * records are compacted away when they outgrow the ones still waiting.
+ *
+ * The drain: poll() hands out the oldest messages not yet in flight, at most a number at a time
+ * and not before a backoff has passed since the last failure. The backoff doubles with every
+ * failure in a row, up to a limit, and resets with a delivery. A message leaves the outbox only
+ * with onDelivered(); a failure or a lost connection puts it back in the queue.
+ *
+ * Writes are not synced to the storage: a message survives the process dying, not the phone losing
+ * power. Thread safe.
+ */
+
+public class MqttOutbox {
+    public static final int DEFAULT_MAX_IN_FLIGHT = 4;
+    public static final long DEFAULT_MIN_BACKOFF_MS = 1000;
+    public static final long DEFAULT_MAX_BACKOFF_MS = 5 * 60 * 1000L;
+    public static final long DEFAULT_MAX_BYTES = 64 * 1024 * 1024L;
+
+    public static final String QUEUE_EXTENSION = ".queue";
+    public static final String INDEX_EXTENSION = ".index";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final byte INDEX_ADD = 1;
+    private static final byte INDEX_REMOVE = 2;
+    // Type, id and offset
+    private static final int INDEX_ENTRY_SIZE = 1 + 8 + 8;
+    // Length, then id, time queued and QoS
+    private static final int RECORD_HEADER_SIZE = 4 + 8 + 8 + 1;
+    private static final int RECORD_CRC_SIZE = 4;
+    private static final int MAX_RECORD_SIZE = 256 * 1024 * 1024;
+    // Delivered records are compacted away once they take this much and more than those waiting
+    private static final long COMPACT_MIN_BYTES = 1024 * 1024;
+
+    private final File mQueueFile;
+    private final File mIndexFile;
+    private RandomAccessFile mQueue;
+    private RandomAccessFile mIndex;
+    private final CRC32 mCrc = new CRC32();
+
+    // Messages waiting, in the order they were queued
+    private final LinkedHashMap<Long, Entry> mEntries = new LinkedHashMap<>();
+    private long mNextId;
+    private long mQueueBytes;
+    private int mInFlight;
+
+    private int mMaxInFlight = DEFAULT_MAX_IN_FLIGHT;
+    private long mMinBackoffMs = DEFAULT_MIN_BACKOFF_MS;
+    private long mMaxBackoffMs = DEFAULT_MAX_BACKOFF_MS;
+    private long mMaxBytes = DEFAULT_MAX_BYTES;
+    private int mFailures;
+    private long mNextAttemptMs;
+
+    private final Metrics mMetrics = new Metrics();
+
+    /**
+     * Opens the outbox, with the messages it held when it was last closed.
+     *
+     * @param file The outbox's files, without their extensions.
+     */
+    public MqttOutbox(File file) throws IOException {
+        mQueueFile = new File(file.getPath() + QUEUE_EXTENSION);
+        mIndexFile = new File(file.getPath() + INDEX_EXTENSION);
+        open();
+        load();
+    }
+
+    public synchronized MqttOutbox setMaxInFlight(int maxInFlight) {
+        mMaxInFlight = maxInFlight;
+        return this;
+    }
+
+    /**
+     * @param minBackoffMs Wait after the first failure in a row.
+     * @param maxBackoffMs Longest wait, however many failures in a row.
+     */
+    public synchronized MqttOutbox setBackoff(long minBackoffMs, long maxBackoffMs) {
+        mMinBackoffMs = minBackoffMs;
+        mMaxBackoffMs = maxBackoffMs;
+        return this;
+    }
+
+    /**
+     * @param maxBytes Most bytes of messages waiting; enqueue() refuses more.
+     */
+    public synchronized MqttOutbox setMaxBytes(long maxBytes) {
+        mMaxBytes = maxBytes;
+        return this;
+    }
+
+    public Metrics getMetrics() {
+        return mMetrics;
+    }
+
+    /**
+     * Queues a message, on disk before it returns.
+     *
+     * @param nowMs The current time (System.currentTimeMillis()).
+     * @return The id of the message, or -1 if the outbox is full.
+     */
+    public synchronized long enqueue(String topic, byte[] payload, int qos, long nowMs) throws IOException {
+        long id = mNextId;
+        byte[] record = createRecord(id, nowMs, qos, topic, payload);
+        if (mQueueBytes + record.length > mMaxBytes) {
+            mMetrics.mRefused++;
+            return -1;
+        }
+        long offset = mQueue.length();
+        mQueue.seek(offset);
+        mQueue.write(record);
+        appendIndex(INDEX_ADD, id, offset);
+        mNextId++;
+
+        mEntries.put(id, new Entry(id, offset, record.length, nowMs));
+        mQueueBytes += record.length;
+        mMetrics.mQueued++;
+        updateMetrics();
+        return id;
+    }
+
+    /**
+     * Takes the oldest message that is not in flight, if one may be sent now: fewer messages than
+     * the limit are in flight and the backoff has passed. The message is in flight until
+     * onDelivered() or onFailed() is called with its id.
+     *
+     * @param nowMs The current time (System.currentTimeMillis()).
+     * @return The message, or null if none may be sent now.
+     */
+    public synchronized Message poll(long nowMs) throws IOException {
+        if (mInFlight >= mMaxInFlight || nowMs < mNextAttemptMs) {
+            return null;
+        }
+        Iterator<Entry> entries = mEntries.values().iterator();
+        while (entries.hasNext()) {
+            Entry entry = entries.next();
+            if (entry.mInFlight) {
+                continue;
+            }
+            Message message = readMessage(entry.mOffset, entry.mLength);
+            if (message == null || message.mId != entry.mId) {
+                // Corrupt; no use sending it again and again
+                entries.remove();
+                appendIndex(INDEX_REMOVE, entry.mId, 0);
+                mQueueBytes -= entry.mLength;
+                mMetrics.mCorrupt++;
+                continue;
+            }
+            entry.mInFlight = true;
+            mInFlight++;
+            updateMetrics();
+            return message;
+        }
+        compactIfEmpty();
+        return null;
+    }
+
+    /**
+     * @return When poll() may next return a message, given the backoff; Long.MAX_VALUE if it only
+     *         may once a message is queued or a message in flight delivered or failed.
+     */
+    public synchronized long getNextAttemptMs() {
+        if (mInFlight >= mMaxInFlight || mInFlight == mEntries.size()) {
+            return Long.MAX_VALUE;
+        }
+        return mNextAttemptMs;
+    }
+
+    /**
+     * Removes a message, once the broker has it (MqttCallback.deliveryComplete()).
+     *
+     * @return false if the message was not in the outbox (e.g. already delivered).
+     */
+    public synchronized boolean onDelivered(long id) throws IOException {
+        Entry entry = mEntries.remove(id);
+        if (entry == null) {
+            return false;
+        }
+        if (entry.mInFlight) {
+            mInFlight--;
+        }
+        mQueueBytes -= entry.mLength;
+        mFailures = 0;
+        mNextAttemptMs = 0;
+        mMetrics.mDelivered++;
+        mMetrics.mBackoffMs = 0;
+
+        if (mEntries.isEmpty()) {
+            compactIfEmpty();
+        } else {
+            appendIndex(INDEX_REMOVE, id, 0);
+            if (mQueue.length() - mQueueBytes > Math.max(COMPACT_MIN_BYTES, mQueueBytes)) {
+                compact();
+            }
+        }
+        updateMetrics();
+        return true;
+    }
+
+    /**
+     * Puts a message in flight back in the queue and backs off before the next one is sent.
+     *
+     * @param nowMs The current time (System.currentTimeMillis()).
+     */
+    public synchronized void onFailed(long id, long nowMs) {
+        Entry entry = mEntries.get(id);
+        if (entry == null || !entry.mInFlight) {
+            return;
+        }
+        entry.mInFlight = false;
+        mInFlight--;
+        // Doubles with every failure in a row: min, 2 min, 4 min... up to max
+        long backoffMs = mMinBackoffMs << Math.min(mFailures, 30);
+        backoffMs = backoffMs <= 0 ? mMaxBackoffMs : Math.min(backoffMs, mMaxBackoffMs);
+        mFailures++;
+        mNextAttemptMs = nowMs + backoffMs;
+        mMetrics.mFailed++;
+        mMetrics.mBackoffMs = backoffMs;
+        updateMetrics();
+    }
+
+    /**
+     * Puts every message in flight back in the queue, e.g. when the connection is lost: they are
+     * sent again, unless their delivery completes first.
+     */
+    public synchronized void onDisconnected() {
+        for (Entry entry : mEntries.values()) {
+            entry.mInFlight = false;
+        }
+        mInFlight = 0;
+        updateMetrics();
+    }
+
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    public synchronized void close() throws IOException {
+        try {
+            mQueue.close();
+        } finally {
+            mIndex.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return mQueueFile.getName() + ": " + mMetrics;
+    }
+
+    private void open() throws IOException {
+        mQueue = new RandomAccessFile(mQueueFile, "rw");
+        mIndex = new RandomAccessFile(mIndexFile, "rw");
+    }
+
+    /**
+     * Replays the index, then looks for the records it misses.
+     */
+    private void load() throws IOException {
+        Map<Long, Long> offsets = new LinkedHashMap<>();
+        Set<Long> removed = new HashSet<>();
+        long indexEntries = mIndex.length() / INDEX_ENTRY_SIZE;
+        ByteBuffer index = ByteBuffer.allocate((int) (indexEntries * INDEX_ENTRY_SIZE));
+        mIndex.seek(0);
+        mIndex.readFully(index.array());
+        // Start of the last record indexed, delivered or not
+        long lastIndexed = 0;
+        for (long i = 0; i < indexEntries; i++) {
+            byte type = index.get();
+            long id = index.getLong();
+            long offset = index.getLong();
+            if (type == INDEX_ADD) {
+                offsets.put(id, offset);
+                lastIndexed = Math.max(lastIndexed, offset);
+            } else if (type == INDEX_REMOVE) {
+                offsets.remove(id);
+                removed.add(id);
+            }
+            mNextId = Math.max(mNextId, id + 1);
+        }
+        // Drops an entry torn by the process dying
+        mIndex.setLength(indexEntries * INDEX_ENTRY_SIZE);
+
+        boolean valid = true;
+        for (Map.Entry<Long, Long> offset : offsets.entrySet()) {
+            Message message = readMessage(offset.getValue(), -1);
+            if (message == null || message.mId != offset.getKey()) {
+                valid = false;
+                break;
+            }
+            addEntry(message, offset.getValue());
+        }
+        if (!valid) {
+            // The queue was compacted after the index was written: every record not delivered is waiting
+            mEntries.clear();
+            mQueueBytes = 0;
+            lastIndexed = 0;
+        }
+
+        // Records the index misses, written just before the process died
+        long offset = lastIndexed;
+        Message message;
+        while ((message = readMessage(offset, -1)) != null) {
+            if (!removed.contains(message.mId) && !mEntries.containsKey(message.mId)) {
+                addEntry(message, offset);
+                if (valid) {
+                    appendIndex(INDEX_ADD, message.mId, offset);
+                }
+            }
+            mNextId = Math.max(mNextId, message.mId + 1);
+            offset += message.mRecordLength;
+        }
+        // Drops a record torn by the process dying
+        mQueue.setLength(offset);
+
+        if (!valid) {
+            compact();
+        }
+        compactIfEmpty();
+        updateMetrics();
+    }
+
+    private void addEntry(Message message, long offset) {
+        mEntries.put(message.mId, new Entry(message.mId, offset, message.mRecordLength, message.mEnqueuedMs));
+        mQueueBytes += message.mRecordLength;
+    }
+
+    /**
+     * @param length The record's length, or -1 to read it from the record.
+     * @return The message, or null if there is no whole, valid record at the offset.
+     */
+    private Message readMessage(long offset, int length) throws IOException {
+        if (offset + RECORD_HEADER_SIZE + RECORD_CRC_SIZE > mQueue.length()) {
+            return null;
+        }
+        mQueue.seek(offset);
+        int recordLength = mQueue.readInt();
+        if ((length >= 0 && recordLength != length) || recordLength < RECORD_HEADER_SIZE + RECORD_CRC_SIZE
+                || recordLength > MAX_RECORD_SIZE || offset + recordLength > mQueue.length()) {
+            return null;
+        }
+        byte[] record = new byte[recordLength];
+        mQueue.seek(offset);
+        mQueue.readFully(record);
+        mCrc.reset();
+        mCrc.update(record, 0, recordLength - RECORD_CRC_SIZE);
+        ByteBuffer buffer = ByteBuffer.wrap(record);
+        if ((int) mCrc.getValue() != buffer.getInt(recordLength - RECORD_CRC_SIZE)) {
+            return null;
+        }
+        buffer.position(4);
+        long id = buffer.getLong();
+        long enqueuedMs = buffer.getLong();
+        int qos = buffer.get();
+        int topicLength = buffer.getShort() & 0xFFFF;
+        String topic = new String(record, buffer.position(), topicLength, UTF_8);
+        int payloadOffset = buffer.position() + topicLength;
+        byte[] payload = new byte[recordLength - RECORD_CRC_SIZE - payloadOffset];
+        System.arraycopy(record, payloadOffset, payload, 0, payload.length);
+        return new Message(id, topic, payload, qos, enqueuedMs, recordLength);
+    }
+
+    private byte[] createRecord(long id, long enqueuedMs, int qos, String topic, byte[] payload) throws IOException {
+        byte[] topicBytes = topic.getBytes(UTF_8);
+        if (topicBytes.length > 0xFFFF) {
+            throw new IllegalArgumentException("Invalid Topic");
+        }
+        int length = RECORD_HEADER_SIZE + 2 + topicBytes.length + payload.length + RECORD_CRC_SIZE;
+        if (length > MAX_RECORD_SIZE) {
+            throw new IllegalArgumentException("Message Too Large");
+        }
+        ByteArrayOutputStream record = new ByteArrayOutputStream(length);
+        DataOutputStream output = new DataOutputStream(record);
+        output.writeInt(length);
+        output.writeLong(id);
+        output.writeLong(enqueuedMs);
+        output.writeByte(qos);
+        output.writeShort(topicBytes.length);
+        output.write(topicBytes);
+        output.write(payload);
+        mCrc.reset();
+        mCrc.update(record.toByteArray());
+        output.writeInt((int) mCrc.getValue());
+        return record.toByteArray();
+    }
+
+    private void appendIndex(byte type, long id, long offset) throws IOException {
+        ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY_SIZE);
+        entry.put(type).putLong(id).putLong(offset);
+        mIndex.seek(mIndex.length());
+        mIndex.write(entry.array());
+    }
+
+    /**
+     * Empties both files once every message is delivered.
+     */
+    private void compactIfEmpty() throws IOException {
+        if (mEntries.isEmpty() && (mQueue.length() > 0 || mIndex.length() > 0)) {
+            mQueue.setLength(0);
+            mIndex.setLength(0);
+            mQueueBytes = 0;
+        }
+    }
+
+    /**
+     * Rewrites both files with only the messages waiting. The queue file is replaced before the
+     * index: if the process dies in between, the old index does not match the new queue file, and
+     * the queue file is scanned when the outbox opens again.
+     */
+    private void compact() throws IOException {
+        File queueFile = new File(mQueueFile.getPath() + ".tmp");
+        File indexFile = new File(mIndexFile.getPath() + ".tmp");
+        RandomAccessFile queue = new RandomAccessFile(queueFile, "rw");
+        RandomAccessFile index = new RandomAccessFile(indexFile, "rw");
+        List<Entry> entries = new ArrayList<>(mEntries.values());
+        try {
+            queue.setLength(0);
+            index.setLength(0);
+            ByteBuffer indexEntry = ByteBuffer.allocate(INDEX_ENTRY_SIZE);
+            for (Entry entry : entries) {
+                byte[] record = new byte[entry.mLength];
+                mQueue.seek(entry.mOffset);
+                mQueue.readFully(record);
+                entry.mOffset = queue.getFilePointer();
+                queue.write(record);
+                indexEntry.clear();
+                indexEntry.put(INDEX_ADD).putLong(entry.mId).putLong(entry.mOffset);
+                index.write(indexEntry.array());
+            }
+        } finally {
+            queue.close();
+            index.close();
+        }
+        close();
+        if (!queueFile.renameTo(mQueueFile) || !indexFile.renameTo(mIndexFile)) {
+            open();
+            throw new IOException("Could not compact " + mQueueFile);
+        }
+        open();
+        mMetrics.mCompactions++;
+    }
+
+    private void updateMetrics() {
+        mMetrics.mQueueDepth = mEntries.size();
+        mMetrics.mQueueBytes = mQueueBytes;
+        mMetrics.mInFlight = mInFlight;
+        mMetrics.mOldestEnqueuedMs = mEntries.isEmpty() ? 0 : mEntries.values().iterator().next().mEnqueuedMs;
+    }
+
+    private static class Entry {
+        private final long mId;
+        private long mOffset;
+        private final int mLength;
+        private final long mEnqueuedMs;
+        private boolean mInFlight;
+
+        private Entry(long id, long offset, int length, long enqueuedMs) {
+            mId = id;
+            mOffset = offset;
+            mLength = length;
+            mEnqueuedMs = enqueuedMs;
+        }
+    }
+
+    /**
+     * A message taken from the outbox to be published.
+     */
+    public static class Message {
+        private final long mId;
+        private final String mTopic;
+        private final byte[] mPayload;
+        private final int mQos;
+        private final long mEnqueuedMs;
+        private final int mRecordLength;
+
+        private Message(long id, String topic, byte[] payload, int qos, long enqueuedMs, int recordLength) {
+            mId = id;
+            mTopic = topic;
+            mPayload = payload;
+            mQos = qos;
+            mEnqueuedMs = enqueuedMs;
+            mRecordLength = recordLength;
+        }
+
+        public long getId() {
+            return mId;
+        }
+
+        public String getTopic() {
+            return mTopic;
+        }
+
+        public byte[] getPayload() {
+            return mPayload;
+        }
+
+        public int getQos() {
+            return mQos;
+        }
+
+        public long getEnqueuedMs() {
+            return mEnqueuedMs;
+        }
+    }
+
+    /**
+     * Depth and age of the outbox, and how the drain is going.
+     */
+    public static class Metrics {
+        private volatile int mQueueDepth;
+        private volatile long mQueueBytes;
+        private volatile int mInFlight;
+        private volatile long mOldestEnqueuedMs;
+        private volatile long mQueued;
+        private volatile long mDelivered;
+        private volatile long mFailed;
+        private volatile long mRefused;
+        private volatile long mCorrupt;
+        private volatile long mBackoffMs;
+        private volatile int mCompactions;
+
+        /**
+         * @return Messages waiting, in flight or not.
+         */
+        public int getQueueDepth() {
+            return mQueueDepth;
+        }
+
+        public long getQueueBytes() {
+            return mQueueBytes;
+        }
+
+        public int getInFlight() {
+            return mInFlight;
+        }
+
+        /**
+         * @param nowMs The current time (System.currentTimeMillis()).
+         * @return How long the oldest message has been waiting, or 0 if none is.
+         */
+        public long getOldestAgeMs(long nowMs) {
+            long oldestEnqueuedMs = mOldestEnqueuedMs;
+            return mQueueDepth == 0 ? 0 : Math.max(0, nowMs - oldestEnqueuedMs);
+        }
+
+        /**
+         * @return Messages queued since the outbox was opened.
+         */
+        public long getQueued() {
+            return mQueued;
+        }
+
+        public long getDelivered() {
+            return mDelivered;
+        }
+
+        public long getFailed() {
+            return mFailed;
+        }
+
+        /**
+         * @return Messages refused because the outbox was full.
+         */
+        public long getRefused() {
+            return mRefused;
+        }
+
+        /**
+         * @return Messages dropped because their record could not be read back.
+         */
+        public long getCorrupt() {
+            return mCorrupt;
+        }
+
+        /**
+         * @return The wait after the latest failure, or 0 if a message was delivered since.
+         */
+        public long getBackoffMs() {
+            return mBackoffMs;
+        }
+
+        public int getCompactions() {
+            return mCompactions;
+        }
+
+        @Override
+        public String toString() {
+            return mQueueDepth + " waiting (" + mQueueBytes + " bytes, " + mInFlight + " in flight, oldest " +
+                    getOldestAgeMs(System.currentTimeMillis()) / 1000 + "s), delivered " + mDelivered +
+                    ", failed " + mFailed + " (backoff " + mBackoffMs + "ms), refused " + mRefused;
+        }
+    }
+}
@@ -12,4 +12,9 @@ public abstract class MqttUpdateReceiver extends BroadcastReceiver {
     public static final IntentFilter INTENT_FILTER = new IntentFilter(INTENT_FILTER_STRING);
 
     public static final String UPDATE_TYPE = "uri.wbl.tex_tronics.mqtt.update_type";
+
+    /**
+     * Payload of the message an acknowledged update carries.
+     */
+    public static final String MESSAGE = "uri.wbl.tex_tronics.mqtt.message";
 }
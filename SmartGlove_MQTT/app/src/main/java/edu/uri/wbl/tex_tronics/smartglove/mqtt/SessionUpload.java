@@ -0,0 +1,265 @@
+package edu.uri.wbl.tex_tronics.smartglove.mqtt;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import edu.uri.wbl.tex_tronics.smartglove.io.Base64OutputStream;
+import edu.uri.wbl.tex_tronics.smartglove.io.BlockCompressor;
+import edu.uri.wbl.tex_tronics.smartglove.io.CsvInputStream;
+import edu.uri.wbl.tex_tronics.smartglove.io.SessionFileReader;
+
+/**
+ * Uploads a session file as chunks of a fixed number of samples, each its own message: the
+ * session's JsonData with the chunk's CSV, compressed by a BlockCompressor and Base64 encoded, as
+ * its "Data", and "Chunk", "Chunk_Count" and "Checksum" (CRC-32 of the Data) added. The first chunk
+ * starts with the CSV header line. A chunk is read straight from the session file's block index,
+ * so an upload can resume at any chunk.
+ *
+ * The merged session of an exercise's devices is a CSV file (SessionWriter) rather than a binary
+ * session file. It is sent the same way, a chunk being a number of its rows; where each chunk
+ * starts is found by reading the file once, when the upload is created.
+ *
+ * The fog node acknowledges every chunk with the number of chunks it holds in order. Up to a window
+ * of chunks past those is sent before waiting for acknowledgements; chunks sent but not
+ * acknowledged are sent again after rewind().
+ *
+ * Not thread safe; an upload belongs to the thread that sends it.
+ */
+
+public class SessionUpload {
+    public static final int DEFAULT_CHUNK_SAMPLES = 4096;
+    public static final int DEFAULT_WINDOW = 4;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String CSV_EXTENSION = ".csv";
+
+    private final File mSessionFile;
+    private final JsonData mJson;
+    private final BlockCompressor mCompressor;
+    private final int mChunkSamples;
+    private final int mChunkCount;
+
+    /**
+     * Where each chunk of a CSV session file starts, then the file's length; null for a binary
+     * session file.
+     */
+    private final long[] mChunkOffsets;
+    private final CRC32 mCrc = new CRC32();
+    private int mChunksAcknowledged;
+    private int mNextChunk;
+
+    /**
+     * @param json         The session's message; its data is replaced by each chunk's.
+     * @param chunkSamples Samples per chunk. Must stay the same for the whole upload, across restarts.
+     */
+    public SessionUpload(File sessionFile, JsonData json, BlockCompressor compressor, int chunkSamples) throws IOException {
+        if (chunkSamples <= 0) {
+            throw new IllegalArgumentException("Invalid Chunk Size");
+        }
+        mSessionFile = sessionFile;
+        mJson = json;
+        mCompressor = compressor;
+        mChunkSamples = chunkSamples;
+        if (isCsv(sessionFile)) {
+            mChunkOffsets = findChunkOffsets(sessionFile, chunkSamples);
+            mChunkCount = mChunkOffsets.length - 1;
+            return;
+        }
+        mChunkOffsets = null;
+        SessionFileReader reader = new SessionFileReader(sessionFile);
+        try {
+            // A session without samples is still sent, as its header line
+            mChunkCount = (int) Math.max(1, (reader.getSampleCount() + chunkSamples - 1) / chunkSamples);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * @return true if the session file is CSV (a merged session) rather than a binary session file.
+     */
+    public static boolean isCsv(File sessionFile) {
+        return sessionFile.getName().endsWith(CSV_EXTENSION);
+    }
+
+    /**
+     * @return Where every chunkRows rows after the header line start, from 0 (the header line, in
+     *         the first chunk), then the file's length.
+     */
+    private static long[] findChunkOffsets(File csvFile, int chunkRows) throws IOException {
+        long[] offsets = new long[16];
+        int count = 1;
+        long offset = 0;
+        long rows = -1;
+        InputStream input = new BufferedInputStream(new FileInputStream(csvFile), 64 * 1024);
+        try {
+            int b;
+            while ((b = input.read()) >= 0) {
+                offset++;
+                if (b == '\n' && ++rows > 0 && rows % chunkRows == 0) {
+                    if (count == offsets.length) {
+                        offsets = Arrays.copyOf(offsets, count * 2);
+                    }
+                    offsets[count++] = offset;
+                }
+            }
+        } finally {
+            input.close();
+        }
+        // A chunk boundary at the end of the file would make an empty last chunk
+        if (count > 1 && offsets[count - 1] == offset) {
+            count--;
+        }
+        long[] chunkOffsets = Arrays.copyOf(offsets, count + 1);
+        chunkOffsets[count] = offset;
+        return chunkOffsets;
+    }
+
+    /**
+     * @return The key of the upload of a device's session, as the fog node's acknowledgements
+     *         name it.
+     */
+    public static String getKey(String sensorId, String exerciseID) {
+        return sensorId + "/" + exerciseID;
+    }
+
+    public String getKey() {
+        return getKey(mJson.getSensorId(), mJson.getExerciseID());
+    }
+
+    public File getSessionFile() {
+        return mSessionFile;
+    }
+
+    public int getChunkCount() {
+        return mChunkCount;
+    }
+
+    public int getChunksAcknowledged() {
+        return mChunksAcknowledged;
+    }
+
+    /**
+     * @return The chunk sent next.
+     */
+    public int getNextChunk() {
+        return mNextChunk;
+    }
+
+    /**
+     * @return true if a chunk is due to be sent: within the window past the acknowledged chunks.
+     */
+    public boolean hasChunkToSend(int window) {
+        return mNextChunk < Math.min(mChunkCount, mChunksAcknowledged + window);
+    }
+
+    /**
+     * @return The message of the chunk.
+     */
+    public byte[] createChunk(int chunk) throws IOException {
+        if (chunk < 0 || chunk >= mChunkCount) {
+            throw new IllegalArgumentException("Invalid Chunk " + chunk);
+        }
+        InputStream csv = mChunkOffsets != null
+                ? new FileRangeInputStream(mSessionFile, mChunkOffsets[chunk], mChunkOffsets[chunk + 1])
+                : new CsvInputStream(mSessionFile, (long) chunk * mChunkSamples, mChunkSamples, chunk == 0);
+        ByteArrayOutputStream message = new ByteArrayOutputStream();
+        try {
+            message.write(mJson.getHead().getBytes(UTF_8));
+            mCrc.reset();
+            Base64OutputStream data = new Base64OutputStream(new CheckedOutputStream(message, mCrc));
+            mCompressor.compress(csv, data);
+            // Writes the last Base64 characters
+            data.close();
+            mJson.setChunk(chunk, mChunkCount, mCrc.getValue());
+            message.write(mJson.getTail().getBytes(UTF_8));
+        } finally {
+            csv.close();
+        }
+        return message.toByteArray();
+    }
+
+    /**
+     * Called once the next chunk is handed to the MQTT client.
+     */
+    public void onChunkSent() {
+        mNextChunk++;
+    }
+
+    /**
+     * @param chunksAcknowledged Number of chunks the fog node holds in order.
+     * @return false if the acknowledgement tells nothing new (e.g. a repeated one).
+     */
+    public boolean acknowledge(int chunksAcknowledged) {
+        chunksAcknowledged = Math.min(chunksAcknowledged, mChunkCount);
+        if (chunksAcknowledged <= mChunksAcknowledged) {
+            return false;
+        }
+        mChunksAcknowledged = chunksAcknowledged;
+        mNextChunk = Math.max(mNextChunk, chunksAcknowledged);
+        return true;
+    }
+
+    /**
+     * Sends every chunk not acknowledged again, e.g. when acknowledgements stop coming or the
+     * client reconnects.
+     */
+    public void rewind() {
+        mNextChunk = mChunksAcknowledged;
+    }
+
+    public boolean isComplete() {
+        return mChunksAcknowledged == mChunkCount;
+    }
+
+    /**
+     * Reads a range of a file's bytes.
+     */
+    private static class FileRangeInputStream extends InputStream {
+        private final RandomAccessFile mFile;
+        private long mRemaining;
+
+        FileRangeInputStream(File file, long start, long end) throws IOException {
+            mFile = new RandomAccessFile(file, "r");
+            mFile.seek(start);
+            mRemaining = end - start;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (mRemaining <= 0) {
+                return -1;
+            }
+            int read = mFile.read(b, off, (int) Math.min(len, mRemaining));
+            if (read > 0) {
+                mRemaining -= read;
+            }
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            mFile.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getKey() + ": " + mChunksAcknowledged + "/" + mChunkCount + " chunks acknowledged, next " + mNextChunk;
+    }
+}
@@ -8,7 +8,8 @@ import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.enums.Action;
 
 public enum UpdateType {
     connected ("uri.wbl.tex_tronics.mqtt.connected"),
-    disconnected ("uri.wbl.tex_tronics.mqtt.disconnected");
+    disconnected ("uri.wbl.tex_tronics.mqtt.disconnected"),
+    acknowledged ("uri.wbl.tex_tronics.mqtt.acknowledged");
 
     private final String mUpdate;
 
@@ -22,6 +23,8 @@ public enum UpdateType {
                 return connected;
             case "uri.wbl.tex_tronics.mqtt.disconnected":
                 return disconnected;
+            case "uri.wbl.tex_tronics.mqtt.acknowledged":
+                return acknowledged;
             default:
                 return null;
         }
@@ -0,0 +1,99 @@
+package edu.uri.wbl.tex_tronics.smartglove.tex_tronics;
+
+/**
+ * Maps a device's millisecond clock onto the phone's clock (SystemClock.elapsedRealtimeNanos()).
+ *
+ * Every packet gives one observation: the device timestamp of its newest sample and the time the
+ * phone received it. A streaming least squares fit of receive time against device time gives the
+ * device's offset and drift, so samples from several devices can be placed on one time line. The
+ * fit includes the average BLE delivery delay, which is similar for every device on the same
+ * phone and so cancels out when devices are compared with each other.
+ *
+ * Only the pipeline thread uses this class.
+ */
+
+public class ClockAligner {
+    /**
+     * The first observation. Later observations are stored relative to it so the sums stay small
+     * enough for double precision.
+     */
+    private long mOriginDeviceMs;
+    private long mOriginReceivedNanos;
+
+    private long mCount = 0;
+    private double mMeanX = 0;
+    private double mMeanY = 0;
+    private double mSxx = 0;
+    private double mSxy = 0;
+
+    /**
+     * Adds an observation.
+     *
+     * @param deviceTimeMs Unwrapped device timestamp of the newest sample in a packet.
+     * @param receivedNanos Time the packet was received (SystemClock.elapsedRealtimeNanos()).
+     */
+    public void addObservation(long deviceTimeMs, long receivedNanos) {
+        if (mCount == 0) {
+            mOriginDeviceMs = deviceTimeMs;
+            mOriginReceivedNanos = receivedNanos;
+        }
+
+        double x = deviceTimeMs - mOriginDeviceMs;
+        double y = (receivedNanos - mOriginReceivedNanos) / 1e6;
+
+        // Welford's update of the means and co-moments
+        mCount++;
+        double dx = x - mMeanX;
+        mMeanX += dx / mCount;
+        mMeanY += (y - mMeanY) / mCount;
+        mSxx += dx * (x - mMeanX);
+        mSxy += dx * (y - mMeanY);
+    }
+
+    public boolean isAligned() {
+        return mCount > 0;
+    }
+
+    public long getObservationCount() {
+        return mCount;
+    }
+
+    /**
+     * @return Phone milliseconds per device millisecond. 1 until the device clock has advanced.
+     */
+    public double getSlope() {
+        return (mCount < 2 || mSxx <= 0) ? 1.0 : mSxy / mSxx;
+    }
+
+    /**
+     * @return How much faster (positive) or slower the phone clock runs than the device clock, in
+     *         parts per million.
+     */
+    public double getDriftPpm() {
+        return (getSlope() - 1.0) * 1e6;
+    }
+
+    /**
+     * @return Phone time (SystemClock.elapsedRealtimeNanos()) at which the device clock read 0.
+     */
+    public long getOffsetNanos() {
+        return toPhoneTimeNanos(0);
+    }
+
+    /**
+     * Converts a device timestamp into phone time.
+     *
+     * @param deviceTimeMs Unwrapped device timestamp.
+     * @return The estimated SystemClock.elapsedRealtimeNanos() at which the sample was taken, or
+     *         the device time in nanoseconds if no observation has been added yet.
+     */
+    public long toPhoneTimeNanos(long deviceTimeMs) {
+        if (mCount == 0) {
+            return deviceTimeMs * 1000000L;
+        }
+        double slope = getSlope();
+        double x = deviceTimeMs - mOriginDeviceMs;
+        double y = mMeanY + slope * (x - mMeanX);
+        return mOriginReceivedNanos + Math.round(y * 1e6);
+    }
+}
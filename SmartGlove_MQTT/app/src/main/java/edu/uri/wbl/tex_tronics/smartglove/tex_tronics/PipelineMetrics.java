@@ -0,0 +1,181 @@
+package edu.uri.wbl.tex_tronics.smartglove.tex_tronics;
+
+/**
+ * Counters describing how well the packet processing pipeline of the TexTronics Manager Service is
+ * keeping up with a single device.
+ *
+ * Only the pipeline thread updates these values; any thread may read them. Each value is read
+ * individually, so a reader may see counters from slightly different points in time.
+ */
+
+public class PipelineMetrics {
+    private final String mDeviceAddress;
+
+    private volatile long mPacketsProcessed = 0;
+    private volatile long mSamplesDecoded = 0;
+    private volatile long mInvalidPackets = 0;
+    private volatile long mPacketsDropped = 0;
+    private volatile long mSnapshotsPublished = 0;
+
+    /**
+     * Number of packets waiting in the device's packet buffer when the last drain started.
+     */
+    private volatile int mQueueDepth = 0;
+    private volatile int mMaxQueueDepth = 0;
+
+    /**
+     * Time between a packet being received by the BLE Service and being processed.
+     */
+    private volatile long mLastLagNanos = 0;
+    private volatile long mAverageLagNanos = 0;
+    private volatile long mMaxLagNanos = 0;
+
+    /**
+     * Time between the device's last connection or reconnection starting and its first sample
+     * arriving, as measured by the BLE Service, or -1 until that sample has been processed.
+     */
+    private volatile long mTimeToFirstSampleMs = -1;
+    private boolean mAwaitingFirstSample = true;
+
+    /**
+     * Time the last snapshot was published to the UI. Only accessed from the pipeline thread.
+     */
+    private long mLastSnapshotNanos = 0;
+
+    public PipelineMetrics(String deviceAddress) {
+        mDeviceAddress = deviceAddress;
+    }
+
+    /**
+     * Called by the pipeline thread before draining the device's packet buffer.
+     *
+     * @param queueDepth Number of packets waiting in the packet buffer.
+     * @param packetsDropped Total number of packets the packet buffer has dropped.
+     */
+    void onDrainStarted(int queueDepth, long packetsDropped) {
+        mQueueDepth = queueDepth;
+        if (queueDepth > mMaxQueueDepth) {
+            mMaxQueueDepth = queueDepth;
+        }
+        mPacketsDropped = packetsDropped;
+    }
+
+    /**
+     * Called by the pipeline thread for each packet processed.
+     *
+     * @param lagNanos Time between the packet being received and being processed.
+     * @param samples Number of samples decoded from the packet, or a negative value if the packet
+     *                was invalid.
+     */
+    void onPacketProcessed(long lagNanos, int samples) {
+        mPacketsProcessed++;
+        if (samples < 0) {
+            mInvalidPackets++;
+        } else {
+            mSamplesDecoded += samples;
+        }
+
+        mLastLagNanos = lagNanos;
+        // Exponential moving average (1/16 weight) so the average follows the current load
+        mAverageLagNanos += (lagNanos - mAverageLagNanos) >> 4;
+        if (lagNanos > mMaxLagNanos) {
+            mMaxLagNanos = lagNanos;
+        }
+    }
+
+    /**
+     * Called by the pipeline thread when the link dropped and the device is being reconnected.
+     */
+    void onReconnecting() {
+        mAwaitingFirstSample = true;
+        mTimeToFirstSampleMs = -1;
+    }
+
+    boolean isAwaitingFirstSample() {
+        return mAwaitingFirstSample;
+    }
+
+    /**
+     * Called by the pipeline thread once the first sample since the (re)connection is drained.
+     */
+    void onFirstSample(long timeToFirstSampleMs) {
+        mAwaitingFirstSample = false;
+        mTimeToFirstSampleMs = timeToFirstSampleMs;
+    }
+
+    /**
+     * Called by the pipeline thread to decide whether the UI should be sent a new snapshot.
+     *
+     * @return true (and records the snapshot) if at least intervalNanos has passed since the last
+     *         snapshot.
+     */
+    boolean onSnapshotDue(long nowNanos, long intervalNanos) {
+        if (mSnapshotsPublished > 0 && nowNanos - mLastSnapshotNanos < intervalNanos) {
+            return false;
+        }
+        mLastSnapshotNanos = nowNanos;
+        mSnapshotsPublished++;
+        return true;
+    }
+
+    public String getDeviceAddress() {
+        return mDeviceAddress;
+    }
+
+    public long getPacketsProcessed() {
+        return mPacketsProcessed;
+    }
+
+    public long getSamplesDecoded() {
+        return mSamplesDecoded;
+    }
+
+    public long getInvalidPackets() {
+        return mInvalidPackets;
+    }
+
+    public long getPacketsDropped() {
+        return mPacketsDropped;
+    }
+
+    public long getSnapshotsPublished() {
+        return mSnapshotsPublished;
+    }
+
+    public int getQueueDepth() {
+        return mQueueDepth;
+    }
+
+    public int getMaxQueueDepth() {
+        return mMaxQueueDepth;
+    }
+
+    public long getLastLagNanos() {
+        return mLastLagNanos;
+    }
+
+    public long getAverageLagNanos() {
+        return mAverageLagNanos;
+    }
+
+    public long getMaxLagNanos() {
+        return mMaxLagNanos;
+    }
+
+    /**
+     * @return Time (in milliseconds) between the device's last connection or reconnection starting
+     *         and its first sample arriving, or -1 if no sample has arrived since.
+     */
+    public long getTimeToFirstSampleMs() {
+        return mTimeToFirstSampleMs;
+    }
+
+    @Override
+    public String toString() {
+        return mDeviceAddress + ": processed=" + mPacketsProcessed + " samples=" + mSamplesDecoded +
+                " invalid=" + mInvalidPackets + " dropped=" + mPacketsDropped +
+                " queue=" + mQueueDepth + " (max " + mMaxQueueDepth + ")" +
+                " lag=" + (mAverageLagNanos / 1000) + "us (max " + (mMaxLagNanos / 1000) + "us)" +
+                " first sample=" + mTimeToFirstSampleMs + "ms";
+    }
+}
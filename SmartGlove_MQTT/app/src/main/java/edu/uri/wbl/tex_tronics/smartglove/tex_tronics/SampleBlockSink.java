@@ -0,0 +1,14 @@
+package edu.uri.wbl.tex_tronics.smartglove.tex_tronics;
+
+import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.data_types.SampleBlock;
+import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.devices.TexTronicsDevice;
+
+/**
+ * A stage of the TexTronics Manager Service's pipeline that consumes decoded samples a block at a
+ * time. Called on the pipeline thread; the block is only valid for the duration of the call and is
+ * read-only apart from its unwrapped timestamps.
+ */
+
+public interface SampleBlockSink {
+    void onSampleBlock(TexTronicsDevice device, SampleBlock block);
+}
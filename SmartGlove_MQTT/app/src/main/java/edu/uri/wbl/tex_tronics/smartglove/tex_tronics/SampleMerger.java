@@ -0,0 +1,213 @@
+package edu.uri.wbl.tex_tronics.smartglove.tex_tronics;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Merges the aligned samples of every device in a session into one stream ordered by time.
+ *
+ * Each device's samples are queued (already in time order) until every device that is still
+ * streaming has sent samples up to the same time, then the queues are combined with a k-way merge
+ * that repeatedly emits the oldest queue head. A device that has not sent anything for maxWaitNanos
+ * (disconnected or reconnecting) no longer holds back the others.
+ *
+ * Sample storage is allocated once per device; offering and emitting samples does not allocate.
+ * Only the pipeline thread uses this class.
+ */
+
+public class SampleMerger {
+    /**
+     * Largest number of values in a sample (5 flex readings followed by 9 IMU readings).
+     */
+    public static final int MAX_VALUES = 14;
+
+    public interface Listener {
+        /**
+         * Called for each sample in time order. The values array is reused and is only valid for
+         * the duration of the call.
+         */
+        void onMergedSample(String deviceAddress, long timeNanos, int[] values, int valueCount);
+    }
+
+    private static class Source {
+        final String mDeviceAddress;
+        final long[] mTimes;
+        final int[] mValues;
+        final int[] mValueCounts;
+        int mHead = 0;
+        int mSize = 0;
+        long mLastTimeNanos = Long.MIN_VALUE;
+        long mLastOfferNanos;
+        boolean mRemoved = false;
+
+        Source(String deviceAddress, int capacity) {
+            mDeviceAddress = deviceAddress;
+            mTimes = new long[capacity];
+            mValues = new int[capacity * MAX_VALUES];
+            mValueCounts = new int[capacity];
+        }
+    }
+
+    private final int mCapacity;
+    private final long mMaxWaitNanos;
+    private final Listener mListener;
+    private final List<Source> mSources = new ArrayList<>(4);
+    private final int[] mEmitValues = new int[MAX_VALUES];
+
+    private long mLastEmittedNanos = Long.MIN_VALUE;
+    private long mEmitted = 0;
+    private long mLate = 0;
+
+    /**
+     * @param capacity Number of samples queued per device before the oldest are emitted early.
+     * @param maxWaitNanos How long a silent device may hold back the merged stream.
+     */
+    public SampleMerger(int capacity, long maxWaitNanos, Listener listener) {
+        mCapacity = capacity;
+        mMaxWaitNanos = maxWaitNanos;
+        mListener = listener;
+    }
+
+    /**
+     * Registers a device before its first sample so the merged stream waits for it (for up to
+     * maxWaitNanos). Devices that are not registered are added by their first offer().
+     */
+    public void addSource(String deviceAddress, long nowNanos) {
+        if (getSource(deviceAddress) == null) {
+            Source source = new Source(deviceAddress, mCapacity);
+            source.mLastOfferNanos = nowNanos;
+            mSources.add(source);
+        }
+    }
+
+    /**
+     * Queues a sample.
+     *
+     * @param timeNanos Aligned time of the sample (phone clock).
+     * @param nowNanos Current phone time.
+     */
+    public void offer(String deviceAddress, long timeNanos, int[] values, int valueCount, long nowNanos) {
+        Source source = getSource(deviceAddress);
+        if (source == null || source.mRemoved) {
+            source = new Source(deviceAddress, mCapacity);
+            mSources.add(source);
+        }
+
+        if (source.mSize == mCapacity) {
+            // Queue full (another device is holding back the stream), emit up to this device's oldest sample
+            emitUpTo(source.mTimes[source.mHead]);
+        }
+
+        // The clock fit keeps improving, never let a device's own samples go backwards
+        if (timeNanos < source.mLastTimeNanos) {
+            timeNanos = source.mLastTimeNanos;
+        }
+
+        int slot = (source.mHead + source.mSize) % mCapacity;
+        int count = Math.min(valueCount, MAX_VALUES);
+        source.mTimes[slot] = timeNanos;
+        source.mValueCounts[slot] = count;
+        System.arraycopy(values, 0, source.mValues, slot * MAX_VALUES, count);
+        source.mSize++;
+        source.mLastTimeNanos = timeNanos;
+        source.mLastOfferNanos = nowNanos;
+    }
+
+    /**
+     * Emits every sample that can no longer be preceded by a sample from another device.
+     *
+     * @param nowNanos Current phone time, used to skip devices that have gone silent.
+     */
+    public void flush(long nowNanos) {
+        long watermark = Long.MAX_VALUE;
+        for (int i = 0; i < mSources.size(); i++) {
+            Source source = mSources.get(i);
+            if (!source.mRemoved && nowNanos - source.mLastOfferNanos <= mMaxWaitNanos) {
+                watermark = Math.min(watermark, source.mLastTimeNanos);
+            }
+        }
+        emitUpTo(watermark);
+    }
+
+    /**
+     * Stops waiting for the device. Its queued samples are still emitted in order.
+     */
+    public void removeSource(String deviceAddress, long nowNanos) {
+        Source source = getSource(deviceAddress);
+        if (source != null) {
+            source.mRemoved = true;
+        }
+        flush(nowNanos);
+    }
+
+    /**
+     * Emits every queued sample.
+     */
+    public void flushAll() {
+        emitUpTo(Long.MAX_VALUE);
+    }
+
+    public boolean isEmpty() {
+        return mSources.isEmpty();
+    }
+
+    public long getEmittedCount() {
+        return mEmitted;
+    }
+
+    /**
+     * @return Number of samples emitted with a time earlier than a sample already emitted.
+     */
+    public long getLateCount() {
+        return mLate;
+    }
+
+    private Source getSource(String deviceAddress) {
+        for (int i = 0; i < mSources.size(); i++) {
+            Source source = mSources.get(i);
+            if (source.mDeviceAddress.equals(deviceAddress) && !source.mRemoved) {
+                return source;
+            }
+        }
+        return null;
+    }
+
+    private void emitUpTo(long watermark) {
+        while (true) {
+            // k-way merge: the oldest head of all queues is the next sample
+            Source oldest = null;
+            for (int i = 0; i < mSources.size(); i++) {
+                Source source = mSources.get(i);
+                if (source.mSize > 0 && (oldest == null || source.mTimes[source.mHead] < oldest.mTimes[oldest.mHead])) {
+                    oldest = source;
+                }
+            }
+            if (oldest == null || oldest.mTimes[oldest.mHead] > watermark) {
+                break;
+            }
+
+            int slot = oldest.mHead;
+            long timeNanos = oldest.mTimes[slot];
+            int count = oldest.mValueCounts[slot];
+            System.arraycopy(oldest.mValues, slot * MAX_VALUES, mEmitValues, 0, count);
+            oldest.mHead = (slot + 1) % mCapacity;
+            oldest.mSize--;
+
+            if (timeNanos < mLastEmittedNanos) {
+                mLate++;
+            } else {
+                mLastEmittedNanos = timeNanos;
+            }
+            mEmitted++;
+            mListener.onMergedSample(oldest.mDeviceAddress, timeNanos, mEmitValues, count);
+        }
+
+        // Drop removed devices once everything they sent has been emitted
+        for (int i = mSources.size() - 1; i >= 0; i--) {
+            Source source = mSources.get(i);
+            if (source.mRemoved && source.mSize == 0) {
+                mSources.remove(i);
+            }
+        }
+    }
+}
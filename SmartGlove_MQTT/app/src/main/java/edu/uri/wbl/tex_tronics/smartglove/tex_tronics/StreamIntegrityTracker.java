@@ -0,0 +1,188 @@
+package edu.uri.wbl.tex_tronics.smartglove.tex_tronics;
+
+import java.util.Locale;
+
+/**
+ * Checks the device timestamps of a single device's sample stream for lost, duplicated and
+ * out-of-order samples.
+ *
+ * Devices stamp each sample with a free-running millisecond counter that wraps around (16 bits in
+ * Flex Only mode, 32 bits in Flex + IMU mode). The counter is unwrapped using the time the samples
+ * were received, so a gap longer than the counter's range (e.g. a long reconnect) is still measured
+ * correctly. A sample whose timestamp is more than one sample period after the previous sample
+ * means the samples in between were lost.
+ *
+ * Only the pipeline thread calls onSample(); the statistics may be read from any thread.
+ */
+
+public class StreamIntegrityTracker {
+    private final long mCounterRange;
+    private final long mCounterMask;
+    private final int mSamplePeriodMs;
+
+    private boolean mStarted = false;
+    private long mLastRawTimestamp;
+    private long mLastReceivedNanos;
+    private long mFirstReceivedNanos;
+
+    /**
+     * Device timestamp of the latest sample with the rollovers added back in.
+     */
+    private volatile long mUnwrappedTimestamp = 0;
+
+    private volatile long mSamples = 0;
+    private volatile long mLost = 0;
+    private volatile long mDuplicates = 0;
+    private volatile long mOutOfOrder = 0;
+    private volatile long mGaps = 0;
+    private volatile long mMaxGap = 0;
+
+    /**
+     * Interarrival jitter (as in RFC 3550) of the device timestamps, in milliseconds.
+     */
+    private volatile double mJitterMs = 0;
+    private volatile long mReceivedSpanNanos = 0;
+
+    /**
+     * @param timestampBits Width of the device's timestamp counter (16 or 32).
+     * @param samplePeriodMs Expected time between two samples.
+     */
+    public StreamIntegrityTracker(int timestampBits, int samplePeriodMs) {
+        if (timestampBits <= 0 || timestampBits > 32 || samplePeriodMs <= 0) {
+            throw new IllegalArgumentException("Invalid Timestamp Width or Sample Period");
+        }
+        mCounterRange = 1L << timestampBits;
+        mCounterMask = mCounterRange - 1;
+        mSamplePeriodMs = samplePeriodMs;
+    }
+
+    /**
+     * Records a sample.
+     *
+     * @param rawTimestamp Timestamp sent by the device (unsigned).
+     * @param receivedNanos Time the packet holding the sample was received
+     *                      (SystemClock.elapsedRealtimeNanos()).
+     */
+    public void onSample(long rawTimestamp, long receivedNanos) {
+        rawTimestamp &= mCounterMask;
+        if (!mStarted) {
+            mStarted = true;
+            mLastRawTimestamp = rawTimestamp;
+            mUnwrappedTimestamp = rawTimestamp;
+            mFirstReceivedNanos = receivedNanos;
+            mLastReceivedNanos = receivedNanos;
+            mSamples = 1;
+            return;
+        }
+
+        long delta = (rawTimestamp - mLastRawTimestamp) & mCounterMask;
+        // Pick the number of rollovers that best matches the time that has actually passed
+        long elapsedMs = Math.max(0, (receivedNanos - mLastReceivedNanos) / 1000000);
+        long wraps = Math.round((double) (elapsedMs - delta) / mCounterRange);
+        delta += wraps * mCounterRange;
+
+        mSamples++;
+        mReceivedSpanNanos = Math.max(mReceivedSpanNanos, receivedNanos - mFirstReceivedNanos);
+        mLastReceivedNanos = Math.max(mLastReceivedNanos, receivedNanos);
+
+        if (delta == 0) {
+            mDuplicates++;
+            return;
+        }
+        if (delta < 0) {
+            // Older than the latest sample, do not move the stream back
+            mOutOfOrder++;
+            return;
+        }
+
+        long periods = Math.max(1, Math.round((double) delta / mSamplePeriodMs));
+        long missing = periods - 1;
+        if (missing > 0) {
+            mLost += missing;
+            mGaps++;
+            if (missing > mMaxGap) {
+                mMaxGap = missing;
+            }
+        }
+
+        double deviation = Math.abs(delta - periods * mSamplePeriodMs);
+        mJitterMs += (deviation - mJitterMs) / 16;
+
+        mLastRawTimestamp = rawTimestamp;
+        mUnwrappedTimestamp += delta;
+    }
+
+    public long getUnwrappedTimestamp() {
+        return mUnwrappedTimestamp;
+    }
+
+    /**
+     * @return Number of samples received (including duplicates).
+     */
+    public long getSamples() {
+        return mSamples;
+    }
+
+    public long getLost() {
+        return mLost;
+    }
+
+    public long getDuplicates() {
+        return mDuplicates;
+    }
+
+    public long getOutOfOrder() {
+        return mOutOfOrder;
+    }
+
+    /**
+     * @return Number of places in the stream where one or more samples were lost.
+     */
+    public long getGaps() {
+        return mGaps;
+    }
+
+    /**
+     * @return The largest number of samples lost in a row.
+     */
+    public long getMaxGap() {
+        return mMaxGap;
+    }
+
+    /**
+     * @return Lost samples as a fraction of the samples the device sent.
+     */
+    public double getLossRate() {
+        long expected = mSamples - mDuplicates - mOutOfOrder + mLost;
+        return expected <= 0 ? 0 : (double) mLost / expected;
+    }
+
+    public double getJitterMs() {
+        return mJitterMs;
+    }
+
+    /**
+     * @return Samples received per second since the first sample.
+     */
+    public double getThroughput() {
+        long span = mReceivedSpanNanos;
+        return span <= 0 ? 0 : mSamples * 1e9 / span;
+    }
+
+    /**
+     * @return The statistics as a JSON object, attached to the data sent to the server.
+     */
+    public String toJson() {
+        return String.format(Locale.US,
+                "{\"Samples\": %d, \"Lost\": %d, \"Duplicates\": %d, \"Out_Of_Order\": %d, " +
+                        "\"Gaps\": %d, \"Max_Gap\": %d, \"Loss_Rate\": %.6f, \"Jitter_Ms\": %.3f, " +
+                        "\"Samples_Per_Sec\": %.2f}",
+                mSamples, mLost, mDuplicates, mOutOfOrder, mGaps, mMaxGap, getLossRate(), mJitterMs, getThroughput());
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "samples=%d lost=%d (%.3f%%) duplicates=%d out of order=%d gaps=%d (max %d) jitter=%.2fms rate=%.1f/s",
+                mSamples, mLost, getLossRate() * 100, mDuplicates, mOutOfOrder, mGaps, mMaxGap, mJitterMs, getThroughput());
+    }
+}
@@ -2,6 +2,7 @@ package edu.uri.wbl.tex_tronics.smartglove.tex_tronics;
 
 import android.app.Notification;
 import android.app.Service;
+import android.bluetooth.BluetoothGatt;
 import android.bluetooth.BluetoothGattCharacteristic;
 import android.content.BroadcastReceiver;
 import android.content.ComponentName;
@@ -9,28 +10,69 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.ServiceConnection;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
+import android.os.Process;
+import android.os.SystemClock;
 import android.support.v4.app.NotificationCompat;
 import android.util.Log;
 
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import edu.uri.wbl.tex_tronics.smartglove.activities.GloveExerciseActivity;
 import edu.uri.wbl.tex_tronics.smartglove.ble.BluetoothLeConnectionService;
 import edu.uri.wbl.tex_tronics.smartglove.ble.GattCharacteristics;
+import edu.uri.wbl.tex_tronics.smartglove.ble.GattFuture;
 import edu.uri.wbl.tex_tronics.smartglove.ble.GattServices;
-import edu.uri.wbl.tex_tronics.smartglove.io.IOUtil;
+import edu.uri.wbl.tex_tronics.smartglove.ble.PacketRingBuffer;
+import edu.uri.wbl.tex_tronics.smartglove.io.BlockCompressor;
+import edu.uri.wbl.tex_tronics.smartglove.io.CsvEncoder;
+import edu.uri.wbl.tex_tronics.smartglove.io.DeflateCodec;
+import edu.uri.wbl.tex_tronics.smartglove.io.LegacySessionImport;
+import edu.uri.wbl.tex_tronics.smartglove.io.SessionCatalog;
+import edu.uri.wbl.tex_tronics.smartglove.io.SessionFileReader;
+import edu.uri.wbl.tex_tronics.smartglove.io.SessionFileWriter;
+import edu.uri.wbl.tex_tronics.smartglove.io.SessionHeader;
+import edu.uri.wbl.tex_tronics.smartglove.io.SessionJournal;
+import edu.uri.wbl.tex_tronics.smartglove.io.SessionRetention;
+import edu.uri.wbl.tex_tronics.smartglove.io.SessionWriter;
+import edu.uri.wbl.tex_tronics.smartglove.io.SmartGloveInterface;
+import edu.uri.wbl.tex_tronics.smartglove.mqtt.JsonData;
+import edu.uri.wbl.tex_tronics.smartglove.mqtt.LiveStream;
 import edu.uri.wbl.tex_tronics.smartglove.mqtt.MqttConnectionService;
+import edu.uri.wbl.tex_tronics.smartglove.mqtt.MqttOutbox;
 import edu.uri.wbl.tex_tronics.smartglove.mqtt.MqttUpdateReceiver;
+import edu.uri.wbl.tex_tronics.smartglove.mqtt.SessionUpload;
 import edu.uri.wbl.tex_tronics.smartglove.mqtt.UpdateType;
+import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.data_types.SampleBlock;
+import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.decoders.PacketDecoder;
+import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.decoders.PacketDecoders;
+import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.decoders.PacketFormat;
 import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.devices.SmartGlove;
 import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.devices.TexTronicsDevice;
 import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.enums.Action;
 import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.enums.DeviceType;
 import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.enums.ExerciseMode;
-import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.exceptions.IllegalDeviceType;
 import edu.uri.wbl.tex_tronics.smartglove.visualize.Choice;
 
 /**
@@ -55,6 +97,12 @@ public class TexTronicsManagerService extends Service {
      */
     private static final String EXTRA_DEVICE = "tex_tronics.wbl.uri.ble.device";
 
+    /**
+     * Used to identify the device addresses to connect to at once, and their device types.
+     */
+    private static final String EXTRA_DEVICES = "tex_tronics.wbl.uri.ble.devices";
+    private static final String EXTRA_TYPES = "tex_tronics.wbl.uri.ble.types";
+
     /**
      * Used to identify the transmit mode.
      *
@@ -68,12 +116,6 @@ public class TexTronicsManagerService extends Service {
      * @since 1.0
      */
     private static final String EXTRA_TYPE = "tex_tronics.wbl.uri.ble.type";
-    /**
-     * The packet ID for the first packet transmitted when communicating in Flex+IMU mode.
-     * This will be the first byte of the packet.
-     *
-     * @since 1.0
-     */
 
     /**
      * The choice of exercise being done
@@ -90,14 +132,161 @@ public class TexTronicsManagerService extends Service {
      */
     private static final String EXTRA_ROUTINE_ID  = "tex_tronics.wbl.uri.ble.routine_id";
 
-    private static final byte PACKET_ID_1 = 0x01;
     /**
-     * The packet ID for the second packet transmitted when communicating in Flex+IMU mode.
-     * This will be the first byte of the packet.
+     * Command written to the TX characteristic to start streaming data.
+     *
+     * @since 1.0
+     */
+    private static final byte COMMAND_START = 0x02;
+
+    /**
+     * Command written to the TX characteristic to tell the device the largest notification payload
+     * it may send. The second byte of the command is the payload size. Only the flex-only firmware
+     * takes it.
+     *
+     * @since 1.0
+     */
+    private static final byte COMMAND_SET_PAYLOAD_SIZE = 0x03;
+
+    /**
+     * Command written to the TX characteristic to ask a Flex + IMU device for a wire format. The
+     * second byte is the newest PacketFormat version the app can decode; the device answers with a
+     * format descriptor for the version it will send. Firmware that predates the command ignores it
+     * and keeps sending version 1.
+     *
+     * @since 1.0
+     */
+    private static final byte COMMAND_SET_FORMAT = 0x04;
+
+    /**
+     * The maximum number of packets processed from a single device's packet buffer before moving
+     * on to the next device. Keeps one busy device from starving the others.
+     *
+     * @since 1.0
+     */
+    private static final int MAX_PACKETS_PER_DRAIN = 64;
+
+    /**
+     * The minimum time between two data snapshots sent to the UI for the same device. Every packet
+     * is still decoded and logged; the UI only needs enough updates to draw the graph.
+     *
+     * @since 1.0
+     */
+    private static final long SNAPSHOT_INTERVAL_NS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    /**
+     * Number of samples per device held by the SampleMerger while waiting for the other devices.
+     *
+     * @since 1.0
+     */
+    private static final int MERGE_CAPACITY = 1024;
+
+    /**
+     * How long a device that has stopped sending (disconnected, reconnecting) holds back the
+     * merged session stream.
+     *
+     * @since 1.0
+     */
+    private static final long MERGE_MAX_WAIT_NS = TimeUnit.MILLISECONDS.toNanos(500);
+
+    /**
+     * Header of the merged session file. Devices without IMU leave those columns empty.
+     *
+     * @since 1.0
+     */
+    private static final String SESSION_HEADER = "Time,Device Address,Thumb,Index,Middle,Ring,Pinky,Acc(x),Acc(y),Acc(z),Gyr(x),Gyr(y),Gyr(z),Mag(x),Mag(y),Mag(z)";
+
+    /**
+     * Directory (in the app's private files) holding the journals of the session files being
+     * recorded. A journal still there when the service starts belongs to a recording that was cut
+     * short.
+     *
+     * @since 1.0
+     */
+    private static final String JOURNAL_DIRECTORY = "journals";
+
+    /**
+     * File (in the app's private files) of the SessionCatalog.
+     *
+     * @since 1.0
+     */
+    private static final String CATALOG_FILE = "sessions.catalog";
+
+    /**
+     * Shared preferences file holding the patient's name (SmartGloveInterface.Preferences).
+     *
+     * @since 1.0
+     */
+    private static final String PREFERENCES = "myPref";
+
+    /**
+     * Directory of the session files.
+     *
+     * @since 1.0
+     */
+    private static final String SESSION_DIRECTORY = "/storage/emulated/0/Documents";    // FIXME
+
+    /**
+     * Preference (in PREFERENCES) holding the most megabytes the session files may take before
+     * the oldest uploaded ones are deleted.
+     *
+     * @since 1.0
+     */
+    public static final String PREFERENCE_STORAGE_BUDGET_MB = "storage_budget_mb";
+
+    /**
+     * Storage budget used if PREFERENCE_STORAGE_BUDGET_MB is not set.
+     *
+     * @since 1.0
+     */
+    private static final int DEFAULT_STORAGE_BUDGET_MB = 1024;
+
+    /**
+     * Preference (in PREFERENCES) set once the session CSVs of older versions of the app are in
+     * the catalog (LegacySessionImport), so retention keeps them within the budget too.
+     *
+     * @since 1.0
+     */
+    private static final String PREFERENCE_LEGACY_SESSIONS_IMPORTED = "legacy_sessions_imported";
+
+    /**
+     * How long after the service starts, or a session is uploaded, the session files are
+     * compacted and trimmed to the storage budget. Keeps the job out of the way of connecting.
+     *
+     * @since 1.0
+     */
+    private static final long RETENTION_DELAY_MS = TimeUnit.MINUTES.toMillis(1);
+
+    /**
+     * How long the fog node may stay silent before the chunks it has not acknowledged are sent
+     * again.
+     *
+     * @since 1.0
+     */
+    private static final long ACK_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(30);
+
+    /**
+     * Preference (in PREFERENCES) turning on the live stream of the samples (LiveStream) while an
+     * exercise is recorded. Off by default; the sessions are uploaded after the exercise either way.
+     *
+     * @since 1.0
+     */
+    public static final String PREFERENCE_LIVE_STREAM = "live_stream";
+
+    /**
+     * Preference (in PREFERENCES) holding the samples after which a live batch is published.
+     *
+     * @since 1.0
+     */
+    public static final String PREFERENCE_LIVE_BATCH_SAMPLES = "live_batch_samples";
+
+    /**
+     * Preference (in PREFERENCES) holding the milliseconds after which a live batch is published,
+     * however few samples it holds.
      *
      * @since 1.0
      */
-    private static final byte PACKET_ID_2 = 0x02;
+    public static final String PREFERENCE_LIVE_BATCH_MS = "live_batch_ms";
 
     /**
      * The value to return in onStartCommand
@@ -113,6 +302,69 @@ public class TexTronicsManagerService extends Service {
     private static ExerciseMode exerciseMode;
     private static DeviceType deviceType;
 
+    /**
+     * Pipeline metrics of each device connected during this process' lifetime.
+     */
+    private static final ConcurrentHashMap<String, PipelineMetrics> PIPELINE_METRICS = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the queue-depth and processing-lag metrics of the given device's packet pipeline.
+     *
+     * @param deviceAddress Device Address of the BLE Device.
+     * @return The metrics of the device's latest connection, or null if it has never connected.
+     *
+     * @since 1.0
+     */
+    public static PipelineMetrics getPipelineMetrics(String deviceAddress) {
+        return PIPELINE_METRICS.get(deviceAddress);
+    }
+
+    private static SessionCatalog sessionCatalog;
+    private static volatile SessionRetention.Metrics retentionMetrics;
+
+    /**
+     * Returns the progress of the latest compaction and trimming of the session files.
+     *
+     * @return The metrics of the latest run (possibly still going), or null if none has started.
+     *
+     * @since 1.0
+     */
+    public static SessionRetention.Metrics getRetentionMetrics() {
+        return retentionMetrics;
+    }
+
+    private static volatile LiveStream.Metrics liveStreamMetrics;
+
+    /**
+     * Returns the throughput and latency of the live stream of the samples.
+     *
+     * @return The metrics of the latest live stream (possibly still going), or null if none has
+     *         started.
+     *
+     * @since 1.0
+     */
+    public static LiveStream.Metrics getLiveStreamMetrics() {
+        return liveStreamMetrics;
+    }
+
+    /**
+     * Returns the catalog of the recorded session files, for the history and upload screens to
+     * query without scanning the storage. Loaded on first use; the first call should not be made
+     * from the UI thread.
+     *
+     * @param context Context of the calling component
+     * @return The catalog shared by every component of the app.
+     * @throws IOException If the catalog could not be loaded.
+     *
+     * @since 1.0
+     */
+    public static synchronized SessionCatalog getSessionCatalog(Context context) throws IOException {
+        if (sessionCatalog == null) {
+            sessionCatalog = new SessionCatalog(new File(context.getFilesDir(), CATALOG_FILE));
+        }
+        return sessionCatalog;
+    }
+
     /**
      * This static method is provided for other components to use in order to interact with this
      * service. The connect method requests this service attempts to connect to the BLE device
@@ -142,6 +394,28 @@ public class TexTronicsManagerService extends Service {
         context.startService(intent);
     }
 
+    /**
+     * Requests this service connects to every device of an exercise at once, rather than one
+     * connect() at a time, so the devices come up together.
+     *
+     * @param deviceAddresses Device Addresses of the BLE Devices to connect to.
+     * @param deviceTypes Device Type of each device.
+     */
+    public static void connectAll(Context context, String[] deviceAddresses, Choice choice, ExerciseMode exerciseMode, DeviceType[] deviceTypes, UUID exerciseID, UUID routineID) {
+        TexTronicsManagerService.context = context;
+        TexTronicsManagerService.choice = choice;
+        TexTronicsManagerService.exerciseMode = exerciseMode;
+        Intent intent = new Intent(context, TexTronicsManagerService.class);
+        intent.putExtra(EXTRA_DEVICES, deviceAddresses);
+        intent.putExtra(EXTRA_MODE, exerciseMode);
+        intent.putExtra(EXTRA_TYPES, deviceTypes);
+        intent.putExtra(EXTRA_CHOICE, choice);
+        intent.putExtra(EXTRA_EX_ID, exerciseID.toString());
+        intent.putExtra(EXTRA_ROUTINE_ID, routineID.toString());
+        intent.setAction(Action.connectAll.toString());
+        context.startService(intent);
+    }
+
     /**
      * This static method is provided for other components to use in order to interact with this
      * service. The disconnect method requests this service attempts to disconnect from the
@@ -186,16 +460,198 @@ public class TexTronicsManagerService extends Service {
      * unless this Service implements multi-threading in future.
      */
     private Context mContext;
-    private boolean mBleServiceBound = false;
-    private boolean mMqttServiceBound = false;
+    private volatile boolean mBleServiceBound = false;
+    private volatile boolean mMqttServiceBound = false;
     private BluetoothLeConnectionService mBleService;
     private MqttConnectionService mMqttService;
     private ServiceConnection mBleServiceConnection, mMqttServiceConnection;
 
     /**
-     * Contains reference to each connected Tex-Tronics Device.
+     * Contains reference to each connected Tex-Tronics Device. Modified on the main thread and
+     * read by the pipeline thread.
+     */
+    private ConcurrentHashMap<String, TexTronicsDevice> mTexTronicsList;
+
+    /**
+     * Packets are decoded, logged and published on this thread so that a busy UI cannot delay
+     * them. BLE updates are also received here, so device state changes are ordered with respect
+     * to the packets being processed.
+     */
+    private HandlerThread mPipelineThread;
+
+    /**
+     * Packets are drained from the BLE Service's packet buffers on this Handler (mPipelineThread).
+     * A drain is only posted if one is not already pending, so a burst of notifications is
+     * processed as one batch.
+     */
+    private Handler mPacketHandler;
+    private final AtomicBoolean mDrainScheduled = new AtomicBoolean(false);
+
+    private File mJournalDirectory;
+
+    /**
+     * Session files are compacted and trimmed to the storage budget on this low priority thread,
+     * away from the pipeline.
+     */
+    private HandlerThread mRetentionThread;
+    private Handler mRetentionHandler;
+    private volatile SessionRetention mRetention;
+
+    private final Runnable mRetentionRunnable = new Runnable() {
+        @Override
+        public void run() {
+            SharedPreferences preferences = getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE);
+            long budgetBytes = preferences.getInt(PREFERENCE_STORAGE_BUDGET_MB, DEFAULT_STORAGE_BUDGET_MB) * 1024L * 1024L;
+            if (!preferences.getBoolean(PREFERENCE_LEGACY_SESSIONS_IMPORTED, false)) {
+                try {
+                    int imported = new LegacySessionImport(new File(SESSION_DIRECTORY), getSessionCatalog(mContext)).run();
+                    preferences.edit().putBoolean(PREFERENCE_LEGACY_SESSIONS_IMPORTED, true).apply();
+                    Log.d(TAG, "Imported " + imported + " older session files");
+                } catch (IOException e) {
+                    // Tried again on the next run
+                    Log.e(TAG, "Could not import older session files - " + e);
+                }
+            }
+            try {
+                mRetention = new SessionRetention(new File(SESSION_DIRECTORY), getSessionCatalog(mContext), budgetBytes,
+                        new BlockCompressor(new DeflateCodec()));
+                retentionMetrics = mRetention.getMetrics();
+                mRetention.run(System.currentTimeMillis());
+            } catch (IOException e) {
+                Log.e(TAG, "Could not trim session files - " + e);
+            }
+            if (mRetention != null) {
+                Log.d(TAG, "Retention: " + mRetention.getMetrics());
+            }
+        }
+    };
+
+    /**
+     * Batches of the live stream are published on this thread, so neither the pipeline nor an
+     * upload being compressed holds them up.
+     */
+    private HandlerThread mLiveThread;
+    private Handler mLiveHandler;
+
+    /**
+     * The live stream of the session being recorded, or null. Set on the pipeline thread.
+     */
+    private volatile LiveStream mLiveStream;
+
+    /**
+     * Rows of the live batch being published. Only accessed from mLiveHandler.
+     */
+    private final CsvEncoder mLiveBatch = new CsvEncoder(4096);
+
+    /**
+     * Publishes the live batches that are due: posted by the pipeline once a batch is full.
+     */
+    private final Runnable mLiveFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            LiveStream liveStream = mLiveStream;
+            if (liveStream != null) {
+                publishLiveBatches(liveStream, false);
+            }
+        }
+    };
+
+    /**
+     * Publishes the live batches that are due every batch interval, for a batch that does not
+     * fill up.
+     */
+    private final Runnable mLiveTickRunnable = new Runnable() {
+        @Override
+        public void run() {
+            LiveStream liveStream = mLiveStream;
+            if (liveStream != null) {
+                publishLiveBatches(liveStream, false);
+                mLiveHandler.postDelayed(this, TimeUnit.NANOSECONDS.toMillis(liveStream.getBatchIntervalNanos()));
+            }
+        }
+    };
+
+    /**
+     * Sessions are uploaded chunk by chunk (SessionUpload) on this low priority thread, which
+     * alone touches mUploads and mUploadCompressor.
+     */
+    private HandlerThread mUploadThread;
+    private Handler mUploadHandler;
+
+    /**
+     * Uploads going on, by SessionUpload.getKey().
+     */
+    private final Map<String, SessionUpload> mUploads = new HashMap<>();
+
+    /**
+     * Compresses the CSV before it is sent. Deflate by default; Lz4Codec is several times faster
+     * for a larger upload.
+     */
+    private final BlockCompressor mUploadCompressor = new BlockCompressor(new DeflateCodec());
+
+    /**
+     * Sends again every chunk the fog node has not acknowledged, once it has been silent for
+     * ACK_TIMEOUT_MS. Not while chunks are still waiting in the MQTT outbox: the fog node cannot
+     * have acknowledged what it has not received, and sending them again would only queue them twice.
+     */
+    private final Runnable mAckTimeoutRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (isOutboxWaiting()) {
+                mUploadHandler.postDelayed(this, ACK_TIMEOUT_MS);
+                return;
+            }
+            // sendChunks() drops an upload whose file cannot be read
+            for (SessionUpload upload : new ArrayList<>(mUploads.values())) {
+                Log.d(TAG, "Acknowledgement Timed Out: " + upload);
+                upload.rewind();
+                sendChunks(upload);
+            }
+        }
+    };
+
+    /**
+     * Uploads every session the fog node has not acknowledged, starting after the chunks it
+     * has. Runs on mUploadHandler when the MQTT client connects.
+     */
+    private final Runnable mResumeUploadsRunnable = new Runnable() {
+        @Override
+        public void run() {
+            SessionCatalog catalog;
+            try {
+                catalog = getSessionCatalog(mContext);
+            } catch (IOException e) {
+                Log.e(TAG, "Could not load the session catalog - " + e);
+                return;
+            }
+            List<SessionCatalog.Entry> entries = new ArrayList<>(
+                    catalog.find(new SessionCatalog.Query().setUploadState(SessionCatalog.UploadState.PENDING)));
+            entries.addAll(catalog.find(new SessionCatalog.Query().setUploadState(SessionCatalog.UploadState.UPLOADED)));
+            for (SessionCatalog.Entry entry : entries) {
+                if (entry.getFile().exists()) {
+                    startUpload(entry.getFile(), null);
+                }
+            }
+        }
+    };
+
+    /**
+     * Finishes the session files left unfinished by a previous run of the service (the devices and
+     * exercise of that run are gone, so they are not continued). Runs on mPacketHandler.
      */
-    private HashMap<String, TexTronicsDevice> mTexTronicsList;
+    private final Runnable mRecoveryRunnable = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                for (File sessionFile : SessionJournal.recover(mJournalDirectory)) {
+                    Log.i(TAG, "Recovered " + sessionFile);
+                    catalogRecoveredSession(sessionFile);
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "Could not recover sessions - " + e);
+            }
+        }
+    };
 
     @Override
     public void onCreate() {
@@ -227,10 +683,31 @@ public class TexTronicsManagerService extends Service {
         mMqttServiceConnection = new MqttServiceConnection();
 
         // Initialize Container for Tex-Tronic Connected Devices (set the initial capacity to 4 - 2 gloves, 2 socks)
-        mTexTronicsList = new HashMap<>(4);
+        mTexTronicsList = new ConcurrentHashMap<>(4);
+
+        mPipelineThread = new HandlerThread("TexTronicsPipeline", Process.THREAD_PRIORITY_DISPLAY);
+        mPipelineThread.start();
+        mPacketHandler = new Handler(mPipelineThread.getLooper());
+
+        // Finish the session files of a recording cut short when the app was killed, before any new device logs
+        mJournalDirectory = new File(getFilesDir(), JOURNAL_DIRECTORY);
+        mPacketHandler.post(mRecoveryRunnable);
+
+        mRetentionThread = new HandlerThread("TexTronicsRetention", Process.THREAD_PRIORITY_BACKGROUND);
+        mRetentionThread.start();
+        mRetentionHandler = new Handler(mRetentionThread.getLooper());
+        scheduleRetention();
 
-        // Register BLE Update Receiver to Receive Information back from BluetoothLeService
-        registerReceiver(mBLEUpdateReceiver, new IntentFilter(BluetoothLeConnectionService.INTENT_FILTER_STRING));
+        mUploadThread = new HandlerThread("TexTronicsUpload", Process.THREAD_PRIORITY_BACKGROUND);
+        mUploadThread.start();
+        mUploadHandler = new Handler(mUploadThread.getLooper());
+
+        mLiveThread = new HandlerThread("TexTronicsLive", Process.THREAD_PRIORITY_DEFAULT);
+        mLiveThread.start();
+        mLiveHandler = new Handler(mLiveThread.getLooper());
+
+        // Register BLE Update Receiver to Receive Information back from BluetoothLeService (on the pipeline thread)
+        registerReceiver(mBLEUpdateReceiver, new IntentFilter(BluetoothLeConnectionService.INTENT_FILTER_STRING), null, mPacketHandler);
         registerReceiver(mMqttUpdateReceiver, MqttUpdateReceiver.INTENT_FILTER);
         // Bind to BluetoothLeService. This Service provides the methods required to interact with BLE devices.
         bindService(new Intent(this, BluetoothLeConnectionService.class), mBleServiceConnection, Context.BIND_AUTO_CREATE);
@@ -279,6 +756,21 @@ public class TexTronicsManagerService extends Service {
                 connect(deviceAddress, exerciseMode, deviceType, choice, exerciseID, routineID);
             }
             break;
+            case connectAll: {
+                String[] deviceAddresses = intent.getStringArrayExtra(EXTRA_DEVICES);
+                DeviceType[] deviceTypes = (DeviceType[]) intent.getSerializableExtra(EXTRA_TYPES);
+                if (deviceAddresses == null || deviceTypes == null || deviceTypes.length != deviceAddresses.length
+                        || !intent.hasExtra(EXTRA_MODE)) {
+                    Log.w(TAG, "Invalid connectAll Action Packet Received");
+                    return INTENT_RETURN_POLICY;
+                }
+                ExerciseMode exerciseMode = (ExerciseMode) intent.getSerializableExtra(EXTRA_MODE);
+                Choice choice = (Choice) intent.getSerializableExtra(EXTRA_CHOICE);
+                String exerciseID = (String) intent.getSerializableExtra(EXTRA_EX_ID);
+                String routineID = (String) intent.getSerializableExtra(EXTRA_ROUTINE_ID);
+                connectAll(deviceAddresses, exerciseMode, deviceTypes, choice, exerciseID, routineID);
+            }
+            break;
             case disconnect:
                 // Attempt to disconnect from a currently connected BLE Device
                 disconnect(deviceAddress);
@@ -299,8 +791,32 @@ public class TexTronicsManagerService extends Service {
 
     @Override
     public void onDestroy() {
+        if (mBleServiceBound) {
+            mBleService.setPacketListener(null);
+        }
         unregisterReceiver(mBLEUpdateReceiver);
         unregisterReceiver(mMqttUpdateReceiver);
+        mPacketHandler.removeCallbacks(mDrainRunnable);
+        // Runs before the pipeline thread quits, after anything already queued on it
+        mPacketHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (TexTronicsDevice device : mTexTronicsList.values()) {
+                    closeLog(device);
+                }
+                closeSession();
+            }
+        });
+        mPipelineThread.quitSafely();
+        mRetentionHandler.removeCallbacks(mRetentionRunnable);
+        if (mRetention != null) {
+            mRetention.cancel();
+        }
+        mRetentionThread.quitSafely();
+        mUploadHandler.removeCallbacks(mAckTimeoutRunnable);
+        mUploadThread.quitSafely();
+        mLiveHandler.removeCallbacks(mLiveTickRunnable);
+        mLiveThread.quitSafely();
         unbindService(mBleServiceConnection);
         unbindService(mMqttServiceConnection);
 
@@ -312,30 +828,59 @@ public class TexTronicsManagerService extends Service {
 
 
     private void connect(String deviceAddress, ExerciseMode exerciseMode, DeviceType deviceType, Choice choice, String exerciseID, String routineID) {
-        if (mBleServiceBound) {
-            SmartGlove smartGlove;
-            // TODO Modify TexTronicsDevice to have static method to determine DeviceType to Use
-            switch (deviceType) {
-                case SMART_GLOVE:
-                    // TODO Assume connection will be successful, if connection fails we must remove it from list.
-                    smartGlove = new SmartGlove(deviceAddress, exerciseMode, choice, exerciseID, routineID);
-                    mTexTronicsList.put(deviceAddress, smartGlove);
-                    break;
-                // Add Different Devices Here
-                case SMART_SOCK:
-                    // Added the Smart Sock code, just copied from above
-                    smartGlove = new SmartGlove(deviceAddress, exerciseMode, choice, exerciseID, routineID);
+        connectAll(new String[] {deviceAddress}, exerciseMode, new DeviceType[] {deviceType}, choice, exerciseID, routineID);
+    }
+
+    private void connectAll(String[] deviceAddresses, ExerciseMode exerciseMode, DeviceType[] deviceTypes, Choice choice, String exerciseID, String routineID) {
+        if (!mBleServiceBound) {
+            Log.w(TAG,"Cannot Connect - BLE Connection Service is not bound yet!");
+            return;
+        }
+        List<String> connecting = new ArrayList<>();
+        for (int i = 0; i < deviceAddresses.length; i++) {
+            if (addDevice(deviceAddresses[i], exerciseMode, deviceTypes[i], choice, exerciseID, routineID)) {
+                connecting.add(deviceAddresses[i]);
+            }
+        }
+        // Started together; each device connects (and reconnects) on its own
+        mBleService.connectAll(connecting.toArray(new String[connecting.size()]));
+    }
+
+    /**
+     * Creates the TexTronicsDevice that will log the device's data.
+     *
+     * @return false if the device cannot record the exercise mode.
+     */
+    private boolean addDevice(String deviceAddress, ExerciseMode exerciseMode, DeviceType deviceType, Choice choice, String exerciseID, String routineID) {
+        SmartGlove smartGlove;
+        // TODO Modify TexTronicsDevice to have static method to determine DeviceType to Use
+        try {
+            switch (deviceType) {
+                case SMART_GLOVE:
+                    // TODO Assume connection will be successful, if connection fails we must remove it from list.
+                    smartGlove = new SmartGlove(deviceAddress, deviceType, exerciseMode, choice, exerciseID, routineID);
+                    smartGlove.setJournalDirectory(mJournalDirectory);
+                    mTexTronicsList.put(deviceAddress, smartGlove);
+                    break;
+                // Add Different Devices Here
+                case SMART_SOCK:
+                    // Added the Smart Sock code, just copied from above
+                    smartGlove = new SmartGlove(deviceAddress, deviceType, exerciseMode, choice, exerciseID, routineID);
+                    smartGlove.setJournalDirectory(mJournalDirectory);
                     mTexTronicsList.put(deviceAddress, smartGlove);
                     break;
                 default:
 
                     break;
             }
-
-            mBleService.connect(deviceAddress);
-        } else {
-            Log.w(TAG,"Cannot Connect - BLE Connection Service is not bound yet!");
+        } catch (IllegalArgumentException e) {
+            // Unsupported device/exercise mode combinations are rejected here, before connecting
+            Log.w(TAG, "Cannot Connect to " + deviceAddress + " - " + e.getMessage());
+            return false;
         }
+
+        PIPELINE_METRICS.put(deviceAddress, new PipelineMetrics(deviceAddress));
+        return true;
     }
 
     private void disconnect(String deviceAddress) {
@@ -347,11 +892,71 @@ public class TexTronicsManagerService extends Service {
         }
     }
 
+    /**
+     * Sets up a new (or re-established) connection: shortest connection interval and largest MTU,
+     * then service discovery, which starts streaming once it completes.
+     *
+     * @param deviceAddress The device that has just connected.
+     */
+    private void setupConnection(String deviceAddress) {
+        mBleService.requestConnectionPriority(deviceAddress, BluetoothGatt.CONNECTION_PRIORITY_HIGH);
+        mBleService.requestMtu(deviceAddress, BluetoothLeConnectionService.MAX_MTU);
+        mBleService.discoverServices(deviceAddress);
+    }
+
+    /**
+     * Enables RX notifications on the device and, once the descriptor write has completed, sends
+     * the wire format wanted (Flex + IMU) or the negotiated payload size (Flex only), then the start
+     * command, on the TX characteristic. All requests go through the device's GATT command queue,
+     * so they run in order no matter how many devices are starting at once.
+     *
+     * @param deviceAddress The device whose services have just been discovered.
+     */
+    private void startStreaming(final String deviceAddress) {
+        BluetoothGattCharacteristic rxChar = mBleService.getCharacteristic(deviceAddress, GattServices.UART_SERVICE, GattCharacteristics.RX_CHARACTERISTIC);
+        final BluetoothGattCharacteristic txChar = mBleService.getCharacteristic(deviceAddress, GattServices.UART_SERVICE, GattCharacteristics.TX_CHARACTERISTIC);
+        if (rxChar == null || txChar == null) {
+            Log.w(TAG, "UART Service not found on " + deviceAddress);
+            return;
+        }
+
+        // The firmware starts every connection in version 1, so forget the format used before
+        final TexTronicsDevice device = mTexTronicsList.get(deviceAddress);
+        if (device != null && device.getPacketDecoder() != null) {
+            mPacketHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    device.getPacketDecoder().reset();
+                }
+            });
+        }
+
+        mBleService.enableNotifications(deviceAddress, rxChar).addListener(new GattFuture.Listener() {
+            @Override
+            public void onComplete(GattFuture future) {
+                if (!future.isSuccess()) {
+                    Log.w(TAG, "Could not enable notifications on " + deviceAddress + " (" + future.getStatus() + ")");
+                    return;
+                }
+                if (device != null && device.getExerciseMode() == ExerciseMode.FLEX_IMU) {
+                    // Sends one sample per flex and IMU packet pair, whatever the MTU
+                    mBleService.writeCharacteristic(deviceAddress, txChar, new byte[] {COMMAND_SET_FORMAT, (byte) PacketFormat.LATEST_VERSION});
+                } else {
+                    // Let the device pack as many samples into each notification as the MTU allows
+                    int payloadSize = mBleService.getPayloadSize(deviceAddress);
+                    mBleService.writeCharacteristic(deviceAddress, txChar, new byte[] {COMMAND_SET_PAYLOAD_SIZE, (byte) payloadSize});
+                }
+                mBleService.writeCharacteristic(deviceAddress, txChar, new byte[] {COMMAND_START});
+            }
+        });
+    }
+
     private class BleServiceConnection implements ServiceConnection {
         @Override
         public void onServiceConnected(ComponentName componentName, IBinder iBinder) {
             mBleServiceBound = true;
             mBleService = ((BluetoothLeConnectionService.BLEConnectionBinder) iBinder).getService();
+            mBleService.setPacketListener(mPacketListener);
             TexTronicsUpdateReceiver.update(mContext, null, TexTronicsUpdate.started);
         }
 
@@ -386,28 +991,40 @@ public class TexTronicsManagerService extends Service {
                     break;
                 case BluetoothLeConnectionService.GATT_STATE_CONNECTED:
                     TexTronicsUpdateReceiver.update(mContext, deviceAddress, TexTronicsUpdate.ble_connected);
-                    mBleService.discoverServices(deviceAddress);
+                    setupConnection(deviceAddress);
+                    break;
+                case BluetoothLeConnectionService.GATT_STATE_RECONNECTING:
+                    // Link lost, the BLE Service is reconnecting (the device stays in mTexTronicsList)
+                    TexTronicsUpdateReceiver.update(mContext, deviceAddress, TexTronicsUpdate.ble_reconnecting);
+                    PipelineMetrics reconnectingMetrics = PIPELINE_METRICS.get(deviceAddress);
+                    if (reconnectingMetrics != null) {
+                        reconnectingMetrics.onReconnecting();
+                    }
+                    break;
+                case BluetoothLeConnectionService.GATT_STATE_RECONNECTED:
+                    // Same setup as a new connection, which turns notifications back on
+                    TexTronicsUpdateReceiver.update(mContext, deviceAddress, TexTronicsUpdate.ble_reconnected);
+                    setupConnection(deviceAddress);
                     break;
                 case BluetoothLeConnectionService.GATT_STATE_DISCONNECTING:
                     TexTronicsUpdateReceiver.update(mContext, deviceAddress, TexTronicsUpdate.ble_disconnecting);
 
                     TexTronicsDevice disconnectingDevice = mTexTronicsList.get(deviceAddress);
-                    // Send to Server via MQTT
-                    if(mMqttServiceBound) {
-                        try {
-                            byte[] buffer = IOUtil.readFile(disconnectingDevice.getCsvFile());
-                            String json = MqttConnectionService.generateJson(disconnectingDevice.getDate(),
-                                    disconnectingDevice.getDeviceAddress(),
-                                    Choice.toString(disconnectingDevice.getChoice()) ,
-                                    disconnectingDevice.getExerciseID(),
-                                    disconnectingDevice.getRoutineID(),
-                                    new String(buffer));
-                            Log.d("SmartGlove", "JSON: " + json);
-                            mMqttService.publishMessage(json);
-                        } catch (IOException e) {
-                            e.printStackTrace();
-                        }
+                    if (disconnectingDevice == null) {
+                        break;
                     }
+                    // Everything logged so far must be in the file before it is sent
+                    closeLog(disconnectingDevice);
+                    // Send to Server via MQTT (the fog node decompresses the session back to CSV)
+                    final File sessionFile = disconnectingDevice.getLogFile();
+                    final String quality = disconnectingDevice.getStreamIntegrity() == null ? null
+                            : disconnectingDevice.getStreamIntegrity().toJson();
+                    mUploadHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            startUpload(sessionFile, quality);
+                        }
+                    });
                     break;
                 case BluetoothLeConnectionService.GATT_STATE_DISCONNECTED:
                     TexTronicsUpdateReceiver.update(mContext, deviceAddress, TexTronicsUpdate.ble_disconnected);
@@ -417,94 +1034,34 @@ public class TexTronicsManagerService extends Service {
                         Log.w(TAG, "Device not Found");
                         return;
                     }
+                    if (disconnectDevice.getStreamIntegrity() != null) {
+                        Log.d(TAG, "Stream Integrity " + deviceAddress + ": " + disconnectDevice.getStreamIntegrity());
+                    }
+                    Log.d(TAG, "Clock " + deviceAddress + ": drift " + disconnectDevice.getClockAligner().getDriftPpm() + " ppm");
 
-                    mTexTronicsList.remove(deviceAddress);
+                    closeLog(disconnectDevice);
 
-                    break;
-                case BluetoothLeConnectionService.GATT_DISCOVERED_SERVICES:
-                    BluetoothGattCharacteristic characteristic = mBleService.getCharacteristic(deviceAddress, GattServices.UART_SERVICE, GattCharacteristics.RX_CHARACTERISTIC);
-                    if (characteristic != null) {
-                        mBleService.enableNotifications(deviceAddress, characteristic);
+                    // Stop waiting for this device in the merged session stream
+                    if (mSampleMerger != null) {
+                        mSampleMerger.removeSource(deviceAddress, SystemClock.elapsedRealtimeNanos());
+                        if (mTexTronicsList.size() <= 1) {
+                            closeSession();
+                        }
                     }
 
-                    BluetoothGattCharacteristic txChar = mBleService.getCharacteristic(deviceAddress, GattServices.UART_SERVICE, GattCharacteristics.TX_CHARACTERISTIC);
-                    mBleService.writeCharacteristic(deviceAddress, txChar, new byte[] {0x02});
+                    mTexTronicsList.remove(deviceAddress);
 
+                    PipelineMetrics metrics = PIPELINE_METRICS.get(deviceAddress);
+                    if (metrics != null) {
+                        Log.d(TAG, "Pipeline " + metrics);
+                    }
+
+                    break;
+                case BluetoothLeConnectionService.GATT_DISCOVERED_SERVICES:
+                    startStreaming(deviceAddress);
                     break;
                 case BluetoothLeConnectionService.GATT_CHARACTERISTIC_NOTIFY:
-                    UUID characterUUID = UUID.fromString(intent.getStringExtra(BluetoothLeConnectionService.INTENT_CHARACTERISTIC));
-                    if(characterUUID.equals(GattCharacteristics.RX_CHARACTERISTIC)) {
-                        Log.d(TAG, "Data Received");
-                        byte[] data = intent.getByteArrayExtra(BluetoothLeConnectionService.INTENT_DATA);
-
-                        TexTronicsDevice device = mTexTronicsList.get(deviceAddress);
-                        ExerciseMode exerciseMode = null;
-                        if(device != null)
-                            exerciseMode = device.getExerciseMode();
-
-                        if(exerciseMode != null)
-                        {
-                            try {
-                                switch (exerciseMode) {
-                                    case FLEX_IMU:
-                                        // Move data processing into Data Model?
-                                        if (data[0] == PACKET_ID_1) {
-                                            device.clear();
-                                            device.setTimestamp(((data[1] & 0x00FF) << 24) | ((data[2] & 0x00FF) << 16) | ((data[3] & 0x00FF) << 8) | (data[4] & 0x00FF));
-                                            device.setThumbFlex((((data[5] & 0x00FF) << 8) | ((data[6] & 0x00FF))));
-                                            device.setIndexFlex((((data[7] & 0x00FF) << 8) | ((data[8] & 0x00FF))));
-                                            // TODO: Add rest of fingers
-                                        } else if (data[0] == PACKET_ID_2) {
-                                            device.setAccX(((data[1] & 0x00FF) << 8) | ((data[2] & 0x00FF)));
-                                            device.setAccY(((data[3] & 0x00FF) << 8) | ((data[4] & 0x00FF)));
-                                            device.setAccZ(((data[5] & 0x00FF) << 8) | ((data[6] & 0x00FF)));
-                                            device.setGyrX(((data[7] & 0x00FF) << 8) | ((data[8] & 0x00FF)));
-                                            device.setGyrY(((data[9] & 0x00FF) << 8) | ((data[10] & 0x00FF)));
-                                            device.setGyrZ(((data[11] & 0x00FF) << 8) | ((data[12] & 0x00FF)));
-                                            device.setMagX(((data[13] & 0x00FF) << 8) | ((data[14] & 0x00FF)));
-                                            device.setMagY(((data[15] & 0x00FF) << 8) | ((data[16] & 0x00FF)));
-                                            device.setMagZ(((data[17] & 0x00FF) << 8) | ((data[18] & 0x00FF)));
-
-                                            if(GloveExerciseActivity.startLog)
-                                                device.logData(mContext);
-                                        } else {
-                                            Log.w(TAG, "Invalid Data Packet");
-                                            return;
-                                        }
-                                        break;
-                                    case FLEX_ONLY:
-                                        // First Data Set
-                                        device.setTimestamp((((data[0] & 0x00FF) << 8) | ((data[1] & 0x00FF))));
-                                        device.setThumbFlex((((data[2] & 0x00FF) << 8) | ((data[3] & 0x00FF))));
-                                        device.setIndexFlex((((data[4] & 0x00FF) << 8) | ((data[5] & 0x00FF))));
-
-                                        if(GloveExerciseActivity.startLog)
-                                            device.logData(mContext);
-
-                                        // Second Data Set
-                                        device.setTimestamp((((data[6] & 0x00FF) << 8) | ((data[7] & 0x00FF))));
-                                        device.setThumbFlex((((data[8] & 0x00FF) << 8) | ((data[9] & 0x00FF))));
-                                        device.setIndexFlex((((data[10] & 0x00FF) << 8) | ((data[11] & 0x00FF))));
-
-                                        if(GloveExerciseActivity.startLog)
-                                            device.logData(mContext);
-
-                                        // Third Data Set
-                                        device.setTimestamp((((data[12] & 0x00FF) << 8) | ((data[13] & 0x00FF))));
-                                        device.setThumbFlex((((data[14] & 0x00FF) << 8) | ((data[15] & 0x00FF))));
-                                        device.setIndexFlex((((data[16] & 0x00FF) << 8) | ((data[17] & 0x00FF))));
-
-                                        if(GloveExerciseActivity.startLog)
-                                            device.logData(mContext);
-                                        break;
-                                }
-                            } catch (IllegalDeviceType | IOException e) {
-                                Log.e(TAG, e.toString());
-                                // TODO Handle Error Event
-                                return;
-                            }
-                        }
-                    }
+                    // RX data arrives through the packet buffers (see mPacketListener)
                     break;
                 case BluetoothLeConnectionService.GATT_CHARACTERISTIC_READ:
                     break;
@@ -518,6 +1075,628 @@ public class TexTronicsManagerService extends Service {
         }
     };
 
+    /**
+     * Called on the BluetoothGattCallback thread each time a packet is placed in a device's packet
+     * buffer. Schedules a single drain on mPacketHandler if one is not already pending.
+     */
+    private final BluetoothLeConnectionService.PacketListener mPacketListener = new BluetoothLeConnectionService.PacketListener() {
+        @Override
+        public void onPacketsAvailable(String bluetoothDeviceAddress) {
+            if (mDrainScheduled.compareAndSet(false, true)) {
+                mPacketHandler.post(mDrainRunnable);
+            }
+        }
+    };
+
+    /**
+     * Drains the packet buffer of every connected device in batches. The scheduled flag is cleared
+     * before draining so packets that arrive during the drain schedule another pass.
+     */
+    private final Runnable mDrainRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mDrainScheduled.set(false);
+            if (!mBleServiceBound) {
+                return;
+            }
+
+            boolean morePackets = false;
+            for (Map.Entry<String, TexTronicsDevice> entry : mTexTronicsList.entrySet()) {
+                PacketRingBuffer packetBuffer = mBleService.getPacketBuffer(entry.getKey());
+                if (packetBuffer == null) {
+                    continue;
+                }
+
+                mDrainDevice = entry.getValue();
+                mDrainDecoder = mDrainDevice.getPacketDecoder();
+                mDrainMetrics = PIPELINE_METRICS.get(entry.getKey());
+                mDrainStartNanos = SystemClock.elapsedRealtimeNanos();
+                mLastPacketLength = 0;
+                if (mDrainMetrics != null) {
+                    mDrainMetrics.onDrainStarted(packetBuffer.size(), packetBuffer.getDroppedCount());
+                    if (mDrainMetrics.isAwaitingFirstSample() && !packetBuffer.isEmpty()) {
+                        long timeToFirstSample = mBleService.getTimeToFirstSample(entry.getKey());
+                        if (timeToFirstSample >= 0) {
+                            mDrainMetrics.onFirstSample(timeToFirstSample);
+                        }
+                    }
+                }
+                packetBuffer.drain(mPacketConsumer, MAX_PACKETS_PER_DRAIN);
+                dispatchSampleBlock(mDrainDevice);
+                mDrainDevice = null;
+                mDrainDecoder = null;
+
+                // Let the UI know there is new data, at most once per SNAPSHOT_INTERVAL_NS
+                if (mLastPacketLength > 0 && (mDrainMetrics == null || mDrainMetrics.onSnapshotDue(mDrainStartNanos, SNAPSHOT_INTERVAL_NS))) {
+                    TexTronicsUpdateReceiver.update(mContext, entry.getKey(), TexTronicsUpdate.ble_data,
+                            Arrays.copyOf(mLastPacket, mLastPacketLength));
+                }
+                mDrainMetrics = null;
+
+                if (!packetBuffer.isEmpty()) {
+                    morePackets = true;
+                }
+            }
+
+            if (mSampleMerger != null) {
+                mSampleMerger.flush(SystemClock.elapsedRealtimeNanos());
+            }
+            if (mSessionWriter != null) {
+                try {
+                    mSessionWriter.flushIfDue(System.nanoTime());
+                } catch (IOException e) {
+                    Log.e(TAG, "Could not write " + mSessionWriter.getFile() + " - " + e);
+                }
+            }
+
+            if (morePackets && mDrainScheduled.compareAndSet(false, true)) {
+                mPacketHandler.post(mDrainRunnable);
+            }
+        }
+    };
+
+    /**
+     * The device whose packet buffer is currently being drained, its decoder, its metrics, the
+     * time the drain started, and a copy of the last packet drained from it. Only accessed from
+     * mPacketHandler.
+     */
+    private TexTronicsDevice mDrainDevice;
+    private PacketDecoder mDrainDecoder;
+    private PipelineMetrics mDrainMetrics;
+    private long mDrainStartNanos;
+
+    /**
+     * Values of the sample being merged, in SampleMerger order (flex readings then IMU readings).
+     */
+    private final int[] mSampleValues = new int[SampleMerger.MAX_VALUES];
+
+    /**
+     * Merges the samples of every device in the routine into one time-ordered session file.
+     * Created with the first logged sample and closed once every device has disconnected. Only
+     * accessed from mPacketHandler.
+     */
+    private SampleMerger mSampleMerger;
+    private SessionWriter mSessionWriter;
+    private long mWallClockOffsetMs;
+    private final CsvEncoder mSessionLine = new CsvEncoder(128);
+
+    /**
+     * Device addresses as written to the merged session file, encoded once per device.
+     */
+    private final Map<String, byte[]> mSessionAddresses = new HashMap<>();
+
+    /**
+     * What the merged session is cataloged with once closed: the exercise (from the session header
+     * of a device merged), the samples written and the times of the first and last.
+     */
+    private SessionHeader mSessionHeader;
+    private long mSessionSamples;
+    private long mSessionFirstMs;
+    private long mSessionLastMs;
+
+    private final byte[] mLastPacket = new byte[BluetoothLeConnectionService.MAX_MTU];
+    private int mLastPacketLength;
+
+    private final PacketRingBuffer.PacketConsumer mPacketConsumer = new PacketRingBuffer.PacketConsumer() {
+        @Override
+        public void onPacket(ByteBuffer packet, long timestampNanos) {
+            int copyLength = Math.min(packet.remaining(), mLastPacket.length);
+            System.arraycopy(packet.array(), packet.arrayOffset() + packet.position(), mLastPacket, 0, copyLength);
+            mLastPacketLength = copyLength;
+
+            if (mDrainDevice == null || mDrainDecoder == null) {
+                return;
+            }
+
+            // No wire format has samples smaller than a byte, so this leaves room for the whole packet
+            SampleBlock sampleBlock = mDrainDevice.getSampleBlock();
+            if (sampleBlock.remaining() < packet.remaining()) {
+                dispatchSampleBlock(mDrainDevice);
+            }
+            sampleBlock.beginPacket(timestampNanos);
+            int samples = mDrainDecoder.decode(packet, sampleBlock);
+            if (samples == PacketDecoder.INVALID_PACKET) {
+                Log.w(TAG, "Invalid Data Packet");
+            }
+            if (mDrainMetrics != null) {
+                mDrainMetrics.onPacketProcessed(mDrainStartNanos - timestampNanos, samples);
+            }
+        }
+    };
+
+    /**
+     * Hands the samples decoded from the device's packets to every SampleBlockSink, in order, and
+     * empties the block.
+     */
+    private void dispatchSampleBlock(TexTronicsDevice device) {
+        SampleBlock sampleBlock = device.getSampleBlock();
+        if (sampleBlock.isEmpty()) {
+            return;
+        }
+        for (SampleBlockSink sink : mSampleBlockSinks) {
+            sink.onSampleBlock(device, sampleBlock);
+        }
+        sampleBlock.clear();
+    }
+
+    /**
+     * Checks the timestamps for lost samples, unwrapping them in the block for the sinks that
+     * follow, and adds one clock observation per packet: its newest sample against the time it
+     * arrived.
+     */
+    private final SampleBlockSink mStreamIntegritySink = new SampleBlockSink() {
+        @Override
+        public void onSampleBlock(TexTronicsDevice device, SampleBlock block) {
+            StreamIntegrityTracker streamIntegrity = device.getStreamIntegrity();
+            if (streamIntegrity == null) {
+                return;
+            }
+            ClockAligner clockAligner = device.getClockAligner();
+            for (int sample = 0; sample < block.size(); sample++) {
+                streamIntegrity.onSample(block.getTimestamp(sample), block.getReceivedNanos(sample));
+                block.setUnwrappedTimestamp(sample, streamIntegrity.getUnwrappedTimestamp());
+                if (block.isLastOfPacket(sample)) {
+                    clockAligner.addObservation(block.getUnwrappedTimestamp(sample), block.getReceivedNanos(sample));
+                }
+            }
+        }
+    };
+
+    /**
+     * Appends the block to the device's session file while the exercise is being recorded.
+     */
+    private final SampleBlockSink mLogSink = new SampleBlockSink() {
+        @Override
+        public void onSampleBlock(TexTronicsDevice device, SampleBlock block) {
+            if (!GloveExerciseActivity.startLog) {
+                return;
+            }
+            try {
+                device.logData(block);
+            } catch (IOException e) {
+                Log.e(TAG, e.toString());
+                // TODO Handle Error Event
+            }
+        }
+    };
+
+    /**
+     * Places each sample on the session time line and queues it in the merged session stream
+     * while the exercise is being recorded.
+     */
+    private final SampleBlockSink mMergeSink = new SampleBlockSink() {
+        @Override
+        public void onSampleBlock(TexTronicsDevice device, SampleBlock block) {
+            if (!GloveExerciseActivity.startLog) {
+                return;
+            }
+            if (mSampleMerger == null) {
+                openSession();
+            }
+            ClockAligner clockAligner = device.getClockAligner();
+            for (int sample = 0; sample < block.size(); sample++) {
+                long deviceTime = block.getUnwrappedTimestamp(sample);
+                long receivedNanos = block.getReceivedNanos(sample);
+                if (!clockAligner.isAligned()) {
+                    clockAligner.addObservation(deviceTime, receivedNanos);
+                }
+                int valueCount = block.getSample(sample, mSampleValues);
+                mSampleMerger.offer(device.getDeviceAddress(), clockAligner.toPhoneTimeNanos(deviceTime),
+                        mSampleValues, valueCount, receivedNanos);
+            }
+        }
+    };
+
+    /**
+     * Queues each sample in the live stream while the exercise is being recorded, without waiting
+     * for the other devices as the merged session stream does. Follows mMergeSink, which opens the
+     * session.
+     */
+    private final SampleBlockSink mLiveSink = new SampleBlockSink() {
+        @Override
+        public void onSampleBlock(TexTronicsDevice device, SampleBlock block) {
+            LiveStream liveStream = mLiveStream;
+            if (!GloveExerciseActivity.startLog || liveStream == null) {
+                return;
+            }
+            ClockAligner clockAligner = device.getClockAligner();
+            boolean batchFull = false;
+            for (int sample = 0; sample < block.size(); sample++) {
+                int valueCount = block.getSample(sample, mSampleValues);
+                batchFull |= liveStream.offer(device.getDeviceAddress(),
+                        clockAligner.toPhoneTimeNanos(block.getUnwrappedTimestamp(sample)),
+                        mSampleValues, valueCount, block.getReceivedNanos(sample));
+            }
+            if (batchFull) {
+                mLiveHandler.post(mLiveFlushRunnable);
+            }
+        }
+    };
+
+    private final SampleBlockSink[] mSampleBlockSinks = {mStreamIntegritySink, mLogSink, mMergeSink, mLiveSink};
+
+    private void openSession() {
+        Date date = Calendar.getInstance().getTime();
+        String dateString = new SimpleDateFormat("MM/dd/yyyy", Locale.US).format(date);
+        String timeString = new SimpleDateFormat("kk_mm_ss_SSS", Locale.US).format(date);
+        File parentFile = new File(SESSION_DIRECTORY);
+        File sessionFile = new File(parentFile, dateString + "/" + timeString + "_session.csv");
+        try {
+            mSessionWriter = new SessionWriter(sessionFile, SESSION_HEADER);
+        } catch (IOException e) {
+            // The devices' own session files are still written
+            Log.e(TAG, "Could not open " + sessionFile + " - " + e);
+            mSessionWriter = null;
+        }
+        mWallClockOffsetMs = System.currentTimeMillis() - SystemClock.elapsedRealtime();
+        mSessionHeader = mTexTronicsList.isEmpty() ? null : mTexTronicsList.values().iterator().next().getSessionHeader();
+        mSessionSamples = 0;
+        mSampleMerger = new SampleMerger(MERGE_CAPACITY, MERGE_MAX_WAIT_NS, mMergedSampleListener);
+
+        // Wait for every device in the routine, not just the first one to send a sample
+        long nowNanos = SystemClock.elapsedRealtimeNanos();
+        for (String deviceAddress : mTexTronicsList.keySet()) {
+            mSampleMerger.addSource(deviceAddress, nowNanos);
+        }
+
+        openLiveStream();
+    }
+
+    /**
+     * Starts the live stream of the session, if turned on (PREFERENCE_LIVE_STREAM). Its topic is
+     * named after the exercise the devices are recording.
+     */
+    private void openLiveStream() {
+        SharedPreferences preferences = getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE);
+        if (!preferences.getBoolean(PREFERENCE_LIVE_STREAM, false) || mTexTronicsList.isEmpty()) {
+            return;
+        }
+        String exerciseID = mTexTronicsList.values().iterator().next().getExerciseID();
+        int batchSamples = preferences.getInt(PREFERENCE_LIVE_BATCH_SAMPLES, LiveStream.DEFAULT_BATCH_SAMPLES);
+        long batchIntervalMs = preferences.getLong(PREFERENCE_LIVE_BATCH_MS, LiveStream.DEFAULT_BATCH_INTERVAL_MS);
+        LiveStream liveStream = new LiveStream(LiveStream.getTopic(exerciseID), batchSamples,
+                TimeUnit.MILLISECONDS.toNanos(batchIntervalMs), Math.max(LiveStream.DEFAULT_CAPACITY, batchSamples),
+                mWallClockOffsetMs);
+        liveStreamMetrics = liveStream.getMetrics();
+        mLiveStream = liveStream;
+        mLiveHandler.removeCallbacks(mLiveTickRunnable);
+        mLiveHandler.post(mLiveTickRunnable);
+        Log.d(TAG, "Live Stream on " + liveStream.getTopic());
+    }
+
+    /**
+     * Stops the live stream of the session once the samples it still holds are published.
+     */
+    private void closeLiveStream() {
+        final LiveStream liveStream = mLiveStream;
+        if (liveStream == null) {
+            return;
+        }
+        mLiveStream = null;
+        mLiveHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mLiveHandler.removeCallbacks(mLiveTickRunnable);
+                publishLiveBatches(liveStream, true);
+                Log.d(TAG, "Live Stream " + liveStream);
+            }
+        });
+    }
+
+    /**
+     * Publishes the live batches that are due, as long as the MQTT client is connected. Batches are
+     * sent with QoS 0: a live view has no use for a sample late, and the session upload carries
+     * every one. Runs on mLiveHandler.
+     *
+     * @param flush true to publish the samples waiting even if they do not make a batch yet.
+     */
+    private void publishLiveBatches(LiveStream liveStream, boolean flush) {
+        while (mMqttServiceBound && mMqttService.isConnected()
+                && (flush ? liveStream.size() > 0 : liveStream.isBatchDue(SystemClock.elapsedRealtimeNanos()))) {
+            int samples = liveStream.takeBatch(mLiveBatch);
+            // The client keeps the payload until the message is sent
+            byte[] payload = Arrays.copyOf(mLiveBatch.getBuffer(), mLiveBatch.length());
+            if (mMqttService.publishMessage(liveStream.getTopic(), payload, 0)) {
+                liveStream.onBatchSent(samples, payload.length, SystemClock.elapsedRealtimeNanos());
+            } else {
+                liveStream.onBatchFailed(samples);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Emits the samples still waiting in the merged session stream, closes the session file and
+     * adds it to the catalog to be uploaded like the devices' session files.
+     */
+    private void closeSession() {
+        closeLiveStream();
+        if (mSampleMerger != null) {
+            mSampleMerger.flushAll();
+            mSampleMerger = null;
+        }
+        if (mSessionWriter != null) {
+            final File sessionFile = mSessionWriter.getFile();
+            try {
+                mSessionWriter.close();
+                Log.d(TAG, "Session " + mSessionWriter);
+                catalogSession(sessionFile);
+            } catch (IOException e) {
+                Log.e(TAG, "Could not close " + sessionFile + " - " + e);
+            }
+            mSessionWriter = null;
+            mUploadHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    startUpload(sessionFile, null);
+                }
+            });
+        }
+    }
+
+    /**
+     * Adds the merged session file to the catalog, under MERGED_SESSION_ADDRESS.
+     */
+    private void catalogSession(File sessionFile) {
+        if (mSessionHeader == null) {
+            return;
+        }
+        long durationMs = mSessionSamples == 0 ? 0 : mSessionLastMs - mSessionFirstMs;
+        try {
+            getSessionCatalog(mContext).put(new SessionCatalog.Entry(sessionFile, mSessionHeader,
+                    SessionCatalog.MERGED_SESSION_ADDRESS, getPatient(), mSessionSamples, durationMs,
+                    System.currentTimeMillis(), SessionCatalog.UploadState.PENDING));
+        } catch (IOException e) {
+            Log.e(TAG, "Could not catalog " + sessionFile + " - " + e);
+        }
+    }
+
+    /**
+     * Compacts and trims the session files after RETENTION_DELAY_MS, unless a run is already due.
+     */
+    private void scheduleRetention() {
+        mRetentionHandler.removeCallbacks(mRetentionRunnable);
+        mRetentionHandler.postDelayed(mRetentionRunnable, RETENTION_DELAY_MS);
+    }
+
+    /**
+     * Uploads a cataloged session, or sends again the chunks of its upload not acknowledged yet.
+     * Runs on mUploadHandler.
+     *
+     * @param quality Stream integrity of the session as JSON (null if not known).
+     */
+    private void startUpload(File sessionFile, String quality) {
+        SessionCatalog.Entry entry;
+        try {
+            entry = getSessionCatalog(mContext).get(sessionFile);
+        } catch (IOException e) {
+            Log.e(TAG, "Could not load the session catalog - " + e);
+            return;
+        }
+        if (entry == null || entry.getUploadState() == SessionCatalog.UploadState.ACKNOWLEDGED) {
+            return;
+        }
+        String key = SessionUpload.getKey(entry.getDeviceAddress(), entry.getExerciseID());
+        SessionUpload upload = mUploads.get(key);
+        if (upload == null) {
+            JsonData json = new JsonData(entry.getDate(),
+                    entry.getDeviceAddress(),
+                    Choice.toString(entry.getChoice()),
+                    entry.getExerciseID(),
+                    entry.getRoutineID(),
+                    null,
+                    quality,
+                    mUploadCompressor.getCodec().getName());
+            try {
+                upload = new SessionUpload(sessionFile, json, mUploadCompressor, SessionUpload.DEFAULT_CHUNK_SAMPLES);
+            } catch (IOException e) {
+                Log.e(TAG, "Could not upload " + sessionFile + " - " + e);
+                return;
+            }
+            // Resumes after the chunks the fog node already has
+            upload.acknowledge(entry.getChunksAcknowledged());
+            mUploads.put(key, upload);
+        } else if (!isOutboxWaiting()) {
+            upload.rewind();
+        }
+        sendChunks(upload);
+    }
+
+    /**
+     * @return true if messages are waiting in the MQTT outbox to be published.
+     */
+    private boolean isOutboxWaiting() {
+        MqttOutbox.Metrics outboxMetrics = MqttConnectionService.getOutboxMetrics();
+        return outboxMetrics != null && outboxMetrics.getQueueDepth() > 0;
+    }
+
+    /**
+     * Sends the chunks of the upload due within the window. Runs on mUploadHandler.
+     */
+    private void sendChunks(SessionUpload upload) {
+        long start = SystemClock.elapsedRealtimeNanos();
+        int sent = 0;
+        while (mMqttServiceBound && upload.hasChunkToSend(SessionUpload.DEFAULT_WINDOW)) {
+            byte[] chunk;
+            try {
+                chunk = upload.createChunk(upload.getNextChunk());
+            } catch (IOException e) {
+                Log.e(TAG, "Could not upload " + upload.getSessionFile() + " - " + e);
+                mUploads.remove(upload.getKey());
+                return;
+            }
+            if (!mMqttService.publishMessage(MqttConnectionService.DATA_CHUNK_TOPIC, chunk)) {
+                // The outbox is full; sent again once the acknowledgement times out
+                break;
+            }
+            upload.onChunkSent();
+            sent++;
+        }
+        if (sent > 0) {
+            Log.d(TAG, "Sent " + sent + " chunks in "
+                    + TimeUnit.NANOSECONDS.toMillis(SystemClock.elapsedRealtimeNanos() - start) + " ms: " + upload);
+        }
+        if (upload.getNextChunk() == upload.getChunkCount()) {
+            try {
+                SessionCatalog catalog = getSessionCatalog(mContext);
+                SessionCatalog.Entry entry = catalog.get(upload.getSessionFile());
+                if (entry != null && entry.getUploadState() == SessionCatalog.UploadState.PENDING) {
+                    catalog.setUploadState(upload.getSessionFile(), SessionCatalog.UploadState.UPLOADED);
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "Could not catalog " + upload.getSessionFile() + " - " + e);
+            }
+        }
+        mUploadHandler.removeCallbacks(mAckTimeoutRunnable);
+        mUploadHandler.postDelayed(mAckTimeoutRunnable, ACK_TIMEOUT_MS);
+    }
+
+    /**
+     * Moves an upload on with an acknowledgement from the fog node. Runs on mUploadHandler.
+     *
+     * @param chunksAcknowledged Number of chunks the fog node holds in order.
+     */
+    private void onChunksAcknowledged(String key, int chunksAcknowledged) {
+        SessionUpload upload = mUploads.get(key);
+        if (upload == null || !upload.acknowledge(chunksAcknowledged)) {
+            return;
+        }
+        try {
+            SessionCatalog catalog = getSessionCatalog(mContext);
+            catalog.setChunksAcknowledged(upload.getSessionFile(), upload.getChunksAcknowledged());
+            if (upload.isComplete()) {
+                catalog.setUploadState(upload.getSessionFile(), SessionCatalog.UploadState.ACKNOWLEDGED);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Could not catalog " + upload.getSessionFile() + " - " + e);
+        }
+        if (upload.isComplete()) {
+            Log.d(TAG, "Uploaded " + upload);
+            mUploads.remove(key);
+            if (mUploads.isEmpty()) {
+                mUploadHandler.removeCallbacks(mAckTimeoutRunnable);
+            }
+            scheduleRetention();
+        } else {
+            sendChunks(upload);
+        }
+    }
+
+    /**
+     * Writes what is left of the device's session file, closes it and adds it to the catalog.
+     */
+    private void closeLog(TexTronicsDevice device) {
+        SessionFileWriter logWriter;
+        try {
+            logWriter = device.closeLog();
+            if (logWriter == null) {
+                return;
+            }
+            Log.d(TAG, "Log " + device.getDeviceAddress() + ": " + logWriter);
+        } catch (IOException e) {
+            Log.e(TAG, "Could not close " + device.getLogFile() + " - " + e);
+            return;
+        }
+
+        PacketDecoder decoder = device.getPacketDecoder();
+        long durationMs = decoder == null ? 0 : logWriter.getSampleCount() * decoder.getSamplePeriodMs();
+        try {
+            getSessionCatalog(mContext).put(new SessionCatalog.Entry(device.getLogFile(), device.getSessionHeader(),
+                    getPatient(), logWriter.getSampleCount(), durationMs, System.currentTimeMillis(),
+                    SessionCatalog.UploadState.PENDING));
+        } catch (IOException e) {
+            Log.e(TAG, "Could not catalog " + device.getLogFile() + " - " + e);
+        }
+    }
+
+    /**
+     * Adds a session file finished by SessionJournal.recover() to the catalog. The patient it was
+     * recorded for is not known.
+     */
+    private void catalogRecoveredSession(File sessionFile) {
+        try {
+            SessionCatalog catalog = getSessionCatalog(mContext);
+            if (catalog.get(sessionFile) != null) {
+                return;
+            }
+            SessionFileReader reader = new SessionFileReader(sessionFile);
+            try {
+                SessionHeader header = reader.getHeader();
+                PacketDecoder decoder = PacketDecoders.create(header.getExerciseMode());
+                long durationMs = decoder == null ? 0 : reader.getSampleCount() * decoder.getSamplePeriodMs();
+                catalog.put(new SessionCatalog.Entry(sessionFile, header, null, reader.getSampleCount(), durationMs,
+                        sessionFile.lastModified(), SessionCatalog.UploadState.PENDING));
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Could not catalog " + sessionFile + " - " + e);
+        }
+    }
+
+    /**
+     * @return The name of the patient using the app, or null if none was entered.
+     */
+    private String getPatient() {
+        return getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE).getString(SmartGloveInterface.Preferences.NAME, null);
+    }
+
+    /**
+     * Writes the merged session stream. Time is the aligned sample time as wall clock milliseconds.
+     */
+    private final SampleMerger.Listener mMergedSampleListener = new SampleMerger.Listener() {
+        @Override
+        public void onMergedSample(String deviceAddress, long timeNanos, int[] values, int valueCount) {
+            if (mSessionWriter == null) {
+                return;
+            }
+            byte[] address = mSessionAddresses.get(deviceAddress);
+            if (address == null) {
+                address = CsvEncoder.toAscii(deviceAddress);
+                mSessionAddresses.put(deviceAddress, address);
+            }
+            long timeMs = mWallClockOffsetMs + timeNanos / 1000000;
+            if (mSessionSamples++ == 0) {
+                mSessionFirstMs = timeMs;
+            }
+            mSessionLastMs = timeMs;
+            mSessionLine.clear();
+            mSessionLine.append(timeMs).comma().append(address);
+            for (int i = 0; i < SampleMerger.MAX_VALUES; i++) {
+                mSessionLine.comma();
+                if (i < valueCount) {
+                    mSessionLine.append(values[i]);
+                }
+            }
+            mSessionLine.endRow();
+            try {
+                mSessionWriter.append(mSessionLine.getBuffer(), 0, mSessionLine.length());
+            } catch (IOException e) {
+                Log.e(TAG, "Could not write " + mSessionWriter.getFile() + " - " + e);
+            }
+        }
+    };
+
     private MqttUpdateReceiver mMqttUpdateReceiver = new MqttUpdateReceiver() {
         @Override
         public void onReceive(Context context, Intent intent) {
@@ -532,6 +1711,23 @@ public class TexTronicsManagerService extends Service {
                 case connected:
                     Log.d(TAG, "MQTT Connected");
                     TexTronicsUpdateReceiver.update(mContext, null, TexTronicsUpdate.mqtt_connected);
+                    mUploadHandler.removeCallbacks(mResumeUploadsRunnable);
+                    mUploadHandler.post(mResumeUploadsRunnable);
+                    break;
+                case acknowledged:
+                    try {
+                        JSONObject ack = new JSONObject(intent.getStringExtra(MqttUpdateReceiver.MESSAGE));
+                        final String key = SessionUpload.getKey(ack.getString("Sensor_ID"), ack.getString("Exercise_UUID"));
+                        final int chunksAcknowledged = ack.getInt("Next");
+                        mUploadHandler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                onChunksAcknowledged(key, chunksAcknowledged);
+                            }
+                        });
+                    } catch (JSONException e) {
+                        Log.w(TAG, "Invalid Acknowledgement: " + e.getMessage());
+                    }
                     break;
                 case disconnected:
                     Log.d(TAG, "MQTT Disconnected");
@@ -10,6 +10,9 @@ public enum TexTronicsUpdate {
     ble_disconnected ("uri.wbl.tex_tronics.ble_disconnected"),
     ble_connecting ("uri.wbl.tex_tronics.ble_connecting"),
     ble_disconnecting ("uri.wbl.tex_tronics.ble_disconnecting"),
+    ble_reconnecting ("uri.wbl.tex_tronics.ble_reconnecting"),
+    ble_reconnected ("uri.wbl.tex_tronics.ble_reconnected"),
+    ble_data ("uri.wbl.tex_tronics.ble_data"),
     mqtt_connected ("uri.wbl.tex_tronics.mqtt_connected"),
     mqtt_disconnected ("uri.wbl.tex_tronics.mqtt_disconnected");
 
@@ -18,6 +21,9 @@ public enum TexTronicsUpdate {
     private static final String BLE_DISCONNECTED = "uri.wbl.tex_tronics.ble_disconnected";
     private static final String BLE_CONNECTING = "uri.wbl.tex_tronics.ble_connecting";
     private static final String BLE_DISCONNECTING = "uri.wbl.tex_tronics.ble_disconnecting";
+    private static final String BLE_RECONNECTING = "uri.wbl.tex_tronics.ble_reconnecting";
+    private static final String BLE_RECONNECTED = "uri.wbl.tex_tronics.ble_reconnected";
+    private static final String BLE_DATA = "uri.wbl.tex_tronics.ble_data";
     private static final String MQTT_CONNECTED = "uri.wbl.tex_tronics.mqtt_connected";
     private static final String MQTT_DISCONNECTED = "uri.wbl.tex_tronics.mqtt_disconnected";
 
@@ -39,6 +45,12 @@ public enum TexTronicsUpdate {
                 return ble_connecting;
             case BLE_DISCONNECTING:
                 return ble_disconnecting;
+            case BLE_RECONNECTING:
+                return ble_reconnecting;
+            case BLE_RECONNECTED:
+                return ble_reconnected;
+            case BLE_DATA:
+                return ble_data;
             case MQTT_CONNECTED:
                 return mqtt_connected;
             case MQTT_DISCONNECTED:
@@ -15,6 +15,7 @@ public abstract class TexTronicsUpdateReceiver extends BroadcastReceiver {
 
     public static final String UPDATE_TYPE = "uri.wbl.tex_tronics.update_type";
     public static final String UPDATE_DEVICE = "uri.wbl.tex_tronics.device";
+    public static final String UPDATE_DATA = "uri.wbl.tex_tronics.data";
 
     public static void update(Context context, String deviceAddress, TexTronicsUpdate update) {
         Intent intent = new Intent(INTENT_FILTER_STRING);
@@ -22,4 +23,12 @@ public abstract class TexTronicsUpdateReceiver extends BroadcastReceiver {
         intent.putExtra(UPDATE_TYPE, update);
         context.sendBroadcast(intent);
     }
+
+    public static void update(Context context, String deviceAddress, TexTronicsUpdate update, byte[] data) {
+        Intent intent = new Intent(INTENT_FILTER_STRING);
+        intent.putExtra(UPDATE_DEVICE, deviceAddress);
+        intent.putExtra(UPDATE_TYPE, update);
+        intent.putExtra(UPDATE_DATA, data);
+        context.sendBroadcast(intent);
+    }
 }
@@ -0,0 +1,107 @@
+package edu.uri.wbl.tex_tronics.smartglove.tex_tronics.calibration;
+
+import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.data_types.SampleBlock;
+
+/**
+ * Converts raw flex readings to joint angles with one lookup table per finger, indexed by the raw
+ * unsigned 16 bit reading, so a conversion is a single array access. The tables are computed once
+ * from a CalibrationProfile: between two calibration points the angle is interpolated linearly,
+ * below the first and above the last point it is held at that point's angle.
+ *
+ * Angles are stored in tenths of a degree (128 KB per finger); fingers that are not calibrated
+ * have no table.
+ */
+
+public class AngleTable {
+    public static final int TABLE_SIZE = 1 << 16;
+
+    /**
+     * Returned for fingers without a table.
+     */
+    public static final short NOT_CALIBRATED = Short.MIN_VALUE;
+
+    private final CalibrationProfile mProfile;
+    private final short[][] mDeciDegrees = new short[SampleBlock.FLEX_CHANNELS][];
+
+    public AngleTable(CalibrationProfile profile) {
+        mProfile = profile;
+        for (int channel = 0; channel < SampleBlock.FLEX_CHANNELS; channel++) {
+            if (profile.isCalibrated(channel)) {
+                mDeciDegrees[channel] = buildTable(profile, channel);
+            }
+        }
+    }
+
+    public CalibrationProfile getProfile() {
+        return mProfile;
+    }
+
+    public boolean isCalibrated(int channel) {
+        return channel >= 0 && channel < SampleBlock.FLEX_CHANNELS && mDeciDegrees[channel] != null;
+    }
+
+    /**
+     * @return The angle in tenths of a degree, or NOT_CALIBRATED.
+     */
+    public short getDeciDegrees(int channel, int raw) {
+        short[] table = mDeciDegrees[channel];
+        return table == null ? NOT_CALIBRATED : table[raw & 0xFFFF];
+    }
+
+    /**
+     * @return The angle in degrees, or NaN if the finger is not calibrated.
+     */
+    public float getDegrees(int channel, int raw) {
+        short[] table = mDeciDegrees[channel];
+        return table == null ? Float.NaN : table[raw & 0xFFFF] * 0.1f;
+    }
+
+    /**
+     * Converts the first block.size() readings of a finger.
+     *
+     * @param degrees Receives the angles; must hold at least block.size() values.
+     * @return false (leaving degrees unchanged) if the finger is not calibrated.
+     */
+    public boolean convert(SampleBlock block, int channel, float[] degrees) {
+        short[] table = mDeciDegrees[channel];
+        if (table == null) {
+            return false;
+        }
+        int[] raw = block.getChannel(channel);
+        int size = block.size();
+        for (int sample = 0; sample < size; sample++) {
+            degrees[sample] = table[raw[sample] & 0xFFFF] * 0.1f;
+        }
+        return true;
+    }
+
+    private static short[] buildTable(CalibrationProfile profile, int channel) {
+        short[] table = new short[TABLE_SIZE];
+        int count = profile.getPointCount(channel);
+
+        int raw = 0;
+        short first = toDeciDegrees(profile.getDegrees(channel, 0));
+        for (int end = profile.getRaw(channel, 0); raw <= end; raw++) {
+            table[raw] = first;
+        }
+        for (int point = 1; point < count; point++) {
+            int startRaw = profile.getRaw(channel, point - 1);
+            int endRaw = profile.getRaw(channel, point);
+            float startDegrees = profile.getDegrees(channel, point - 1);
+            float slope = (profile.getDegrees(channel, point) - startDegrees) / Math.max(1, endRaw - startRaw);
+            for (; raw <= endRaw; raw++) {
+                table[raw] = toDeciDegrees(startDegrees + slope * (raw - startRaw));
+            }
+        }
+        short last = toDeciDegrees(profile.getDegrees(channel, count - 1));
+        for (; raw < TABLE_SIZE; raw++) {
+            table[raw] = last;
+        }
+        return table;
+    }
+
+    private static short toDeciDegrees(float degrees) {
+        int deciDegrees = Math.round(degrees * 10f);
+        return (short) Math.max(Short.MIN_VALUE + 1, Math.min(Short.MAX_VALUE, deciDegrees));
+    }
+}
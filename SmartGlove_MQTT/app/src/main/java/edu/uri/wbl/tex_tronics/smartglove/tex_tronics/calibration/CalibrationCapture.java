@@ -0,0 +1,100 @@
+package edu.uri.wbl.tex_tronics.smartglove.tex_tronics.calibration;
+
+import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.data_types.SampleBlock;
+import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.decoders.SampleSink;
+
+/**
+ * Captures calibration points while the patient holds a pose. Decode the device's packets into the
+ * capture between begin() and finish(); finish() averages each finger's readings and records them
+ * in the profile at the pose's angle.
+ */
+
+public class CalibrationCapture implements SampleSink {
+    /**
+     * Angle of the fingers with the hand held open and flat.
+     */
+    public static final float POSE_OPEN_DEGREES = 0f;
+
+    /**
+     * Angle of the fingers in a closed fist.
+     */
+    public static final float POSE_FIST_DEGREES = 90f;
+
+    /**
+     * Fewest readings averaged into a point.
+     */
+    public static final int MIN_SAMPLES = 10;
+
+    private final CalibrationProfile mProfile;
+    private final long[] mSums = new long[SampleBlock.FLEX_CHANNELS];
+    private int mSamples = 0;
+    private float mDegrees;
+    private boolean mCapturing = false;
+
+    public CalibrationCapture(CalibrationProfile profile) {
+        mProfile = profile;
+    }
+
+    public CalibrationProfile getProfile() {
+        return mProfile;
+    }
+
+    public boolean isCapturing() {
+        return mCapturing;
+    }
+
+    /**
+     * Starts capturing a pose, forgetting readings captured since the last begin().
+     */
+    public void begin(float degrees) {
+        for (int channel = 0; channel < SampleBlock.FLEX_CHANNELS; channel++) {
+            mSums[channel] = 0;
+        }
+        mSamples = 0;
+        mDegrees = degrees;
+        mCapturing = true;
+    }
+
+    /**
+     * Stops capturing and records the average reading of every finger.
+     *
+     * @return false (recording nothing) if fewer than MIN_SAMPLES readings were captured.
+     */
+    public boolean finish() {
+        mCapturing = false;
+        if (mSamples < MIN_SAMPLES) {
+            return false;
+        }
+        for (int channel = 0; channel < SampleBlock.FLEX_CHANNELS; channel++) {
+            mProfile.setPoint(channel, mDegrees, (int) ((mSums[channel] + mSamples / 2) / mSamples));
+        }
+        return true;
+    }
+
+    public int getSampleCount() {
+        return mSamples;
+    }
+
+    @Override
+    public void onFlex(long timestamp, int thumb, int index, int middle, int ring, int pinky) {
+        if (!mCapturing) {
+            return;
+        }
+        mSums[SampleBlock.THUMB] += thumb;
+        mSums[SampleBlock.INDEX] += index;
+        mSums[SampleBlock.MIDDLE] += middle;
+        mSums[SampleBlock.RING] += ring;
+        mSums[SampleBlock.PINKY] += pinky;
+        mSamples++;
+    }
+
+    @Override
+    public void onImu(int accX, int accY, int accZ, int gyrX, int gyrY, int gyrZ, int magX, int magY, int magZ) {
+
+    }
+
+    @Override
+    public void onSampleComplete() {
+
+    }
+}
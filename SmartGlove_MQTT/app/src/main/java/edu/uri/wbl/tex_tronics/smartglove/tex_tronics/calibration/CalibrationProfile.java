@@ -0,0 +1,189 @@
+package edu.uri.wbl.tex_tronics.smartglove.tex_tronics.calibration;
+
+import java.util.Arrays;
+
+import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.data_types.Channel;
+import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.data_types.SampleBlock;
+import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.enums.DeviceType;
+
+/**
+ * How one patient's flex sensors read on one glove: for each finger, the raw reading captured
+ * while the patient held a known joint angle (hand open, fist, ...). An AngleTable built from the
+ * profile converts raw readings to degrees. CalibrationStore keeps a profile per glove, as two
+ * gloves of the same type read differently.
+ *
+ * A finger needs at least two points with different readings to be calibrated. Fingers the device
+ * does not send (always 0) never are.
+ */
+
+public class CalibrationProfile {
+    /**
+     * Most points kept per finger.
+     */
+    public static final int MAX_POINTS = 8;
+
+    private final String mPatient;
+    private final DeviceType mDeviceType;
+
+    /**
+     * Points of each flex channel, sorted by raw reading. Only the first mPointCount are used.
+     */
+    private final int[][] mRaw = new int[SampleBlock.FLEX_CHANNELS][MAX_POINTS];
+    private final float[][] mDegrees = new float[SampleBlock.FLEX_CHANNELS][MAX_POINTS];
+    private final int[] mPointCount = new int[SampleBlock.FLEX_CHANNELS];
+
+    public CalibrationProfile(String patient, DeviceType deviceType) {
+        if (patient == null || deviceType == null) {
+            throw new IllegalArgumentException("Patient and Device Type are required");
+        }
+        mPatient = patient;
+        mDeviceType = deviceType;
+    }
+
+    public String getPatient() {
+        return mPatient;
+    }
+
+    public DeviceType getDeviceType() {
+        return mDeviceType;
+    }
+
+    /**
+     * Records the reading of a flex channel at a joint angle, replacing the point previously
+     * recorded for that angle.
+     *
+     * @param channel Flex channel (SampleBlock.THUMB to SampleBlock.PINKY).
+     * @param raw Raw reading (unsigned 16 bit).
+     */
+    public void setPoint(int channel, float degrees, int raw) {
+        checkChannel(channel);
+        raw &= 0xFFFF;
+        removePoint(channel, degrees);
+        int count = mPointCount[channel];
+        if (count == MAX_POINTS) {
+            throw new IllegalStateException("Too many calibration points for " + Channel.values()[channel]);
+        }
+
+        int i = count;
+        while (i > 0 && mRaw[channel][i - 1] > raw) {
+            mRaw[channel][i] = mRaw[channel][i - 1];
+            mDegrees[channel][i] = mDegrees[channel][i - 1];
+            i--;
+        }
+        mRaw[channel][i] = raw;
+        mDegrees[channel][i] = degrees;
+        mPointCount[channel] = count + 1;
+    }
+
+    public void clear(int channel) {
+        checkChannel(channel);
+        mPointCount[channel] = 0;
+    }
+
+    public int getPointCount(int channel) {
+        return mPointCount[channel];
+    }
+
+    /**
+     * @return Raw reading of a point; points are sorted by raw reading.
+     */
+    public int getRaw(int channel, int point) {
+        return mRaw[channel][point];
+    }
+
+    public float getDegrees(int channel, int point) {
+        return mDegrees[channel][point];
+    }
+
+    /**
+     * @return true if the channel has two points with different readings.
+     */
+    public boolean isCalibrated(int channel) {
+        int count = mPointCount[channel];
+        return count >= 2 && mRaw[channel][0] != mRaw[channel][count - 1];
+    }
+
+    /**
+     * @return true if any flex channel is calibrated.
+     */
+    public boolean isCalibrated() {
+        for (int channel = 0; channel < SampleBlock.FLEX_CHANNELS; channel++) {
+            if (isCalibrated(channel)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return The points as text, one channel per line: "THUMB=0.0:412,90.0:780".
+     */
+    public String encode() {
+        StringBuilder builder = new StringBuilder();
+        for (int channel = 0; channel < SampleBlock.FLEX_CHANNELS; channel++) {
+            int count = mPointCount[channel];
+            if (count == 0) {
+                continue;
+            }
+            builder.append(Channel.values()[channel].name()).append('=');
+            for (int i = 0; i < count; i++) {
+                if (i > 0) {
+                    builder.append(',');
+                }
+                builder.append(mDegrees[channel][i]).append(':').append(mRaw[channel][i]);
+            }
+            builder.append('\n');
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Reads points written by encode().
+     *
+     * @throws IllegalArgumentException If the text is malformed.
+     */
+    public static CalibrationProfile decode(String patient, DeviceType deviceType, String encoded) {
+        CalibrationProfile profile = new CalibrationProfile(patient, deviceType);
+        for (String line : encoded.split("\n")) {
+            if (line.isEmpty()) {
+                continue;
+            }
+            int equals = line.indexOf('=');
+            if (equals < 0) {
+                throw new IllegalArgumentException("Malformed Calibration: " + line);
+            }
+            int channel = Channel.valueOf(line.substring(0, equals)).getColumn();
+            for (String point : line.substring(equals + 1).split(",")) {
+                String[] values = point.split(":");
+                if (values.length != 2) {
+                    throw new IllegalArgumentException("Malformed Calibration Point: " + point);
+                }
+                profile.setPoint(channel, Float.parseFloat(values[0]), Integer.parseInt(values[1]));
+            }
+        }
+        return profile;
+    }
+
+    private void removePoint(int channel, float degrees) {
+        int count = mPointCount[channel];
+        for (int i = 0; i < count; i++) {
+            if (mDegrees[channel][i] == degrees) {
+                System.arraycopy(mRaw[channel], i + 1, mRaw[channel], i, count - i - 1);
+                System.arraycopy(mDegrees[channel], i + 1, mDegrees[channel], i, count - i - 1);
+                mPointCount[channel] = count - 1;
+                return;
+            }
+        }
+    }
+
+    private static void checkChannel(int channel) {
+        if (channel < 0 || channel >= SampleBlock.FLEX_CHANNELS) {
+            throw new IllegalArgumentException("Not a Flex Channel: " + channel);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Calibration of " + mDeviceType + " for " + mPatient + " " + Arrays.toString(mPointCount);
+    }
+}
@@ -0,0 +1,82 @@
+package edu.uri.wbl.tex_tronics.smartglove.tex_tronics.calibration;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.enums.DeviceType;
+
+/**
+ * Keeps each patient's CalibrationProfiles in the app's shared preferences, next to the patient's
+ * name, one per glove: two gloves of the same type read differently, so each profile is keyed by
+ * the device address of the glove it was captured on.
+ */
+
+public final class CalibrationStore {
+    private static final String TAG = "CalibrationStore";
+
+    /**
+     * Shared preferences file holding the patient's name (SmartGloveInterface.Preferences).
+     */
+    private static final String PREFERENCES = "myPref";
+    private static final String KEY_PREFIX = "calibration.";
+
+    private CalibrationStore() {
+
+    }
+
+    /**
+     * @return The patient's profile for the glove, or null if the patient has not been calibrated
+     *         on it.
+     */
+    public static CalibrationProfile load(Context context, String patient, String deviceAddress, DeviceType deviceType) {
+        SharedPreferences preferences = context.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE);
+        String encoded = preferences.getString(getKey(patient, deviceAddress), null);
+        if (encoded == null) {
+            return null;
+        }
+        try {
+            return CalibrationProfile.decode(patient, deviceType, encoded);
+        } catch (IllegalArgumentException e) {
+            Log.w(TAG, "Discarding Calibration of " + deviceAddress + " for " + patient + " - " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * @param deviceAddress Address of the glove the profile was captured on.
+     */
+    public static void save(Context context, String deviceAddress, CalibrationProfile profile) {
+        context.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE).edit()
+                .putString(getKey(profile.getPatient(), deviceAddress), profile.encode())
+                .apply();
+        Log.d(TAG, "Saved " + profile + " of " + deviceAddress);
+    }
+
+    /**
+     * Forgets the patient's profiles for every glove, so the next exercise captures new ones.
+     */
+    public static void clear(Context context, String patient) {
+        SharedPreferences preferences = context.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE);
+        List<String> keys = new ArrayList<>();
+        for (String key : preferences.getAll().keySet()) {
+            // Device addresses hold no '.', so the patient is whatever follows the first one
+            int dot = key.indexOf('.', KEY_PREFIX.length());
+            if (key.startsWith(KEY_PREFIX) && dot >= 0 && key.substring(dot + 1).equals(patient)) {
+                keys.add(key);
+            }
+        }
+        SharedPreferences.Editor editor = preferences.edit();
+        for (String key : keys) {
+            editor.remove(key);
+        }
+        editor.apply();
+    }
+
+    private static String getKey(String patient, String deviceAddress) {
+        return KEY_PREFIX + deviceAddress + "." + patient;
+    }
+}
@@ -0,0 +1,79 @@
+package edu.uri.wbl.tex_tronics.smartglove.tex_tronics.data_types;
+
+/**
+ * A value a Tex-Tronics device can record with each sample. Every channel has a fixed column in
+ * the SampleBlock, so a channel's values are always found in the same place whichever device or
+ * exercise mode produced them.
+ */
+
+public enum Channel {
+    THUMB ("Thumb", SampleBlock.THUMB, 10, false, "adc"),
+    INDEX ("Index", SampleBlock.INDEX, 10, false, "adc"),
+    MIDDLE ("Middle", SampleBlock.MIDDLE, 10, false, "adc"),
+    RING ("Ring", SampleBlock.RING, 10, false, "adc"),
+    PINKY ("Pinky", SampleBlock.PINKY, 10, false, "adc"),
+    ACC_X ("Acc(x)", SampleBlock.ACC_X, 16, true, "accel_lsb"),
+    ACC_Y ("Acc(y)", SampleBlock.ACC_Y, 16, true, "accel_lsb"),
+    ACC_Z ("Acc(z)", SampleBlock.ACC_Z, 16, true, "accel_lsb"),
+    GYR_X ("Gyr(x)", SampleBlock.GYR_X, 16, true, "gyro_lsb"),
+    GYR_Y ("Gyr(y)", SampleBlock.GYR_Y, 16, true, "gyro_lsb"),
+    GYR_Z ("Gyr(z)", SampleBlock.GYR_Z, 16, true, "gyro_lsb"),
+    MAG_X ("Mag(x)", SampleBlock.MAG_X, 16, true, "mag_lsb"),
+    MAG_Y ("Mag(y)", SampleBlock.MAG_Y, 16, true, "mag_lsb"),
+    MAG_Z ("Mag(z)", SampleBlock.MAG_Z, 16, true, "mag_lsb");
+
+    private final String mName;
+    private final int mColumn;
+    private final int mBits;
+    private final boolean mSigned;
+    private final String mUnit;
+
+    Channel(String name, int column, int bits, boolean signed, String unit) {
+        mName = name;
+        mColumn = column;
+        mBits = bits;
+        mSigned = signed;
+        mUnit = unit;
+    }
+
+    /**
+     * @return Name used in CSV headers.
+     */
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * @return Column of this channel in a SampleBlock.
+     */
+    public int getColumn() {
+        return mColumn;
+    }
+
+    /**
+     * @return Number of significant bits the sensor produces (10 bit ADC, 16 bit IMU registers).
+     */
+    public int getBits() {
+        return mBits;
+    }
+
+    /**
+     * @return true if the device sends the value as two's complement. Values are stored as sent
+     *         (unsigned 16 bit), so signed values must be sign-extended by the reader.
+     */
+    public boolean isSigned() {
+        return mSigned;
+    }
+
+    /**
+     * @return Unit of the raw value (ADC counts or the IMU's least significant bit).
+     */
+    public String getUnit() {
+        return mUnit;
+    }
+
+    @Override
+    public String toString() {
+        return mName;
+    }
+}
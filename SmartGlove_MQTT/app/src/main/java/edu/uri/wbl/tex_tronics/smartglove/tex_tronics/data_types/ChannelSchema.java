@@ -0,0 +1,146 @@
+package edu.uri.wbl.tex_tronics.smartglove.tex_tronics.data_types;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.enums.DeviceType;
+import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.enums.ExerciseMode;
+import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.exceptions.IllegalDeviceType;
+
+/**
+ * The channels a device records in an exercise mode, in the order they are logged. Looked up once
+ * when a device is set up; after that channels are accessed by their index in the schema, so the
+ * pipeline never asks a device for a channel it does not have.
+ *
+ * New devices register their own schema in the static block below.
+ */
+
+public final class ChannelSchema {
+    private static final Map<DeviceType, Map<ExerciseMode, ChannelSchema>> SCHEMAS = new EnumMap<>(DeviceType.class);
+
+    static {
+        Channel[] flex = {Channel.THUMB, Channel.INDEX, Channel.MIDDLE, Channel.RING, Channel.PINKY};
+        Channel[] flexImu = {Channel.THUMB, Channel.INDEX, Channel.MIDDLE, Channel.RING, Channel.PINKY,
+                Channel.ACC_X, Channel.ACC_Y, Channel.ACC_Z,
+                Channel.GYR_X, Channel.GYR_Y, Channel.GYR_Z,
+                Channel.MAG_X, Channel.MAG_Y, Channel.MAG_Z};
+
+        register(DeviceType.SMART_GLOVE, ExerciseMode.FLEX_ONLY, flex);
+        register(DeviceType.SMART_GLOVE, ExerciseMode.FLEX_IMU, flexImu);
+
+        // The sock currently runs the glove firmware
+        register(DeviceType.SMART_SOCK, ExerciseMode.FLEX_ONLY, flex);
+        register(DeviceType.SMART_SOCK, ExerciseMode.FLEX_IMU, flexImu);
+    }
+
+    private static void register(DeviceType deviceType, ExerciseMode exerciseMode, Channel... channels) {
+        Map<ExerciseMode, ChannelSchema> schemas = SCHEMAS.get(deviceType);
+        if (schemas == null) {
+            schemas = new EnumMap<>(ExerciseMode.class);
+            SCHEMAS.put(deviceType, schemas);
+        }
+        schemas.put(exerciseMode, new ChannelSchema(channels));
+    }
+
+    /**
+     * @return The schema of the device in the given exercise mode, or null if the device does not
+     *         support the mode.
+     */
+    public static ChannelSchema get(DeviceType deviceType, ExerciseMode exerciseMode) {
+        Map<ExerciseMode, ChannelSchema> schemas = SCHEMAS.get(deviceType);
+        return schemas == null ? null : schemas.get(exerciseMode);
+    }
+
+    private final Channel[] mChannels;
+    private final int[] mColumns;
+
+    /**
+     * Index of each channel in this schema (by ordinal), -1 if not recorded.
+     */
+    private final int[] mIndices;
+    private final String mHeader;
+
+    private ChannelSchema(Channel[] channels) {
+        mChannels = channels.clone();
+        mColumns = new int[channels.length];
+        mIndices = new int[Channel.values().length];
+        for (int i = 0; i < mIndices.length; i++) {
+            mIndices[i] = -1;
+        }
+
+        StringBuilder header = new StringBuilder();
+        for (int i = 0; i < channels.length; i++) {
+            if (mIndices[channels[i].ordinal()] != -1) {
+                throw new IllegalArgumentException("Duplicate Channel " + channels[i]);
+            }
+            mIndices[channels[i].ordinal()] = i;
+            mColumns[i] = channels[i].getColumn();
+            if (i > 0) {
+                header.append(',');
+            }
+            header.append(channels[i].getName());
+        }
+        mHeader = header.toString();
+    }
+
+    public int size() {
+        return mChannels.length;
+    }
+
+    public Channel getChannel(int index) {
+        return mChannels[index];
+    }
+
+    /**
+     * @return A copy of the channels, in schema order.
+     */
+    public Channel[] getChannels() {
+        return mChannels.clone();
+    }
+
+    /**
+     * @return SampleBlock column of the channel at the given index.
+     */
+    public int getColumn(int index) {
+        return mColumns[index];
+    }
+
+    /**
+     * @return Index of the channel in this schema, or -1 if the device does not record it.
+     */
+    public int indexOf(Channel channel) {
+        return mIndices[channel.ordinal()];
+    }
+
+    public boolean contains(Channel channel) {
+        return indexOf(channel) != -1;
+    }
+
+    /**
+     * Resolves a channel a caller cannot work without. Meant to be called once during setup.
+     *
+     * @return Index of the channel in this schema.
+     * @throws IllegalDeviceType If the device does not record the channel.
+     */
+    public int require(Channel channel) throws IllegalDeviceType {
+        int index = indexOf(channel);
+        if (index == -1) {
+            throw new IllegalDeviceType("Channel " + channel + " not supported");
+        }
+        return index;
+    }
+
+    /**
+     * @return Value of the channel at the given index for one sample of the block.
+     */
+    public int getValue(SampleBlock block, int index, int sample) {
+        return block.get(mColumns[index], sample);
+    }
+
+    /**
+     * @return Channel names, comma separated, in schema order.
+     */
+    public String getHeader() {
+        return mHeader;
+    }
+}
@@ -0,0 +1,222 @@
+package edu.uri.wbl.tex_tronics.smartglove.tex_tronics.data_types;
+
+import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.decoders.SampleSink;
+
+/**
+ * A block of consecutive samples from one device, stored column by column: one primitive array
+ * per channel, all allocated up front. The pipeline decodes every packet drained from a device into
+ * the same block and then hands the whole block to each SampleBlockSink, so the sinks work on
+ * hundreds of samples per call instead of one object per sample.
+ *
+ * The block is filled through the SampleSink interface, so any PacketDecoder can decode into it.
+ * Call beginPacket() before decoding each packet to record when it was received. A sample spread
+ * over two packets (Flex + IMU) that is still incomplete when the block is cleared is kept as the
+ * first row of the cleared block.
+ *
+ * Values are the unsigned 16 bit readings sent by the device. Channels a device does not send are
+ * 0. Not thread safe; a block belongs to the pipeline thread.
+ */
+
+public class SampleBlock implements SampleSink {
+    public static final int THUMB = 0;
+    public static final int INDEX = 1;
+    public static final int MIDDLE = 2;
+    public static final int RING = 3;
+    public static final int PINKY = 4;
+    public static final int ACC_X = 5;
+    public static final int ACC_Y = 6;
+    public static final int ACC_Z = 7;
+    public static final int GYR_X = 8;
+    public static final int GYR_Y = 9;
+    public static final int GYR_Z = 10;
+    public static final int MAG_X = 11;
+    public static final int MAG_Y = 12;
+    public static final int MAG_Z = 13;
+
+    /**
+     * Number of flex channels, which come first.
+     */
+    public static final int FLEX_CHANNELS = 5;
+
+    public static final int CHANNEL_COUNT = 14;
+
+    private final int mCapacity;
+
+    /**
+     * Timestamp as sent by the device (wraps around).
+     */
+    private final long[] mTimestamps;
+
+    /**
+     * Device timestamp with the rollovers added back in, filled in by the StreamIntegrityTracker.
+     */
+    private final long[] mUnwrappedTimestamps;
+
+    /**
+     * Time the packet holding the sample was received (SystemClock.elapsedRealtimeNanos()).
+     */
+    private final long[] mReceivedNanos;
+
+    private final int[][] mChannels;
+
+    private int mSize = 0;
+    private int mChannelsUsed = FLEX_CHANNELS;
+    private long mPacketNanos;
+
+    /**
+     * true while the row at mSize has values but has not been completed.
+     */
+    private boolean mPending = false;
+
+    public SampleBlock(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        mCapacity = capacity;
+        mTimestamps = new long[capacity + 1];
+        mUnwrappedTimestamps = new long[capacity + 1];
+        mReceivedNanos = new long[capacity + 1];
+        // One extra row holds a sample still being decoded when the block is full
+        mChannels = new int[CHANNEL_COUNT][capacity + 1];
+    }
+
+    /**
+     * Called before decoding a packet into this block.
+     *
+     * @param receivedNanos Time the packet was received.
+     */
+    public void beginPacket(long receivedNanos) {
+        mPacketNanos = receivedNanos;
+    }
+
+    @Override
+    public void onFlex(long timestamp, int thumb, int index, int middle, int ring, int pinky) {
+        int row = mSize;
+        mTimestamps[row] = timestamp;
+        mUnwrappedTimestamps[row] = timestamp;
+        mReceivedNanos[row] = mPacketNanos;
+        mChannels[THUMB][row] = thumb;
+        mChannels[INDEX][row] = index;
+        mChannels[MIDDLE][row] = middle;
+        mChannels[RING][row] = ring;
+        mChannels[PINKY][row] = pinky;
+        for (int channel = FLEX_CHANNELS; channel < CHANNEL_COUNT; channel++) {
+            mChannels[channel][row] = 0;
+        }
+        mPending = true;
+    }
+
+    @Override
+    public void onImu(int accX, int accY, int accZ, int gyrX, int gyrY, int gyrZ, int magX, int magY, int magZ) {
+        int row = mSize;
+        mChannels[ACC_X][row] = accX;
+        mChannels[ACC_Y][row] = accY;
+        mChannels[ACC_Z][row] = accZ;
+        mChannels[GYR_X][row] = gyrX;
+        mChannels[GYR_Y][row] = gyrY;
+        mChannels[GYR_Z][row] = gyrZ;
+        mChannels[MAG_X][row] = magX;
+        mChannels[MAG_Y][row] = magY;
+        mChannels[MAG_Z][row] = magZ;
+        mChannelsUsed = CHANNEL_COUNT;
+    }
+
+    @Override
+    public void onSampleComplete() {
+        if (!mPending || mSize >= mCapacity) {
+            // IMU readings without flex readings, or more samples than the caller made room for
+            return;
+        }
+        mPending = false;
+        mSize++;
+    }
+
+    /**
+     * Empties the block. An incomplete sample is moved to the first row.
+     */
+    public void clear() {
+        if (mPending && mSize > 0) {
+            mTimestamps[0] = mTimestamps[mSize];
+            mUnwrappedTimestamps[0] = mUnwrappedTimestamps[mSize];
+            mReceivedNanos[0] = mReceivedNanos[mSize];
+            for (int channel = 0; channel < CHANNEL_COUNT; channel++) {
+                mChannels[channel][0] = mChannels[channel][mSize];
+            }
+        }
+        mSize = 0;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    /**
+     * @return Number of samples that can still be added.
+     */
+    public int remaining() {
+        return mCapacity - mSize;
+    }
+
+    /**
+     * @return FLEX_CHANNELS until IMU readings have been decoded into this block, then
+     *         CHANNEL_COUNT.
+     */
+    public int getChannelsUsed() {
+        return mChannelsUsed;
+    }
+
+    public long getTimestamp(int sample) {
+        return mTimestamps[sample];
+    }
+
+    public long getUnwrappedTimestamp(int sample) {
+        return mUnwrappedTimestamps[sample];
+    }
+
+    public void setUnwrappedTimestamp(int sample, long timestamp) {
+        mUnwrappedTimestamps[sample] = timestamp;
+    }
+
+    public long getReceivedNanos(int sample) {
+        return mReceivedNanos[sample];
+    }
+
+    /**
+     * @return true if the sample is the last one of the packet it was received in.
+     */
+    public boolean isLastOfPacket(int sample) {
+        return sample == mSize - 1 || mReceivedNanos[sample + 1] != mReceivedNanos[sample];
+    }
+
+    public int get(int channel, int sample) {
+        return mChannels[channel][sample];
+    }
+
+    /**
+     * @return The channel's backing array. Only the first size() values belong to this block.
+     */
+    public int[] getChannel(int channel) {
+        return mChannels[channel];
+    }
+
+    /**
+     * Copies one sample's values, in channel order.
+     *
+     * @return Number of values copied (getChannelsUsed()).
+     */
+    public int getSample(int sample, int[] values) {
+        int count = Math.min(mChannelsUsed, values.length);
+        for (int channel = 0; channel < count; channel++) {
+            values[channel] = mChannels[channel][sample];
+        }
+        return count;
+    }
+}
@@ -0,0 +1,179 @@
+package edu.uri.wbl.tex_tronics.smartglove.tex_tronics.decoders;
+
+import java.nio.ByteBuffer;
+
+import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.enums.ExerciseMode;
+
+/**
+ * Flex + IMU wire format. Each sample is sent as two packets:
+ *
+ * First Packet - 0x01 (1); Timestamp (4); Flex readings (2 per finger)
+ * Second Packet - 0x02 (1); Timestamp low byte (1, version 2 only); IMU readings (2 per channel)
+ *
+ * Which channels are sent is given by the device's PacketFormat. Until the device sends a format
+ * descriptor the legacy (version 1) format is assumed; version 1 flex packets may stop after the
+ * index finger, in which case the other fingers are 0.
+ *
+ * The flex packet starts a sample and the IMU packet completes it. In version 2 the IMU packet is
+ * only paired with the flex packet if their timestamps match, so a lost packet drops that one
+ * sample instead of pairing the readings of two different samples. Version 1 IMU packets carry no
+ * timestamp and complete whichever sample was started last.
+ *
+ * A decoder keeps the device's format, so each device needs its own instance
+ * (PacketDecoders.create()).
+ */
+
+public class FlexImuDecoder implements PacketDecoder {
+    /**
+     * The packet ID (first byte) of the packet holding the timestamp and flex readings.
+     */
+    public static final byte PACKET_ID_FLEX = 0x01;
+
+    /**
+     * The packet ID (first byte) of the packet holding the IMU readings.
+     */
+    public static final byte PACKET_ID_IMU = 0x02;
+
+    /**
+     * Sampling period of the Flex + IMU firmware (DATA_REFRESH_RATE_MS).
+     */
+    private static final int SAMPLE_PERIOD_MS = 10;
+
+    /**
+     * Size of a version 1 flex packet holding only the thumb and index readings.
+     */
+    private static final int MIN_LEGACY_FLEX_PACKET_SIZE = 9;
+
+    private PacketFormat mFormat = PacketFormat.LEGACY;
+
+    /**
+     * Low byte of the timestamp of the sample started by the last flex packet, or -1 if there is
+     * no sample waiting for its IMU packet.
+     */
+    private int mPendingTimestamp = -1;
+
+    /**
+     * Readings of the packet being decoded, by channel number.
+     */
+    private final int[] mValues = new int[PacketFormat.CHANNEL_COUNT];
+
+    private long mUnpairedPackets = 0;
+
+    @Override
+    public ExerciseMode getExerciseMode() {
+        return ExerciseMode.FLEX_IMU;
+    }
+
+    @Override
+    public int getTimestampBits() {
+        return 32;
+    }
+
+    @Override
+    public int getSamplePeriodMs() {
+        return SAMPLE_PERIOD_MS;
+    }
+
+    /**
+     * Goes back to the legacy format. Called before the device is asked for a format, as the
+     * firmware starts every connection in version 1.
+     */
+    @Override
+    public void reset() {
+        mFormat = PacketFormat.LEGACY;
+        mPendingTimestamp = -1;
+    }
+
+    public PacketFormat getFormat() {
+        return mFormat;
+    }
+
+    /**
+     * @return Number of flex or IMU packets dropped because the other half of their sample was
+     *         lost (version 2 only).
+     */
+    public long getUnpairedPackets() {
+        return mUnpairedPackets;
+    }
+
+    @Override
+    public int decode(ByteBuffer packet, SampleSink sink) {
+        int start = packet.position();
+        int end = packet.limit();
+        if (end - start < 1) {
+            return INVALID_PACKET;
+        }
+
+        byte packetId = packet.get(start);
+        if (packetId == PACKET_ID_FLEX) {
+            return decodeFlex(packet, start, end, sink);
+        } else if (packetId == PACKET_ID_IMU) {
+            return decodeImu(packet, start, end, sink);
+        } else if (packetId == PacketFormat.PACKET_ID_DESCRIPTOR) {
+            PacketFormat format = PacketFormat.parse(packet);
+            if (format == null) {
+                return INVALID_PACKET;
+            }
+            mFormat = format;
+            mPendingTimestamp = -1;
+            return 0;
+        }
+        return INVALID_PACKET;
+    }
+
+    private int decodeFlex(ByteBuffer packet, int start, int end, SampleSink sink) {
+        boolean legacy = !mFormat.isImuTimestamped();
+        if (end - start < (legacy ? MIN_LEGACY_FLEX_PACKET_SIZE : mFormat.getFlexPacketSize())) {
+            return INVALID_PACKET;
+        }
+        if (!legacy && mPendingTimestamp >= 0) {
+            // The IMU packet of the previous sample was lost
+            mUnpairedPackets++;
+        }
+
+        long timestamp = packet.getInt(start + 1) & 0xFFFFFFFFL;
+        readChannels(packet, start + 5, end, 0, PacketFormat.FLEX_CHANNELS);
+        // Starts the sample; a sample that was never completed is overwritten
+        sink.onFlex(timestamp, mValues[0], mValues[1], mValues[2], mValues[3], mValues[4]);
+        mPendingTimestamp = (int) (timestamp & 0xFF);
+        return 0;
+    }
+
+    private int decodeImu(ByteBuffer packet, int start, int end, SampleSink sink) {
+        if (end - start < mFormat.getImuPacketSize()) {
+            return INVALID_PACKET;
+        }
+
+        int offset = start + 1;
+        if (mFormat.isImuTimestamped()) {
+            int timestamp = packet.get(offset++) & 0xFF;
+            if (timestamp != mPendingTimestamp) {
+                // The flex packet of this sample was lost
+                mUnpairedPackets++;
+                return 0;
+            }
+        }
+        mPendingTimestamp = -1;
+
+        readChannels(packet, offset, end, PacketFormat.FLEX_CHANNELS, PacketFormat.CHANNEL_COUNT);
+        sink.onImu(mValues[5], mValues[6], mValues[7], mValues[8], mValues[9], mValues[10],
+                mValues[11], mValues[12], mValues[13]);
+        sink.onSampleComplete();
+        return 1;
+    }
+
+    /**
+     * Reads the channels from first (inclusive) to last (exclusive) into mValues. Channels the
+     * format does not send, or that do not fit in the packet, are 0.
+     */
+    private void readChannels(ByteBuffer packet, int offset, int end, int first, int last) {
+        for (int channel = first; channel < last; channel++) {
+            if (mFormat.hasChannel(channel) && offset + 2 <= end) {
+                mValues[channel] = packet.getShort(offset) & 0xFFFF;
+                offset += 2;
+            } else {
+                mValues[channel] = 0;
+            }
+        }
+    }
+}
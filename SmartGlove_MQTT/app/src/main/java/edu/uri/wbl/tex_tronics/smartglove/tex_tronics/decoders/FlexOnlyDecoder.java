@@ -0,0 +1,63 @@
+package edu.uri.wbl.tex_tronics.smartglove.tex_tronics.decoders;
+
+import java.nio.ByteBuffer;
+
+import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.enums.ExerciseMode;
+
+/**
+ * Flex Only wire format. A packet holds as many samples as fit in the negotiated payload, each
+ * sample being 6 bytes: timestamp (2), thumb (2), index (2).
+ */
+
+public class FlexOnlyDecoder implements PacketDecoder {
+    /**
+     * Number of bytes per sample.
+     */
+    public static final int SAMPLE_SIZE = 6;
+
+    /**
+     * Sampling period of the Flex Only firmware (DATA_REFRESH_RATE_MS).
+     */
+    private static final int SAMPLE_PERIOD_MS = 8;
+
+    @Override
+    public ExerciseMode getExerciseMode() {
+        return ExerciseMode.FLEX_ONLY;
+    }
+
+    @Override
+    public int getTimestampBits() {
+        return 16;
+    }
+
+    @Override
+    public int getSamplePeriodMs() {
+        return SAMPLE_PERIOD_MS;
+    }
+
+    @Override
+    public void reset() {
+        // Nothing is negotiated in this format
+    }
+
+    @Override
+    public int decode(ByteBuffer packet, SampleSink sink) {
+        int start = packet.position();
+        int end = packet.limit();
+        if (end - start < SAMPLE_SIZE) {
+            return INVALID_PACKET;
+        }
+
+        int samples = 0;
+        for (int offset = start; offset + SAMPLE_SIZE <= end; offset += SAMPLE_SIZE) {
+            long timestamp = packet.getShort(offset) & 0xFFFF;
+            int thumb = packet.getShort(offset + 2) & 0xFFFF;
+            int index = packet.getShort(offset + 4) & 0xFFFF;
+
+            sink.onFlex(timestamp, thumb, index, 0, 0, 0);
+            sink.onSampleComplete();
+            samples++;
+        }
+        return samples;
+    }
+}
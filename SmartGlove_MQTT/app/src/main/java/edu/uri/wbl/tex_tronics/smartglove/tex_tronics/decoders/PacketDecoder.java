@@ -0,0 +1,48 @@
+package edu.uri.wbl.tex_tronics.smartglove.tex_tronics.decoders;
+
+import java.nio.ByteBuffer;
+
+import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.enums.ExerciseMode;
+
+/**
+ * Decodes the packets a device sends in one ExerciseMode. There is one implementation per wire
+ * format; use PacketDecoders.create(ExerciseMode) to get one.
+ *
+ * A decoder may keep what it has learned about the device's wire format (see PacketFormat), so each
+ * device needs its own instance. Sample state belongs to the SampleSink. Implementations must not
+ * allocate while decoding data packets, as they are called for every packet received.
+ */
+
+public interface PacketDecoder {
+    /**
+     * Returned by decode() when the packet does not match the wire format.
+     */
+    int INVALID_PACKET = -1;
+
+    ExerciseMode getExerciseMode();
+
+    /**
+     * @return Width (in bits) of the millisecond timestamp counter the device sends. The counter
+     *         wraps around once it overflows.
+     */
+    int getTimestampBits();
+
+    /**
+     * @return Time (in milliseconds) between two samples taken by the device.
+     */
+    int getSamplePeriodMs();
+
+    /**
+     * Forgets anything learned from the device's packets. Called before streaming starts on a new
+     * connection.
+     */
+    void reset();
+
+    /**
+     * Decodes the bytes between the buffer's position and limit. Multi-byte values are big-endian.
+     * The buffer's position and limit are left unchanged.
+     *
+     * @return The number of samples completed by this packet, or INVALID_PACKET.
+     */
+    int decode(ByteBuffer packet, SampleSink sink);
+}
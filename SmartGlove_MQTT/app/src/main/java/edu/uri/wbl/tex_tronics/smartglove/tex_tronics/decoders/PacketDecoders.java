@@ -0,0 +1,31 @@
+package edu.uri.wbl.tex_tronics.smartglove.tex_tronics.decoders;
+
+import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.enums.ExerciseMode;
+
+/**
+ * Creates the PacketDecoder for an ExerciseMode. Decoders keep the wire format negotiated with their
+ * device, so every device gets its own instance.
+ */
+
+public final class PacketDecoders {
+    private PacketDecoders() {
+
+    }
+
+    /**
+     * @return A new decoder for the given mode, or null if the mode has no wire format.
+     */
+    public static PacketDecoder create(ExerciseMode exerciseMode) {
+        if (exerciseMode == null) {
+            return null;
+        }
+        switch (exerciseMode) {
+            case FLEX_IMU:
+                return new FlexImuDecoder();
+            case FLEX_ONLY:
+                return new FlexOnlyDecoder();
+            default:
+                return null;
+        }
+    }
+}
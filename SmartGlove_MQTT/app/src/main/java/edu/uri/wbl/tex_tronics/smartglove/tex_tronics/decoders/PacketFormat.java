@@ -0,0 +1,139 @@
+package edu.uri.wbl.tex_tronics.smartglove.tex_tronics.decoders;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Version and channel map of the Flex + IMU wire format. The app asks for a version by writing
+ * COMMAND_SET_FORMAT to the device, and the device answers with a format descriptor:
+ *
+ * Descriptor - 0xF0 (1); Version (1); Channel Map (2)
+ *
+ * Bit n of the channel map is set if channel n is sent. Channels are numbered in SampleSink order:
+ * 0 - 4 are thumb to pinky (sent in the flex packet), 5 - 13 are acc x/y/z, gyr x/y/z and mag x/y/z
+ * (sent in the IMU packet). Each channel sent is 2 bytes, in channel order.
+ *
+ * Version 1 is what firmware that does not understand COMMAND_SET_FORMAT sends; it never sends a
+ * descriptor. Version 2 adds the low byte of the sample's timestamp to the IMU packet so it can be
+ * paired with its flex packet.
+ */
+
+public final class PacketFormat {
+    /**
+     * The packet ID (first byte) of a format descriptor.
+     */
+    public static final byte PACKET_ID_DESCRIPTOR = (byte) 0xF0;
+
+    public static final int VERSION_1 = 1;
+    public static final int VERSION_2 = 2;
+
+    /**
+     * The newest version this app can decode.
+     */
+    public static final int LATEST_VERSION = VERSION_2;
+
+    public static final int FLEX_CHANNELS = 5;
+    public static final int CHANNEL_COUNT = 14;
+
+    public static final int DESCRIPTOR_SIZE = 4;
+
+    private static final int ALL_CHANNELS = (1 << CHANNEL_COUNT) - 1;
+
+    /**
+     * The format used until the device sends a descriptor. Version 1 firmware fills the flex packet
+     * with all five fingers (or zeros) and always sends the IMU readings.
+     */
+    public static final PacketFormat LEGACY = new PacketFormat(VERSION_1, ALL_CHANNELS);
+
+    private final int mVersion;
+    private final int mChannelMap;
+    private final int mFlexPacketSize;
+    private final int mImuPacketSize;
+
+    public PacketFormat(int version, int channelMap) {
+        if (version < VERSION_1 || version > LATEST_VERSION) {
+            throw new IllegalArgumentException("Unsupported Format Version " + version);
+        }
+        if ((channelMap & ~ALL_CHANNELS) != 0) {
+            throw new IllegalArgumentException("Unknown Channels in Map " + Integer.toHexString(channelMap));
+        }
+        mVersion = version;
+        mChannelMap = channelMap;
+
+        int flexChannels = Integer.bitCount(channelMap & ((1 << FLEX_CHANNELS) - 1));
+        int imuChannels = Integer.bitCount(channelMap) - flexChannels;
+        mFlexPacketSize = 5 + flexChannels * 2;
+        mImuPacketSize = (isImuTimestamped() ? 2 : 1) + imuChannels * 2;
+    }
+
+    /**
+     * Reads the descriptor between the buffer's position and limit, leaving both unchanged.
+     *
+     * @return The format, or null if the packet is not a descriptor or describes a format this app
+     *         cannot decode.
+     */
+    public static PacketFormat parse(ByteBuffer packet) {
+        int start = packet.position();
+        if (packet.limit() - start < DESCRIPTOR_SIZE || packet.get(start) != PACKET_ID_DESCRIPTOR) {
+            return null;
+        }
+        int version = packet.get(start + 1) & 0xFF;
+        int channelMap = packet.getShort(start + 2) & 0xFFFF;
+        if (version < VERSION_1 || version > LATEST_VERSION || (channelMap & ~ALL_CHANNELS) != 0) {
+            return null;
+        }
+        return new PacketFormat(version, channelMap);
+    }
+
+    public int getVersion() {
+        return mVersion;
+    }
+
+    public int getChannelMap() {
+        return mChannelMap;
+    }
+
+    public boolean hasChannel(int channel) {
+        return (mChannelMap & (1 << channel)) != 0;
+    }
+
+    /**
+     * @return true if the IMU packet carries the low byte of the sample's timestamp.
+     */
+    public boolean isImuTimestamped() {
+        return mVersion >= VERSION_2;
+    }
+
+    /**
+     * @return Bytes needed for the flex packet: ID, timestamp and the flex channels sent.
+     */
+    public int getFlexPacketSize() {
+        return mFlexPacketSize;
+    }
+
+    /**
+     * @return Bytes needed for the IMU packet: ID, timestamp byte (version 2) and the IMU channels
+     *         sent.
+     */
+    public int getImuPacketSize() {
+        return mImuPacketSize;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof PacketFormat)) {
+            return false;
+        }
+        PacketFormat other = (PacketFormat) o;
+        return mVersion == other.mVersion && mChannelMap == other.mChannelMap;
+    }
+
+    @Override
+    public int hashCode() {
+        return mVersion * 31 + mChannelMap;
+    }
+
+    @Override
+    public String toString() {
+        return "v" + mVersion + " (channels " + Integer.toHexString(mChannelMap) + ")";
+    }
+}
@@ -0,0 +1,27 @@
+package edu.uri.wbl.tex_tronics.smartglove.tex_tronics.decoders;
+
+/**
+ * Receives the values decoded by a PacketDecoder. Values are passed as primitives so decoding a
+ * packet never allocates.
+ *
+ * A sample may be spread over several packets (Flex + IMU sends the flex and IMU readings in two
+ * packets), so the values of a sample are reported as they arrive and onSampleComplete() is called
+ * once every value of the sample has been reported.
+ */
+
+public interface SampleSink {
+    /**
+     * Flex sensor readings. Fingers the wire format does not carry are reported as 0.
+     */
+    void onFlex(long timestamp, int thumb, int index, int middle, int ring, int pinky);
+
+    /**
+     * Accelerometer, gyroscope and magnetometer readings.
+     */
+    void onImu(int accX, int accY, int accZ, int gyrX, int gyrY, int gyrZ, int magX, int magY, int magZ);
+
+    /**
+     * Every value of the current sample has been reported.
+     */
+    void onSampleComplete();
+}
@@ -1,7 +1,6 @@
 package edu.uri.wbl.tex_tronics.smartglove.tex_tronics.devices;
 
 import android.bluetooth.BluetoothAdapter;
-import android.content.Context;
 import android.support.annotation.NonNull;
 
 import java.io.File;
@@ -11,9 +10,16 @@ import java.util.Calendar;
 import java.util.Date;
 import java.util.Locale;
 
-import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.data_types.TexTronicsData;
+import edu.uri.wbl.tex_tronics.smartglove.io.SessionFileWriter;
+import edu.uri.wbl.tex_tronics.smartglove.io.SessionHeader;
+import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.ClockAligner;
+import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.StreamIntegrityTracker;
+import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.data_types.ChannelSchema;
+import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.data_types.SampleBlock;
+import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.decoders.PacketDecoder;
+import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.decoders.PacketDecoders;
+import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.enums.DeviceType;
 import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.enums.ExerciseMode;
-import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.exceptions.IllegalDeviceType;
 import edu.uri.wbl.tex_tronics.smartglove.visualize.Choice;
 
 /**
@@ -21,44 +27,105 @@ import edu.uri.wbl.tex_tronics.smartglove.visualize.Choice;
  */
 
 public abstract class TexTronicsDevice {
+    /**
+     * Largest number of samples decoded before they are handed to the sinks. A block is handed off
+     * at the end of every drain, or earlier once the next packet might not fit.
+     */
+    private static final int SAMPLE_BLOCK_CAPACITY = 1024;
+
     protected final String DEVICE_ADDRESS;
     protected final ExerciseMode EXERCISE_MODE;
+    protected final DeviceType DEVICE_TYPE;
     protected final Choice CHOICE;
     protected final String EXERCISE_ID;
     protected final String ROUTINE_ID;
 
-    protected String mHeader;
-    protected File mCsvFile;
+    /**
+     * Binary session file (SessionHeader.FILE_EXTENSION) the samples are logged to.
+     */
+    protected File mLogFile;
+
+    /**
+     * Appends to mLogFile while the session is being logged. Only used on the pipeline thread.
+     */
+    protected SessionFileWriter mLogWriter;
+
+    /**
+     * Where the log's journal is kept, or null to log without one.
+     */
+    protected File mJournalDirectory;
     protected String mDate;
 
     protected String mDeviceAddress;
 
-    public TexTronicsDevice(@NonNull String deviceAddress, @NonNull ExerciseMode exerciseMode, @NonNull Choice choice, String exerciseID, String routineID) throws IllegalArgumentException {
+    /**
+     * Loss and jitter statistics of the samples received during this session.
+     */
+    protected final StreamIntegrityTracker mStreamIntegrity;
+
+    /**
+     * Decodes this device's packets, keeping the wire format negotiated with it. Null if the
+     * exercise mode has no wire format. Only used on the pipeline thread.
+     */
+    protected final PacketDecoder mPacketDecoder;
+
+    /**
+     * Maps this device's clock onto the phone's clock, so its samples can be merged with those of
+     * the other devices in the routine.
+     */
+    protected final ClockAligner mClockAligner = new ClockAligner();
+
+    protected final SampleBlock mSampleBlock = new SampleBlock(SAMPLE_BLOCK_CAPACITY);
+
+    /**
+     * The channels this device records in its exercise mode.
+     */
+    protected final ChannelSchema mChannelSchema;
+
+    public TexTronicsDevice(@NonNull String deviceAddress, @NonNull DeviceType deviceType, @NonNull ExerciseMode exerciseMode, @NonNull Choice choice, String exerciseID, String routineID) throws IllegalArgumentException {
         // Validate Bluetooth Device Address Provided
         if(!BluetoothAdapter.checkBluetoothAddress(deviceAddress)) {
             throw new IllegalArgumentException("Invalid Device Address");
         }
 
+        // Reject a mode the device cannot record now rather than on every sample
+        mChannelSchema = ChannelSchema.get(deviceType, exerciseMode);
+        if (mChannelSchema == null) {
+            throw new IllegalArgumentException("Exercise Mode " + exerciseMode + " not supported by " + deviceType);
+        }
+
         // Initialize Constant Data Members
         DEVICE_ADDRESS = deviceAddress;
         EXERCISE_MODE = exerciseMode;
+        DEVICE_TYPE = deviceType;
         CHOICE = choice;
         EXERCISE_ID = exerciseID;
         ROUTINE_ID = routineID;
 
-        // Initialize CSV File to NULL
-        mCsvFile = null;
+        // Initialize Log File to NULL
+        mLogFile = null;
+
+        mPacketDecoder = PacketDecoders.create(exerciseMode);
+        mStreamIntegrity = mPacketDecoder == null ? null : new StreamIntegrityTracker(mPacketDecoder.getTimestampBits(), mPacketDecoder.getSamplePeriodMs());
 
         Date date = Calendar.getInstance().getTime();
         mDate = new SimpleDateFormat("MM-dd-yyyy kk:mm:ss:SSS", Locale.US).format(date);
     }
 
-    public void setCsvFile(File file) {
-        mCsvFile = file;
+    public void setLogFile(File file) {
+        mLogFile = file;
+    }
+
+    public File getLogFile() {
+        return mLogFile;
     }
 
-    public File getCsvFile() {
-        return mCsvFile;
+    /**
+     * Keeps the samples not yet written to the log file in a journal in the directory, so they
+     * can be recovered if the app is killed. Takes effect when the log is next opened.
+     */
+    public void setJournalDirectory(File directory) {
+        mJournalDirectory = directory;
     }
 
     public String getDeviceAddress(){
@@ -73,140 +140,78 @@ public abstract class TexTronicsDevice {
         return EXERCISE_MODE;
     }
 
-    public Choice getChoice() {
-        return CHOICE;
+    public DeviceType getDeviceType() {
+        return DEVICE_TYPE;
     }
 
-    public String getExerciseID() {return EXERCISE_ID;}
-
-    public String getRoutineID() {return ROUTINE_ID;}
-
-    public void logData(Context context) throws IOException {
-        if(mCsvFile == null) {
-            throw new IOException("CSV File Must be Specified");
-        }
-    }
-
-    public abstract void clear();
-
-    public long getTimestamp() throws IllegalDeviceType {
-        throw new IllegalDeviceType("Illegal Device Type");
-    }
-
-    public void setTimestamp(long timestamp) throws IllegalDeviceType {
-        throw new IllegalDeviceType("Illegal Device Type");
-    }
-
-    public int getThumbFlex() throws IllegalDeviceType {
-        throw new IllegalDeviceType("Illegal Device Type");
-    }
-
-    public void setThumbFlex(int thumbFlex) throws IllegalDeviceType {
-        throw new IllegalDeviceType("Illegal Device Type");
+    public ChannelSchema getChannelSchema() {
+        return mChannelSchema;
     }
 
-
-    public int getIndexFlex() throws IllegalDeviceType {
-        throw new IllegalDeviceType("Illegal Device Type");
-    }
-
-    public void setIndexFlex(int indexFlex) throws IllegalDeviceType {
-        throw new IllegalDeviceType("Illegal Device Type");
-    }
-
-    public int getMiddleFlex() throws IllegalDeviceType {
-        throw new IllegalDeviceType("Illegal Device Type");
-    }
-
-    public void setMiddleFlex(int middleFlex) throws IllegalDeviceType {
-        throw new IllegalDeviceType("Illegal Device Type");
-    }
-
-    public int getRingFlex() throws IllegalDeviceType {
-        throw new IllegalDeviceType("Illegal Device Type");
-    }
-
-    public void setRingFlex(int ringFlex) throws IllegalDeviceType {
-        throw new IllegalDeviceType("Illegal Device Type");
-    }
-
-    public int getPinkyFlex() throws IllegalDeviceType {
-        throw new IllegalDeviceType("Illegal Device Type");
-    }
-
-    public void setPinkyFlex(int pinkyFlex) throws IllegalDeviceType {
-        throw new IllegalDeviceType("Illegal Device Type");
-    }
-
-    public int getAccX() throws IllegalDeviceType {
-        throw new IllegalDeviceType("Illegal Device Type");
-    }
-
-    public void setAccX(int accX) throws IllegalDeviceType {
-        throw new IllegalDeviceType("Illegal Device Type");
-    }
-
-    public int getAccy() throws IllegalDeviceType {
-        throw new IllegalDeviceType("Illegal Device Type");
-    }
-
-    public void setAccY(int accY) throws IllegalDeviceType {
-        throw new IllegalDeviceType("Illegal Device Type");
-    }
-
-    public int getAccZ() throws IllegalDeviceType {
-        throw new IllegalDeviceType("Illegal Device Type");
-    }
-
-    public void setAccZ(int accZ) throws IllegalDeviceType {
-        throw new IllegalDeviceType("Illegal Device Type");
-    }
-
-    public int getGyrX() throws IllegalDeviceType {
-        throw new IllegalDeviceType("Illegal Device Type");
-    }
-
-    public void setGyrX(int gyrX) throws IllegalDeviceType {
-        throw new IllegalDeviceType("Illegal Device Type");
-    }
-
-    public int getGyrY() throws IllegalDeviceType {
-        throw new IllegalDeviceType("Illegal Device Type");
-    }
-
-    public void setGyrY(int gyrY) throws IllegalDeviceType {
-        throw new IllegalDeviceType("Illegal Device Type");
+    public Choice getChoice() {
+        return CHOICE;
     }
 
-    public int getGyrZ() throws IllegalDeviceType {
-        throw new IllegalDeviceType("Illegal Device Type");
-    }
+    public String getExerciseID() {return EXERCISE_ID;}
 
-    public void setGyrZ(int gyrZ) throws IllegalDeviceType {
-        throw new IllegalDeviceType("Illegal Device Type");
-    }
+    public String getRoutineID() {return ROUTINE_ID;}
 
-    public int getMagX() throws IllegalDeviceType {
-        throw new IllegalDeviceType("Illegal Device Type");
+    public PacketDecoder getPacketDecoder() {
+        return mPacketDecoder;
     }
 
-    public void setMagX(int magX) throws IllegalDeviceType {
-        throw new IllegalDeviceType("Illegal Device Type");
+    /**
+     * @return The stream integrity statistics of this session, or null if the exercise mode has no
+     *         wire format.
+     */
+    public StreamIntegrityTracker getStreamIntegrity() {
+        return mStreamIntegrity;
     }
 
-    public int getMagY() throws IllegalDeviceType {
-        throw new IllegalDeviceType("Illegal Device Type");
+    public ClockAligner getClockAligner() {
+        return mClockAligner;
     }
 
-    public void setMagY(int magY) throws IllegalDeviceType {
-        throw new IllegalDeviceType("Illegal Device Type");
+    /**
+     * @return The block the pipeline decodes this device's packets into.
+     */
+    public SampleBlock getSampleBlock() {
+        return mSampleBlock;
     }
 
-    public int getMagZ() throws IllegalDeviceType {
-        throw new IllegalDeviceType("Illegal Device Type");
+    /**
+     * @return The header of this device's session file.
+     */
+    public SessionHeader getSessionHeader() {
+        return new SessionHeader(DEVICE_ADDRESS, DEVICE_TYPE, EXERCISE_MODE, CHOICE, EXERCISE_ID, ROUTINE_ID, mDate,
+                mChannelSchema.getChannels(), SessionHeader.DEFAULT_SAMPLES_PER_BLOCK);
     }
 
-    public void setMagZ(int magZ) throws IllegalDeviceType {
-        throw new IllegalDeviceType("Illegal Device Type");
+    /**
+     * Appends every sample in the block to the session file, opening it with the first block. Only
+     * called from the pipeline thread.
+     */
+    public void logData(SampleBlock block) throws IOException {
+        if(mLogFile == null) {
+            throw new IOException("Log File Must be Specified");
+        }
+        if (mLogWriter == null || !mLogWriter.isOpen()) {
+            mLogWriter = new SessionFileWriter(mLogFile, getSessionHeader(), mJournalDirectory);
+        }
+        mLogWriter.append(block);
+    }
+
+    /**
+     * Writes the samples still buffered and the block index to the session file and closes it.
+     * Logging again reopens the file and continues it.
+     *
+     * @return The writer, for its statistics, or null if nothing was logged.
+     */
+    public SessionFileWriter closeLog() throws IOException {
+        SessionFileWriter logWriter = mLogWriter;
+        if (logWriter != null) {
+            logWriter.close();
+        }
+        return logWriter;
     }
-}
\ No newline at end of file
+}
@@ -6,6 +6,7 @@ package edu.uri.wbl.tex_tronics.smartglove.tex_tronics.enums;
 
 public enum Action {
     connect ("uri.wbl.tex_tronics.ble.connect"),
+    connectAll ("uri.wbl.tex_tronics.ble.connect_all"),
     disconnect ("uri.wbl.tex_tronics.ble.disconnect"),
     start ("uri.wbl.tex_tronics.ble.start"),
     stop ("uri.wbl.tex_tronics.ble.stop");
@@ -20,6 +21,8 @@ public enum Action {
         switch (action) {
             case "uri.wbl.tex_tronics.ble.connect":
                 return connect;
+            case "uri.wbl.tex_tronics.ble.connect_all":
+                return connectAll;
             case "uri.wbl.tex_tronics.ble.disconnect":
                 return disconnect;
             case "uri.wbl.tex_tronics.ble.start":
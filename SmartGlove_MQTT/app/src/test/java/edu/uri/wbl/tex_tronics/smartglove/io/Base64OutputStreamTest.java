@@ -0,0 +1,44 @@
+package edu.uri.wbl.tex_tronics.smartglove.io;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Base64;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the stream writes the same text as the JDK's encoder, whatever the length of the
+ * data and however it is written.
+ */
+public class Base64OutputStreamTest {
+    @Test
+    public void matchesJdkEncoder() throws Exception {
+        Random random = new Random(5);
+        for (int length : new int[] {0, 1, 2, 3, 4, 5, 767, 768, 769, 5000}) {
+            byte[] data = new byte[length];
+            random.nextBytes(data);
+
+            ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+            Base64OutputStream output = new Base64OutputStream(encoded);
+            // Single bytes and runs of different sizes
+            int offset = 0;
+            int run = 0;
+            while (offset < length) {
+                if (run == 0) {
+                    output.write(data[offset++]);
+                } else {
+                    int count = Math.min(run, length - offset);
+                    output.write(data, offset, count);
+                    offset += count;
+                }
+                run = (run + 7) % 40;
+            }
+            output.close();
+            output.close();
+
+            assertEquals(Base64.getEncoder().encodeToString(data), encoded.toString("US-ASCII"));
+        }
+    }
+}
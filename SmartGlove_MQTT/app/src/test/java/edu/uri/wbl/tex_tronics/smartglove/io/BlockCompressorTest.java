@@ -0,0 +1,99 @@
+package edu.uri.wbl.tex_tronics.smartglove.io;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that both codecs give back every byte of a session, across block boundaries and for
+ * data that does not compress, and that corrupt uploads are rejected rather than misread.
+ */
+public class BlockCompressorTest {
+    private static final String[] CODECS = {DeflateCodec.NAME, Lz4Codec.NAME};
+
+    @Test
+    public void roundTripsSessions() throws Exception {
+        byte[] session = CompressionBenchmark.createRecording(2000, 7);
+        byte[] random = new byte[40000];
+        new Random(3).nextBytes(random);
+        byte[] repeated = new byte[70000];
+        Arrays.fill(repeated, (byte) ',');
+
+        for (String name : CODECS) {
+            for (int blockSize : new int[] {4096, BlockCompressor.DEFAULT_BLOCK_SIZE}) {
+                BlockCompressor compressor = new BlockCompressor(BlockCompressor.createCodec(name), blockSize);
+                byte[] compressed = compressor.compress(session);
+                assertTrue(name, compressed.length * 3 < session.length * 2);
+                assertArrayEquals(name, session, compressor.decompress(compressed));
+
+                assertArrayEquals(name, random, compressor.decompress(compressor.compress(random)));
+                assertArrayEquals(name, repeated, compressor.decompress(compressor.compress(repeated)));
+                assertArrayEquals(name, new byte[0], compressor.decompress(compressor.compress(new byte[0])));
+                byte[] tiny = {'1', '\n'};
+                assertArrayEquals(name, tiny, compressor.decompress(compressor.compress(tiny)));
+            }
+        }
+    }
+
+    @Test
+    public void streamsSessionFiles() throws Exception {
+        byte[] session = CompressionBenchmark.createRecording(3000, 9);
+        File file = File.createTempFile("block_compressor_", SessionHeader.FILE_EXTENSION);
+        file.deleteOnExit();
+        if (!file.delete()) {
+            throw new IOException("Could not replace " + file);
+        }
+        CompressionBenchmark.createSessionFile(file, 3000, 9);
+
+        BlockCompressor compressor = new BlockCompressor(new DeflateCodec(), 8192);
+        CsvInputStream csv = new CsvInputStream(file);
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        assertEquals(session.length, compressor.compress(csv, compressed));
+        csv.close();
+        assertArrayEquals(compressor.compress(session), compressed.toByteArray());
+
+        ByteArrayOutputStream decompressed = new ByteArrayOutputStream();
+        assertEquals(session.length, compressor.decompress(new ByteArrayInputStream(compressed.toByteArray()), decompressed));
+        assertArrayEquals(session, decompressed.toByteArray());
+    }
+
+    @Test
+    public void rejectsCorruptData() throws Exception {
+        byte[] session = CompressionBenchmark.createRecording(500, 11);
+        for (String name : CODECS) {
+            BlockCompressor compressor = new BlockCompressor(BlockCompressor.createCodec(name));
+            byte[] compressed = compressor.compress(session);
+
+            try {
+                compressor.decompress(Arrays.copyOf(compressed, compressed.length - 5));
+                fail(name + " read a truncated upload");
+            } catch (IOException e) {
+                // Expected
+            }
+
+            // A wrong length before compression
+            byte[] corrupt = compressed.clone();
+            corrupt[3]++;
+            try {
+                compressor.decompress(corrupt);
+                fail(name + " read a block of the wrong length");
+            } catch (IOException e) {
+                // Expected
+            }
+        }
+
+        try {
+            BlockCompressor.createCodec("zstd");
+            fail("Created an unknown codec");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package edu.uri.wbl.tex_tronics.smartglove.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.data_types.Channel;
+import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.data_types.ChannelSchema;
+import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.enums.DeviceType;
+import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.enums.ExerciseMode;
+
+/**
+ * Compares the BlockCodecs on session CSVs as they are uploaded: compression ratio, and the CPU
+ * time to compress (on the phone) and decompress (on the fog node).
+ *
+ * Run main() with recordings to measure, as CSV files or binary session files (exported to CSV
+ * first), e.g. exported from the fog node's database. Without arguments it measures a synthetic
+ * Flex + IMU recording: slow finger movements and IMU readings, each with sensor noise.
+ */
+
+public class CompressionBenchmark {
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+    private static final String DEVICE_ADDRESS = "D9:8C:12:12:BE:74";
+
+    private final byte[] mData;
+    private int mRounds = 10;
+
+    public CompressionBenchmark(byte[] data) {
+        mData = data;
+    }
+
+    /**
+     * Number of times each codec compresses and decompresses the data; the fastest round counts.
+     */
+    public CompressionBenchmark setRounds(int rounds) {
+        mRounds = rounds;
+        return this;
+    }
+
+    public Result run(BlockCodec codec) throws IOException {
+        BlockCompressor compressor = new BlockCompressor(codec);
+        Result result = new Result(codec.getName(), mData.length);
+        result.mCompressNanos = Long.MAX_VALUE;
+        result.mDecompressNanos = Long.MAX_VALUE;
+        for (int round = 0; round < mRounds; round++) {
+            long start = System.nanoTime();
+            byte[] compressed = compressor.compress(mData);
+            result.mCompressNanos = Math.min(result.mCompressNanos, System.nanoTime() - start);
+            result.mCompressedSize = compressed.length;
+
+            start = System.nanoTime();
+            byte[] decompressed = compressor.decompress(compressed);
+            result.mDecompressNanos = Math.min(result.mDecompressNanos, System.nanoTime() - start);
+            if (decompressed.length != mData.length) {
+                throw new IOException(codec.getName() + " did not Round Trip");
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return A session of one Flex + IMU glove, as the CSV uploaded for it.
+     */
+    public static byte[] createRecording(int samples, long seed) throws IOException {
+        File sessionFile = File.createTempFile("compression_", SessionHeader.FILE_EXTENSION);
+        sessionFile.deleteOnExit();
+        if (!sessionFile.delete()) {
+            throw new IOException("Could not replace " + sessionFile);
+        }
+        createSessionFile(sessionFile, samples, seed);
+
+        byte[] csv = new CsvExporter().toCsv(sessionFile).getBytes(US_ASCII);
+        if (!sessionFile.delete()) {
+            sessionFile.deleteOnExit();
+        }
+        return csv;
+    }
+
+    /**
+     * Records a session of one Flex + IMU glove: slow finger movements and IMU readings, each with
+     * sensor noise. The same seed records the same session.
+     */
+    public static void createSessionFile(File sessionFile, int samples, long seed) throws IOException {
+        Channel[] channels = ChannelSchema.get(DeviceType.SMART_GLOVE, ExerciseMode.FLEX_IMU).getChannels();
+        Random random = new Random(seed);
+        SessionFileWriter writer = new SessionFileWriter(sessionFile, new SessionHeader(DEVICE_ADDRESS,
+                DeviceType.SMART_GLOVE, ExerciseMode.FLEX_IMU, null, null, null, "", channels,
+                SessionHeader.DEFAULT_SAMPLES_PER_BLOCK));
+        int[] values = new int[channels.length];
+        long timestamp = 0;
+        for (int sample = 0; sample < samples; sample++) {
+            for (int channel = 0; channel < channels.length; channel++) {
+                if (channel < 5) {
+                    // Fingers bend and straighten every few seconds, each at its own pace
+                    double phase = 2 * Math.PI * sample / (150 + 20 * channel);
+                    values[channel] = (int) (500 + 250 * Math.sin(phase)) + random.nextInt(7) - 3;
+                } else {
+                    values[channel] = Math.max(-32768, Math.min(32767,
+                            values[channel] + (int) (random.nextGaussian() * 40)));
+                }
+            }
+            writer.append(timestamp, values);
+            timestamp = (timestamp + 20 + random.nextInt(3) - 1) & 0xFFFF;
+        }
+        writer.close();
+    }
+
+    private static byte[] readRecording(File file) throws IOException {
+        if (file.getName().endsWith(SessionHeader.FILE_EXTENSION)) {
+            return new CsvExporter().toCsv(file).getBytes(US_ASCII);
+        }
+        return Files.readAllBytes(file.toPath());
+    }
+
+    public static class Result {
+        private final String mCodec;
+        private final long mRawSize;
+        private long mCompressedSize;
+        private long mCompressNanos;
+        private long mDecompressNanos;
+
+        private Result(String codec, long rawSize) {
+            mCodec = codec;
+            mRawSize = rawSize;
+        }
+
+        public String getCodec() {
+            return mCodec;
+        }
+
+        public double getRatio() {
+            return mCompressedSize == 0 ? 0 : (double) mRawSize / mCompressedSize;
+        }
+
+        public double getCompressMBps() {
+            return mRawSize * 1000.0 / mCompressNanos;
+        }
+
+        public double getDecompressMBps() {
+            return mRawSize * 1000.0 / mDecompressNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%-8s %9d -> %8d bytes (%.1fx), compress %.1f MB/s (%.2fms), decompress %.1f MB/s",
+                    mCodec, mRawSize, mCompressedSize, getRatio(), getCompressMBps(), mCompressNanos / 1e6,
+                    getDecompressMBps());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<byte[]> recordings = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        for (String arg : args) {
+            recordings.add(readRecording(new File(arg)));
+            names.add(arg);
+        }
+        if (recordings.isEmpty()) {
+            recordings.add(createRecording(60 * 50, 1));
+            names.add("synthetic Flex + IMU, 1 minute");
+        }
+
+        int rounds = Integer.getInteger("rounds", 20);
+        for (int i = 0; i < recordings.size(); i++) {
+            System.out.println(names.get(i));
+            CompressionBenchmark benchmark = new CompressionBenchmark(recordings.get(i)).setRounds(rounds);
+            System.out.println("  " + benchmark.run(new DeflateCodec()));
+            System.out.println("  " + benchmark.run(new DeflateCodec(Deflater.BEST_SPEED)) + " (level 1)");
+            System.out.println("  " + benchmark.run(new Lz4Codec()));
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package edu.uri.wbl.tex_tronics.smartglove.io;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Locale;
+import java.util.Random;
+
+import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.enums.ExerciseMode;
+
+/**
+ * Compares ways of formatting Flex + IMU samples as the CSV lines the session files and uploads
+ * hold: time per line and bytes allocated per line.
+ *
+ * - toString: the original log path. FlexImuData.toString() joined the 15 fields with '+',
+ *   SmartGlove.logData() joined that with the device address and exercise mode, and
+ *   DataLogService encoded each line with getBytes().
+ * - StringBuilder: one reused StringBuilder, copied to bytes a char at a time.
+ * - CsvEncoder: digits written straight into a reused byte buffer behind a precomputed prefix.
+ *
+ * Allocation is measured with HotSpot's per-thread allocation counter; it is reported as -1 on
+ * JVMs without one. Run main() to print the comparison.
+ */
+
+public class CsvEncoderBenchmark {
+    private static final String DEVICE_ADDRESS = "D9:8C:12:12:BE:74";
+    private static final int CHANNELS = 14;
+
+    private final long[] mTimestamps;
+    private final int[][] mValues;
+    private int mRounds = 10;
+    private ByteArrayOutputStream mOutput;
+
+    /**
+     * @param samples Number of samples formatted per round.
+     */
+    public CsvEncoderBenchmark(int samples, long seed) {
+        Random random = new Random(seed);
+        mTimestamps = new long[samples];
+        mValues = new int[samples][CHANNELS];
+        long timestamp = 0;
+        for (int sample = 0; sample < samples; sample++) {
+            mTimestamps[sample] = timestamp;
+            timestamp = (timestamp + 20) & 0xFFFF;
+            for (int channel = 0; channel < CHANNELS; channel++) {
+                mValues[sample][channel] = channel < 5 ? 300 + random.nextInt(500) : random.nextInt(65536) - 32768;
+            }
+        }
+    }
+
+    /**
+     * Number of times each path formats the samples; the fastest round counts.
+     */
+    public CsvEncoderBenchmark setRounds(int rounds) {
+        mRounds = rounds;
+        return this;
+    }
+
+    /**
+     * Stream each path also writes its lines to, so their output can be compared; null (the
+     * default) while benchmarking.
+     */
+    public CsvEncoderBenchmark setOutput(ByteArrayOutputStream output) {
+        mOutput = output;
+        return this;
+    }
+
+    public int getSamples() {
+        return mTimestamps.length;
+    }
+
+    public Result runToString() {
+        final String exerciseMode = ExerciseMode.FLEX_IMU.toString();
+        return run("toString", new Path() {
+            @Override
+            public long format() {
+                long bytes = 0;
+                for (int sample = 0; sample < mTimestamps.length; sample++) {
+                    int[] v = mValues[sample];
+                    String data = mTimestamps[sample] + "," + v[0] + "," + v[1] + "," + v[2] +
+                            "," + v[3] + "," + v[4] + "," + v[5] + "," + v[6] + "," + v[7] +
+                            "," + v[8] + "," + v[9] + "," + v[10] + "," + v[11] + "," + v[12] + "," + v[13];
+                    String line = DEVICE_ADDRESS + "," + exerciseMode + "," + data + "\n";
+                    byte[] lineBytes = line.getBytes();
+                    bytes += lineBytes.length;
+                    if (mOutput != null) {
+                        mOutput.write(lineBytes, 0, lineBytes.length);
+                    }
+                }
+                return bytes;
+            }
+        });
+    }
+
+    public Result runStringBuilder() {
+        final String exerciseMode = ExerciseMode.FLEX_IMU.toString();
+        final StringBuilder line = new StringBuilder(128);
+        final byte[] bytes = new byte[128];
+        return run("StringBuilder", new Path() {
+            @Override
+            public long format() {
+                long total = 0;
+                for (int sample = 0; sample < mTimestamps.length; sample++) {
+                    line.setLength(0);
+                    line.append(DEVICE_ADDRESS).append(',').append(exerciseMode).append(',').append(mTimestamps[sample]);
+                    for (int channel = 0; channel < CHANNELS; channel++) {
+                        line.append(',').append(mValues[sample][channel]);
+                    }
+                    line.append('\n');
+                    int length = line.length();
+                    for (int i = 0; i < length; i++) {
+                        bytes[i] = (byte) line.charAt(i);
+                    }
+                    total += length;
+                    if (mOutput != null) {
+                        mOutput.write(bytes, 0, length);
+                    }
+                }
+                return total;
+            }
+        });
+    }
+
+    public Result runCsvEncoder() {
+        final CsvEncoder encoder = new CsvEncoder(128).setPrefix(DEVICE_ADDRESS, ExerciseMode.FLEX_IMU.toString());
+        return run("CsvEncoder", new Path() {
+            @Override
+            public long format() {
+                long total = 0;
+                for (int sample = 0; sample < mTimestamps.length; sample++) {
+                    encoder.clear();
+                    encoder.beginRow().append(mTimestamps[sample]);
+                    for (int channel = 0; channel < CHANNELS; channel++) {
+                        encoder.comma().append(mValues[sample][channel]);
+                    }
+                    encoder.endRow();
+                    total += encoder.length();
+                    if (mOutput != null) {
+                        mOutput.write(encoder.getBuffer(), 0, encoder.length());
+                    }
+                }
+                return total;
+            }
+        });
+    }
+
+    private Result run(String name, Path path) {
+        Result result = new Result(name, mTimestamps.length);
+        result.mNanos = Long.MAX_VALUE;
+        result.mAllocatedBytes = Long.MAX_VALUE;
+        for (int round = 0; round < mRounds; round++) {
+            long allocated = getAllocatedBytes();
+            long start = System.nanoTime();
+            result.mBytes = path.format();
+            result.mNanos = Math.min(result.mNanos, System.nanoTime() - start);
+            if (allocated >= 0) {
+                result.mAllocatedBytes = Math.min(result.mAllocatedBytes, getAllocatedBytes() - allocated);
+            } else {
+                result.mAllocatedBytes = -1;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return Bytes allocated by this thread so far, or -1 if the JVM does not count them.
+     */
+    private static long getAllocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    private interface Path {
+        /**
+         * @return Bytes of CSV produced.
+         */
+        long format();
+    }
+
+    public static class Result {
+        private final String mName;
+        private final int mSamples;
+        private long mBytes;
+        private long mNanos;
+        private long mAllocatedBytes;
+
+        private Result(String name, int samples) {
+            mName = name;
+            mSamples = samples;
+        }
+
+        public double getNanosPerLine() {
+            return (double) mNanos / mSamples;
+        }
+
+        /**
+         * @return Bytes allocated per line, or -1 if they could not be counted.
+         */
+        public double getAllocatedBytesPerLine() {
+            return mAllocatedBytes < 0 ? -1 : (double) mAllocatedBytes / mSamples;
+        }
+
+        public long getBytes() {
+            return mBytes;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%-13s %7.1f ns/line, %7.1f bytes allocated/line, %d bytes of CSV",
+                    mName, getNanosPerLine(), getAllocatedBytesPerLine(), mBytes);
+        }
+    }
+
+    public static void main(String[] args) {
+        int samples = Integer.getInteger("samples", 100000);
+        CsvEncoderBenchmark benchmark = new CsvEncoderBenchmark(samples, 1).setRounds(Integer.getInteger("rounds", 20));
+        System.out.println(samples + " Flex + IMU lines");
+        System.out.println("  " + benchmark.runToString());
+        System.out.println("  " + benchmark.runStringBuilder());
+        System.out.println("  " + benchmark.runCsvEncoder());
+    }
+}
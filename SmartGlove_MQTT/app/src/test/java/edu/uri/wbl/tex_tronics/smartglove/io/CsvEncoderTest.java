@@ -0,0 +1,76 @@
+package edu.uri.wbl.tex_tronics.smartglove.io;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that CsvEncoder writes the same text as Java's own formatting, and that formatting a row
+ * into a grown buffer allocates nothing.
+ */
+public class CsvEncoderTest {
+    @Test
+    public void formatsNumbers() {
+        long[] values = {0, 1, 9, 10, 99, 100, 65535, -1, -10, Integer.MAX_VALUE, Integer.MIN_VALUE,
+                999999999999999999L, 1000000000000000000L, Long.MAX_VALUE, Long.MIN_VALUE + 1, Long.MIN_VALUE};
+        CsvEncoder encoder = new CsvEncoder(0);
+        StringBuilder expected = new StringBuilder();
+        for (long value : values) {
+            encoder.append(value).comma();
+            expected.append(value).append(',');
+        }
+        Random random = new Random(1);
+        for (int i = 0; i < 10000; i++) {
+            int value = random.nextInt() >> random.nextInt(32);
+            encoder.append(value).comma();
+            expected.append(value).append(',');
+        }
+        assertEquals(expected.toString(), toString(encoder));
+    }
+
+    @Test
+    public void formatsRowsAfterPrefix() {
+        CsvEncoder encoder = new CsvEncoder(16).setPrefix("D9:8C:12:12:BE:74", "Flex + IMU");
+        encoder.append("Device Address,Exercise,Timestamp,Thumb").endRow();
+        encoder.beginRow().append(65535L).comma().append(512).endRow();
+        encoder.beginRow().append(0L).comma().append(-3).endRow();
+        assertEquals("Device Address,Exercise,Timestamp,Thumb\n"
+                + "D9:8C:12:12:BE:74,Flex + IMU,65535,512\n"
+                + "D9:8C:12:12:BE:74,Flex + IMU,0,-3\n", toString(encoder));
+
+        // Clearing keeps the prefix
+        encoder.clear();
+        encoder.beginRow().append(CsvEncoder.toAscii("\u00e9")).endRow();
+        assertEquals("D9:8C:12:12:BE:74,Flex + IMU,?\n", toString(encoder));
+    }
+
+    @Test
+    public void matchesToStringPath() {
+        CsvEncoderBenchmark benchmark = new CsvEncoderBenchmark(1000, 2).setRounds(1);
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        benchmark.setOutput(expected).runToString();
+        ByteArrayOutputStream stringBuilder = new ByteArrayOutputStream();
+        benchmark.setOutput(stringBuilder).runStringBuilder();
+        ByteArrayOutputStream csvEncoder = new ByteArrayOutputStream();
+        benchmark.setOutput(csvEncoder).runCsvEncoder();
+
+        assertTrue(expected.size() > 0);
+        assertArrayEquals(expected.toByteArray(), stringBuilder.toByteArray());
+        assertArrayEquals(expected.toByteArray(), csvEncoder.toByteArray());
+    }
+
+    @Test
+    public void allocatesNothingPerRow() {
+        CsvEncoderBenchmark.Result result = new CsvEncoderBenchmark(20000, 3).setRounds(5).runCsvEncoder();
+        if (result.getAllocatedBytesPerLine() >= 0) {
+            assertTrue(result.getAllocatedBytesPerLine() < 1);
+        }
+    }
+
+    private static String toString(CsvEncoder encoder) {
+        return new String(encoder.getBuffer(), 0, encoder.length());
+    }
+}
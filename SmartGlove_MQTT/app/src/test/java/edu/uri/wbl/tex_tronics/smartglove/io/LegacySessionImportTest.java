@@ -0,0 +1,88 @@
+package edu.uri.wbl.tex_tronics.smartglove.io;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.data_types.Channel;
+import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.enums.DeviceType;
+import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.enums.ExerciseMode;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the import catalogs the session CSVs of the older apps as LEGACY, and only those:
+ * not the user's files, nor sessions already cataloged.
+ */
+public class LegacySessionImportTest {
+    @Test
+    public void catalogsOlderSessionCsvs() throws Exception {
+        File directory = File.createTempFile("legacy_import_", "");
+        if (!directory.delete() || !directory.mkdir()) {
+            throw new IOException("Could not create " + directory);
+        }
+        File glove = createFile(new File(directory, "02/01/2018/10_00_00_000_glove.csv"),
+                "Device Address,Exercise,Timestamp,Thumb,Index,Middle,Ring,Pinky,Acc(x),Acc(y),Acc(z)\n"
+                        + "D9:8C:12:12:BE:74,Finger Tap,0,2000,1800,1900,1700,1600,1,2,3\n"
+                        + "D9:8C:12:12:BE:74,Finger Tap,20,2001,1801,1901,1701,1601,1,2,3\n");
+        File first = createFile(new File(directory, "02/01/2018/09_30_00_000.csv"),
+                "Date,Time,Data\n02/01/2018,09:30:00,2000\n");
+        File merged = createFile(new File(directory, "02/02/2018/11_00_00_000_session.csv"),
+                "Time,Device Address,Thumb\n1517569200000,D9:8C:12:12:BE:74,2000\n");
+        File pending = createFile(new File(directory, "02/02/2018/12_00_00_000_session.csv"),
+                "Time,Device Address,Thumb\n");
+        File notes = createFile(new File(directory, "02/01/2018/notes.csv"), "Notes\n");
+        File other = createFile(new File(directory, "Reports/10_00_00_000.csv"), "Notes\n");
+
+        File catalogFile = File.createTempFile("legacy_import_", ".catalog");
+        catalogFile.deleteOnExit();
+        if (!catalogFile.delete()) {
+            throw new IOException("Could not replace " + catalogFile);
+        }
+        SessionCatalog catalog = new SessionCatalog(catalogFile);
+        SessionHeader header = new SessionHeader("D9:8C:12:12:BE:74", DeviceType.SMART_GLOVE, ExerciseMode.FLEX_IMU,
+                null, "exercise", "routine", "02-02-2018 12:00:00:000", new Channel[] {Channel.THUMB},
+                SessionHeader.DEFAULT_SAMPLES_PER_BLOCK);
+        catalog.put(new SessionCatalog.Entry(pending, header, SessionCatalog.MERGED_SESSION_ADDRESS, null, 0, 0,
+                pending.lastModified(), SessionCatalog.UploadState.PENDING));
+
+        assertEquals(3, new LegacySessionImport(directory, catalog).run());
+        assertEquals(4, catalog.size());
+
+        SessionCatalog.Entry entry = catalog.get(glove);
+        assertEquals(SessionCatalog.UploadState.LEGACY, entry.getUploadState());
+        assertEquals("D9:8C:12:12:BE:74", entry.getDeviceAddress());
+        assertEquals(ExerciseMode.FLEX_IMU, entry.getExerciseMode());
+        assertEquals("02-01-2018 10:00:00:000", entry.getDate());
+        assertEquals(2, entry.getSampleCount());
+
+        entry = catalog.get(first);
+        assertEquals("", entry.getDeviceAddress());
+        assertEquals(ExerciseMode.FLEX_ONLY, entry.getExerciseMode());
+        assertEquals(1, entry.getSampleCount());
+
+        assertEquals(SessionCatalog.MERGED_SESSION_ADDRESS, catalog.get(merged).getDeviceAddress());
+        assertEquals(SessionCatalog.UploadState.PENDING, catalog.get(pending).getUploadState());
+        assertNull(catalog.get(notes));
+        assertNull(catalog.get(other));
+
+        // The catalog reloads the entries
+        assertEquals(SessionCatalog.UploadState.LEGACY, new SessionCatalog(catalogFile).get(glove).getUploadState());
+        assertEquals(0, new LegacySessionImport(directory, catalog).run());
+    }
+
+    private static File createFile(File file, String text) throws IOException {
+        if (!file.getParentFile().isDirectory() && !file.getParentFile().mkdirs()) {
+            throw new IOException("Could not create " + file.getParentFile());
+        }
+        FileOutputStream output = new FileOutputStream(file);
+        try {
+            output.write(text.getBytes("US-ASCII"));
+        } finally {
+            output.close();
+        }
+        return file;
+    }
+}
@@ -0,0 +1,136 @@
+package edu.uri.wbl.tex_tronics.smartglove.io;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.data_types.Channel;
+import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.enums.DeviceType;
+import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.enums.ExerciseMode;
+import edu.uri.wbl.tex_tronics.smartglove.visualize.Choice;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the session catalog answers queries by each of its criteria and keeps what it was
+ * told across reloads, a torn last record and compaction.
+ */
+public class SessionCatalogTest {
+    private static final String LEFT_GLOVE = "D9:8C:12:12:BE:74";
+    private static final String RIGHT_GLOVE = "CC:A9:EF:44:CD:E8";
+
+    @Test
+    public void findsSessionsByCriteria() throws Exception {
+        SessionCatalog catalog = new SessionCatalog(createFile());
+        catalog.put(createEntry("a", "alice", LEFT_GLOVE, Choice.FINGER_TAP, "routine1"));
+        catalog.put(createEntry("b", "alice", RIGHT_GLOVE, Choice.FINGER_TAP, "routine1"));
+        catalog.put(createEntry("c", "alice", LEFT_GLOVE, Choice.CLOSED_GRIP, "routine1"));
+        catalog.put(createEntry("d", "bob", LEFT_GLOVE, Choice.FINGER_TAP, "routine2"));
+        catalog.put(createEntry("e", null, LEFT_GLOVE, null, null));
+        assertEquals(5, catalog.size());
+
+        assertPaths(catalog.find(new SessionCatalog.Query().setRoutineID("routine1").setChoice(Choice.FINGER_TAP)), "a", "b");
+        assertPaths(catalog.find(new SessionCatalog.Query().setPatient("alice").setDeviceAddress(LEFT_GLOVE)), "a", "c");
+        assertPaths(catalog.find(new SessionCatalog.Query().setChoice(Choice.FINGER_TAP)), "a", "b", "d");
+        assertPaths(catalog.find(new SessionCatalog.Query().setExerciseID("exercise_d")), "d");
+        assertPaths(catalog.find(new SessionCatalog.Query().setPatient("carol")));
+        assertEquals(5, catalog.find(new SessionCatalog.Query()).size());
+
+        // Uploading keeps a session's place
+        assertTrue(catalog.setUploadState(new File("a"), SessionCatalog.UploadState.UPLOADED));
+        assertFalse(catalog.setUploadState(new File("z"), SessionCatalog.UploadState.UPLOADED));
+        assertPaths(catalog.find(new SessionCatalog.Query().setUploadState(SessionCatalog.UploadState.PENDING)),
+                "b", "c", "d", "e");
+        assertPaths(catalog.find(new SessionCatalog.Query().setChoice(Choice.FINGER_TAP)), "a", "b", "d");
+
+        // Acknowledging chunks keeps the upload state
+        assertTrue(catalog.setChunksAcknowledged(new File("a"), 3));
+        assertEquals(3, catalog.get(new File("a")).getChunksAcknowledged());
+        assertEquals(SessionCatalog.UploadState.UPLOADED, catalog.get(new File("a")).getUploadState());
+
+        assertTrue(catalog.remove(new File("b")));
+        assertFalse(catalog.remove(new File("b")));
+        assertNull(catalog.get(new File("b")));
+        assertPaths(catalog.find(new SessionCatalog.Query().setRoutineID("routine1")), "a", "c");
+    }
+
+    @Test
+    public void reloadsAndDropsTornRecord() throws Exception {
+        File file = createFile();
+        SessionCatalog catalog = new SessionCatalog(file);
+        catalog.put(createEntry("a", "alice", LEFT_GLOVE, Choice.FINGER_TAP, "routine1"));
+        catalog.put(createEntry("b", "alice", RIGHT_GLOVE, Choice.HAND_FLIP, "routine1"));
+        catalog.setUploadState(new File("a"), SessionCatalog.UploadState.UPLOADED);
+        catalog.setChunksAcknowledged(new File("a"), 2);
+        long length = file.length();
+        catalog.remove(new File("b"));
+
+        // Cut the last record short, as if the app was killed while appending it
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        randomAccessFile.setLength(file.length() - 3);
+        randomAccessFile.close();
+
+        catalog = new SessionCatalog(file);
+        assertEquals(length, file.length());
+        assertEquals(2, catalog.size());
+        SessionCatalog.Entry entry = catalog.get(new File("a"));
+        assertEquals(SessionCatalog.UploadState.UPLOADED, entry.getUploadState());
+        assertEquals(2, entry.getChunksAcknowledged());
+        assertEquals("alice", entry.getPatient());
+        assertEquals(Choice.FINGER_TAP, entry.getChoice());
+        assertEquals(ExerciseMode.FLEX_IMU, entry.getExerciseMode());
+        assertEquals(1000, entry.getSampleCount());
+        assertEquals(20000, entry.getDurationMs());
+
+        // Appending after the torn record still reloads
+        catalog.put(createEntry("c", null, LEFT_GLOVE, null, null));
+        catalog = new SessionCatalog(file);
+        assertEquals(3, catalog.size());
+        assertNull(catalog.get(new File("c")).getPatient());
+    }
+
+    @Test
+    public void compactsReplacedRecords() throws Exception {
+        File file = createFile();
+        SessionCatalog catalog = new SessionCatalog(file);
+        catalog.put(createEntry("a", "alice", LEFT_GLOVE, Choice.FINGER_TAP, "routine1"));
+        for (int i = 0; i < 100; i++) {
+            catalog.setUploadState(new File("a"), i % 2 == 0 ? SessionCatalog.UploadState.UPLOADED
+                    : SessionCatalog.UploadState.PENDING);
+        }
+        long length = file.length();
+
+        catalog = new SessionCatalog(file);
+        assertTrue(file.length() < length / 50);
+        assertEquals(SessionCatalog.UploadState.PENDING, catalog.get(new File("a")).getUploadState());
+        assertPaths(catalog.find(new SessionCatalog.Query().setPatient("alice")), "a");
+    }
+
+    private static void assertPaths(List<SessionCatalog.Entry> entries, String... paths) {
+        assertEquals(paths.length, entries.size());
+        for (int i = 0; i < paths.length; i++) {
+            assertEquals(new File(paths[i]).getAbsoluteFile(), entries.get(i).getFile());
+        }
+    }
+
+    private static SessionCatalog.Entry createEntry(String path, String patient, String deviceAddress, Choice choice,
+                                                    String routineID) {
+        SessionHeader header = new SessionHeader(deviceAddress, DeviceType.SMART_GLOVE, ExerciseMode.FLEX_IMU, choice,
+                "exercise_" + path, routineID, "01-02-2018 10:00:00:000", new Channel[] {Channel.THUMB},
+                SessionHeader.DEFAULT_SAMPLES_PER_BLOCK);
+        return new SessionCatalog.Entry(new File(path), header, patient, 1000, 20000, 0,
+                SessionCatalog.UploadState.PENDING);
+    }
+
+    private static File createFile() throws IOException {
+        File file = File.createTempFile("session_catalog_", ".catalog");
+        file.deleteOnExit();
+        if (!file.delete()) {
+            throw new IOException("Could not replace " + file);
+        }
+        return file;
+    }
+}
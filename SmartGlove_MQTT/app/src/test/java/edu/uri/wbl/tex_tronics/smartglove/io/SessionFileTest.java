@@ -0,0 +1,242 @@
+package edu.uri.wbl.tex_tronics.smartglove.io;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+
+import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.data_types.Channel;
+import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.data_types.ChannelSchema;
+import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.data_types.SampleBlock;
+import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.enums.DeviceType;
+import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.enums.ExerciseMode;
+import edu.uri.wbl.tex_tronics.smartglove.visualize.Choice;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that binary session files read back what was recorded, whether they were closed, continued
+ * or cut short, and that they export to the CSV files the fog node reads.
+ */
+public class SessionFileTest {
+    private static final String DEVICE_ADDRESS = "00:11:22:33:44:55";
+    private static final Channel[] CHANNELS = {Channel.THUMB, Channel.ACC_X};
+
+    @Test
+    public void readsBackEveryBlock() throws Exception {
+        File file = createFile();
+        SessionFileWriter writer = new SessionFileWriter(file, createHeader(4));
+        for (int sample = 0; sample < 10; sample++) {
+            writer.append(getTimestamp(sample), getValues(sample));
+        }
+        writer.close();
+        assertEquals(file.length(), writer.getBytesWritten());
+
+        SessionFileReader reader = new SessionFileReader(file);
+        assertTrue(reader.isComplete());
+        assertEquals(10, reader.getSampleCount());
+        assertEquals(3, reader.getBlockCount());
+        assertEquals(DEVICE_ADDRESS, reader.getHeader().getDeviceAddress());
+        assertEquals(Choice.FINGER_TAP, reader.getHeader().getChoice());
+        assertEquals("exercise", reader.getHeader().getExerciseID());
+        assertNull(reader.getHeader().getRoutineID());
+        assertEquals(Channel.ACC_X, reader.getHeader().getChannel(1));
+
+        // Straight to the block of the last sample
+        SessionFileReader.Block block = reader.createBlock();
+        assertEquals(2, reader.getBlockOf(9));
+        assertEquals(2, reader.readBlock(2, block));
+        assertEquals(8, block.getFirstSample());
+        assertSamples(block);
+        reader.readBlock(0, block);
+        assertSamples(block);
+        reader.close();
+    }
+
+    @Test
+    public void continuesClosedFile() throws Exception {
+        File file = createFile();
+        SessionFileWriter writer = new SessionFileWriter(file, createHeader(4));
+        for (int sample = 0; sample < 6; sample++) {
+            writer.append(getTimestamp(sample), getValues(sample));
+        }
+        writer.close();
+
+        writer = new SessionFileWriter(file, createHeader(4));
+        assertEquals(6, writer.getSampleCount());
+        for (int sample = 6; sample < 11; sample++) {
+            writer.append(getTimestamp(sample), getValues(sample));
+        }
+        writer.close();
+
+        assertAllSamples(file, 11, true);
+
+        try {
+            new SessionFileWriter(file, createHeader(8));
+            fail("Continued a file with other blocks");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void recoversFileThatWasNotClosed() throws Exception {
+        File file = createFile();
+        SessionFileWriter writer = new SessionFileWriter(file, createHeader(4));
+        for (int sample = 0; sample < 9; sample++) {
+            writer.append(getTimestamp(sample), getValues(sample));
+        }
+        writer.close();
+
+        // Drop the index and leave half a block, as if the app stopped while writing
+        SessionFileReader reader = new SessionFileReader(file);
+        long dataEnd = reader.getDataEnd();
+        long lastBlock = reader.getBlockOffset(2);
+        reader.close();
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        randomAccessFile.setLength(dataEnd - 1);
+        randomAccessFile.close();
+
+        reader = new SessionFileReader(file);
+        assertFalse(reader.isComplete());
+        assertEquals(8, reader.getSampleCount());
+        assertEquals(lastBlock, reader.getDataEnd());
+        reader.close();
+        assertAllSamples(file, 8, false);
+
+        // Continuing it writes a complete file again
+        writer = new SessionFileWriter(file, createHeader(4));
+        writer.append(getTimestamp(8), getValues(8));
+        writer.close();
+        assertAllSamples(file, 9, true);
+    }
+
+    @Test
+    public void exportsGloveCsv() throws Exception {
+        ChannelSchema schema = ChannelSchema.get(DeviceType.SMART_GLOVE, ExerciseMode.FLEX_ONLY);
+        SampleBlock block = new SampleBlock(8);
+        block.onFlex(65534, 512, 300, 301, 302, 303);
+        block.onSampleComplete();
+        block.onFlex(65535, 498, 310, 290, 302, 0);
+        block.onSampleComplete();
+        block.onFlex(0, 1023, 0, 1, 2, 3);
+        block.onSampleComplete();
+
+        File file = createFile();
+        SessionFileWriter writer = new SessionFileWriter(file, new SessionHeader(DEVICE_ADDRESS, DeviceType.SMART_GLOVE,
+                ExerciseMode.FLEX_ONLY, null, null, null, "", schema.getChannels(), SessionHeader.DEFAULT_SAMPLES_PER_BLOCK));
+        writer.append(block);
+        writer.close();
+
+        String expected = "Device Address,Exercise,Timestamp," + schema.getHeader() + "\n" +
+                DEVICE_ADDRESS + ",Flex Only,65534,512,300,301,302,303\n" +
+                DEVICE_ADDRESS + ",Flex Only,65535,498,310,290,302,0\n" +
+                DEVICE_ADDRESS + ",Flex Only,0,1023,0,1,2,3\n";
+        CsvExporter exporter = new CsvExporter();
+        assertEquals(expected, exporter.toCsv(file));
+
+        File csvFile = File.createTempFile("session_file_", ".csv");
+        csvFile.deleteOnExit();
+        assertEquals(3, exporter.export(file, csvFile));
+        assertEquals(expected, new String(Files.readAllBytes(csvFile.toPath()), Charset.forName("US-ASCII")));
+        assertTrue(file.length() < csvFile.length());
+    }
+
+    @Test
+    public void streamsCsvRanges() throws Exception {
+        File file = createFile();
+        SessionFileWriter writer = new SessionFileWriter(file, createHeader(4));
+        for (int sample = 0; sample < 10; sample++) {
+            writer.append(getTimestamp(sample), getValues(sample));
+        }
+        writer.close();
+        String csv = new CsvExporter().toCsv(file);
+        String[] lines = csv.split("\n");
+        assertEquals(11, lines.length);
+
+        // One byte at a time reads the same as the export
+        CsvInputStream stream = new CsvInputStream(file);
+        StringBuilder read = new StringBuilder();
+        int b;
+        while ((b = stream.read()) >= 0) {
+            read.append((char) b);
+        }
+        stream.close();
+        assertEquals(csv, read.toString());
+        assertEquals(csv.length(), stream.getBytesRead());
+
+        // Samples 3 to 8 span three blocks
+        assertEquals(lines[4] + "\n" + lines[5] + "\n" + lines[6] + "\n" + lines[7] + "\n" + lines[8] + "\n" + lines[9] + "\n",
+                readRange(file, 3, 6));
+        assertEquals(lines[10] + "\n", readRange(file, 9, 100));
+        assertEquals("", readRange(file, 10, 5));
+        assertEquals("", readRange(file, 4, 0));
+    }
+
+    private static String readRange(File file, long firstSample, long sampleCount) throws IOException {
+        CsvInputStream stream = new CsvInputStream(file, firstSample, sampleCount, false);
+        try {
+            byte[] buffer = new byte[7];
+            StringBuilder read = new StringBuilder();
+            int length;
+            while ((length = stream.read(buffer, 0, buffer.length)) >= 0) {
+                read.append(new String(buffer, 0, length, "US-ASCII"));
+            }
+            return read.toString();
+        } finally {
+            stream.close();
+        }
+    }
+
+    private static void assertAllSamples(File file, int count, boolean complete) throws IOException {
+        SessionFileReader reader = new SessionFileReader(file);
+        assertEquals(complete, reader.isComplete());
+        assertEquals(count, reader.getSampleCount());
+        SessionFileReader.Block block = reader.createBlock();
+        long samples = 0;
+        for (int i = 0; i < reader.getBlockCount(); i++) {
+            samples += reader.readBlock(i, block);
+            assertSamples(block);
+        }
+        assertEquals(count, samples);
+        reader.close();
+    }
+
+    private static void assertSamples(SessionFileReader.Block block) {
+        for (int i = 0; i < block.size(); i++) {
+            int sample = (int) block.getFirstSample() + i;
+            assertEquals(getTimestamp(sample), block.getTimestamp(i));
+            int[] values = getValues(sample);
+            assertEquals(values[0], block.get(0, i));
+            assertEquals(values[1], block.get(1, i));
+        }
+    }
+
+    /**
+     * 16 bit device timestamps that wrap around.
+     */
+    private static long getTimestamp(int sample) {
+        return (65530 + sample * 10) & 0xFFFF;
+    }
+
+    private static int[] getValues(int sample) {
+        return new int[] {400 + (sample % 3) * 7, sample % 2 == 0 ? 65535 - sample : sample};
+    }
+
+    private static SessionHeader createHeader(int samplesPerBlock) {
+        return new SessionHeader(DEVICE_ADDRESS, DeviceType.SMART_GLOVE, ExerciseMode.FLEX_IMU, Choice.FINGER_TAP,
+                "exercise", null, "01-02-2018 10:00:00:000", CHANNELS, samplesPerBlock);
+    }
+
+    private static File createFile() throws IOException {
+        File file = File.createTempFile("session_file_", SessionHeader.FILE_EXTENSION);
+        file.deleteOnExit();
+        if (!file.delete()) {
+            throw new IOException("Could not replace " + file);
+        }
+        return file;
+    }
+}
@@ -0,0 +1,101 @@
+package edu.uri.wbl.tex_tronics.smartglove.io;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.data_types.Channel;
+import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.enums.DeviceType;
+import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.enums.ExerciseMode;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that a recording cut short is recovered from its journal, and that a finished one leaves
+ * no journal behind.
+ */
+public class SessionJournalTest {
+    private static final Channel[] CHANNELS = {Channel.THUMB, Channel.INDEX};
+
+    @Test
+    public void recoversSamplesNotYetInFile() throws Exception {
+        File directory = createDirectory();
+        File file = createFile(directory);
+        File journals = new File(directory, "journals");
+
+        SessionFileWriter writer = new SessionFileWriter(file, createHeader(), journals);
+        for (int sample = 0; sample < 6; sample++) {
+            writer.append(sample * 10, new int[] {sample, 100 - sample});
+        }
+        // The app is killed: the second block only exists in the journal
+        File journal = SessionJournal.getJournalFile(journals, file);
+        assertTrue(journal.exists());
+        SessionFileReader reader = new SessionFileReader(file);
+        assertFalse(reader.isComplete());
+        assertEquals(4, reader.getSampleCount());
+        reader.close();
+
+        List<File> recovered = SessionJournal.recover(journals);
+        assertEquals(1, recovered.size());
+        assertEquals(file.getAbsoluteFile(), recovered.get(0).getAbsoluteFile());
+        assertFalse(journal.exists());
+
+        reader = new SessionFileReader(file);
+        assertTrue(reader.isComplete());
+        assertEquals(6, reader.getSampleCount());
+        SessionFileReader.Block block = reader.createBlock();
+        assertEquals(2, reader.readBlock(1, block));
+        assertEquals(50, block.getTimestamp(1));
+        assertEquals(5, block.get(0, 1));
+        assertEquals(95, block.get(1, 1));
+        reader.close();
+    }
+
+    @Test
+    public void closingDeletesJournal() throws Exception {
+        File directory = createDirectory();
+        File file = createFile(directory);
+        File journals = new File(directory, "journals");
+
+        SessionFileWriter writer = new SessionFileWriter(file, createHeader(), journals);
+        writer.append(0, new int[] {1, 2});
+        writer.close();
+
+        assertFalse(SessionJournal.getJournalFile(journals, file).exists());
+        assertTrue(SessionJournal.recover(journals).isEmpty());
+    }
+
+    @Test
+    public void dropsJournalOfMissingFile() throws Exception {
+        File directory = createDirectory();
+        File file = createFile(directory);
+        File journals = new File(directory, "journals");
+
+        SessionFileWriter writer = new SessionFileWriter(file, createHeader(), journals);
+        writer.append(0, new int[] {1, 2});
+        assertTrue(file.delete());
+
+        assertTrue(SessionJournal.recover(journals).isEmpty());
+        assertFalse(SessionJournal.getJournalFile(journals, file).exists());
+    }
+
+    private static SessionHeader createHeader() {
+        return new SessionHeader("00:11:22:33:44:55", DeviceType.SMART_GLOVE, ExerciseMode.FLEX_ONLY, null,
+                null, null, "", CHANNELS, 4);
+    }
+
+    private static File createDirectory() throws IOException {
+        File directory = Files.createTempDirectory("session_journal_").toFile();
+        directory.deleteOnExit();
+        return directory;
+    }
+
+    private static File createFile(File directory) {
+        File file = new File(directory, "01/02/2018/10_00_00_000_glove" + SessionHeader.FILE_EXTENSION);
+        file.deleteOnExit();
+        return file;
+    }
+}
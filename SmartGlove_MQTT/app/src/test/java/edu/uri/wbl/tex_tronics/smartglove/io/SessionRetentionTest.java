@@ -0,0 +1,239 @@
+package edu.uri.wbl.tex_tronics.smartglove.io;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.data_types.Channel;
+import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.enums.DeviceType;
+import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.enums.ExerciseMode;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that retention compacts acknowledged and legacy CSVs losslessly and deletes the oldest of
+ * those sessions to fit the budget, but never touches a file the catalog does not know, a session
+ * the fog node has not acknowledged or one recorded moments ago.
+ */
+public class SessionRetentionTest {
+    private static final long NOW = 1519000000000L;
+    private static final long HOUR = 60 * 60 * 1000L;
+
+    @Test
+    public void compactsAcknowledgedCsvLosslessly() throws Exception {
+        File directory = createDirectory();
+        byte[] csv = createCsv(5000, 1);
+        File csvFile = createFile(new File(directory, "02/01/2018/10_00_00_000_glove.csv"), csv, NOW - HOUR);
+        File pendingFile = createFile(new File(directory, "02/01/2018/10_10_00_000_glove.csv"), csv, NOW - HOUR);
+        File recentFile = createFile(new File(directory, "02/01/2018/10_59_00_000_glove.csv"), csv, NOW - 60000);
+        File otherFile = createFile(new File(directory, "02/01/2018/notes.csv"), csv, NOW - HOUR);
+
+        SessionCatalog catalog = createCatalog();
+        catalog.put(createEntry(csvFile, SessionCatalog.UploadState.ACKNOWLEDGED));
+        catalog.put(createEntry(pendingFile, SessionCatalog.UploadState.UPLOADED));
+        catalog.put(createEntry(recentFile, SessionCatalog.UploadState.ACKNOWLEDGED));
+
+        SessionRetention retention = new SessionRetention(directory, catalog, Long.MAX_VALUE,
+                new BlockCompressor(new DeflateCodec()));
+        SessionRetention.Metrics metrics = retention.run(NOW);
+        assertTrue(metrics.isDone());
+        assertEquals(3, metrics.getFilesScanned());
+        assertEquals(1, metrics.getFilesCompacted());
+        assertEquals(0, metrics.getFilesEvicted());
+        assertEquals(metrics.getBytesBefore() - metrics.getBytesCompacted(), metrics.getBytesRetained());
+
+        // Not acknowledged, recent or not the app's: left as they are
+        assertTrue(pendingFile.exists());
+        assertTrue(recentFile.exists());
+        assertTrue(otherFile.exists());
+        assertFalse(csvFile.exists());
+        File compacted = new File(csvFile.getPath() + CsvCompactor.FILE_EXTENSION);
+        assertTrue(CsvCompactor.isCompacted(compacted));
+        assertEquals(NOW - HOUR, compacted.lastModified());
+        assertTrue(compacted.length() * 2 < csv.length);
+
+        // The catalog follows the session to its compacted file
+        assertNull(catalog.get(csvFile));
+        assertEquals(SessionCatalog.UploadState.ACKNOWLEDGED, catalog.get(compacted).getUploadState());
+
+        File restored = new File(directory, "restored.csv");
+        assertEquals(csv.length, CsvCompactor.restore(compacted, restored));
+        assertArrayEquals(csv, readFile(restored));
+    }
+
+    @Test
+    public void evictsOldestAcknowledgedFirst() throws Exception {
+        File directory = createDirectory();
+        byte[] data = new byte[1000];
+        File oldest = createFile(new File(directory, "01/01/2018/10_00_00_000_glove.ttb"), data, NOW - 5 * HOUR);
+        File pending = createFile(new File(directory, "01/02/2018/10_00_00_000_glove.ttb"), data, NOW - 4 * HOUR);
+        File older = createFile(new File(directory, "01/03/2018/10_00_00_000_glove.ttb"), data, NOW - 3 * HOUR);
+        File newer = createFile(new File(directory, "01/04/2018/10_00_00_000_glove.ttb"), data, NOW - 2 * HOUR);
+        File recent = createFile(new File(directory, "01/05/2018/10_00_00_000_glove.ttb"), data, NOW - 60000);
+        File uncataloged = createFile(new File(directory, "01/05/2018/09_00_00_000_glove.ttb"), data, NOW - 6 * HOUR);
+        File merged = createFile(new File(directory, "01/05/2018/09_00_00_000_session.csv"), data, NOW - 6 * HOUR);
+
+        SessionCatalog catalog = createCatalog();
+        catalog.put(createEntry(oldest, SessionCatalog.UploadState.ACKNOWLEDGED));
+        catalog.put(createEntry(pending, SessionCatalog.UploadState.UPLOADED));
+        catalog.put(createEntry(older, SessionCatalog.UploadState.ACKNOWLEDGED));
+        catalog.put(createEntry(newer, SessionCatalog.UploadState.ACKNOWLEDGED));
+        catalog.put(createEntry(recent, SessionCatalog.UploadState.ACKNOWLEDGED));
+
+        // Room for two sessions: the two oldest acknowledged go, the one not acknowledged stays
+        SessionRetention retention = new SessionRetention(directory, catalog, 3000,
+                new BlockCompressor(new DeflateCodec()));
+        SessionRetention.Metrics metrics = retention.run(NOW);
+        assertEquals(5, metrics.getFilesScanned());
+        assertEquals(2, metrics.getFilesEvicted());
+        assertEquals(2000, metrics.getBytesEvicted());
+        assertEquals(3000, metrics.getBytesRetained());
+
+        assertFalse(oldest.exists());
+        assertTrue(pending.exists());
+        assertFalse(older.exists());
+        assertTrue(newer.exists());
+        assertTrue(recent.exists());
+        assertNull(catalog.get(oldest));
+        assertNull(catalog.get(older));
+        assertNotNull(catalog.get(pending));
+
+        // Files the catalog does not know are never deleted, however old
+        assertTrue(uncataloged.exists());
+        assertTrue(merged.exists());
+
+        // Emptied day directories are deleted, the others kept
+        assertFalse(new File(directory, "01/01").exists());
+        assertFalse(new File(directory, "01/03").exists());
+        assertTrue(new File(directory, "01/02/2018").exists());
+        assertTrue(directory.exists());
+    }
+
+    @Test
+    public void trimsLegacyAndMergedSessions() throws Exception {
+        File directory = createDirectory();
+        byte[] csv = createCsv(2000, 4);
+        File legacy = createFile(new File(directory, "01/01/2018/10_00_00_000_glove.csv"), csv, NOW - 3 * HOUR);
+        File merged = createFile(new File(directory, "01/02/2018/10_00_00_000_session.csv"), csv, NOW - 2 * HOUR);
+        SessionCatalog catalog = createCatalog();
+        catalog.put(createEntry(legacy, SessionCatalog.UploadState.LEGACY));
+        catalog.put(createEntry(merged, SessionCatalog.UploadState.ACKNOWLEDGED));
+
+        SessionRetention.Metrics metrics = new SessionRetention(directory, catalog, Long.MAX_VALUE,
+                new BlockCompressor(new DeflateCodec())).run(NOW);
+        assertEquals(2, metrics.getFilesCompacted());
+        assertEquals(0, metrics.getFilesEvicted());
+
+        // Room for the newer only
+        File compactedMerged = new File(merged.getPath() + CsvCompactor.FILE_EXTENSION);
+        metrics = new SessionRetention(directory, catalog, compactedMerged.length(),
+                new BlockCompressor(new DeflateCodec())).run(NOW);
+        assertEquals(1, metrics.getFilesEvicted());
+        assertFalse(legacy.exists());
+        assertFalse(new File(legacy.getPath() + CsvCompactor.FILE_EXTENSION).exists());
+        assertTrue(compactedMerged.exists());
+        assertEquals(1, catalog.size());
+        assertNotNull(catalog.get(compactedMerged));
+    }
+
+    @Test
+    public void keepsUnacknowledgedOverBudget() throws Exception {
+        File directory = createDirectory();
+        File pending = createFile(new File(directory, "01/02/2018/10_00_00_000_glove.csv"), createCsv(100, 3), NOW - 4 * HOUR);
+        SessionCatalog catalog = createCatalog();
+        catalog.put(createEntry(pending, SessionCatalog.UploadState.PENDING));
+
+        SessionRetention.Metrics metrics = new SessionRetention(directory, catalog, 0,
+                new BlockCompressor(new DeflateCodec())).run(NOW);
+        assertEquals(0, metrics.getFilesCompacted());
+        assertEquals(0, metrics.getFilesEvicted());
+        assertTrue(pending.exists());
+    }
+
+    @Test
+    public void stopsWhenCancelled() throws Exception {
+        File directory = createDirectory();
+        File csvFile = createFile(new File(directory, "02/01/2018/10_00_00_000_glove.csv"), createCsv(100, 2), NOW - HOUR);
+        SessionCatalog catalog = createCatalog();
+        catalog.put(createEntry(csvFile, SessionCatalog.UploadState.ACKNOWLEDGED));
+
+        SessionRetention retention = new SessionRetention(directory, catalog, 0,
+                new BlockCompressor(new DeflateCodec()));
+        retention.cancel();
+        SessionRetention.Metrics metrics = retention.run(NOW);
+        assertTrue(metrics.isCancelled());
+        assertEquals(0, metrics.getFilesCompacted());
+        assertEquals(0, metrics.getFilesEvicted());
+        assertTrue(csvFile.exists());
+    }
+
+    private static byte[] createCsv(int lines, long seed) {
+        Random random = new Random(seed);
+        StringBuilder csv = new StringBuilder("Date,Time,Data\n");
+        for (int i = 0; i < lines; i++) {
+            csv.append("02/01/2018,10:00:").append(i / 50).append(',')
+                    .append(2000 + random.nextInt(50)).append(',').append(1800 + random.nextInt(50)).append('\n');
+        }
+        return csv.toString().getBytes();
+    }
+
+    private static SessionCatalog.Entry createEntry(File file, SessionCatalog.UploadState uploadState) {
+        SessionHeader header = new SessionHeader("D9:8C:12:12:BE:74", DeviceType.SMART_GLOVE, ExerciseMode.FLEX_IMU,
+                null, "exercise", "routine", "01-02-2018 10:00:00:000", new Channel[] {Channel.THUMB},
+                SessionHeader.DEFAULT_SAMPLES_PER_BLOCK);
+        return new SessionCatalog.Entry(file, header, null, 1000, 20000, file.lastModified(), uploadState);
+    }
+
+    private static SessionCatalog createCatalog() throws IOException {
+        File file = File.createTempFile("session_retention_", ".catalog");
+        file.deleteOnExit();
+        if (!file.delete()) {
+            throw new IOException("Could not replace " + file);
+        }
+        return new SessionCatalog(file);
+    }
+
+    private static File createFile(File file, byte[] data, long lastModified) throws IOException {
+        if (!file.getParentFile().isDirectory() && !file.getParentFile().mkdirs()) {
+            throw new IOException("Could not create " + file.getParentFile());
+        }
+        FileOutputStream output = new FileOutputStream(file);
+        try {
+            output.write(data);
+        } finally {
+            output.close();
+        }
+        if (!file.setLastModified(lastModified)) {
+            throw new IOException("Could not date " + file);
+        }
+        return file;
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        FileInputStream input = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = input.read(buffer)) > 0) {
+                output.write(buffer, 0, read);
+            }
+        } finally {
+            input.close();
+        }
+        return output.toByteArray();
+    }
+
+    private static File createDirectory() throws IOException {
+        File directory = File.createTempFile("session_retention_", "");
+        if (!directory.delete() || !directory.mkdir()) {
+            throw new IOException("Could not create " + directory);
+        }
+        return directory;
+    }
+}
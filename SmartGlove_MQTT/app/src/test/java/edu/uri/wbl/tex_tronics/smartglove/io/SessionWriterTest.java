@@ -0,0 +1,91 @@
+package edu.uri.wbl.tex_tronics.smartglove.io;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks when the session writer reaches the file and what it reports.
+ */
+public class SessionWriterTest {
+    private File mFile;
+
+    @Test
+    public void writesHeaderOnlyToEmptyFile() throws Exception {
+        mFile = createFile();
+        SessionWriter writer = new SessionWriter(mFile, "A,B");
+        writer.append("1,2\n");
+        writer.close();
+        writer.close();     // Closing twice does nothing
+        assertFalse(writer.isOpen());
+
+        writer = new SessionWriter(mFile, "A,B");
+        writer.append("3,4\n");
+        writer.close();
+
+        assertEquals("A,B\n1,2\n3,4\n", read());
+        try {
+            writer.append("5,6\n");
+            writer.flush();
+            fail("Closed writer accepted text");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void flushesAtFlushSize() throws Exception {
+        mFile = createFile();
+        SessionWriter writer = new SessionWriter(mFile, null, 16, 8, Long.MAX_VALUE);
+        writer.append("1234567");
+        assertEquals(7, writer.getBufferedBytes());
+        assertEquals(0, mFile.length());
+
+        writer.append('8');
+        assertEquals(0, writer.getBufferedBytes());
+        assertEquals(8, mFile.length());
+        assertEquals(8, writer.getBytesWritten());
+        assertEquals(1, writer.getFlushCount());
+
+        writer.append("9\u00e9");
+        writer.close();
+        assertEquals("123456789?", read());
+        assertEquals(10, writer.getBytesWritten());
+        assertEquals(2, writer.getFlushCount());
+    }
+
+    @Test
+    public void flushesAfterInterval() throws Exception {
+        mFile = createFile();
+        SessionWriter writer = new SessionWriter(mFile, null, 64, 64, 1000L);
+        long start = System.nanoTime();
+        writer.append("line\n");
+
+        writer.flushIfDue(start - 1000000L);
+        assertEquals(5, writer.getBufferedBytes());
+        writer.flushIfDue(start + 1000000L);
+        assertEquals(0, writer.getBufferedBytes());
+        assertEquals("line\n", read());
+
+        // Nothing buffered, nothing to write
+        writer.flushIfDue(start + 2000000L);
+        assertEquals(1, writer.getFlushCount());
+        assertTrue(writer.getMaxFlushNanos() >= writer.getAverageFlushNanos());
+        writer.close();
+    }
+
+    private static File createFile() throws IOException {
+        File file = File.createTempFile("session_writer_", ".csv");
+        file.deleteOnExit();
+        return file;
+    }
+
+    private String read() throws IOException {
+        return new String(Files.readAllBytes(mFile.toPath()), Charset.forName("US-ASCII"));
+    }
+}
@@ -0,0 +1,99 @@
+package edu.uri.wbl.tex_tronics.smartglove.mqtt;
+
+import org.junit.Test;
+
+import edu.uri.wbl.tex_tronics.smartglove.io.CsvEncoder;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the live stream makes a batch due by size or by age, writes its samples as rows in
+ * order, and drops the oldest samples when the link falls behind.
+ */
+public class LiveStreamTest {
+    private static final String ADDRESS = "D9:8C:12:12:BE:74";
+    private static final long MS = 1000000L;
+
+    @Test
+    public void batchesBySizeOrAge() {
+        LiveStream stream = new LiveStream(LiveStream.getTopic("exercise"), 3, 100 * MS, 8, 1000);
+        assertEquals("kaya/patient/live/exercise", stream.getTopic());
+        assertFalse(stream.isBatchDue(0));
+
+        assertFalse(offer(stream, 0, 0));
+        assertFalse(offer(stream, 1, 10 * MS));
+        assertFalse(stream.isBatchDue(50 * MS));
+        // The oldest sample has waited a batch interval
+        assertTrue(stream.isBatchDue(100 * MS));
+        assertTrue(offer(stream, 2, 20 * MS));
+        assertTrue(stream.isBatchDue(20 * MS));
+
+        CsvEncoder batch = new CsvEncoder(0);
+        assertEquals(3, stream.takeBatch(batch));
+        assertEquals("0,1000,D9:8C:12:12:BE:74,100,200,,,,,,,,,,,,\n"
+                + "1,1001,D9:8C:12:12:BE:74,101,201,,,,,,,,,,,,\n"
+                + "2,1002,D9:8C:12:12:BE:74,102,202,,,,,,,,,,,,\n", toString(batch));
+        assertEquals(0, stream.size());
+        assertFalse(stream.isBatchDue(Long.MAX_VALUE));
+
+        stream.onBatchSent(3, batch.length(), 30 * MS);
+        LiveStream.Metrics metrics = stream.getMetrics();
+        assertEquals(3, metrics.getSamplesOffered());
+        assertEquals(3, metrics.getSamplesSent());
+        assertEquals(1, metrics.getBatchesSent());
+        assertEquals(batch.length(), metrics.getBytesSent());
+        assertEquals(30 * MS, metrics.getLastLatencyNanos());
+        assertEquals(30 * MS, metrics.getMaxLatencyNanos());
+    }
+
+    @Test
+    public void dropsOldestWhenFull() {
+        LiveStream stream = new LiveStream(LiveStream.getTopic("exercise"), 2, 100 * MS, 4, 0);
+        for (int sample = 0; sample < 7; sample++) {
+            offer(stream, sample, sample * MS);
+        }
+        assertEquals(4, stream.size());
+        assertEquals(3, stream.getMetrics().getSamplesDropped());
+        assertEquals(4, stream.getMetrics().getQueueDepth());
+
+        // The newest samples are kept; their numbers show the gap
+        CsvEncoder batch = new CsvEncoder(0);
+        assertEquals(2, stream.takeBatch(batch));
+        assertTrue(toString(batch).startsWith("3,3,"));
+        stream.onBatchFailed(2);
+        assertEquals(5, stream.getMetrics().getSamplesDropped());
+        assertEquals(1, stream.getMetrics().getBatchesFailed());
+
+        assertEquals(2, stream.takeBatch(batch));
+        assertTrue(toString(batch).startsWith("5,5,"));
+        stream.onBatchSent(2, batch.length(), 10 * MS);
+        assertEquals(0, stream.getMetrics().getQueueDepth());
+        assertEquals(7, stream.getMetrics().getSamplesSent() + stream.getMetrics().getSamplesDropped());
+    }
+
+    @Test
+    public void measuresThroughput() {
+        LiveStream stream = new LiveStream(LiveStream.getTopic("exercise"), 10, 100 * MS, 100, 0);
+        CsvEncoder batch = new CsvEncoder(0);
+        for (int second = 0; second <= 4; second++) {
+            for (int sample = 0; sample < 10; sample++) {
+                offer(stream, second * 10 + sample, second * 1000 * MS);
+            }
+            stream.takeBatch(batch);
+            stream.onBatchSent(10, 100, second * 1000 * MS + 5 * MS);
+        }
+        // 50 samples over the 4 seconds between the first batch and the last
+        assertEquals(12.5, stream.getMetrics().getSamplesPerSecond(), 1e-9);
+        assertEquals(125, stream.getMetrics().getBytesPerSecond(), 1e-9);
+        assertEquals(5 * MS, stream.getMetrics().getAverageLatencyNanos());
+    }
+
+    private static boolean offer(LiveStream stream, int sample, long receivedNanos) {
+        int[] values = {100 + sample, 200 + sample};
+        return stream.offer(ADDRESS, sample * MS, values, values.length, receivedNanos);
+    }
+
+    private static String toString(CsvEncoder encoder) {
+        return new String(encoder.getBuffer(), 0, encoder.length());
+    }
+}
@@ -0,0 +1,192 @@
+package edu.uri.wbl.tex_tronics.smartglove.mqtt;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the outbox keeps its messages across a restart, even one that cut a write short,
+ * hands them out within the in-flight limit and backoff, and lets a message go only once it is
+ * delivered.
+ */
+public class MqttOutboxTest {
+    private static final long NOW = 1519000000000L;
+
+    @Test
+    public void survivesRestart() throws Exception {
+        File file = createFile();
+        MqttOutbox outbox = new MqttOutbox(file);
+        long first = outbox.enqueue("kaya/patient/data/chunk", payload(0, 1000), 1, NOW);
+        long second = outbox.enqueue("kaya/patient/data", payload(1, 10), 1, NOW + 1);
+        long third = outbox.enqueue("kaya/patient/data/chunk", payload(2, 0), 2, NOW + 2);
+        assertEquals(3, outbox.getMetrics().getQueueDepth());
+        assertEquals(2000, outbox.getMetrics().getOldestAgeMs(NOW + 2000));
+
+        MqttOutbox.Message message = outbox.poll(NOW);
+        assertEquals(first, message.getId());
+        assertTrue(outbox.onDelivered(first));
+        assertFalse(outbox.onDelivered(first));
+        // In flight when the process dies: sent again
+        assertEquals(second, outbox.poll(NOW).getId());
+        outbox.close();
+
+        outbox = new MqttOutbox(file);
+        assertEquals(2, outbox.size());
+        message = outbox.poll(NOW);
+        assertEquals(second, message.getId());
+        assertEquals("kaya/patient/data", message.getTopic());
+        assertArrayEquals(payload(1, 10), message.getPayload());
+        assertEquals(NOW + 1, message.getEnqueuedMs());
+        message = outbox.poll(NOW);
+        assertEquals(third, message.getId());
+        assertEquals(2, message.getQos());
+        assertEquals(0, message.getPayload().length);
+
+        // New messages do not reuse the ids of those waiting
+        assertTrue(outbox.enqueue("kaya/patient/data", payload(3, 5), 1, NOW) > third);
+        outbox.close();
+    }
+
+    @Test
+    public void boundsInFlightAndBacksOff() throws Exception {
+        MqttOutbox outbox = new MqttOutbox(createFile()).setMaxInFlight(2).setBackoff(1000, 5000);
+        for (int i = 0; i < 4; i++) {
+            outbox.enqueue("topic", payload(i, 100), 1, NOW);
+        }
+        MqttOutbox.Message first = outbox.poll(NOW);
+        MqttOutbox.Message second = outbox.poll(NOW);
+        assertNull(outbox.poll(NOW));
+        assertEquals(2, outbox.getMetrics().getInFlight());
+        assertEquals(Long.MAX_VALUE, outbox.getNextAttemptMs());
+
+        // Each failure in a row doubles the wait, up to the limit
+        outbox.onFailed(first.getId(), NOW);
+        assertEquals(NOW + 1000, outbox.getNextAttemptMs());
+        assertNull(outbox.poll(NOW + 999));
+        assertEquals(first.getId(), outbox.poll(NOW + 1000).getId());
+        outbox.onFailed(first.getId(), NOW + 1000);
+        assertEquals(NOW + 3000, outbox.getNextAttemptMs());
+        outbox.onFailed(second.getId(), NOW + 1000);
+        assertEquals(NOW + 5000, outbox.getNextAttemptMs());
+        assertEquals(3, outbox.getMetrics().getFailed());
+
+        // A delivery resets the backoff
+        assertEquals(first.getId(), outbox.poll(NOW + 5000).getId());
+        assertTrue(outbox.onDelivered(first.getId()));
+        assertEquals(0, outbox.getMetrics().getBackoffMs());
+        assertEquals(second.getId(), outbox.poll(NOW + 5000).getId());
+
+        // A lost connection puts the messages in flight back
+        outbox.onDisconnected();
+        assertEquals(0, outbox.getMetrics().getInFlight());
+        assertEquals(second.getId(), outbox.poll(NOW + 5000).getId());
+        outbox.close();
+    }
+
+    @Test
+    public void recoversCutShortWrites() throws Exception {
+        File file = createFile();
+        MqttOutbox outbox = new MqttOutbox(file);
+        outbox.enqueue("topic", payload(0, 100), 1, NOW);
+        outbox.enqueue("topic", payload(1, 100), 1, NOW);
+        outbox.enqueue("topic", payload(2, 100), 1, NOW);
+        outbox.close();
+
+        // The last message's index entry was never written, and half an index entry was
+        File index = new File(file.getPath() + MqttOutbox.INDEX_EXTENSION);
+        setLength(index, index.length() - 17 - 17 + 9);
+        // Half a fourth record was
+        File queue = new File(file.getPath() + MqttOutbox.QUEUE_EXTENSION);
+        long queueLength = queue.length();
+        RandomAccessFile output = new RandomAccessFile(queue, "rw");
+        try {
+            output.seek(queueLength);
+            output.writeInt(1000);
+            output.write(new byte[40]);
+        } finally {
+            output.close();
+        }
+
+        outbox = new MqttOutbox(file);
+        assertEquals(3, outbox.size());
+        assertEquals(queueLength, queue.length());
+        for (int i = 0; i < 3; i++) {
+            MqttOutbox.Message message = outbox.poll(NOW);
+            assertArrayEquals(payload(i, 100), message.getPayload());
+            outbox.onDelivered(message.getId());
+        }
+        assertEquals(0, outbox.size());
+        assertEquals(0, queue.length());
+        assertEquals(0, index.length());
+        outbox.close();
+    }
+
+    @Test
+    public void compactsDeliveredMessages() throws Exception {
+        File file = createFile();
+        MqttOutbox outbox = new MqttOutbox(file);
+        long kept = outbox.enqueue("topic", payload(0, 1000), 1, NOW);
+        for (int i = 1; i <= 3000; i++) {
+            outbox.enqueue("topic", payload(i, 1000), 1, NOW);
+        }
+        outbox.poll(NOW);
+        for (int i = 1; i <= 3000; i++) {
+            MqttOutbox.Message message = outbox.poll(NOW);
+            outbox.onDelivered(message.getId());
+        }
+        assertTrue(outbox.getMetrics().getCompactions() > 0);
+        File queue = new File(file.getPath() + MqttOutbox.QUEUE_EXTENSION);
+        assertTrue(queue.length() < 2 * 1024 * 1024);
+        outbox.close();
+
+        // The index of the compacted queue file is replayed; the message in flight is still there
+        outbox = new MqttOutbox(file);
+        assertEquals(1, outbox.size());
+        MqttOutbox.Message message = outbox.poll(NOW);
+        assertEquals(kept, message.getId());
+        assertArrayEquals(payload(0, 1000), message.getPayload());
+        outbox.close();
+    }
+
+    @Test
+    public void refusesWhenFull() throws Exception {
+        MqttOutbox outbox = new MqttOutbox(createFile()).setMaxBytes(3000);
+        assertTrue(outbox.enqueue("topic", payload(0, 1000), 1, NOW) >= 0);
+        assertTrue(outbox.enqueue("topic", payload(1, 1000), 1, NOW) >= 0);
+        assertEquals(-1, outbox.enqueue("topic", payload(2, 1000), 1, NOW));
+        assertEquals(1, outbox.getMetrics().getRefused());
+        assertEquals(2, outbox.size());
+        outbox.close();
+    }
+
+    private static byte[] payload(int seed, int length) {
+        byte[] payload = new byte[length];
+        for (int i = 0; i < length; i++) {
+            payload[i] = (byte) (seed * 31 + i);
+        }
+        return payload;
+    }
+
+    private static void setLength(File file, long length) throws IOException {
+        RandomAccessFile output = new RandomAccessFile(file, "rw");
+        try {
+            output.setLength(length);
+        } finally {
+            output.close();
+        }
+    }
+
+    private static File createFile() throws IOException {
+        File file = File.createTempFile("mqtt_outbox_", "");
+        if (!file.delete()) {
+            throw new IOException("Could not replace " + file);
+        }
+        new File(file.getPath() + MqttOutbox.QUEUE_EXTENSION).deleteOnExit();
+        new File(file.getPath() + MqttOutbox.INDEX_EXTENSION).deleteOnExit();
+        return file;
+    }
+}
@@ -0,0 +1,153 @@
+package edu.uri.wbl.tex_tronics.smartglove.mqtt;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Base64;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+import edu.uri.wbl.tex_tronics.smartglove.io.BlockCompressor;
+import edu.uri.wbl.tex_tronics.smartglove.io.CompressionBenchmark;
+import edu.uri.wbl.tex_tronics.smartglove.io.CsvExporter;
+import edu.uri.wbl.tex_tronics.smartglove.io.DeflateCodec;
+import edu.uri.wbl.tex_tronics.smartglove.io.SessionHeader;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the chunks of an upload carry the whole session, each with a checksum the fog node
+ * can verify, and that an upload keeps to its window and resumes after the acknowledged chunks.
+ */
+public class SessionUploadTest {
+    private static final Pattern DATA = Pattern.compile("\"Data\": \"([^\"]*)\"");
+    private static final Pattern CHUNK = Pattern.compile("\"Chunk\": (\\d+), \"Chunk_Count\": (\\d+), \"Checksum\": (\\d+)}$");
+
+    @Test
+    public void chunksCarryWholeSession() throws Exception {
+        File file = createSessionFile(10000);
+        BlockCompressor compressor = new BlockCompressor(new DeflateCodec());
+        SessionUpload upload = new SessionUpload(file, createJson(), compressor, 4096);
+        assertEquals(3, upload.getChunkCount());
+
+        ByteArrayOutputStream csv = new ByteArrayOutputStream();
+        for (int chunk = 0; chunk < upload.getChunkCount(); chunk++) {
+            String message = new String(upload.createChunk(chunk), "UTF-8");
+            assertTrue(message.startsWith("{\"Date\": \"01-02-2018 10:00:00:000\", \"Sensor_ID\": \"D9:8C:12:12:BE:74\""));
+            Matcher data = DATA.matcher(message);
+            Matcher header = CHUNK.matcher(message);
+            assertTrue(data.find());
+            assertTrue(header.find());
+            assertEquals(chunk, Integer.parseInt(header.group(1)));
+            assertEquals(3, Integer.parseInt(header.group(2)));
+
+            CRC32 crc = new CRC32();
+            crc.update(data.group(1).getBytes("US-ASCII"));
+            assertEquals(crc.getValue(), Long.parseLong(header.group(3)));
+            csv.write(compressor.decompress(Base64.getDecoder().decode(data.group(1))));
+        }
+        assertEquals(new CsvExporter().toCsv(file), csv.toString("US-ASCII"));
+
+        // A chunk is the same however often it is built
+        assertArrayEquals(upload.createChunk(1), upload.createChunk(1));
+    }
+
+    @Test
+    public void sendsWithinWindowAndResumes() throws Exception {
+        File file = createSessionFile(5 * 100);
+        SessionUpload upload = new SessionUpload(file, createJson(), new BlockCompressor(new DeflateCodec()), 100);
+        assertEquals(5, upload.getChunkCount());
+        assertEquals(SessionUpload.getKey("D9:8C:12:12:BE:74", "exercise"), upload.getKey());
+
+        assertEquals(2, send(upload, 2));
+        assertEquals(0, send(upload, 2));
+        assertTrue(upload.acknowledge(1));
+        assertFalse(upload.acknowledge(1));
+        assertEquals(2, upload.getNextChunk());
+        assertEquals(1, send(upload, 2));
+
+        // Chunks 1 and 2 are lost; they are sent again
+        upload.rewind();
+        assertEquals(1, upload.getNextChunk());
+        assertEquals(2, send(upload, 2));
+
+        // A restarted upload starts after what the fog node has
+        upload = new SessionUpload(file, createJson(), new BlockCompressor(new DeflateCodec()), 100);
+        upload.acknowledge(4);
+        assertEquals(4, upload.getNextChunk());
+        assertEquals(1, send(upload, 2));
+        assertFalse(upload.isComplete());
+        assertTrue(upload.acknowledge(6));
+        assertEquals(5, upload.getChunksAcknowledged());
+        assertTrue(upload.isComplete());
+        assertEquals(0, send(upload, 2));
+    }
+
+    @Test
+    public void sendsEmptySessionAsHeader() throws Exception {
+        File file = createSessionFile(0);
+        BlockCompressor compressor = new BlockCompressor(new DeflateCodec());
+        SessionUpload upload = new SessionUpload(file, createJson(), compressor, 4096);
+        assertEquals(1, upload.getChunkCount());
+        Matcher data = DATA.matcher(new String(upload.createChunk(0), "UTF-8"));
+        assertTrue(data.find());
+        assertEquals(new CsvExporter().toCsv(file),
+                new String(compressor.decompress(Base64.getDecoder().decode(data.group(1))), "US-ASCII"));
+    }
+
+    @Test
+    public void chunksCarryWholeCsvSession() throws Exception {
+        StringBuilder text = new StringBuilder("Time,Device Address,Thumb\n");
+        for (int row = 0; row < 250; row++) {
+            text.append(1514804400000L + row).append(",D9:8C:12:12:BE:74,").append(row).append('\n');
+        }
+        File file = File.createTempFile("session_upload_", "_session.csv");
+        file.deleteOnExit();
+        FileOutputStream output = new FileOutputStream(file);
+        output.write(text.toString().getBytes("US-ASCII"));
+        output.close();
+
+        BlockCompressor compressor = new BlockCompressor(new DeflateCodec());
+        SessionUpload upload = new SessionUpload(file, createJson(), compressor, 100);
+        assertEquals(3, upload.getChunkCount());
+        ByteArrayOutputStream csv = new ByteArrayOutputStream();
+        for (int chunk = 0; chunk < upload.getChunkCount(); chunk++) {
+            Matcher data = DATA.matcher(new String(upload.createChunk(chunk), "UTF-8"));
+            assertTrue(data.find());
+            csv.write(compressor.decompress(Base64.getDecoder().decode(data.group(1))));
+        }
+        assertEquals(text.toString(), csv.toString("US-ASCII"));
+
+        // Whole chunks only: no empty chunk after the last row
+        upload = new SessionUpload(file, createJson(), compressor, 125);
+        assertEquals(2, upload.getChunkCount());
+    }
+
+    private static int send(SessionUpload upload, int window) {
+        int sent = 0;
+        while (upload.hasChunkToSend(window)) {
+            upload.onChunkSent();
+            sent++;
+        }
+        return sent;
+    }
+
+    private static JsonData createJson() {
+        return new JsonData("01-02-2018 10:00:00:000", "D9:8C:12:12:BE:74", "Finger Tap", "exercise", "routine",
+                null, null, DeflateCodec.NAME);
+    }
+
+    private static File createSessionFile(int samples) throws IOException {
+        File file = File.createTempFile("session_upload_", SessionHeader.FILE_EXTENSION);
+        file.deleteOnExit();
+        if (!file.delete()) {
+            throw new IOException("Could not replace " + file);
+        }
+        CompressionBenchmark.createSessionFile(file, samples, 5);
+        return file;
+    }
+}
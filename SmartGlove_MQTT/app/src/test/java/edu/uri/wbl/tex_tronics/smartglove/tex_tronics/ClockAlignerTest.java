@@ -0,0 +1,40 @@
+package edu.uri.wbl.tex_tronics.smartglove.tex_tronics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that ClockAligner recovers a known offset and drift from noisy receive times.
+ */
+public class ClockAlignerTest {
+    private static final long MS = 1000000L;
+
+    @Test
+    public void recoversOffsetAndDrift() throws Exception {
+        ClockAligner aligner = new ClockAligner();
+        long offsetNanos = 5000 * MS;
+        double slope = 1.0001;  // Device clock 100 ppm slow
+        for (int i = 0; i < 2000; i++) {
+            long deviceMs = 123456 + i * 24;
+            // Delivery delay alternates between 10 and 14 ms
+            long delayNanos = (i % 2 == 0 ? 10 : 14) * MS;
+            long receivedNanos = offsetNanos + Math.round(deviceMs * slope * MS) + delayNanos;
+            aligner.addObservation(deviceMs, receivedNanos);
+        }
+
+        assertEquals(100.0, aligner.getDriftPpm(), 1.0);
+        long expected = offsetNanos + Math.round(200000 * slope * MS) + 12 * MS;
+        assertEquals(expected, aligner.toPhoneTimeNanos(200000), MS / 2);
+    }
+
+    @Test
+    public void singleObservation_usesOffsetOnly() throws Exception {
+        ClockAligner aligner = new ClockAligner();
+        assertFalse(aligner.isAligned());
+        aligner.addObservation(1000, 7000 * MS);
+        assertTrue(aligner.isAligned());
+        assertEquals(1.0, aligner.getSlope(), 0);
+        assertEquals(7500 * MS, aligner.toPhoneTimeNanos(1500));
+    }
+}
@@ -0,0 +1,583 @@
+package edu.uri.wbl.tex_tronics.smartglove.tex_tronics;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+import edu.uri.wbl.tex_tronics.smartglove.ble.PacketRingBuffer;
+import edu.uri.wbl.tex_tronics.smartglove.io.BlockCompressor;
+import edu.uri.wbl.tex_tronics.smartglove.io.CsvEncoder;
+import edu.uri.wbl.tex_tronics.smartglove.io.CsvInputStream;
+import edu.uri.wbl.tex_tronics.smartglove.io.DeflateCodec;
+import edu.uri.wbl.tex_tronics.smartglove.io.SessionFileWriter;
+import edu.uri.wbl.tex_tronics.smartglove.io.SessionHeader;
+import edu.uri.wbl.tex_tronics.smartglove.io.SessionWriter;
+import edu.uri.wbl.tex_tronics.smartglove.mqtt.JsonData;
+import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.data_types.ChannelSchema;
+import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.data_types.SampleBlock;
+import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.decoders.PacketDecoder;
+import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.decoders.PacketDecoders;
+import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.decoders.PacketFormat;
+import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.enums.DeviceType;
+import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.enums.ExerciseMode;
+
+/**
+ * Drives the packet pipeline of the TexTronics Manager Service with SimulatedPeripherals and
+ * measures how many packets per second it sustains.
+ *
+ * Each simulated device has its own producer thread (standing in for the BluetoothGattCallback
+ * thread) offering notifications to a PacketRingBuffer. A single pipeline thread drains the buffers
+ * the way TexTronicsManagerService does: decode into the device's SampleBlock, then per block track
+ * stream integrity and clock alignment, log the block to the journaled session file, and merge the
+ * devices into the session stream. At the end each device's session file is streamed as CSV through
+ * the upload compressor into the JSON message sent over MQTT.
+ *
+ * Only the Android plumbing differs: the session files are temporary files and the MQTT message is
+ * built but not sent.
+ *
+ * Run main() to benchmark a configuration given as system properties, e.g.
+ * -Dmode=FLEX_IMU -Ddevices=4 -Dspeedup=10 -Dduration=5000 -Dloss=0.01
+ * It exits with status 1 if packets were dropped or the p99 latency exceeds -DmaxP99 milliseconds
+ * (DEFAULT_MAX_P99_MS by default), so it can gate a build on a machine reserved for benchmarks.
+ */
+
+public class IngestBenchmark {
+    private static final int MAX_PACKETS_PER_DRAIN = 64;
+    private static final int BUFFER_CAPACITY = 256;
+    private static final int MAX_PAYLOAD_SIZE = 244;
+    private static final int SAMPLE_BLOCK_CAPACITY = 1024;
+    private static final int MERGE_CAPACITY = 1024;
+    private static final long MERGE_MAX_WAIT_NS = 500 * 1000000L;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final long DEFAULT_MAX_P99_MS = 100;
+
+    /**
+     * Largest number of packet latencies kept for the percentiles.
+     */
+    private static final int MAX_LATENCY_SAMPLES = 1 << 20;
+
+    public static class Result {
+        private final ExerciseMode mExerciseMode;
+        private final int mDevices;
+        private long mElapsedNanos;
+        private long mPacketsSent;
+        private long mPacketsProcessed;
+        private long mPacketsDropped;
+        private long mInvalidPackets;
+        private long mSamplesDecoded;
+        private long mSamplesLost;
+        private long mSamplesLostOnAir;
+        private long mMergedSamples;
+        private long mLateSamples;
+        private long mP50LatencyNanos;
+        private long mP99LatencyNanos;
+        private long mMaxLatencyNanos;
+        private long mPublishNanos;
+        private long mPublishedBytes;
+        private long mBytesWritten;
+        private long mMaxFlushNanos;
+
+        private Result(ExerciseMode exerciseMode, int devices) {
+            mExerciseMode = exerciseMode;
+            mDevices = devices;
+        }
+
+        public long getPacketsSent() {
+            return mPacketsSent;
+        }
+
+        public long getPacketsProcessed() {
+            return mPacketsProcessed;
+        }
+
+        /**
+         * @return Packets dropped because a packet buffer was full.
+         */
+        public long getPacketsDropped() {
+            return mPacketsDropped;
+        }
+
+        public long getInvalidPackets() {
+            return mInvalidPackets;
+        }
+
+        public long getSamplesDecoded() {
+            return mSamplesDecoded;
+        }
+
+        /**
+         * @return Samples missing from the timestamps, as counted by the StreamIntegrityTrackers.
+         */
+        public long getSamplesLost() {
+            return mSamplesLost;
+        }
+
+        /**
+         * @return Samples the SimulatedPeripherals did not send (simulated loss on the air).
+         */
+        public long getSamplesLostOnAir() {
+            return mSamplesLostOnAir;
+        }
+
+        public long getMergedSamples() {
+            return mMergedSamples;
+        }
+
+        public long getLateSamples() {
+            return mLateSamples;
+        }
+
+        public double getPacketsPerSecond() {
+            return mElapsedNanos <= 0 ? 0 : mPacketsProcessed * 1e9 / mElapsedNanos;
+        }
+
+        public double getSamplesPerSecond() {
+            return mElapsedNanos <= 0 ? 0 : mSamplesDecoded * 1e9 / mElapsedNanos;
+        }
+
+        /**
+         * Latencies are measured from a packet being offered to its packet buffer until it has been
+         * decoded, logged and merged.
+         */
+        public long getP50LatencyNanos() {
+            return mP50LatencyNanos;
+        }
+
+        public long getP99LatencyNanos() {
+            return mP99LatencyNanos;
+        }
+
+        public long getMaxLatencyNanos() {
+            return mMaxLatencyNanos;
+        }
+
+        /**
+         * @return Bytes written to the devices' CSV files and the session file.
+         */
+        public long getBytesWritten() {
+            return mBytesWritten;
+        }
+
+        /**
+         * @return Longest write of a SessionWriter's buffer to its file.
+         */
+        public long getMaxFlushNanos() {
+            return mMaxFlushNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "%s x%d: %.0f packets/s, %.0f samples/s, latency p50=%.3fms p99=%.3fms max=%.3fms, " +
+                            "sent=%d processed=%d dropped=%d invalid=%d, samples=%d lost=%d (on air %d), " +
+                            "merged=%d late=%d, written=%d bytes (flush max %.3fms), publish=%.1fms (%d bytes)",
+                    mExerciseMode, mDevices, getPacketsPerSecond(), getSamplesPerSecond(),
+                    mP50LatencyNanos / 1e6, mP99LatencyNanos / 1e6, mMaxLatencyNanos / 1e6,
+                    mPacketsSent, mPacketsProcessed, mPacketsDropped, mInvalidPackets,
+                    mSamplesDecoded, mSamplesLost, mSamplesLostOnAir,
+                    mMergedSamples, mLateSamples, mBytesWritten, mMaxFlushNanos / 1e6,
+                    mPublishNanos / 1e6, mPublishedBytes);
+        }
+    }
+
+    /**
+     * One simulated device: its peripheral and producer thread, its packet buffer, and the state
+     * the pipeline keeps for it.
+     */
+    private class SimulatedDevice implements Runnable {
+        private final String mDeviceAddress;
+        private final SimulatedPeripheral mPeripheral;
+        private final PacketRingBuffer mPacketBuffer = new PacketRingBuffer(BUFFER_CAPACITY, MAX_PAYLOAD_SIZE);
+        private final PacketDecoder mDecoder;
+        private final SampleBlock mSampleBlock = new SampleBlock(SAMPLE_BLOCK_CAPACITY);
+        private final ChannelSchema mChannelSchema = ChannelSchema.get(DeviceType.SMART_GLOVE, mExerciseMode);
+        private final StreamIntegrityTracker mStreamIntegrity;
+        private final ClockAligner mClockAligner = new ClockAligner();
+        private final PipelineMetrics mMetrics;
+        private final File mLogFile;
+        private final SessionFileWriter mLogWriter;
+        private volatile long mPacketsSent = 0;
+
+        SimulatedDevice(int number) throws IOException {
+            mDeviceAddress = String.format(Locale.US, "00:00:00:00:00:%02X", number);
+            mPeripheral = new SimulatedPeripheral(mExerciseMode, mPayloadSize, mLossRate, number);
+            mDecoder = PacketDecoders.create(mExerciseMode);
+            if (mExerciseMode == ExerciseMode.FLEX_IMU) {
+                // What startStreaming() does: ask for the newest format and decode the reply
+                byte[] descriptor = new byte[PacketFormat.DESCRIPTOR_SIZE];
+                mPeripheral.setFormat(PacketFormat.LATEST_VERSION, descriptor);
+                mDecoder.decode(ByteBuffer.wrap(descriptor), mSampleBlock);
+            }
+            mStreamIntegrity = new StreamIntegrityTracker(mDecoder.getTimestampBits(), mDecoder.getSamplePeriodMs());
+            mMetrics = new PipelineMetrics(mDeviceAddress);
+            mLogFile = File.createTempFile("ingest_benchmark_", SessionHeader.FILE_EXTENSION);
+            mLogFile.deleteOnExit();
+            if (!mLogFile.delete()) {
+                throw new IOException("Could not replace " + mLogFile);
+            }
+            mLogWriter = new SessionFileWriter(mLogFile, new SessionHeader(mDeviceAddress, DeviceType.SMART_GLOVE,
+                    mExerciseMode, null, null, null, "", mChannelSchema.getChannels(), SessionHeader.DEFAULT_SAMPLES_PER_BLOCK),
+                    mJournalDirectory);
+        }
+
+        /**
+         * Producer thread: sends notifications at the firmware's rate (times the speedup) until the
+         * benchmark ends.
+         */
+        @Override
+        public void run() {
+            byte[] packet = new byte[MAX_PAYLOAD_SIZE];
+            long interval = mSpeedup > 0 ? (long) (mPeripheral.getPacketIntervalNanos() / mSpeedup) : 0;
+            long start = System.nanoTime();
+            long end = start + mDurationMs * 1000000L;
+            long sent = 0;
+            while (true) {
+                long now = System.nanoTime();
+                if (interval > 0) {
+                    long due = start + sent * interval;
+                    if (due >= end) {
+                        break;
+                    }
+                    if (due > now) {
+                        LockSupport.parkNanos(due - now);
+                        continue;
+                    }
+                } else if (now >= end) {
+                    break;
+                }
+
+                int length = mPeripheral.nextPacket(packet);
+                mPacketBuffer.offer(Arrays.copyOf(packet, length), System.nanoTime());
+                sent++;
+                mPacketsSent = sent;
+                if (mDrainScheduled.compareAndSet(false, true)) {
+                    LockSupport.unpark(mPipelineThread);
+                }
+            }
+        }
+    }
+
+    private final ExerciseMode mExerciseMode;
+    private final int mDeviceCount;
+    private final double mSpeedup;
+    private final long mDurationMs;
+    private int mPayloadSize = MAX_PAYLOAD_SIZE;
+    private double mLossRate = 0;
+
+    private SimulatedDevice[] mDevices;
+    private File mJournalDirectory;
+    private SampleMerger mSampleMerger;
+    private Thread mPipelineThread;
+    private final AtomicBoolean mDrainScheduled = new AtomicBoolean(false);
+    private volatile boolean mProducing;
+
+    /**
+     * State of the packet being processed, as in TexTronicsManagerService. Pipeline thread only.
+     */
+    private SimulatedDevice mDrainDevice;
+    private final int[] mSampleValues = new int[SampleMerger.MAX_VALUES];
+    private final BlockCompressor mUploadCompressor = new BlockCompressor(new DeflateCodec());
+    private final CsvEncoder mSessionLine = new CsvEncoder(128);
+    private final Map<String, byte[]> mSessionAddresses = new HashMap<>();
+    private SessionWriter mSessionWriter;
+    private long[] mLatencies;
+    private int mLatencyCount;
+    private IOException mLogError;
+
+    /**
+     * @param speedup How many times faster than the firmware the peripherals send, or 0 to send as
+     *                fast as possible (packets are then dropped once the pipeline falls behind).
+     */
+    public IngestBenchmark(ExerciseMode exerciseMode, int devices, double speedup, long durationMs) {
+        if (devices <= 0 || speedup < 0 || durationMs <= 0) {
+            throw new IllegalArgumentException("Invalid Benchmark Configuration");
+        }
+        mExerciseMode = exerciseMode;
+        mDeviceCount = devices;
+        mSpeedup = speedup;
+        mDurationMs = durationMs;
+    }
+
+    /**
+     * Notification payload negotiated with Flex Only devices (MAX_PAYLOAD_SIZE by default).
+     */
+    public IngestBenchmark setPayloadSize(int payloadSize) {
+        mPayloadSize = Math.min(payloadSize, MAX_PAYLOAD_SIZE);
+        return this;
+    }
+
+    public IngestBenchmark setLossRate(double lossRate) {
+        mLossRate = lossRate;
+        return this;
+    }
+
+    public Result run() throws IOException, InterruptedException {
+        mJournalDirectory = Files.createTempDirectory("ingest_benchmark_").toFile();
+        mJournalDirectory.deleteOnExit();
+        mDevices = new SimulatedDevice[mDeviceCount];
+        for (int i = 0; i < mDeviceCount; i++) {
+            mDevices[i] = new SimulatedDevice(i + 1);
+        }
+        mLatencies = new long[MAX_LATENCY_SAMPLES];
+        mLatencyCount = 0;
+        mLogError = null;
+        mSampleMerger = new SampleMerger(MERGE_CAPACITY, MERGE_MAX_WAIT_NS, mMergedSampleListener);
+        mSessionWriter = new SessionWriter(createSessionFile(), null);
+
+        mPipelineThread = Thread.currentThread();
+        long startNanos = System.nanoTime();
+        for (SimulatedDevice device : mDevices) {
+            mSampleMerger.addSource(device.mDeviceAddress, startNanos);
+        }
+
+        mProducing = true;
+        final Thread[] producers = new Thread[mDeviceCount];
+        for (int i = 0; i < mDeviceCount; i++) {
+            producers[i] = new Thread(mDevices[i], "SimulatedPeripheral-" + (i + 1));
+            producers[i].start();
+        }
+        Thread watcher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (Thread producer : producers) {
+                    try {
+                        producer.join();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                mProducing = false;
+                LockSupport.unpark(mPipelineThread);
+            }
+        }, "IngestBenchmark-Watcher");
+        watcher.start();
+
+        // Pipeline loop, standing in for the pipeline HandlerThread
+        while (true) {
+            boolean producing = mProducing;
+            mDrainScheduled.set(false);
+            boolean morePackets = drainAll();
+            if (!morePackets) {
+                if (!producing) {
+                    break;
+                }
+                if (!mDrainScheduled.get()) {
+                    LockSupport.parkNanos(1000000L);
+                }
+            }
+        }
+        watcher.join();
+        long elapsedNanos = System.nanoTime() - startNanos;
+
+        mSampleMerger.flushAll();
+        mSessionWriter.close();
+        if (mLogError != null) {
+            throw mLogError;
+        }
+
+        Result result = new Result(mExerciseMode, mDeviceCount);
+        result.mBytesWritten = mSessionWriter.getBytesWritten();
+        result.mMaxFlushNanos = mSessionWriter.getMaxFlushNanos();
+        result.mElapsedNanos = elapsedNanos;
+        result.mMergedSamples = mSampleMerger.getEmittedCount();
+        result.mLateSamples = mSampleMerger.getLateCount();
+        for (SimulatedDevice device : mDevices) {
+            device.mLogWriter.close();
+            result.mBytesWritten += device.mLogWriter.getBytesWritten();
+            result.mMaxFlushNanos = Math.max(result.mMaxFlushNanos, device.mLogWriter.getMaxFlushNanos());
+            result.mPacketsSent += device.mPacketsSent;
+            result.mPacketsProcessed += device.mMetrics.getPacketsProcessed();
+            result.mPacketsDropped += device.mPacketBuffer.getDroppedCount();
+            result.mInvalidPackets += device.mMetrics.getInvalidPackets();
+            result.mSamplesDecoded += device.mMetrics.getSamplesDecoded();
+            result.mSamplesLost += device.mStreamIntegrity.getLost();
+            result.mSamplesLostOnAir += device.mPeripheral.getSamplesLost();
+            publish(device, result);
+        }
+
+        long[] latencies = Arrays.copyOf(mLatencies, mLatencyCount);
+        Arrays.sort(latencies);
+        if (latencies.length > 0) {
+            result.mP50LatencyNanos = latencies[(int) ((latencies.length - 1) * 0.50)];
+            result.mP99LatencyNanos = latencies[(int) ((latencies.length - 1) * 0.99)];
+            result.mMaxLatencyNanos = latencies[latencies.length - 1];
+        }
+        mLatencies = null;
+        return result;
+    }
+
+    /**
+     * One pass of TexTronicsManagerService's drain runnable over every device.
+     *
+     * @return true if a packet buffer still holds packets.
+     */
+    private boolean drainAll() {
+        boolean morePackets = false;
+        for (SimulatedDevice device : mDevices) {
+            mDrainDevice = device;
+            device.mMetrics.onDrainStarted(device.mPacketBuffer.size(), device.mPacketBuffer.getDroppedCount());
+            device.mPacketBuffer.drain(mPacketConsumer, MAX_PACKETS_PER_DRAIN);
+            dispatchSampleBlock(device);
+            mDrainDevice = null;
+            if (!device.mPacketBuffer.isEmpty()) {
+                morePackets = true;
+            }
+        }
+        mSampleMerger.flush(System.nanoTime());
+        try {
+            mSessionWriter.flushIfDue(System.nanoTime());
+        } catch (IOException e) {
+            mLogError = e;
+        }
+        return morePackets;
+    }
+
+    private final PacketRingBuffer.PacketConsumer mPacketConsumer = new PacketRingBuffer.PacketConsumer() {
+        @Override
+        public void onPacket(ByteBuffer packet, long timestampNanos) {
+            SimulatedDevice device = mDrainDevice;
+            if (device.mSampleBlock.remaining() < packet.remaining()) {
+                dispatchSampleBlock(device);
+            }
+            device.mSampleBlock.beginPacket(timestampNanos);
+            int samples = device.mDecoder.decode(packet, device.mSampleBlock);
+
+            // Decoded but not yet logged or merged; the rest of the work is timed per block
+            device.mMetrics.onPacketProcessed(System.nanoTime() - timestampNanos, samples);
+        }
+    };
+
+    /**
+     * The SampleBlockSinks of TexTronicsManagerService: stream integrity and clock alignment, the
+     * device's CSV file, and the merged session stream.
+     */
+    private void dispatchSampleBlock(SimulatedDevice device) {
+        SampleBlock block = device.mSampleBlock;
+        if (block.isEmpty()) {
+            return;
+        }
+
+        for (int sample = 0; sample < block.size(); sample++) {
+            device.mStreamIntegrity.onSample(block.getTimestamp(sample), block.getReceivedNanos(sample));
+            block.setUnwrappedTimestamp(sample, device.mStreamIntegrity.getUnwrappedTimestamp());
+            if (block.isLastOfPacket(sample)) {
+                device.mClockAligner.addObservation(block.getUnwrappedTimestamp(sample), block.getReceivedNanos(sample));
+            }
+        }
+
+        // As TexTronicsDevice.logData()
+        try {
+            device.mLogWriter.append(block);
+        } catch (IOException e) {
+            mLogError = e;
+        }
+
+        for (int sample = 0; sample < block.size(); sample++) {
+            long deviceTime = block.getUnwrappedTimestamp(sample);
+            long receivedNanos = block.getReceivedNanos(sample);
+            if (!device.mClockAligner.isAligned()) {
+                device.mClockAligner.addObservation(deviceTime, receivedNanos);
+            }
+            int valueCount = block.getSample(sample, mSampleValues);
+            mSampleMerger.offer(device.mDeviceAddress, device.mClockAligner.toPhoneTimeNanos(deviceTime),
+                    mSampleValues, valueCount, receivedNanos);
+        }
+
+        // Latency of each packet in the block, from being received to being logged and merged
+        long now = System.nanoTime();
+        for (int sample = 0; sample < block.size(); sample++) {
+            if (block.isLastOfPacket(sample) && mLatencyCount < mLatencies.length) {
+                mLatencies[mLatencyCount++] = now - block.getReceivedNanos(sample);
+            }
+        }
+        block.clear();
+    }
+
+    private final SampleMerger.Listener mMergedSampleListener = new SampleMerger.Listener() {
+        @Override
+        public void onMergedSample(String deviceAddress, long timeNanos, int[] values, int valueCount) {
+            byte[] address = mSessionAddresses.get(deviceAddress);
+            if (address == null) {
+                address = CsvEncoder.toAscii(deviceAddress);
+                mSessionAddresses.put(deviceAddress, address);
+            }
+            mSessionLine.clear();
+            mSessionLine.append(timeNanos / 1000000).comma().append(address);
+            for (int i = 0; i < SampleMerger.MAX_VALUES; i++) {
+                mSessionLine.comma();
+                if (i < valueCount) {
+                    mSessionLine.append(values[i]);
+                }
+            }
+            mSessionLine.endRow();
+            try {
+                mSessionWriter.append(mSessionLine.getBuffer(), 0, mSessionLine.length());
+            } catch (IOException e) {
+                mLogError = e;
+            }
+        }
+    };
+
+    private File createSessionFile() throws IOException {
+        File sessionFile = File.createTempFile("ingest_benchmark_", "_session.csv");
+        sessionFile.deleteOnExit();
+        return sessionFile;
+    }
+
+    /**
+     * Builds the MQTT message sent when the device disconnects, streaming the device's session
+     * file as CSV through the compressor into the message.
+     */
+    private void publish(SimulatedDevice device, Result result) throws IOException {
+        long start = System.nanoTime();
+        JsonData json = new JsonData("", device.mDeviceAddress, "", "", "", null,
+                device.mStreamIntegrity.toJson(), mUploadCompressor.getCodec().getName());
+        CsvInputStream csv = new CsvInputStream(device.mLogFile);
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        try {
+            payload.write(json.getHead().getBytes(UTF_8));
+            OutputStream data = Base64.getEncoder().wrap(payload);
+            mUploadCompressor.compress(csv, data);
+            data.close();
+            payload.write(json.getTail().getBytes(UTF_8));
+        } finally {
+            csv.close();
+        }
+        result.mPublishNanos += System.nanoTime() - start;
+        result.mPublishedBytes += payload.size();
+        if (!device.mLogFile.delete()) {
+            device.mLogFile.deleteOnExit();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        ExerciseMode exerciseMode = ExerciseMode.valueOf(System.getProperty("mode", "FLEX_ONLY"));
+        int devices = Integer.getInteger("devices", 2);
+        double speedup = Double.parseDouble(System.getProperty("speedup", "1"));
+        long durationMs = Long.getLong("duration", 5000L);
+        int payloadSize = Integer.getInteger("payload", MAX_PAYLOAD_SIZE);
+        double lossRate = Double.parseDouble(System.getProperty("loss", "0"));
+        long maxP99Ms = Long.getLong("maxP99", DEFAULT_MAX_P99_MS);
+
+        Result result = new IngestBenchmark(exerciseMode, devices, speedup, durationMs)
+                .setPayloadSize(payloadSize)
+                .setLossRate(lossRate)
+                .run();
+        System.out.println(result);
+        if (result.getPacketsDropped() > 0 || result.getP99LatencyNanos() > maxP99Ms * 1000000L) {
+            System.out.println("FAILED: dropped packets or p99 latency over " + maxP99Ms + "ms");
+            System.exit(1);
+        }
+    }
+}
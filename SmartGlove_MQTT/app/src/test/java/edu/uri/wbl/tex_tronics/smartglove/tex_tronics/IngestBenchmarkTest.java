@@ -0,0 +1,51 @@
+package edu.uri.wbl.tex_tronics.smartglove.tex_tronics;
+
+import org.junit.Test;
+
+import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.enums.ExerciseMode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the packet pipeline with several devices streaming at ten times the firmware's rate and
+ * checks that every packet is accounted for. Only counts that do not depend on how fast the machine
+ * is are checked; throughput and latency are gated by IngestBenchmark.main().
+ */
+public class IngestBenchmarkTest {
+    @Test
+    public void accountsForFlexOnlyPackets() throws Exception {
+        IngestBenchmark.Result result = new IngestBenchmark(ExerciseMode.FLEX_ONLY, 4, 10, 1000)
+                .setPayloadSize(60)
+                .run();
+
+        assertEquals(result.getPacketsSent(), result.getPacketsProcessed() + result.getPacketsDropped());
+        assertEquals(0, result.getInvalidPackets());
+        assertTrue(result.getSamplesDecoded() > 0);
+        assertEquals(result.getSamplesDecoded(), result.getMergedSamples());
+    }
+
+    @Test
+    public void accountsForFlexImuPackets() throws Exception {
+        IngestBenchmark.Result result = new IngestBenchmark(ExerciseMode.FLEX_IMU, 4, 10, 1000).run();
+
+        assertEquals(result.getPacketsSent(), result.getPacketsProcessed() + result.getPacketsDropped());
+        assertEquals(0, result.getInvalidPackets());
+        // A sample takes a Flex packet and an IMU packet
+        assertTrue(result.getSamplesDecoded() > 0);
+        assertTrue(result.getSamplesDecoded() <= result.getPacketsProcessed() / 2);
+        assertEquals(result.getSamplesDecoded(), result.getMergedSamples());
+    }
+
+    @Test
+    public void countsSamplesLostOnTheAir() throws Exception {
+        IngestBenchmark.Result result = new IngestBenchmark(ExerciseMode.FLEX_ONLY, 2, 10, 500)
+                .setPayloadSize(60)
+                .setLossRate(0.02)
+                .run();
+
+        assertEquals(0, result.getPacketsDropped());
+        assertTrue(result.getSamplesLostOnAir() > 0);
+        assertEquals(result.getSamplesLostOnAir(), result.getSamplesLost());
+    }
+}
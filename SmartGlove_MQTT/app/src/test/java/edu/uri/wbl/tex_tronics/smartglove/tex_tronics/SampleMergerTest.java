@@ -0,0 +1,103 @@
+package edu.uri.wbl.tex_tronics.smartglove.tex_tronics;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that SampleMerger emits samples from several devices in time order.
+ */
+public class SampleMergerTest {
+    private static final long MS = 1000000L;
+    private static final long MAX_WAIT = 500 * MS;
+
+    private final List<String> mDevices = new ArrayList<>();
+    private final List<Long> mTimes = new ArrayList<>();
+    private final List<Integer> mFirstValues = new ArrayList<>();
+
+    private final SampleMerger.Listener mListener = new SampleMerger.Listener() {
+        @Override
+        public void onMergedSample(String deviceAddress, long timeNanos, int[] values, int valueCount) {
+            mDevices.add(deviceAddress);
+            mTimes.add(timeNanos);
+            mFirstValues.add(values[0]);
+        }
+    };
+
+    private static int[] values(int first) {
+        int[] values = new int[SampleMerger.MAX_VALUES];
+        values[0] = first;
+        return values;
+    }
+
+    @Test
+    public void interleavesDevicesByTime() throws Exception {
+        SampleMerger merger = new SampleMerger(64, MAX_WAIT, mListener);
+        merger.addSource("glove", 0);
+        merger.addSource("sock", 0);
+        // Glove every 8 ms, sock every 10 ms, offered in per-device batches
+        for (int i = 0; i < 10; i++) {
+            merger.offer("glove", i * 8 * MS, values(i), 5, 100 * MS);
+        }
+        merger.flush(100 * MS);
+        // Nothing from the sock yet, so nothing can be emitted
+        assertTrue(mTimes.isEmpty());
+        for (int i = 0; i < 8; i++) {
+            merger.offer("sock", i * 10 * MS, values(100 + i), 14, 100 * MS);
+        }
+        merger.flush(100 * MS);
+        merger.flushAll();
+
+        assertEquals(18, mTimes.size());
+        for (int i = 1; i < mTimes.size(); i++) {
+            assertTrue(mTimes.get(i - 1) <= mTimes.get(i));
+        }
+        assertEquals(0, merger.getLateCount());
+    }
+
+    @Test
+    public void waitsForSlowerDevice() throws Exception {
+        SampleMerger merger = new SampleMerger(64, MAX_WAIT, mListener);
+        merger.offer("glove", 0, values(1), 5, 0);
+        merger.offer("sock", 0, values(2), 5, 0);
+        merger.offer("glove", 8 * MS, values(3), 5, 10 * MS);
+        merger.offer("glove", 16 * MS, values(4), 5, 20 * MS);
+        merger.flush(20 * MS);
+
+        // Sock has only reached 0 ms, so later glove samples are held back
+        assertEquals(2, mTimes.size());
+
+        // Once the sock goes silent for longer than MAX_WAIT it no longer holds back the glove
+        merger.flush(MAX_WAIT + MS);
+        assertEquals(4, mTimes.size());
+        assertEquals(Integer.valueOf(4), mFirstValues.get(3));
+    }
+
+    @Test
+    public void removedDevice_isDrainedInOrder() throws Exception {
+        SampleMerger merger = new SampleMerger(64, MAX_WAIT, mListener);
+        merger.offer("glove", 0, values(1), 5, 0);
+        merger.offer("sock", 5 * MS, values(2), 5, 0);
+        merger.removeSource("glove", 0);
+        merger.removeSource("sock", 0);
+
+        assertEquals(2, mTimes.size());
+        assertEquals("glove", mDevices.get(0));
+        assertEquals("sock", mDevices.get(1));
+        assertTrue(merger.isEmpty());
+    }
+
+    @Test
+    public void fullQueue_emitsOldest() throws Exception {
+        SampleMerger merger = new SampleMerger(4, MAX_WAIT, mListener);
+        merger.offer("sock", 0, values(0), 5, 0);
+        for (int i = 0; i < 6; i++) {
+            merger.offer("glove", i * MS, values(i), 5, 0);
+        }
+        assertEquals(3, mTimes.size());
+        assertEquals(Long.valueOf(0), mTimes.get(0));
+    }
+}
@@ -0,0 +1,204 @@
+package edu.uri.wbl.tex_tronics.smartglove.tex_tronics;
+
+import java.util.Random;
+
+import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.decoders.FlexImuDecoder;
+import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.decoders.FlexOnlyDecoder;
+import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.decoders.PacketFormat;
+import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.enums.ExerciseMode;
+
+/**
+ * Stands in for a glove's GATT server: produces the RX notifications the firmware would send, so
+ * the packet pipeline can be exercised without hardware.
+ *
+ * Flex Only follows thingscode/flexonlySerial: as many 6 byte samples (16 bit timestamp, thumb,
+ * index) as fit in the negotiated payload, one sample every 8 ms. Flex + IMU follows
+ * thingscode/Serial: two packets per sample (0x01 with the 32 bit timestamp and the five flex
+ * readings, 0x02 with the IMU readings), one sample every 10 ms, in version 1 of the PacketFormat
+ * until another version is asked for with setFormat().
+ *
+ * Lost notifications can be simulated. In Flex + IMU mode both packets of a sample are lost
+ * together, so every lost sample shows up as a gap in the timestamps.
+ */
+
+public class SimulatedPeripheral {
+    /**
+     * Size of the version 1 Flex + IMU packets.
+     */
+    public static final int FLEX_IMU_PACKET_SIZE = 19;
+
+    private final ExerciseMode mExerciseMode;
+    private final int mSamplesPerPacket;
+    private final int mSamplePeriodMs;
+    private final double mLossRate;
+    private final Random mRandom;
+
+    /**
+     * Device clock (millis()) at the first sample. Starts close to the 16 bit rollover so short
+     * runs also cover it.
+     */
+    private final long mStartMillis;
+
+    private int mFormatVersion = PacketFormat.VERSION_1;
+    private long mSample = 0;
+    private boolean mImuPending = false;
+    private long mSamplesSent = 0;
+    private long mSamplesLost = 0;
+
+    /**
+     * @param payloadSize Negotiated notification payload (Flex Only), ignored in Flex + IMU mode.
+     * @param lossRate Fraction of notifications lost on the air, 0 for none.
+     * @param seed Seed for the loss pattern and sensor values.
+     */
+    public SimulatedPeripheral(ExerciseMode exerciseMode, int payloadSize, double lossRate, long seed) {
+        mExerciseMode = exerciseMode;
+        switch (exerciseMode) {
+            case FLEX_ONLY:
+                mSamplesPerPacket = Math.max(1, payloadSize / FlexOnlyDecoder.SAMPLE_SIZE);
+                mSamplePeriodMs = 8;
+                break;
+            case FLEX_IMU:
+                mSamplesPerPacket = 1;
+                mSamplePeriodMs = 10;
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported Exercise Mode");
+        }
+        mLossRate = lossRate;
+        mRandom = new Random(seed);
+        mStartMillis = 0xFFFF - 200 + mRandom.nextInt(100);
+    }
+
+    public ExerciseMode getExerciseMode() {
+        return mExerciseMode;
+    }
+
+    /**
+     * @return Device time between two notifications, on average.
+     */
+    public long getPacketIntervalNanos() {
+        long sampleNanos = mSamplePeriodMs * 1000000L;
+        return mExerciseMode == ExerciseMode.FLEX_IMU ? sampleNanos / 2 : sampleNanos * mSamplesPerPacket;
+    }
+
+    public int getSamplesPerPacket() {
+        return mSamplesPerPacket;
+    }
+
+    /**
+     * Handles COMMAND_SET_FORMAT (Flex + IMU only), like the firmware's set_format().
+     *
+     * @param descriptor Receives the format descriptor sent back.
+     * @return Length of the descriptor.
+     */
+    public int setFormat(int version, byte[] descriptor) {
+        mFormatVersion = Math.max(PacketFormat.VERSION_1, Math.min(version, PacketFormat.LATEST_VERSION));
+        descriptor[0] = PacketFormat.PACKET_ID_DESCRIPTOR;
+        descriptor[1] = (byte) mFormatVersion;
+        putShort(descriptor, 2, PacketFormat.LEGACY.getChannelMap());
+        return PacketFormat.DESCRIPTOR_SIZE;
+    }
+
+    /**
+     * Writes the next notification that reaches the phone.
+     *
+     * @param packet Buffer of at least FLEX_IMU_PACKET_SIZE or the payload size.
+     * @return Length of the notification.
+     */
+    public int nextPacket(byte[] packet) {
+        if (mExerciseMode == ExerciseMode.FLEX_IMU) {
+            if (mImuPending) {
+                mImuPending = false;
+                return writeImuPacket(packet);
+            }
+            while (mLossRate > 0 && mRandom.nextDouble() < mLossRate) {
+                mSample++;
+                mSamplesLost++;
+            }
+            int length = writeFlexPacket(packet);
+            mImuPending = true;
+            mSample++;
+            mSamplesSent++;
+            return length;
+        }
+
+        while (mLossRate > 0 && mRandom.nextDouble() < mLossRate) {
+            mSample += mSamplesPerPacket;
+            mSamplesLost += mSamplesPerPacket;
+        }
+        for (int i = 0; i < mSamplesPerPacket; i++) {
+            int offset = i * FlexOnlyDecoder.SAMPLE_SIZE;
+            putShort(packet, offset, (int) (millis(mSample) & 0xFFFF));
+            putShort(packet, offset + 2, flex(mSample, 0));
+            putShort(packet, offset + 4, flex(mSample, 1));
+            mSample++;
+        }
+        mSamplesSent += mSamplesPerPacket;
+        return mSamplesPerPacket * FlexOnlyDecoder.SAMPLE_SIZE;
+    }
+
+    /**
+     * @return Samples whose notifications reached the phone.
+     */
+    public long getSamplesSent() {
+        return mSamplesSent;
+    }
+
+    /**
+     * @return Samples whose notifications were lost.
+     */
+    public long getSamplesLost() {
+        return mSamplesLost;
+    }
+
+    private int writeFlexPacket(byte[] packet) {
+        long millis = millis(mSample);
+        packet[0] = FlexImuDecoder.PACKET_ID_FLEX;
+        packet[1] = (byte) (millis >> 24);
+        packet[2] = (byte) (millis >> 16);
+        packet[3] = (byte) (millis >> 8);
+        packet[4] = (byte) millis;
+        for (int finger = 0; finger < PacketFormat.FLEX_CHANNELS; finger++) {
+            putShort(packet, 5 + finger * 2, flex(mSample, finger));
+        }
+        if (mFormatVersion >= PacketFormat.VERSION_2) {
+            return PacketFormat.LEGACY.getFlexPacketSize();
+        }
+        for (int i = PacketFormat.LEGACY.getFlexPacketSize(); i < FLEX_IMU_PACKET_SIZE; i++) {
+            packet[i] = 0;
+        }
+        return FLEX_IMU_PACKET_SIZE;
+    }
+
+    private int writeImuPacket(byte[] packet) {
+        // The IMU packet belongs to the sample written by the previous flex packet
+        long sample = mSample - 1;
+        int offset = 0;
+        packet[offset++] = FlexImuDecoder.PACKET_ID_IMU;
+        if (mFormatVersion >= PacketFormat.VERSION_2) {
+            packet[offset++] = (byte) millis(sample);
+        }
+        for (int axis = 0; axis < 9; axis++) {
+            putShort(packet, offset, (int) ((sample * (axis + 1)) & 0x7FFF));
+            offset += 2;
+        }
+        return offset;
+    }
+
+    private long millis(long sample) {
+        return (mStartMillis + sample * mSamplePeriodMs) & 0xFFFFFFFFL;
+    }
+
+    /**
+     * 10 bit ADC reading of a finger slowly bending back and forth.
+     */
+    private static int flex(long sample, int finger) {
+        long phase = (sample + finger * 37) % 200;
+        return 300 + (int) (phase < 100 ? phase * 4 : (200 - phase) * 4);
+    }
+
+    private static void putShort(byte[] packet, int offset, int value) {
+        packet[offset] = (byte) (value >> 8);
+        packet[offset + 1] = (byte) value;
+    }
+}
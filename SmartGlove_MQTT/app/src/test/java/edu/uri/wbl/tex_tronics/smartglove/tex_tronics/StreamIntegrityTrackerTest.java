@@ -0,0 +1,96 @@
+package edu.uri.wbl.tex_tronics.smartglove.tex_tronics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Feeds StreamIntegrityTracker synthetic 8 ms sample streams with known faults.
+ */
+public class StreamIntegrityTrackerTest {
+    private static final int PERIOD_MS = 8;
+    private static final long MS = 1000000L;
+
+    @Test
+    public void cleanStream_hasNoLoss() throws Exception {
+        StreamIntegrityTracker tracker = new StreamIntegrityTracker(16, PERIOD_MS);
+        for (int i = 0; i < 1000; i++) {
+            tracker.onSample(i * PERIOD_MS, i * PERIOD_MS * MS);
+        }
+        assertEquals(1000, tracker.getSamples());
+        assertEquals(0, tracker.getLost());
+        assertEquals(0, tracker.getGaps());
+        assertEquals(0.0, tracker.getLossRate(), 0);
+        assertEquals(0.0, tracker.getJitterMs(), 1e-9);
+        assertEquals(125.0, tracker.getThroughput(), 0.2);
+    }
+
+    @Test
+    public void rollover_isUnwrapped() throws Exception {
+        StreamIntegrityTracker tracker = new StreamIntegrityTracker(16, PERIOD_MS);
+        long start = 65536 - 4 * PERIOD_MS;
+        for (int i = 0; i < 10; i++) {
+            long timestamp = start + i * PERIOD_MS;
+            tracker.onSample(timestamp & 0xFFFF, i * PERIOD_MS * MS);
+        }
+        assertEquals(0, tracker.getLost());
+        assertEquals(start + 9 * PERIOD_MS, tracker.getUnwrappedTimestamp());
+    }
+
+    @Test
+    public void droppedSamples_areCounted() throws Exception {
+        StreamIntegrityTracker tracker = new StreamIntegrityTracker(16, PERIOD_MS);
+        for (int i = 0; i < 100; i++) {
+            // Drop samples 10-12 and 50
+            if ((i >= 10 && i <= 12) || i == 50) {
+                continue;
+            }
+            tracker.onSample(i * PERIOD_MS, i * PERIOD_MS * MS);
+        }
+        assertEquals(96, tracker.getSamples());
+        assertEquals(4, tracker.getLost());
+        assertEquals(2, tracker.getGaps());
+        assertEquals(3, tracker.getMaxGap());
+        assertEquals(0.04, tracker.getLossRate(), 1e-9);
+    }
+
+    @Test
+    public void duplicatesAndReordering_doNotCountAsLoss() throws Exception {
+        StreamIntegrityTracker tracker = new StreamIntegrityTracker(16, PERIOD_MS);
+        tracker.onSample(0, 0);
+        tracker.onSample(8, 8 * MS);
+        tracker.onSample(8, 8 * MS);
+        tracker.onSample(16, 16 * MS);
+        tracker.onSample(8, 16 * MS);
+        tracker.onSample(24, 24 * MS);
+        assertEquals(1, tracker.getDuplicates());
+        assertEquals(1, tracker.getOutOfOrder());
+        assertEquals(0, tracker.getLost());
+        assertEquals(24, tracker.getUnwrappedTimestamp());
+    }
+
+    @Test
+    public void gapLongerThanCounterRange_usesReceiveTime() throws Exception {
+        StreamIntegrityTracker tracker = new StreamIntegrityTracker(16, PERIOD_MS);
+        tracker.onSample(0, 0);
+        // 70 s outage (more than the 65.5 s counter range)
+        long outageMs = 70000;
+        tracker.onSample(outageMs & 0xFFFF, outageMs * MS);
+        assertEquals(outageMs, tracker.getUnwrappedTimestamp());
+        assertEquals(outageMs / PERIOD_MS - 1, tracker.getLost());
+    }
+
+    @Test
+    public void jitter_tracksTimestampDeviation() throws Exception {
+        StreamIntegrityTracker tracker = new StreamIntegrityTracker(32, PERIOD_MS);
+        long timestamp = 0;
+        for (int i = 0; i < 500; i++) {
+            // Alternate 7 ms and 9 ms intervals
+            timestamp += (i % 2 == 0) ? 7 : 9;
+            tracker.onSample(timestamp, timestamp * MS);
+        }
+        assertEquals(0, tracker.getLost());
+        assertEquals(1.0, tracker.getJitterMs(), 0.05);
+        assertTrue(tracker.toJson().startsWith("{\"Samples\": 500"));
+    }
+}
@@ -0,0 +1,104 @@
+package edu.uri.wbl.tex_tronics.smartglove.tex_tronics.calibration;
+
+import org.junit.Test;
+
+import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.data_types.SampleBlock;
+import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.enums.DeviceType;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the calibration profile, its capture and the lookup tables built from it.
+ */
+public class AngleTableTest {
+    @Test
+    public void interpolatesBetweenPointsAndHoldsEnds() throws Exception {
+        CalibrationProfile profile = new CalibrationProfile("patient", DeviceType.SMART_GLOVE);
+        profile.setPoint(SampleBlock.THUMB, 90f, 800);
+        profile.setPoint(SampleBlock.THUMB, 0f, 400);
+        AngleTable table = new AngleTable(profile);
+
+        assertTrue(table.isCalibrated(SampleBlock.THUMB));
+        assertFalse(table.isCalibrated(SampleBlock.INDEX));
+        assertEquals(0f, table.getDegrees(SampleBlock.THUMB, 0), 0.01f);
+        assertEquals(0f, table.getDegrees(SampleBlock.THUMB, 400), 0.01f);
+        assertEquals(45f, table.getDegrees(SampleBlock.THUMB, 600), 0.01f);
+        assertEquals(90f, table.getDegrees(SampleBlock.THUMB, 800), 0.01f);
+        assertEquals(90f, table.getDegrees(SampleBlock.THUMB, 0xFFFF), 0.01f);
+        assertEquals(450, table.getDeciDegrees(SampleBlock.THUMB, 600));
+        assertTrue(Float.isNaN(table.getDegrees(SampleBlock.INDEX, 600)));
+        assertEquals(AngleTable.NOT_CALIBRATED, table.getDeciDegrees(SampleBlock.INDEX, 600));
+    }
+
+    @Test
+    public void convertsBlockColumn() throws Exception {
+        CalibrationProfile profile = new CalibrationProfile("patient", DeviceType.SMART_GLOVE);
+        profile.setPoint(SampleBlock.INDEX, 0f, 100);
+        profile.setPoint(SampleBlock.INDEX, 90f, 1000);
+        AngleTable table = new AngleTable(profile);
+        SampleBlock block = new SampleBlock(4);
+        for (int i = 0; i < 3; i++) {
+            block.onFlex(i, 0, 100 + i * 450, 0, 0, 0);
+            block.onSampleComplete();
+        }
+
+        float[] degrees = new float[block.size()];
+        assertTrue(table.convert(block, SampleBlock.INDEX, degrees));
+        assertEquals(0f, degrees[0], 0.01f);
+        assertEquals(45f, degrees[1], 0.01f);
+        assertEquals(90f, degrees[2], 0.01f);
+        assertFalse(table.convert(block, SampleBlock.THUMB, degrees));
+    }
+
+    @Test
+    public void captureAveragesPosesIntoProfile() throws Exception {
+        CalibrationCapture capture = new CalibrationCapture(new CalibrationProfile("patient", DeviceType.SMART_GLOVE));
+        capture.onFlex(0, 999, 999, 0, 0, 0);   // Ignored until begin()
+
+        capture.begin(CalibrationCapture.POSE_OPEN_DEGREES);
+        for (int i = 0; i < CalibrationCapture.MIN_SAMPLES; i++) {
+            capture.onFlex(i, 300 + (i % 2) * 10, 200, 0, 0, 0);
+        }
+        assertTrue(capture.finish());
+
+        capture.begin(CalibrationCapture.POSE_FIST_DEGREES);
+        capture.onFlex(0, 700, 600, 0, 0, 0);
+        assertFalse(capture.finish());
+        capture.begin(CalibrationCapture.POSE_FIST_DEGREES);
+        for (int i = 0; i < CalibrationCapture.MIN_SAMPLES; i++) {
+            capture.onFlex(i, 700, 600, 0, 0, 0);
+        }
+        assertTrue(capture.finish());
+
+        CalibrationProfile profile = capture.getProfile();
+        assertEquals(2, profile.getPointCount(SampleBlock.THUMB));
+        assertEquals(305, profile.getRaw(SampleBlock.THUMB, 0));
+        assertEquals(700, profile.getRaw(SampleBlock.THUMB, 1));
+        assertTrue(profile.isCalibrated(SampleBlock.INDEX));
+        // Fingers the device does not send read 0 in both poses
+        assertFalse(profile.isCalibrated(SampleBlock.PINKY));
+    }
+
+    @Test
+    public void profileSurvivesEncoding() throws Exception {
+        CalibrationProfile profile = new CalibrationProfile("patient", DeviceType.SMART_SOCK);
+        profile.setPoint(SampleBlock.THUMB, 0f, 410);
+        profile.setPoint(SampleBlock.THUMB, 90f, 790);
+        profile.setPoint(SampleBlock.THUMB, 90f, 780);   // Replaces the previous 90 degree point
+        profile.setPoint(SampleBlock.RING, 45f, 12345);
+
+        CalibrationProfile decoded = CalibrationProfile.decode("patient", DeviceType.SMART_SOCK, profile.encode());
+
+        assertEquals(2, decoded.getPointCount(SampleBlock.THUMB));
+        assertEquals(780, decoded.getRaw(SampleBlock.THUMB, 1));
+        assertEquals(90f, decoded.getDegrees(SampleBlock.THUMB, 1), 0f);
+        assertEquals(1, decoded.getPointCount(SampleBlock.RING));
+        assertEquals(0, decoded.getPointCount(SampleBlock.INDEX));
+        try {
+            CalibrationProfile.decode("patient", DeviceType.SMART_SOCK, "THUMB=oops");
+            fail("Malformed calibration accepted");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+}
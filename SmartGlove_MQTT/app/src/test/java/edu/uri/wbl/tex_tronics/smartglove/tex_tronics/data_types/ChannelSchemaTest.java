@@ -0,0 +1,52 @@
+package edu.uri.wbl.tex_tronics.smartglove.tex_tronics.data_types;
+
+import org.junit.Test;
+
+import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.enums.DeviceType;
+import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.enums.ExerciseMode;
+import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.exceptions.IllegalDeviceType;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class ChannelSchemaTest {
+    @Test
+    public void headersMatchTheGloveCsvFiles() {
+        assertEquals("Thumb,Index,Middle,Ring,Pinky",
+                ChannelSchema.get(DeviceType.SMART_GLOVE, ExerciseMode.FLEX_ONLY).getHeader());
+        assertEquals("Thumb,Index,Middle,Ring,Pinky,Acc(x),Acc(y),Acc(z),Gyr(x),Gyr(y),Gyr(z),Mag(x),Mag(y),Mag(z)",
+                ChannelSchema.get(DeviceType.SMART_GLOVE, ExerciseMode.FLEX_IMU).getHeader());
+    }
+
+    @Test
+    public void resolvesChannelsByIndex() throws IllegalDeviceType {
+        ChannelSchema schema = ChannelSchema.get(DeviceType.SMART_SOCK, ExerciseMode.FLEX_IMU);
+        assertNotNull(schema);
+        int gyrY = schema.require(Channel.GYR_Y);
+        assertEquals(Channel.GYR_Y, schema.getChannel(gyrY));
+        assertEquals(SampleBlock.GYR_Y, schema.getColumn(gyrY));
+
+        SampleBlock block = new SampleBlock(1);
+        block.onFlex(0, 1, 2, 3, 4, 5);
+        block.onImu(6, 7, 8, 9, 10, 11, 12, 13, 14);
+        block.onSampleComplete();
+        assertEquals(10, schema.getValue(block, gyrY, 0));
+    }
+
+    @Test
+    public void rejectsUnsupportedChannels() {
+        ChannelSchema schema = ChannelSchema.get(DeviceType.SMART_GLOVE, ExerciseMode.FLEX_ONLY);
+        assertFalse(schema.contains(Channel.ACC_X));
+        assertEquals(-1, schema.indexOf(Channel.MAG_Z));
+
+        boolean rejected = false;
+        try {
+            schema.require(Channel.ACC_X);
+        } catch (IllegalDeviceType e) {
+            rejected = true;
+        }
+        assertTrue(rejected);
+    }
+}
@@ -0,0 +1,81 @@
+package edu.uri.wbl.tex_tronics.smartglove.tex_tronics.data_types;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.decoders.FlexImuDecoder;
+import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.decoders.FlexOnlyDecoder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SampleBlockTest {
+    @Test
+    public void decodesFlexOnlyPacketsIntoColumns() {
+        SampleBlock block = new SampleBlock(16);
+        FlexOnlyDecoder decoder = new FlexOnlyDecoder();
+
+        block.beginPacket(100);
+        decoder.decode(ByteBuffer.wrap(new byte[] {0, 8, 1, 0, 2, 0, 0, 16, 1, 1, 2, 1}), block);
+        block.beginPacket(200);
+        decoder.decode(ByteBuffer.wrap(new byte[] {0, 24, 1, 2, 2, 2}), block);
+
+        assertEquals(3, block.size());
+        assertEquals(SampleBlock.FLEX_CHANNELS, block.getChannelsUsed());
+        assertEquals(16, block.getTimestamp(1));
+        assertEquals(0x0101, block.get(SampleBlock.THUMB, 1));
+        assertEquals(0x0202, block.getChannel(SampleBlock.INDEX)[2]);
+        assertEquals(100, block.getReceivedNanos(0));
+        assertFalse(block.isLastOfPacket(0));
+        assertTrue(block.isLastOfPacket(1));
+        assertTrue(block.isLastOfPacket(2));
+    }
+
+    @Test
+    public void keepsIncompleteSampleAcrossClear() {
+        SampleBlock block = new SampleBlock(16);
+        FlexImuDecoder decoder = new FlexImuDecoder();
+        byte[] flex = {FlexImuDecoder.PACKET_ID_FLEX, 0, 0, 0, 10, 0, 1, 0, 2};
+        byte[] imu = new byte[19];
+        imu[0] = FlexImuDecoder.PACKET_ID_IMU;
+        imu[18] = 9;
+
+        block.beginPacket(1);
+        decoder.decode(ByteBuffer.wrap(flex), block);
+        decoder.decode(ByteBuffer.wrap(imu), block);
+        flex[4] = 20;
+        block.beginPacket(2);
+        decoder.decode(ByteBuffer.wrap(flex), block);
+        assertEquals(1, block.size());
+
+        // The second sample's IMU packet arrives after the block was handed off
+        block.clear();
+        assertTrue(block.isEmpty());
+        block.beginPacket(3);
+        decoder.decode(ByteBuffer.wrap(imu), block);
+
+        assertEquals(1, block.size());
+        assertEquals(20, block.getTimestamp(0));
+        assertEquals(2, block.getReceivedNanos(0));
+        assertEquals(9, block.get(SampleBlock.MAG_Z, 0));
+
+        int[] values = new int[SampleBlock.CHANNEL_COUNT];
+        assertEquals(SampleBlock.CHANNEL_COUNT, block.getSample(0, values));
+        assertEquals(1, values[SampleBlock.THUMB]);
+        assertEquals(2, values[SampleBlock.INDEX]);
+    }
+
+    @Test
+    public void ignoresSamplesPastCapacity() {
+        SampleBlock block = new SampleBlock(2);
+        for (int i = 0; i < 3; i++) {
+            block.onFlex(i, i, i, 0, 0, 0);
+            block.onSampleComplete();
+        }
+        assertEquals(2, block.size());
+        assertEquals(0, block.remaining());
+        assertEquals(1, block.getTimestamp(1));
+    }
+}
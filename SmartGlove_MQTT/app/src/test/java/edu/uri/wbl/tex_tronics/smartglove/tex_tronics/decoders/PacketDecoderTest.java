@@ -0,0 +1,225 @@
+package edu.uri.wbl.tex_tronics.smartglove.tex_tronics.decoders;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import edu.uri.wbl.tex_tronics.smartglove.tex_tronics.enums.ExerciseMode;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks each PacketDecoder against hand-built packets in its wire format.
+ */
+public class PacketDecoderTest {
+    /**
+     * Records the last values reported by a decoder.
+     */
+    private static class RecordingSink implements SampleSink {
+        long timestamp;
+        int thumb, index, pinky;
+        int accX, gyrY, magZ;
+        int flexCount, imuCount, completeCount;
+
+        @Override
+        public void onFlex(long timestamp, int thumb, int index, int middle, int ring, int pinky) {
+            this.timestamp = timestamp;
+            this.thumb = thumb;
+            this.index = index;
+            this.pinky = pinky;
+            flexCount++;
+        }
+
+        @Override
+        public void onImu(int accX, int accY, int accZ, int gyrX, int gyrY, int gyrZ, int magX, int magY, int magZ) {
+            this.accX = accX;
+            this.gyrY = gyrY;
+            this.magZ = magZ;
+            imuCount++;
+        }
+
+        @Override
+        public void onSampleComplete() {
+            completeCount++;
+        }
+    }
+
+    @Test
+    public void registry_createsDecoderForEachMode() throws Exception {
+        for (ExerciseMode exerciseMode : ExerciseMode.values()) {
+            PacketDecoder decoder = PacketDecoders.create(exerciseMode);
+            assertNotNull(decoder);
+            assertEquals(exerciseMode, decoder.getExerciseMode());
+            assertNotSame(decoder, PacketDecoders.create(exerciseMode));
+        }
+        assertNull(PacketDecoders.create(null));
+    }
+
+    @Test
+    public void flexOnly_decodesEverySampleInPacket() throws Exception {
+        byte[] data = {
+                0x00, 0x08, 0x12, 0x34, 0x00, 0x01,
+                0x00, 0x10, (byte) 0xFF, (byte) 0xFE, 0x00, 0x02,
+                0x00, 0x18, 0x00, 0x03, (byte) 0x80, 0x00,
+                0x7F   // Partial sample is ignored
+        };
+        RecordingSink sink = new RecordingSink();
+
+        int samples = new FlexOnlyDecoder().decode(ByteBuffer.wrap(data), sink);
+
+        assertEquals(3, samples);
+        assertEquals(3, sink.flexCount);
+        assertEquals(3, sink.completeCount);
+        assertEquals(0x18, sink.timestamp);
+        assertEquals(3, sink.thumb);
+        assertEquals(0x8000, sink.index);
+    }
+
+    @Test
+    public void flexOnly_respectsPositionAndLimit() throws Exception {
+        byte[] data = {0x55, 0x00, 0x01, 0x00, 0x02, 0x00, 0x03, 0x55};
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        buffer.position(1);
+        buffer.limit(7);
+        RecordingSink sink = new RecordingSink();
+
+        assertEquals(1, new FlexOnlyDecoder().decode(buffer, sink));
+        assertEquals(1, sink.timestamp);
+        assertEquals(2, sink.thumb);
+        assertEquals(3, sink.index);
+        assertEquals(1, buffer.position());
+        assertEquals(7, buffer.limit());
+    }
+
+    @Test
+    public void flexOnly_rejectsShortPacket() throws Exception {
+        RecordingSink sink = new RecordingSink();
+        assertEquals(PacketDecoder.INVALID_PACKET, new FlexOnlyDecoder().decode(ByteBuffer.wrap(new byte[5]), sink));
+        assertEquals(0, sink.flexCount);
+    }
+
+    @Test
+    public void flexImu_completesSampleOnImuPacket() throws Exception {
+        byte[] flex = {0x01, (byte) 0x80, 0x00, 0x00, 0x01, 0x01, 0x02, 0x03, 0x04};
+        byte[] imu = new byte[19];
+        imu[0] = 0x02;
+        imu[1] = 0x12;
+        imu[2] = 0x34;
+        imu[9] = (byte) 0xAB;
+        imu[10] = (byte) 0xCD;
+        imu[17] = 0x00;
+        imu[18] = 0x07;
+        FlexImuDecoder decoder = new FlexImuDecoder();
+        RecordingSink sink = new RecordingSink();
+
+        assertEquals(0, decoder.decode(ByteBuffer.wrap(flex), sink));
+        assertEquals(0x80000001L, sink.timestamp);
+        assertEquals(0x0102, sink.thumb);
+        assertEquals(0x0304, sink.index);
+        assertEquals(0, sink.completeCount);
+
+        assertEquals(1, decoder.decode(ByteBuffer.wrap(imu), sink));
+        assertEquals(0x1234, sink.accX);
+        assertEquals(0xABCD, sink.gyrY);
+        assertEquals(7, sink.magZ);
+        assertEquals(1, sink.completeCount);
+    }
+
+    @Test
+    public void flexImu_rejectsUnknownOrTruncatedPacket() throws Exception {
+        FlexImuDecoder decoder = new FlexImuDecoder();
+        RecordingSink sink = new RecordingSink();
+
+        assertEquals(PacketDecoder.INVALID_PACKET, decoder.decode(ByteBuffer.wrap(new byte[]{0x03, 0, 0}), sink));
+        assertEquals(PacketDecoder.INVALID_PACKET, decoder.decode(ByteBuffer.wrap(new byte[]{0x02, 0, 0}), sink));
+        assertEquals(PacketDecoder.INVALID_PACKET, decoder.decode(ByteBuffer.allocate(0), sink));
+        assertEquals(0, sink.flexCount + sink.imuCount);
+    }
+
+    @Test
+    public void flexImu_descriptorSwitchesToVersion2() throws Exception {
+        FlexImuDecoder decoder = new FlexImuDecoder();
+        RecordingSink sink = new RecordingSink();
+        assertEquals(PacketFormat.LEGACY, decoder.getFormat());
+
+        assertEquals(0, decoder.decode(ByteBuffer.wrap(descriptor(2, 0x3FFF)), sink));
+        assertEquals(2, decoder.getFormat().getVersion());
+
+        assertEquals(0, decoder.decode(ByteBuffer.wrap(flexV2(0x12345678L, 500)), sink));
+        assertEquals(504, sink.pinky);
+        assertEquals(1, decoder.decode(ByteBuffer.wrap(imuV2(0x78, 0x0042)), sink));
+        assertEquals(0x0042, sink.accX);
+        assertEquals(1, sink.completeCount);
+
+        decoder.reset();
+        assertEquals(PacketFormat.LEGACY, decoder.getFormat());
+        assertEquals(PacketDecoder.INVALID_PACKET, decoder.decode(ByteBuffer.wrap(descriptor(3, 0x3FFF)), sink));
+        assertEquals(PacketFormat.LEGACY, decoder.getFormat());
+    }
+
+    @Test
+    public void flexImu_pairsPacketsByTimestamp() throws Exception {
+        FlexImuDecoder decoder = new FlexImuDecoder();
+        RecordingSink sink = new RecordingSink();
+        decoder.decode(ByteBuffer.wrap(descriptor(2, 0x3FFF)), sink);
+
+        // IMU packet of sample 10 lost: the flex readings of sample 20 must not get sample 10's IMU
+        decoder.decode(ByteBuffer.wrap(flexV2(10, 100)), sink);
+        decoder.decode(ByteBuffer.wrap(flexV2(20, 200)), sink);
+        assertEquals(1, decoder.getUnpairedPackets());
+        assertEquals(0, decoder.decode(ByteBuffer.wrap(imuV2(10, 1)), sink));
+        assertEquals(0, sink.completeCount);
+        assertEquals(2, decoder.getUnpairedPackets());
+
+        assertEquals(1, decoder.decode(ByteBuffer.wrap(imuV2(20, 2)), sink));
+        assertEquals(1, sink.completeCount);
+        assertEquals(200, sink.thumb);
+        assertEquals(2, sink.accX);
+
+        // Flex packet of sample 30 lost
+        assertEquals(0, decoder.decode(ByteBuffer.wrap(imuV2(30, 3)), sink));
+        assertEquals(1, sink.completeCount);
+    }
+
+    @Test
+    public void flexImu_followsChannelMap() throws Exception {
+        FlexImuDecoder decoder = new FlexImuDecoder();
+        RecordingSink sink = new RecordingSink();
+        // Thumb, pinky and the accelerometer only
+        decoder.decode(ByteBuffer.wrap(descriptor(2, 0x0001 | 0x0010 | 0x00E0)), sink);
+        assertEquals(9, decoder.getFormat().getFlexPacketSize());
+        assertEquals(8, decoder.getFormat().getImuPacketSize());
+
+        byte[] flex = {0x01, 0x00, 0x00, 0x00, 0x05, 0x00, 0x11, 0x00, 0x22};
+        byte[] imu = {0x02, 0x05, 0x00, 0x33, 0x00, 0x00, 0x00, 0x00};
+        decoder.decode(ByteBuffer.wrap(flex), sink);
+        assertEquals(0x11, sink.thumb);
+        assertEquals(0, sink.index);
+        assertEquals(0x22, sink.pinky);
+        assertEquals(1, decoder.decode(ByteBuffer.wrap(imu), sink));
+        assertEquals(0x33, sink.accX);
+        assertEquals(0, sink.gyrY);
+    }
+
+    private static byte[] descriptor(int version, int channelMap) {
+        return new byte[] {PacketFormat.PACKET_ID_DESCRIPTOR, (byte) version, (byte) (channelMap >> 8), (byte) channelMap};
+    }
+
+    /**
+     * @return Version 2 flex packet whose fingers read first, first + 1, ... first + 4.
+     */
+    private static byte[] flexV2(long timestamp, int first) {
+        ByteBuffer packet = ByteBuffer.allocate(15);
+        packet.put(FlexImuDecoder.PACKET_ID_FLEX).putInt((int) timestamp);
+        for (int finger = 0; finger < 5; finger++) {
+            packet.putShort((short) (first + finger));
+        }
+        return packet.array();
+    }
+
+    private static byte[] imuV2(long timestamp, int accX) {
+        ByteBuffer packet = ByteBuffer.allocate(20);
+        packet.put(FlexImuDecoder.PACKET_ID_IMU).put((byte) timestamp).putShort((short) accX);
+        return packet.array();
+    }
+}
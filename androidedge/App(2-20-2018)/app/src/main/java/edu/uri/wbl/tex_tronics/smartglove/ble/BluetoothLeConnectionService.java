@@ -1,5 +1,6 @@
 package edu.uri.wbl.tex_tronics.smartglove.ble;
 
+import android.annotation.TargetApi;
 import android.app.Service;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
@@ -10,15 +11,25 @@ import android.bluetooth.BluetoothGattDescriptor;
 import android.bluetooth.BluetoothGattService;
 import android.bluetooth.BluetoothManager;
 import android.bluetooth.BluetoothProfile;
+import android.bluetooth.le.BluetoothLeScanner;
+import android.bluetooth.le.ScanCallback;
+import android.bluetooth.le.ScanFilter;
+import android.bluetooth.le.ScanResult;
+import android.bluetooth.le.ScanSettings;
 import android.content.Context;
 import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.os.Binder;
+import android.os.Build;
 import android.os.Handler;
 import android.os.IBinder;
+import android.os.ParcelUuid;
+import android.os.SystemClock;
 import android.util.Log;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.UUID;
 
 import edu.uri.wbl.tex_tronics.smartglove.smart_glove.SmartGloveManagerService;
@@ -46,9 +57,33 @@ public class BluetoothLeConnectionService extends Service {
 
     private static final String DEBUG_LOG_TAG = BluetoothLeConnectionService.class.getSimpleName();
 
+    /**
+     * Longest time a scan runs before giving up on the device.
+     */
     private static final long SCAN_PERIOD = 10000;
+
+    /**
+     * Delay of batched scan results when the controller can batch them. Short, since the scan only
+     * runs while a patient is waiting to start.
+     */
+    private static final long SCAN_REPORT_DELAY_MS = 200;
+
+    /**
+     * Devices seen within this time are connected to without scanning.
+     */
+    private static final long SCAN_CACHE_TTL_NS = 60 * 1000000000L;
+
     private boolean mScanning;
     private Handler mHandler = new Handler();
+    private ScanCache mScanCache = new ScanCache(SCAN_CACHE_TTL_NS);
+    private ScanCallback mScanCallback;
+    private Runnable mStopScan = new Runnable() {
+        @Override
+        public void run() {
+            log("Scan timed out");
+            scan(false);
+        }
+    };
     private Context mContext;
 
     private IBinder mBinder = new BLEConnectionBinder();
@@ -69,6 +104,8 @@ public class BluetoothLeConnectionService extends Service {
                 case BluetoothProfile.STATE_CONNECTED:
                     log("Connected to " + gatt.getDevice().getName());
                     mBluetoothGattList.put(gatt.getDevice().getAddress(), gatt);
+                    // Keep the device in the cache while connected so a reconnect skips the scan
+                    refreshScanCache(gatt.getDevice().getAddress(), gatt.getDevice().getName());
                     sendBroadcast(generateIntent(gatt.getDevice().getAddress(), GATT_STATE_CONNECTED));
                     String[] deviceInfo = {gatt.getDevice().getName(), gatt.getDevice().getAddress()};
 
@@ -80,6 +117,7 @@ public class BluetoothLeConnectionService extends Service {
                 case BluetoothProfile.STATE_DISCONNECTED:
                     log("Disconnected from " + gatt.getDevice().getName());
                     mBluetoothGattList.remove(gatt.getDevice().getAddress());
+                    refreshScanCache(gatt.getDevice().getAddress(), gatt.getDevice().getName());
                     sendBroadcast(generateIntent(gatt.getDevice().getAddress(), GATT_STATE_DISCONNECTED));
                     gatt.close();
                     break;
@@ -265,55 +303,153 @@ public class BluetoothLeConnectionService extends Service {
         return true;
     }
 
-    // Device scan callback.
+    // Device scan callback (API 19 and 20).
     private BluetoothAdapter.LeScanCallback mLeScanCallback =
             new BluetoothAdapter.LeScanCallback() {
                 @Override
                 public void onLeScan(final BluetoothDevice device, int rssi,
                                      byte[] scanRecord) {
-                    System.out.println("Device Address: " + device.getAddress());
-
-
-
-                    if(device.getAddress().equals(GattDevices.SMART_GLOVE_DEVICE))
-                    {
-                        mBluetoothAdapter.stopLeScan(mLeScanCallback);
-                        mScanning = false;
-                        SmartGloveManagerService.connect(mContext, device.getAddress());
-                    }
-//                    runOnUiThread(new Runnable() {
-//                        @Override
-//                        public void run() {
-//                            //This is where you connect
-//
-//                        }
-//                    });
+                    onDeviceFound(device, rssi);
                 }
             };
 
+    /**
+     * Finds the Smart Glove and connects to it. If the glove was seen recently (see ScanCache) it is
+     * connected to right away without scanning.
+     */
     public void scan(final boolean enable)
     {
-        System.out.println("Started scan from LEConnectionService");
+        if (mBluetoothAdapter == null) {
+            log("Bluetooth Adapter not initialized");
+            return;
+        }
+
         if (enable) {
-            System.out.println("Enabled: " + enable);
+            if (mScanning) {
+                log("Already scanning");
+                return;
+            }
+
+            ScanCache.ScannedDevice cached = mScanCache.get(GattDevices.SMART_GLOVE_DEVICE, SystemClock.elapsedRealtimeNanos());
+            if (cached != null) {
+                log("Found " + cached.getAddress() + " in scan cache (RSSI: " + cached.getRssi() + "), skipping scan");
+                SmartGloveManagerService.connect(mContext, cached.getAddress());
+                return;
+            }
+
             // Stops scanning after a pre-defined scan period.
-            mHandler.postDelayed(new Runnable() {
+            mHandler.postDelayed(mStopScan, SCAN_PERIOD);
+            mScanning = true;
+
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+                startLeScanner();
+            } else {
+                UUID[] myUUIDs = new UUID[] {GattServices.UART_SERVICE};
+                mBluetoothAdapter.startLeScan(myUUIDs, mLeScanCallback);
+            }
+            log("Scanning...");
+        } else {
+            mHandler.removeCallbacks(mStopScan);
+            if (!mScanning) {
+                return;
+            }
+            mScanning = false;
+
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+                stopLeScanner();
+            } else {
+                mBluetoothAdapter.stopLeScan(mLeScanCallback);
+            }
+            log("Scan stopped");
+        }
+    }
+
+    /**
+     * @return Devices advertising the UART service seen recently, strongest signal first.
+     */
+    public List<ScanCache.ScannedDevice> getScannedDevices() {
+        return mScanCache.getDevices(SystemClock.elapsedRealtimeNanos());
+    }
+
+    /**
+     * Scans with BluetoothLeScanner (API 21), filtered and batched. Called only on Lollipop and
+     * later; older versions scan with BluetoothAdapter.startLeScan().
+     */
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private void startLeScanner() {
+        BluetoothLeScanner scanner = mBluetoothAdapter.getBluetoothLeScanner();
+        if (scanner == null) {
+            log("Could not retrieve Bluetooth LE Scanner (is Bluetooth on?)");
+            mHandler.removeCallbacks(mStopScan);
+            mScanning = false;
+            return;
+        }
+        if (mScanCallback == null) {
+            mScanCallback = new ScanCallback() {
+                @Override
+                public void onScanResult(int callbackType, ScanResult result) {
+                    onDeviceFound(result.getDevice(), result.getRssi());
+                }
+
+                @Override
+                public void onBatchScanResults(List<ScanResult> results) {
+                    for (ScanResult result : results) {
+                        onDeviceFound(result.getDevice(), result.getRssi());
+                    }
+                }
+
                 @Override
-                public void run() {
+                public void onScanFailed(int errorCode) {
+                    log("Scan Failed (" + errorCode + ")");
+                    mHandler.removeCallbacks(mStopScan);
                     mScanning = false;
-                    mBluetoothAdapter.stopLeScan(mLeScanCallback);
                 }
-            }, SCAN_PERIOD);
+            };
+        }
 
-            mScanning = true;
+        // Only wake up for devices advertising the UART service
+        List<ScanFilter> filters = new ArrayList<>(1);
+        filters.add(new ScanFilter.Builder().setServiceUuid(new ParcelUuid(GattServices.UART_SERVICE)).build());
 
-            UUID[] myUUIDs = new UUID[] {GattServices.UART_SERVICE};
+        ScanSettings.Builder settings = new ScanSettings.Builder()
+                .setScanMode(ScanSettings.SCAN_MODE_LOW_LATENCY);
+        if (mBluetoothAdapter.isOffloadedScanBatchingSupported()) {
+            settings.setReportDelay(SCAN_REPORT_DELAY_MS);
+        }
+        scanner.startScan(filters, settings.build(), mScanCallback);
+    }
 
-            mBluetoothAdapter.startLeScan(mLeScanCallback);
-        } else {
-            mScanning = false;
-            mBluetoothAdapter.stopLeScan(mLeScanCallback);
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private void stopLeScanner() {
+        BluetoothLeScanner scanner = mBluetoothAdapter.getBluetoothLeScanner();
+        if (scanner == null || mScanCallback == null) {
+            return;
         }
+        // Deliver any batched results still held by the controller before stopping
+        scanner.flushPendingScanResults(mScanCallback);
+        scanner.stopScan(mScanCallback);
+    }
+
+    /**
+     * Called on the main thread for every scan result.
+     */
+    private void onDeviceFound(BluetoothDevice device, int rssi) {
+        if (device == null) {
+            return;
+        }
+        mScanCache.put(device.getAddress(), device.getName(), rssi, SystemClock.elapsedRealtimeNanos());
+
+        if (mScanning && device.getAddress().equals(GattDevices.SMART_GLOVE_DEVICE)) {
+            log("Found " + device.getAddress() + " (RSSI: " + rssi + ")");
+            scan(false);
+            SmartGloveManagerService.connect(mContext, device.getAddress());
+        }
+    }
+
+    private void refreshScanCache(String bluetoothDeviceAddress, String name) {
+        ScanCache.ScannedDevice cached = mScanCache.get(bluetoothDeviceAddress, SystemClock.elapsedRealtimeNanos());
+        int rssi = cached == null ? 0 : cached.getRssi();
+        mScanCache.put(bluetoothDeviceAddress, name, rssi, SystemClock.elapsedRealtimeNanos());
     }
 
     public boolean discoverServices(String bluetoothDeviceAddress)
@@ -0,0 +1,123 @@
+package edu.uri.wbl.tex_tronics.smartglove.ble;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Devices seen recently by a scan (or connected to recently), so connecting to them again does not
+ * need another scan. Entries expire after a fixed time to live because a device that has not been
+ * seen for a while may have been switched off or moved out of range.
+ *
+ * Times are SystemClock.elapsedRealtimeNanos() values passed in by the caller.
+ */
+
+public class ScanCache {
+    public static final class ScannedDevice {
+        private final String mAddress;
+        private String mName;
+        private int mRssi;
+        private long mLastSeenNanos;
+
+        private ScannedDevice(String address) {
+            mAddress = address;
+        }
+
+        public String getAddress() {
+            return mAddress;
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        public int getRssi() {
+            return mRssi;
+        }
+
+        public long getLastSeenNanos() {
+            return mLastSeenNanos;
+        }
+    }
+
+    private final long mTimeToLiveNanos;
+    private final HashMap<String, ScannedDevice> mDevices = new HashMap<>();
+
+    public ScanCache(long timeToLiveNanos) {
+        if (timeToLiveNanos <= 0) {
+            throw new IllegalArgumentException("Invalid Time to Live");
+        }
+        mTimeToLiveNanos = timeToLiveNanos;
+    }
+
+    /**
+     * Adds or refreshes a device.
+     *
+     * @param name Device name, or null to keep the name already cached.
+     */
+    public synchronized void put(String address, String name, int rssi, long nowNanos) {
+        ScannedDevice device = mDevices.get(address);
+        if (device == null) {
+            device = new ScannedDevice(address);
+            mDevices.put(address, device);
+        }
+        if (name != null) {
+            device.mName = name;
+        }
+        device.mRssi = rssi;
+        device.mLastSeenNanos = nowNanos;
+    }
+
+    /**
+     * @return The device if it was seen within the time to live, otherwise null.
+     */
+    public synchronized ScannedDevice get(String address, long nowNanos) {
+        ScannedDevice device = mDevices.get(address);
+        if (device == null) {
+            return null;
+        }
+        if (isExpired(device, nowNanos)) {
+            mDevices.remove(address);
+            return null;
+        }
+        return device;
+    }
+
+    public boolean contains(String address, long nowNanos) {
+        return get(address, nowNanos) != null;
+    }
+
+    public synchronized void remove(String address) {
+        mDevices.remove(address);
+    }
+
+    /**
+     * @return The devices that have not expired, strongest signal first.
+     */
+    public synchronized List<ScannedDevice> getDevices(long nowNanos) {
+        List<ScannedDevice> devices = new ArrayList<>(mDevices.size());
+        Iterator<ScannedDevice> iterator = mDevices.values().iterator();
+        while (iterator.hasNext()) {
+            ScannedDevice device = iterator.next();
+            if (isExpired(device, nowNanos)) {
+                iterator.remove();
+                continue;
+            }
+            int i = devices.size();
+            while (i > 0 && devices.get(i - 1).mRssi < device.mRssi) {
+                i--;
+            }
+            devices.add(i, device);
+        }
+        return devices;
+    }
+
+    public synchronized int size() {
+        return mDevices.size();
+    }
+
+    private boolean isExpired(ScannedDevice device, long nowNanos) {
+        return nowNanos - device.mLastSeenNanos > mTimeToLiveNanos;
+    }
+}
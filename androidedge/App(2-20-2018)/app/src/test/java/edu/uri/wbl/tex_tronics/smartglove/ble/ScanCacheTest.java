@@ -0,0 +1,58 @@
+package edu.uri.wbl.tex_tronics.smartglove.ble;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ScanCacheTest {
+    private static final long S = 1000000000L;
+
+    @Test
+    public void returnsDevicesUntilTheyExpire() {
+        ScanCache cache = new ScanCache(60 * S);
+        cache.put("AA:BB", "SG - Serial", -60, 0);
+
+        ScanCache.ScannedDevice device = cache.get("AA:BB", 60 * S);
+        assertNotNull(device);
+        assertEquals("SG - Serial", device.getName());
+        assertEquals(-60, device.getRssi());
+
+        assertNull(cache.get("AA:BB", 60 * S + 1));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void refreshKeepsNameAndExtendsLifetime() {
+        ScanCache cache = new ScanCache(60 * S);
+        cache.put("AA:BB", "SG - Serial", -60, 0);
+        cache.put("AA:BB", null, -70, 50 * S);
+
+        ScanCache.ScannedDevice device = cache.get("AA:BB", 100 * S);
+        assertNotNull(device);
+        assertEquals("SG - Serial", device.getName());
+        assertEquals(-70, device.getRssi());
+        assertFalse(cache.contains("CC:DD", 100 * S));
+    }
+
+    @Test
+    public void listsStrongestSignalFirst() {
+        ScanCache cache = new ScanCache(60 * S);
+        cache.put("A", null, -80, 0);
+        cache.put("B", null, -40, 0);
+        cache.put("C", null, -60, 0);
+        cache.put("D", null, -30, -100 * S);
+
+        List<ScanCache.ScannedDevice> devices = cache.getDevices(S);
+        assertEquals(3, devices.size());
+        assertEquals("B", devices.get(0).getAddress());
+        assertEquals("C", devices.get(1).getAddress());
+        assertEquals("A", devices.get(2).getAddress());
+        assertTrue(cache.contains("A", S));
+    }
+}
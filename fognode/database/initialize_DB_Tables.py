@@ -24,6 +24,22 @@ create table data (
   Date_n_Time text,
   Data text
 );
+
+create table upload_chunks (
+  SensorID text,
+  ExerciseUUID text,
+  ChunkIndex integer,
+  ChunkCount integer,
+  Data text,
+  primary key (SensorID, ExerciseUUID, ChunkIndex)
+);
+
+create table uploads_done (
+  SensorID text,
+  ExerciseUUID text,
+  ChunkCount integer,
+  primary key (SensorID, ExerciseUUID)
+);
 """
 
 #Connect or Create DB File
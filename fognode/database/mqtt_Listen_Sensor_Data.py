@@ -12,6 +12,8 @@ MQTT_Broker = "127.0.0.1"
 MQTT_Port = 1883
 Keep_Alive_Interval = 45
 MQTT_Topic = "kaya/patient/#"
+MQTT_Ack_Topic = "kaya/fognode/ack"
+MQTT_Live_Topic = "kaya/patient/live/"
 
 #Subscribe to all Sensors at Base Topic
 def on_connect(mosq, obj, flags, rc):
@@ -19,12 +21,17 @@ def on_connect(mosq, obj, flags, rc):
 
 #Save Data into DB Table
 def on_message(mosq, obj, msg):
+	# Live batches are for live views; several batches arrive a second while recording
+	if msg.topic.startswith(MQTT_Live_Topic):
+		return
 	# This is the Master Call for saving MQTT Data into DB
 	# For details of "sensor_Data_Handler" function please refer "sensor_data_to_db.py"
 	print "MQTT Data Received..."
 	print "MQTT Topic: " + msg.topic  
 	print "Data: " + msg.payload
-	sensor_Data_Handler(msg.topic, msg.payload)
+	ack = sensor_Data_Handler(msg.topic, msg.payload)
+	if ack is not None:
+		mqttc.publish(MQTT_Ack_Topic, ack, 1)
 
 def on_subscribe(mosq, obj, mid, granted_qos):
     pass
@@ -0,0 +1,93 @@
+# Decodes the "Data" of a session message back to the CSV the app recorded.
+#
+# Messages with an "Encoding" carry the CSV compressed in blocks (BlockCompressor in the app),
+# then Base64 encoded. Each block is framed as a big endian int with its length before
+# compression, an int with its compressed length, then the compressed block:
+#   deflate - zlib stream (RFC 1950)
+#   lz4     - LZ4 block format
+# Messages without an "Encoding" carry the CSV as is.
+
+import base64
+import struct
+import zlib
+
+FRAME_HEADER = struct.Struct(">ii")
+
+
+def decompress_Lz4(block, raw_Length):
+	out = bytearray()
+	src = bytearray(block)
+	i = 0
+	while i < len(src):
+		token = src[i]
+		i += 1
+		literals = token >> 4
+		if literals == 15:
+			while True:
+				b = src[i]
+				i += 1
+				literals += b
+				if b != 255:
+					break
+		out += src[i:i + literals]
+		i += literals
+		if i >= len(src):
+			break
+		offset = src[i] | (src[i + 1] << 8)
+		i += 2
+		match_Length = token & 0x0F
+		if match_Length == 15:
+			while True:
+				b = src[i]
+				i += 1
+				match_Length += b
+				if b != 255:
+					break
+		match_Length += 4
+		if offset == 0 or offset > len(out):
+			raise ValueError("Corrupt LZ4 Block")
+		start = len(out) - offset
+		# The match may overlap the bytes it produces
+		for k in range(match_Length):
+			out.append(out[start + k])
+	if len(out) != raw_Length:
+		raise ValueError("Corrupt LZ4 Block")
+	return bytes(out)
+
+
+def decompress_Deflate(block, raw_Length):
+	out = zlib.decompress(block)
+	if len(out) != raw_Length:
+		raise ValueError("Corrupt Deflate Block")
+	return out
+
+
+CODECS = {"deflate": decompress_Deflate, "lz4": decompress_Lz4}
+
+
+def decompress_Blocks(data, encoding):
+	if encoding not in CODECS:
+		raise ValueError("Unknown Encoding: " + encoding)
+	codec = CODECS[encoding]
+	blocks = []
+	position = 0
+	while position < len(data):
+		if position + FRAME_HEADER.size > len(data):
+			raise ValueError("Truncated Block Header")
+		raw_Length, compressed_Length = FRAME_HEADER.unpack_from(data, position)
+		position += FRAME_HEADER.size
+		if raw_Length < 0 or compressed_Length < 0 or position + compressed_Length > len(data):
+			raise ValueError("Corrupt Block Header")
+		blocks.append(codec(data[position:position + compressed_Length], raw_Length))
+		position += compressed_Length
+	return b"".join(blocks)
+
+
+def decode_Data(json_Dict):
+	"""Returns the session CSV of a parsed message."""
+	data = json_Dict['Data']
+	encoding = json_Dict.get('Encoding')
+	if encoding is None:
+		return data
+	csv = decompress_Blocks(base64.b64decode(data), encoding)
+	return csv.decode("ascii")
@@ -7,6 +7,9 @@
 
 import json
 import sqlite3
+import zlib
+
+from session_codec import decode_Data
 
 # SQLite DB Name
 DB_Name =  "kaya"
@@ -54,7 +57,8 @@ def KayaData(jsonData):
 	json_Dict = json.loads(jsonData)
 	SensorID = json_Dict['Sensor_ID']
 	Data_and_Time = json_Dict['Date']
-	Data = json_Dict['Data']
+	# Compressed sessions are stored as the CSV the app recorded
+	Data = decode_Data(json_Dict)
 	
 	#Push into DB Table
 	dbObj = DatabaseManager()
@@ -63,6 +67,75 @@ def KayaData(jsonData):
 	print "Inserted Patient Data into Database."
 	print ""
 
+# Chunked session uploads: the app sends a session as numbered chunks on kaya/patient/data/chunk,
+# each a message like kaya/patient/data with "Chunk", "Chunk_Count" and "Checksum" (CRC-32 of
+# "Data") added. Chunks are kept until all have arrived, then stored in the data table as one
+# session. Every chunk is acknowledged with the number of chunks held in order ("Next"), so the
+# app resumes an upload from there.
+
+UploadSchema = """
+create table if not exists upload_chunks (
+  SensorID text,
+  ExerciseUUID text,
+  ChunkIndex integer,
+  ChunkCount integer,
+  Data text,
+  primary key (SensorID, ExerciseUUID, ChunkIndex)
+);
+
+create table if not exists uploads_done (
+  SensorID text,
+  ExerciseUUID text,
+  ChunkCount integer,
+  primary key (SensorID, ExerciseUUID)
+);
+"""
+
+def chunks_In_Order(dbObj, SensorID, ExerciseUUID):
+	dbObj.cur.execute("select ChunkIndex from upload_chunks where SensorID = ? and ExerciseUUID = ? order by ChunkIndex", [SensorID, ExerciseUUID])
+	Next = 0
+	for row in dbObj.cur.fetchall():
+		if row[0] != Next:
+			break
+		Next += 1
+	return Next
+
+# Function to save a chunk of Patient Data; returns the acknowledgement
+def KayaDataChunk(jsonData):
+	#Parse Data
+	json_Dict = json.loads(jsonData)
+	SensorID = json_Dict['Sensor_ID']
+	ExerciseUUID = json_Dict['Exercise_UUID']
+	Data_and_Time = json_Dict['Date']
+	Chunk = int(json_Dict['Chunk'])
+	Chunk_Count = int(json_Dict['Chunk_Count'])
+
+	dbObj = DatabaseManager()
+	dbObj.cur.executescript(UploadSchema)
+	dbObj.cur.execute("select ChunkCount from uploads_done where SensorID = ? and ExerciseUUID = ?", [SensorID, ExerciseUUID])
+	if dbObj.cur.fetchone() is not None:
+		# Sent again because the acknowledgement was lost
+		Next = Chunk_Count
+	else:
+		if zlib.crc32(json_Dict['Data'].encode("ascii")) & 0xffffffff != int(json_Dict['Checksum']):
+			print "Chunk %d of %s failed its checksum." % (Chunk, SensorID)
+		else:
+			# Decoded now, so a corrupt chunk is asked for again rather than spoiling the session
+			Data = decode_Data(json_Dict)
+			dbObj.add_del_update_db_record("insert or replace into upload_chunks (SensorID, ExerciseUUID, ChunkIndex, ChunkCount, Data) values (?,?,?,?,?)",[SensorID, ExerciseUUID, Chunk, Chunk_Count, Data])
+		Next = chunks_In_Order(dbObj, SensorID, ExerciseUUID)
+		if Next == Chunk_Count:
+			dbObj.cur.execute("select Data from upload_chunks where SensorID = ? and ExerciseUUID = ? order by ChunkIndex", [SensorID, ExerciseUUID])
+			Data = "".join([row[0] for row in dbObj.cur.fetchall()])
+			dbObj.cur.execute("insert into data (SensorID, Date_n_Time, Data) values (?,?,?)",[SensorID, Data_and_Time, Data])
+			dbObj.cur.execute("insert into uploads_done (SensorID, ExerciseUUID, ChunkCount) values (?,?,?)",[SensorID, ExerciseUUID, Chunk_Count])
+			dbObj.cur.execute("delete from upload_chunks where SensorID = ? and ExerciseUUID = ?", [SensorID, ExerciseUUID])
+			dbObj.conn.commit()
+			print "Inserted Patient Data into Database."
+			print ""
+	del dbObj
+	return json.dumps({"Sensor_ID": SensorID, "Exercise_UUID": ExerciseUUID, "Next": Next, "Chunk_Count": Chunk_Count})
+
 def KayaPractice(jsonData):
         #Parse Data
         json_Dict = json.loads(jsonData)
@@ -229,9 +302,12 @@ def KayaStomping(jsonData):
 
 #===============================================================
 # Master Function to Select DB Funtion based on MQTT Topic
+# Returns the acknowledgement to publish, if any
 
 def sensor_Data_Handler(Topic, jsonData):
-	if Topic == "kaya/patient/practice":
+	if Topic == "kaya/patient/data/chunk":
+		return KayaDataChunk(jsonData)
+	elif Topic == "kaya/patient/practice":
 		KayaPractice(jsonData)
 	elif Topic == "kaya/patient/data":
 		KayaData(jsonData)	
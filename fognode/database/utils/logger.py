@@ -7,6 +7,10 @@ import datetime
 import sqlite3
 import matplotlib.pyplot as plt
 import argparse
+import sys
+
+sys.path.append(os.path.join(os.path.dirname(os.path.abspath(__file__)), ".."))
+from session_codec import decode_Data
 
 parser = argparse.ArgumentParser(description='Log kaya formatted mqtt data.')
 parser.add_argument('--host',metavar='HOST',type=str,nargs=1,default=["fog.wbl.cloud"],help='set the mqtt host')
@@ -15,17 +19,44 @@ args = parser.parse_args()
 
 HOST = args.host[0]
 
+#live batches of the app: plain CSV, no header, for live views only (see csv_format.txt)
+LIVE_TOPIC = "kaya/patient/live/"
+
+#acknowledgements of the fog node to the app: no session data
+ACK_TOPIC = "kaya/fognode/ack"
+
+#a session sent in chunks, logged once every chunk is in
+CHUNK_TOPIC = "kaya/patient/data/chunk"
+
+#decoded CSV of the chunks received so far, by (Sensor_ID, Exercise_UUID), then chunk index
+chunks = {}
+
 #Mac addresses for according sensors
 SENSORS = { "CB:4C:FC:A7:0F:17" : "Left_Shoe", "D4:72:11:8B:5A:4D" : "Right_Shoe", "D9:8C:12:12:BE:74" : "Left_Glove", "CC:A9:EF:44:CD:E8" : "Right_Glove" }
 
 #function to process json packed csv messages
 def process_msg(client, userdata, msg):
 
+    if msg.topic.startswith(LIVE_TOPIC) or msg.topic == ACK_TOPIC:
+        return
+
     print('-' * 20 + " new message " + '-' * 20)
 
     #process message
     raw = msg.payload.decode("utf-8").replace('\n','\\n')
     json_record = json.loads( raw )
+    csv_data = decode_Data(json_record)
+    if msg.topic == CHUNK_TOPIC:
+        key = (json_record["Sensor_ID"], json_record["Exercise_UUID"])
+        received = chunks.setdefault(key, {})
+        received[int(json_record["Chunk"])] = csv_data
+        chunk_count = int(json_record["Chunk_Count"])
+        print("Chunk {} of {} | Sensor {}".format(json_record["Chunk"], chunk_count, json_record["Sensor_ID"]))
+        if len(received) < chunk_count:
+            return
+        #only chunk 0 starts with the header
+        csv_data = "".join(received[i] for i in range(chunk_count))
+        del chunks[key]
     print("Date {} | Sensor {} | Exercise {}".format(json_record["Date"],json_record["Sensor_ID"],json_record["Exercise_ID"]))
 
     timestamp = datetime.datetime.strptime(json_record["Date"],"%m-%d-%Y %H:%M:%S:%f")
@@ -35,12 +66,12 @@ def process_msg(client, userdata, msg):
             + str(timestamp.month) + "/" \
             + str(timestamp.day) + "/" \
             + json_record["Exercise_ID"] + "/" \
-            + SENSORS[json_record["Sensor_ID"]] + "/"
+            + SENSORS.get(json_record["Sensor_ID"], json_record["Sensor_ID"]) + "/"
 
     if not os.path.exists(directory):
         os.makedirs(directory)
     with open(directory + str(timestamp.timestamp()) + ".csv","w") as file:
-        file.write(json_record["Data"])
+        file.write(csv_data)
         file.close()
 
     # plt.plot(np.mean(h5[:int(len(h5) - len(h5) % res)].reshape( int(len(h5) / res),res),axis=1),'m',label='online actor critic')
@@ -58,7 +89,7 @@ def process_msg(client, userdata, msg):
     # query_find_max = "SELECT MAX(EX_ID) FROM TABLE WHERE 1"
 
     graph_data = []
-    reader = csv.reader(StringIO(json_record["Data"]))
+    reader = csv.reader(StringIO(csv_data))
     next(reader)
     for row in reader:
         graph_data.append(float(row[3]))
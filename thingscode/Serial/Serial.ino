@@ -15,7 +15,7 @@
 
 /*
  * This program collects data from the LSM9DS1 IMU IC as well as from FlexSensors. This data is then transmitted via BLE to any connected Central Device.
- * The data is sent in UART form every 550 ms. Each packet is 19 bytes (see below) and two packets are sent per data collection event.
+ * The data is sent in UART form every 550 ms. Each packet is at most 20 bytes (see below) and two packets are sent per data collection event.
  * 
  *    analogRead() returns int (0 to 1023) -> 10-bit ADC
  *        each flex sensor = 2 bytes (2 * 5 = 10 bytes)
@@ -26,8 +26,15 @@
  *    Total Bytes to Transmit per Sample = (10 + 19 + 4) = 33 bytes
  *    
  *    Android Max Packets Sent/Received (Reliably) = 20 bytes
- *    First Packet (19 Bytes) - 0x01 (1); Timestamp (4); flex sensor readings (10); null bytes (4)
- *    Second Packet (19 Bytes) - 0x02 (1); IMU readings (18)
+ *    First Packet (15 Bytes) - 0x01 (1); Timestamp (4); flex sensor readings (10)
+ *    Second Packet (20 Bytes) - 0x02 (1); Timestamp low byte (1); IMU readings (18)
+ *
+ *    The app picks the packet format by writing 0x04 and the newest version it can decode. The reply is a format
+ *    descriptor - 0xF0 (1); Version (1); Channel Map (2). Until then (and after every reconnect) version 1 is sent,
+ *    which is the same except that the first packet is padded to 19 bytes and the second packet has no timestamp.
+ *
+ *    Unlike the flex-only firmware, this one does not take the payload size command (0x03): a sample already fills
+ *    a 0x01/0x02 packet pair, and the app decodes one sample per pair whatever the MTU.
  */
  
  
@@ -44,8 +51,10 @@ Ticker                                    ticker_task1;         // Timer for Per
 static uint8_t packet1[TXRX_BUF_LEN];                           // Container for data sent in first packet
 static uint8_t packet2[TXRX_BUF_LEN];                           // Container for data sent in second packet
 
+static uint8_t format_version = FORMAT_VERSION_1;               // Packet format requested by the app
+
 sg_time_t ticks;                                                // Timestamp sent along with data
-flex_data_t thumb_data, index_data;                             // FlexSensor Values
+flex_data_t thumb_data, index_data, middle_data, ring_data, pinky_data; // FlexSensor Values
 imu_data_t acc_x, acc_y, acc_z, gyr_x, gyr_y, gyr_z, mag_x, mag_y, mag_z; // IMU Values
 
 static Gap::ConnectionParams_t conn_params = {
@@ -70,9 +79,29 @@ GattCharacteristic *uart_chars[] = {&tx_characteristic, &rx_characteristic};
 GattService         uart_service(uart_service_uuid, uart_chars, sizeof(uart_chars) / sizeof(GattCharacteristic *));
 
 void disconnectionCallBack(const Gap::DisconnectionCallbackParams_t *params) {
+  format_version = FORMAT_VERSION_1;                            // Next app has to ask for a format again
   ble.startAdvertising();
 }
 
+/*
+ * Switches to the newest format no newer than the one requested and tells the app which one it got.
+ */
+void set_format(uint8_t requested) {
+  uint8_t descriptor[4];
+
+  if (requested >= LATEST_FORMAT_VERSION) {
+    format_version = LATEST_FORMAT_VERSION;
+  } else if (requested >= FORMAT_VERSION_1) {
+    format_version = requested;
+  }
+
+  descriptor[0] = PACKET_ID_DESCRIPTOR;
+  descriptor[1] = format_version;
+  descriptor[2] = (CHANNEL_MAP >> 8) & 0xFF;
+  descriptor[3] = CHANNEL_MAP & 0xFF;
+  ble.updateCharacteristicValue(rx_characteristic.getValueAttribute().getHandle(), descriptor, sizeof(descriptor));
+}
+
 void gattServerWriteCallBack(const GattWriteCallbackParams *Handler) {
   uint8_t buf[TXRX_BUF_LEN];
   uint16_t bytesRead, index;
@@ -81,6 +110,10 @@ void gattServerWriteCallBack(const GattWriteCallbackParams *Handler) {
     ble.readCharacteristicValue(tx_characteristic.getValueAttribute().getHandle(), buf, &bytesRead);
     for(index=0; index<bytesRead; index++) {
       // Handle Incoming Data
+      if (buf[index] == COMMAND_SET_FORMAT && index + 1 < bytesRead) {
+        set_format(buf[index + 1]);
+        index++;
+      }
     }
   }
 }
@@ -91,8 +124,11 @@ void periodic_callback() {
     // Get Timestamp
     ticks.value = millis();
     // Collect Data from FlexSensors
-    thumb_data.value = analogRead(A3);
-    index_data.value = analogRead(A4);
+    thumb_data.value = analogRead(THUMB_PIN);
+    index_data.value = analogRead(INDEX_PIN);
+    middle_data.value = analogRead(MIDDLE_PIN);
+    ring_data.value = analogRead(RING_PIN);
+    pinky_data.value = analogRead(PINKY_PIN);
     // Collect Data from IMU
     acc_x.value = imu.ax;
     acc_y.value = imu.ay;
@@ -105,7 +141,7 @@ void periodic_callback() {
     mag_z.value = imu.mz;
 
     // Populate Packet 1
-    packet1[0] = 0x01;
+    packet1[0] = PACKET_ID_FLEX;
     packet1[1] = ticks.b[3];
     packet1[2] = ticks.b[2];
     packet1[3] = ticks.b[1];
@@ -114,45 +150,47 @@ void periodic_callback() {
     packet1[6] = thumb_data.b[0];
     packet1[7] = index_data.b[1];
     packet1[8] = index_data.b[0];
-    packet1[9] = 0x00;
-    packet1[10] = 0x00;
-    packet1[11] = 0x00;
-    packet1[12] = 0x00;
-    packet1[13] = 0x00;
-    packet1[14] = 0x00;
+    packet1[9] = middle_data.b[1];
+    packet1[10] = middle_data.b[0];
+    packet1[11] = ring_data.b[1];
+    packet1[12] = ring_data.b[0];
+    packet1[13] = pinky_data.b[1];
+    packet1[14] = pinky_data.b[0];
     packet1[15] = 0x00;
     packet1[16] = 0x00;
     packet1[17] = 0x00;
     packet1[18] = 0x00;
 
-    // Transmit Packet 1
-    ble.updateCharacteristicValue(rx_characteristic.getValueAttribute().getHandle(), packet1, TXRX_BUF_LEN);
-
-    // Delay?
-
-    // Populate Packet 2
-    packet2[0] = 0x02;
-    packet2[1] = acc_x.b[1];
-    packet2[2] = acc_x.b[0];
-    packet2[3] = acc_y.b[1];
-    packet2[4] = acc_y.b[0];
-    packet2[5] = acc_z.b[1];
-    packet2[6] = acc_z.b[0];
-    packet2[7] = gyr_x.b[1];
-    packet2[8] = gyr_x.b[0];
-    packet2[9] = gyr_y.b[1];
-    packet2[10] = gyr_y.b[0];
-    packet2[11] = gyr_z.b[1];
-    packet2[12] = gyr_z.b[0];
-    packet2[13] = mag_x.b[1];
-    packet2[14] = mag_x.b[0];
-    packet2[15] = mag_y.b[1];
-    packet2[16] = mag_y.b[0];
-    packet2[17] = mag_z.b[1];
-    packet2[18] = mag_z.b[0];
+    // Transmit Packet 1 (version 1 apps expect it padded to 19 bytes)
+    ble.updateCharacteristicValue(rx_characteristic.getValueAttribute().getHandle(), packet1, format_version >= FORMAT_VERSION_2 ? 15 : 19);
+
+    // Populate Packet 2 (the timestamp byte lets the app pair it with Packet 1 even if a packet is lost)
+    uint8_t i = 0;
+    packet2[i++] = PACKET_ID_IMU;
+    if (format_version >= FORMAT_VERSION_2) {
+      packet2[i++] = ticks.b[0];
+    }
+    packet2[i++] = acc_x.b[1];
+    packet2[i++] = acc_x.b[0];
+    packet2[i++] = acc_y.b[1];
+    packet2[i++] = acc_y.b[0];
+    packet2[i++] = acc_z.b[1];
+    packet2[i++] = acc_z.b[0];
+    packet2[i++] = gyr_x.b[1];
+    packet2[i++] = gyr_x.b[0];
+    packet2[i++] = gyr_y.b[1];
+    packet2[i++] = gyr_y.b[0];
+    packet2[i++] = gyr_z.b[1];
+    packet2[i++] = gyr_z.b[0];
+    packet2[i++] = mag_x.b[1];
+    packet2[i++] = mag_x.b[0];
+    packet2[i++] = mag_y.b[1];
+    packet2[i++] = mag_y.b[0];
+    packet2[i++] = mag_z.b[1];
+    packet2[i++] = mag_z.b[0];
 
     // Transmit Packet 2
-    ble.updateCharacteristicValue(rx_characteristic.getValueAttribute().getHandle(), packet2, TXRX_BUF_LEN);
+    ble.updateCharacteristicValue(rx_characteristic.getValueAttribute().getHandle(), packet2, i);
   }
 }
 
@@ -9,9 +9,25 @@
 #endif
 
 #define DEVICE_NAME           "SG - Serial"  // Local Device Name
-#define TXRX_BUF_LEN          19            // BLE Packet Length
+#define TXRX_BUF_LEN          20            // BLE Packet Length (largest packet, fits the default 23 byte ATT MTU)
 #define DATA_REFRESH_RATE_MS  10           // Delay between data collection (milliseconds)
 
+#define COMMAND_SET_FORMAT    0x04          // App asks for a wire format: 0x04, version
+#define PACKET_ID_FLEX        0x01
+#define PACKET_ID_IMU         0x02
+#define PACKET_ID_DESCRIPTOR  0xF0          // Reply to COMMAND_SET_FORMAT: 0xF0, version, channel map (2)
+
+#define FORMAT_VERSION_1      1             // Flex packet padded to 19 bytes, IMU packet without timestamp
+#define FORMAT_VERSION_2      2             // IMU packet carries the low byte of the sample's timestamp
+#define LATEST_FORMAT_VERSION FORMAT_VERSION_2
+#define CHANNEL_MAP           0x3FFF        // Bit n set if channel n is sent: 0-4 thumb to pinky, 5-13 acc/gyr/mag x/y/z
+
+#define THUMB_PIN             A3            // FlexSensor Analog Inputs, as wired on the base glove (GLOVE_ble)
+#define INDEX_PIN             A4
+#define MIDDLE_PIN            D7
+#define RING_PIN              D6
+#define PINKY_PIN             A5
+
 typedef union _sg_time {
   uint8_t b[4];
   long value;
@@ -9,10 +9,14 @@
 #endif
 
 #define DEVICE_NAME           "SG - Serial"  // Local Device Name
-#define TXRX_BUF_LEN          19            // BLE Packet Length
+#define TXRX_BUF_LEN          19            // BLE Packet Length (TX characteristic / default notification)
+#define MAX_PAYLOAD_LEN       244           // Largest notification payload (MTU 247 - 3 byte ATT header)
+#define DEFAULT_PAYLOAD_LEN   18            // Payload used until the app sends the negotiated size
 #define DATA_REFRESH_RATE_MS  8           // Delay between data collection (milliseconds)
-#define DATA_PER_PACKET        6             // Number of data points sent/packet
-#define PACKET_LENGTH         6
+#define PACKET_LENGTH         6             // Bytes per data point (timestamp, thumb, index)
+
+#define COMMAND_START             0x02      // App -> Device: start streaming
+#define COMMAND_SET_PAYLOAD_SIZE  0x03      // App -> Device: [0x03, payload size]
 
 typedef union _sg_time {
   uint8_t b[4];
@@ -37,12 +37,11 @@
 BLE                                       ble;                  // BLE Module
 Ticker                                    ticker_task1;         // Timer for Periodic Callback (used instead of delay in loop)
 
-static uint8_t packet1[TXRX_BUF_LEN];                           // Container for data sent in first packet
-static uint8_t packet2[TXRX_BUF_LEN];                           // Container for data sent in second packet
-static int looper;
+static uint8_t packet[MAX_PAYLOAD_LEN];                         // Container for data points waiting to be sent
+static uint16_t payload_len = DEFAULT_PAYLOAD_LEN;              // Negotiated notification payload size
+static int looper;                                              // Number of data points in packet
 
-sg_dif_t ticks;                                                // Timestamp sent along with data
-sg_time_t prev_ticks;
+sg_dif_t ticks;                                                // Timestamp sent along with data (low 16 bits of millis(), wraps)
 flex_data_t thumb_data, index_data;                             // FlexSensor Values
 
 // The uuid of service and characteristics
@@ -51,26 +50,36 @@ static const uint8_t tx_characteristic_uuid[]   = {0x6E, 0x40, 0X00, 0X02, 0xB5,
 static const uint8_t rx_characteristic_uuid[]   = {0x6E, 0x40, 0X00, 0X03, 0xB5, 0xA3, 0xF3, 0x93, 0xE0, 0xA9, 0xE5, 0x0E, 0x24, 0xDC, 0xCA, 0x9E}; // 6E400003-B5A3-F393-E0A9-E50E24DCCA9E
 
 uint8_t tx_value[TXRX_BUF_LEN] = {0,};
-uint8_t rx_value[TXRX_BUF_LEN] = {0,};
+uint8_t rx_value[MAX_PAYLOAD_LEN] = {0,};
 
 // Create characteristic and service
 GattCharacteristic  tx_characteristic(tx_characteristic_uuid, tx_value, 1, TXRX_BUF_LEN, GattCharacteristic::BLE_GATT_CHAR_PROPERTIES_WRITE );
-GattCharacteristic  rx_characteristic(rx_characteristic_uuid, rx_value, 1, TXRX_BUF_LEN, GattCharacteristic::BLE_GATT_CHAR_PROPERTIES_NOTIFY);
+GattCharacteristic  rx_characteristic(rx_characteristic_uuid, rx_value, 1, MAX_PAYLOAD_LEN, GattCharacteristic::BLE_GATT_CHAR_PROPERTIES_NOTIFY);
 GattCharacteristic *uart_chars[] = {&tx_characteristic, &rx_characteristic};
 GattService         uart_service(uart_service_uuid, uart_chars, sizeof(uart_chars) / sizeof(GattCharacteristic *));
 
 void disconnectionCallBack(const Gap::DisconnectionCallbackParams_t *params) {
+  payload_len = DEFAULT_PAYLOAD_LEN;                // Next central has to negotiate again
+  looper = 0;
   ble.startAdvertising();
 }
 
 void gattServerWriteCallBack(const GattWriteCallbackParams *Handler) {
   uint8_t buf[TXRX_BUF_LEN];
-  uint16_t bytesRead, index;
+  uint16_t bytesRead;
 
   if (Handler->handle == tx_characteristic.getValueAttribute().getHandle()) {
     ble.readCharacteristicValue(tx_characteristic.getValueAttribute().getHandle(), buf, &bytesRead);
-    for (index = 0; index < bytesRead; index++) {
-      // Handle Incoming Data
+    if (bytesRead >= 2 && buf[0] == COMMAND_SET_PAYLOAD_SIZE) {
+      // Send as many whole data points per notification as the negotiated payload allows
+      uint16_t requested = buf[1];
+      if (requested < PACKET_LENGTH) {
+        requested = PACKET_LENGTH;
+      } else if (requested > MAX_PAYLOAD_LEN) {
+        requested = MAX_PAYLOAD_LEN;
+      }
+      payload_len = (requested / PACKET_LENGTH) * PACKET_LENGTH;
+      looper = 0;
     }
   }
 }
@@ -79,35 +88,22 @@ void gattServerWriteCallBack(const GattWriteCallbackParams *Handler) {
 void periodic_callback() {
   if (ble.getGapState().connected)
   {
-    prev_ticks.value = millis();
-    if (looper < (DATA_PER_PACKET/2))
+    // Running timestamp (not a delta) so the app can detect lost samples from gaps between timestamps
+    ticks.value = (uint16_t)millis();
+    packet[0 + looper * PACKET_LENGTH] = ticks.b[1];
+    packet[1 + looper * PACKET_LENGTH] = ticks.b[0];
+    packet[2 + looper * PACKET_LENGTH] = thumb_data.b[1];
+    packet[3 + looper * PACKET_LENGTH] = thumb_data.b[0];
+    packet[4 + looper * PACKET_LENGTH] = index_data.b[1];
+    packet[5 + looper * PACKET_LENGTH] = index_data.b[0];
+    looper++;
+
+    if (looper * PACKET_LENGTH >= payload_len)
     {
-      packet1[0 + looper * PACKET_LENGTH] = ticks.b[1];
-      packet1[1 + looper * PACKET_LENGTH] = ticks.b[0];
-      packet1[2 + looper * PACKET_LENGTH] = thumb_data.b[1];
-      packet1[3 + looper * PACKET_LENGTH] = thumb_data.b[0];
-      packet1[4 + looper * PACKET_LENGTH] = index_data.b[1];
-      packet1[5 + looper * PACKET_LENGTH] = index_data.b[0];
+      // Transmit once the packet holds as many data points as the payload allows
+      ble.updateCharacteristicValue(rx_characteristic.getValueAttribute().getHandle(), packet, looper * PACKET_LENGTH);
+      looper = 0;
     }
-    else
-    {
-      packet2[0 + (looper-3) * PACKET_LENGTH] = ticks.b[1];
-      packet2[1 + (looper-3) * PACKET_LENGTH] = ticks.b[0];
-      packet2[2 + (looper-3) * PACKET_LENGTH] = thumb_data.b[1];
-      packet2[3 + (looper-3) * PACKET_LENGTH] = thumb_data.b[0];
-      packet2[4 + (looper-3) * PACKET_LENGTH] = index_data.b[1];
-      packet2[5 + (looper-3) * PACKET_LENGTH] = index_data.b[0];
-    }
-
-
-    if (looper == DATA_PER_PACKET-1)
-    {
-      // Transmit every 4 DATA_REFRESH_MS milliseconds
-      ble.updateCharacteristicValue(rx_characteristic.getValueAttribute().getHandle(), packet1, TXRX_BUF_LEN);
-      ble.updateCharacteristicValue(rx_characteristic.getValueAttribute().getHandle(), packet2, TXRX_BUF_LEN);
-    }
-
-    looper = (looper + 1) % (DATA_PER_PACKET);
   }
 
 //  if (ble.getGapState().connected && looper < 17) {
@@ -182,7 +178,6 @@ void setup() {
   // put your setup code here, to run once
   init_ble();                                       // Configure BLE Module and Start Advertising
   looper = 0;                                       // Initialize Looper
-  prev_ticks.value = millis();
   ticker_task1.attach_us(periodic_callback, DATA_REFRESH_RATE_MS * 1000); // Initialize Timer (calls periodic_callback)
 }
 
@@ -190,7 +185,6 @@ void loop() {
   // put your main code here, to run repeatedly:
   if (ble.getGapState().connected) {
     // Collect Data from FlexSensors
-    ticks.value = (uint16_t)(millis() - prev_ticks.value);
     thumb_data.value = analogRead(A3);
     index_data.value = analogRead(A4);
   } else {
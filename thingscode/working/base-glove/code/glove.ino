@@ -13,20 +13,9 @@ Arduino 1.6.7
 const int FLEX_PIN = A0; // Pin connected to voltage divider output
 const int FLEX_PIN2 = A2;
 
-// Measure the voltage at 5V and the actual resistance of your
-// 47k resistor, and enter them below:
-const float VCC = 4.98; // Measured voltage of Ardunio 5V line
-const float R_DIV = 10000.0; // Measured resistance of 3.3k resistor
-const float R_DIV2 = 1200000.0; // Measured resistance of 3.3k resistor
-
-
-// Upload the code, then try to adjust these values to more
-// accurately calculate bend degree.
-const float STRAIGHT_RESISTANCE = 6000.0; // resistance when straight
-const float BEND_RESISTANCE = 20000.0; // resistance at 90 deg
-
-const float STRAIGHT_RESISTANCE2 = 6080.0; 
-const float BEND_RESISTANCE2 = 20500.0; 
+// The raw ADC readings are sent as they are. The app converts them to bend angles with the
+// patient's calibration (captured with the hand open and closed), so no per-sample float math
+// is needed here and the resistor values do not have to be measured for each glove.
 
 BLEPeripheral blePeripheral;
 BLEService indexService("98d4d182-4ffe-4562-90f0-c1aff5500ed3");
@@ -68,36 +57,16 @@ void loop()
 
 void sendData()
 {
-  // Read the ADC, and calculate voltage and resistance from it
   int flexADC = analogRead(FLEX_PIN);
-  float flexV = flexADC * VCC / 1023.0;
-  float flexR = R_DIV * (VCC / flexV - 1.0);
- // Serial.println("Resistance: " + String(flexR) + " ohms");
-  thumbCharacteristic.setValue((int)flexR);
-  Serial.print(flexR);
+  thumbCharacteristic.setValue(flexADC);
+  Serial.print(flexADC);
   Serial.print("\t");
 
   int flexADC2 = analogRead(FLEX_PIN2);
-  float flexV2 = flexADC2 * VCC / 1023.0;
-  float flexR2 = R_DIV * (VCC / flexV2 - 1.0);
-  //Serial.println("Resistance: " + String(flexR2) + " ohms");
-  indexCharacteristic.setValue((int)flexR2);
-  Serial.print(flexR2);
+  indexCharacteristic.setValue(flexADC2);
+  Serial.print(flexADC2);
   Serial.print("\t");
   Serial.println("");
 
-  // Use the calculated resistance to estimate the sensor's
-  // bend angle:
-  //float angle = map(flexR, STRAIGHT_RESISTANCE, BEND_RESISTANCE,
-     //              0, 90.0);
-                   
-  //float angle2 = map(flexR2, STRAIGHT_RESISTANCE2, BEND_RESISTANCE2,
-//                   0, 90.0);
-  //Serial.println("Bend: " + String(angle2) + " degrees"); //+ "\tBend2: " + String(angle2) + " degrees");
-  //Serial.println(String(flexR2)+ ","+ String(angle2));
-//Serial.println(angle2);
- 
-
   delay(100);
 }
-